@@ -0,0 +1,50 @@
+package nakadi;
+
+/**
+ * Builds stream batch lines shaped like those sent by the server, for use as benchmark input.
+ */
+class BenchmarkBatches {
+
+  private static final String METADATA =
+      "\"metadata\":{\"occurred_at\":\"2016-09-20T21:52:00Z\","
+          + "\"eid\":\"a2ab0b7c-ee58-48e5-b96a-d13bce73d8%02d\",\"event_type\":\"et-1\","
+          + "\"partition\":\"0\",\"received_at\":\"2016-10-26T18:12:20.712Z\","
+          + "\"flow_id\":\"Nt0oU70k3UCNp2NKugrIF0QU\"}";
+
+  private static final String FIELDS =
+      "\"id\":\"%d\",\"name\":\"item-%d\",\"price\":%d.99,\"quantity\":%d,"
+          + "\"tags\":[\"a\",\"b\",\"c\"],\"address\":{\"street\":\"1 Main St\","
+          + "\"city\":\"Dublin\",\"country\":\"IE\"}";
+
+  static String batch(String category, int events) {
+    final StringBuilder sb = new StringBuilder(512 * events);
+    sb.append("{\"cursor\":{\"partition\":\"0\",\"offset\":\"001-0001-")
+        .append(String.format("%012d", events))
+        .append("\",\"event_type\":\"et-1\",\"cursor_token\":\"b75c3102-98a4-4385-a5fd-b96f1d7872f2\"}")
+        .append(",\"events\":[");
+    for (int i = 0; i < events; i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append(event(category, i));
+    }
+    sb.append("]}");
+    return sb.toString();
+  }
+
+  static String event(String category, int i) {
+    final String fields = String.format(FIELDS, i, i, i, i);
+    final String metadata = String.format(METADATA, i % 100);
+    switch (category) {
+      case "business":
+        return "{" + metadata + "," + fields + "}";
+      case "undefined":
+        return "{" + fields + "}";
+      case "data":
+        return "{" + metadata + ",\"data_op\":\"C\",\"data_type\":\"et-1\",\"data\":{"
+            + fields + "}}";
+      default:
+        throw new IllegalArgumentException("unknown category " + category);
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package nakadi;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures what a subscription consumer allocates for each batch line, from the line to the
+ * record an observer is given plus the cursor context a checkpoint reads. Run it with the gc
+ * profiler,
+ * <pre>
+ *   ./gradlew :nakadi-java-benchmarks:jmh -Pjmh='ConsumerBatchAllocationBenchmark -prof gc'
+ * </pre>
+ * and read {@code gc.alloc.rate.norm}, the bytes allocated per batch. {@code perBatchContext}
+ * makes a context map for every batch, as the consumer did before a session's batches shared
+ * one; {@code sessionContext} and {@code lazySessionContext} are what it does now.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConsumerBatchAllocationBenchmark {
+
+  @Param({"1", "50"})
+  public int eventsPerBatch;
+
+  private final StreamOffsetObserver observer = context -> {
+  };
+  private JsonBatchSupport jsonBatchSupport;
+  private Type type;
+  private byte[] line;
+  private Map<String, String> session;
+  private StreamStrings strings;
+
+  @Setup
+  public void setup() {
+    jsonBatchSupport = new JsonBatchSupport(new GsonSupport());
+    type = new TypeLiteral<DataChangeEvent<Map<String, Object>>>() {}.type();
+    line = BenchmarkBatches.batch("data", eventsPerBatch).getBytes(StandardCharsets.UTF_8);
+
+    final Map<String, String> context = new HashMap<>();
+    context.put(StreamResourceSupport.X_NAKADI_STREAM_ID, "b75c3102-98a4-4385-a5fd-b96f1d7872f2");
+    context.put(StreamResourceSupport.SUBSCRIPTION_ID, "ca311263-14e2-448a-a68e-91d50b13fec1");
+    session = Collections.unmodifiableMap(context);
+    strings = new StreamStrings();
+  }
+
+  @Benchmark
+  public Map<String, String> perBatchContext() {
+    final StreamBatchRecord<Object> record = jsonBatchSupport.lineToSubscriptionStreamBatchRecord(
+        line, 0, line.length, type, observer,
+        session.get(StreamResourceSupport.X_NAKADI_STREAM_ID),
+        session.get(StreamResourceSupport.SUBSCRIPTION_ID));
+    return record.streamCursorContext().context();
+  }
+
+  @Benchmark
+  public Map<String, String> sessionContext() {
+    final StreamBatchRecordReal<Object> record = jsonBatchSupport.lineToStreamBatchRecord(
+        line, 0, line.length, type, observer, session, false);
+    strings.share(record.streamBatch().cursor());
+    return record.streamCursorContext().context();
+  }
+
+  @Benchmark
+  public Map<String, String> lazySessionContext() {
+    final StreamBatchRecordReal<Object> record = jsonBatchSupport.lineToStreamBatchRecord(
+        line, 0, line.length, type, observer, session, true);
+    strings.share(record.streamBatch().cursor());
+    return record.streamCursorContext().context();
+  }
+}
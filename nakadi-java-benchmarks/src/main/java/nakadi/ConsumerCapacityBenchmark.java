@@ -0,0 +1,206 @@
+package nakadi;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds how many concurrent stream consumers one JVM can hold in an {@link ExecutionMode}.
+ * <p>
+ * Consumers are added in steps against a local server that holds every stream open and sends
+ * each a keepalive batch every second. After each step the benchmark reports the consumers
+ * receiving batches, the live platform threads and the heap in use, and stops once consumers
+ * fail to start or stop receiving. This isn't a JMH benchmark as it measures a ceiling rather
+ * than a rate; run it with
+ * </p>
+ * <pre>
+ *   ./gradlew :nakadi-java-benchmarks:consumerCapacity -Pmode=VIRTUAL_THREADS -Pmax=20000
+ * </pre>
+ * <p>
+ * Run it with a larger {@code ulimit -n} than the default, each consumer holds a connection.
+ * </p>
+ */
+public class ConsumerCapacityBenchmark {
+
+  private static final String KEEPALIVE =
+      "{\"cursor\":{\"partition\":\"0\",\"offset\":\"BEGIN\"}}\n";
+  private static final long STEP_WAIT_MILLIS = 30_000;
+
+  private final ExecutionMode mode;
+  private final int max;
+  private final int step;
+  private final Queue<HttpExchange> streams = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger receiving = new AtomicInteger();
+  private final List<StreamProcessor> processors = new ArrayList<>();
+
+  ConsumerCapacityBenchmark(ExecutionMode mode, int max, int step) {
+    this.mode = mode;
+    this.max = max;
+    this.step = step;
+  }
+
+  public static void main(String[] args) throws Exception {
+    final ExecutionMode mode =
+        ExecutionMode.valueOf(args.length > 0 ? args[0] : "PLATFORM_THREADS");
+    final int max = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+    final int step = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+    new ConsumerCapacityBenchmark(mode, max, step).run();
+  }
+
+  void run() throws Exception {
+    final HttpServer server = HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), max);
+    server.createContext("/", this::openStream);
+    server.start();
+
+    final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+    ticker.scheduleWithFixedDelay(this::sendKeepalives, 1, 1, TimeUnit.SECONDS);
+
+    final NakadiClient client = NakadiClient.newBuilder()
+        .baseURI("http://localhost:" + server.getAddress().getPort())
+        .executionMode(mode)
+        .build();
+
+    System.out.printf("mode=%s requested=%s java=%s%n",
+        client.executionMode(), mode, System.getProperty("java.version"));
+    System.out.println("consumers,receiving,platform_threads,heap_used_mb,step_millis");
+
+    try {
+      while (processors.size() < max) {
+        final long start = System.nanoTime();
+        final int target = Math.min(max, processors.size() + step);
+        final boolean started = startConsumers(client, target);
+        final boolean allReceiving = awaitReceiving(target);
+        report(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (!started || !allReceiving) {
+          System.out.printf("limit reached at consumers=%d receiving=%d%n",
+              processors.size(), receiving.get());
+          break;
+        }
+      }
+    } finally {
+      ticker.shutdownNow();
+      processors.forEach(StreamProcessor::stop);
+      server.stop(0);
+    }
+  }
+
+  private boolean startConsumers(NakadiClient client, int target) {
+    try {
+      while (processors.size() < target) {
+        final StreamProcessor processor = client.resources()
+            .streamBuilder(new StreamConfiguration()
+                .eventTypeName("capacity")
+                .readTimeout(30, TimeUnit.SECONDS))
+            .streamObserverFactory(new CountingObserverProvider(receiving))
+            .build();
+        processor.start();
+        processors.add(processor);
+      }
+      return true;
+    } catch (OutOfMemoryError | RuntimeException e) {
+      // typically "unable to create native thread" for platform threads
+      System.out.printf("failed to start consumer %d: %s%n", processors.size() + 1, e);
+      return false;
+    }
+  }
+
+  private boolean awaitReceiving(int target) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + STEP_WAIT_MILLIS;
+    while (receiving.get() < target && System.currentTimeMillis() < deadline) {
+      Thread.sleep(100);
+    }
+    return receiving.get() >= target;
+  }
+
+  private void report(long stepMillis) {
+    final Runtime runtime = Runtime.getRuntime();
+    System.out.printf("%d,%d,%d,%d,%d%n",
+        processors.size(),
+        receiving.get(),
+        ManagementFactory.getThreadMXBean().getThreadCount(),
+        (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024),
+        stepMillis);
+  }
+
+  private void openStream(HttpExchange exchange) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "application/x-json-stream");
+    // a zero length sends a chunked response that stays open until we close it
+    exchange.sendResponseHeaders(200, 0);
+    write(exchange);
+    streams.add(exchange);
+  }
+
+  private void sendKeepalives() {
+    streams.removeIf(exchange -> !write(exchange));
+  }
+
+  private boolean write(HttpExchange exchange) {
+    try {
+      final OutputStream body = exchange.getResponseBody();
+      body.write(KEEPALIVE.getBytes(StandardCharsets.UTF_8));
+      body.flush();
+      return true;
+    } catch (IOException e) {
+      exchange.close();
+      return false;
+    }
+  }
+
+  private static class CountingObserverProvider implements StreamObserverProvider<String> {
+
+    private final AtomicInteger receiving;
+
+    CountingObserverProvider(AtomicInteger receiving) {
+      this.receiving = receiving;
+    }
+
+    @Override public StreamObserver<String> createStreamObserver() {
+      return new StreamObserverBackPressure<String>() {
+
+        private boolean counted;
+
+        @Override public void onStart() {
+        }
+
+        @Override public void onStop() {
+        }
+
+        @Override public void onCompleted() {
+        }
+
+        @Override public void onError(Throwable t) {
+        }
+
+        @Override public void onNext(StreamBatchRecord<String> record) {
+          if (!counted) {
+            counted = true;
+            receiving.incrementAndGet();
+          }
+        }
+
+        @Override public boolean requestKeepalives() {
+          // the server only sends keepalives
+          return true;
+        }
+      };
+    }
+
+    @Override public TypeLiteral<String> typeLiteral() {
+      return TypeLiterals.OF_STRING;
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package nakadi;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the single pass batch marshalling in {@link GsonSupport} against the two pass
+ * marshalling it replaced, for each event category.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GsonBatchBenchmark {
+
+  @Param({"business", "undefined", "data"})
+  public String category;
+
+  @Param({"1", "50"})
+  public int eventsPerBatch;
+
+  private GsonSupport gsonSupport;
+  private Type type;
+  private String line;
+  private byte[] lineBytes;
+
+  @Setup
+  public void setup() {
+    gsonSupport = new GsonSupport();
+    line = BenchmarkBatches.batch(category, eventsPerBatch);
+    lineBytes = line.getBytes(StandardCharsets.UTF_8);
+
+    switch (category) {
+      case "business":
+        type = new TypeLiteral<BusinessEventMapped<Map<String, Object>>>() {}.type();
+        break;
+      case "undefined":
+        type = new TypeLiteral<UndefinedEventMapped<Map<String, Object>>>() {}.type();
+        break;
+      case "data":
+        type = new TypeLiteral<DataChangeEvent<Map<String, Object>>>() {}.type();
+        break;
+      default:
+        throw new IllegalArgumentException("unknown category " + category);
+    }
+  }
+
+  @Benchmark
+  public EventStreamBatch<Object> twoPass() {
+    return gsonSupport.marshalEventStreamBatchTwoPass(line, type);
+  }
+
+  @Benchmark
+  public EventStreamBatch<Object> singlePass() {
+    return gsonSupport.marshalEventStreamBatch(line, type);
+  }
+
+  @Benchmark
+  public EventStreamBatch<Object> singlePassBytes() {
+    return gsonSupport.marshalEventStreamBatch(lineBytes, 0, lineBytes.length, type);
+  }
+}
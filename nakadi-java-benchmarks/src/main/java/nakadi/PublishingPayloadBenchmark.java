@@ -0,0 +1,96 @@
+package nakadi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import okio.BufferedSink;
+import okio.Okio;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures what writing a batch of events to a request body allocates. Run it with the gc
+ * profiler,
+ * <pre>
+ *   ./gradlew :nakadi-java-benchmarks:jmh -Pjmh='PublishingPayloadBenchmark -prof gc'
+ * </pre>
+ * and read {@code gc.alloc.rate.norm}, the bytes allocated per batch. The {@code materialized}
+ * benchmarks build the body as a byte array first, as publishing did before bodies were
+ * streamed; {@code streamed} and {@code streamedCompressed} are what it does now.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PublishingPayloadBenchmark {
+
+  @Param({"50", "500"})
+  public int eventsPerBatch;
+
+  private NakadiClient client;
+  private SerializationSupport serializationSupport;
+  private CompressionSupport compressionSupport;
+  private List<Map<String, Object>> events;
+  private BufferedSink sink;
+
+  @Setup
+  public void setup() {
+    client = NakadiClient.newBuilder().baseURI("http://localhost:9080").build();
+    serializationSupport = client.getSerializationSupport();
+    compressionSupport = client.compressionSupport();
+    sink = Okio.buffer(Okio.blackhole());
+
+    events = new ArrayList<>(eventsPerBatch);
+    for (int i = 0; i < eventsPerBatch; i++) {
+      final Map<String, Object> address = new HashMap<>();
+      address.put("street", "1 Main St");
+      address.put("city", "Dublin");
+      address.put("country", "IE");
+      final Map<String, Object> event = new HashMap<>();
+      event.put("id", String.valueOf(i));
+      event.put("name", "item-" + i);
+      event.put("price", i + 0.99);
+      event.put("quantity", i);
+      event.put("address", address);
+      events.add(event);
+    }
+  }
+
+  @Benchmark
+  public BufferedSink materialized() throws IOException {
+    return sink.write(serializationSupport.serializePayload(client, "et-1", events));
+  }
+
+  @Benchmark
+  public BufferedSink materializedCompressed() throws IOException {
+    return sink.write(compressionSupport.compress(
+        serializationSupport.serializePayload(client, "et-1", events)));
+  }
+
+  @Benchmark
+  public BufferedSink streamed() throws IOException {
+    new EventBatchContent<>(client, serializationSupport, "et-1", events, null).writeTo(sink);
+    return sink;
+  }
+
+  @Benchmark
+  public BufferedSink streamedCompressed() throws IOException {
+    new EventBatchContent<>(client, serializationSupport, "et-1", events, compressionSupport)
+        .writeTo(sink);
+    return sink;
+  }
+}
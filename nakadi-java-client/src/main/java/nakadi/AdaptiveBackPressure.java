@@ -0,0 +1,97 @@
+package nakadi;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configures a {@link StreamProcessor} to adjust how many batches it lets in flight to its
+ * {@link StreamObserver} based on how quickly the observer handles them. Set it with
+ * {@link StreamProcessor.Builder#adaptiveBackPressure(AdaptiveBackPressure)}.
+ * <p>
+ * The processor times each call to {@link StreamObserver#onNext} and estimates how long the
+ * newest queued batch will wait. While that stays under the latency target the number of
+ * batches allowed in flight grows by one each round; when it goes over the number is halved.
+ * Batches beyond it are left unread on the connection. The current values are sent to the
+ * {@link MetricCollector} as {@link MetricCollector.Gauge#streamDemand} and
+ * {@link MetricCollector.Gauge#streamQueueDepth}.
+ * </p>
+ */
+@Experimental
+public class AdaptiveBackPressure {
+
+  static final int DEFAULT_MIN_DEMAND = 1;
+  static final int DEFAULT_MAX_DEMAND = 128;
+  static final long DEFAULT_LATENCY_TARGET_MILLIS = 1_000;
+
+  private int minDemand = DEFAULT_MIN_DEMAND;
+  private int maxDemand = DEFAULT_MAX_DEMAND;
+  private long latencyTargetMillis = DEFAULT_LATENCY_TARGET_MILLIS;
+
+  public int minDemand() {
+    return minDemand;
+  }
+
+  /**
+   * The fewest batches kept in flight however slow the observer gets. The default is 1.
+   *
+   * @param minDemand the number of batches
+   * @return this
+   * @throws IllegalArgumentException if the number is less than 1
+   */
+  public AdaptiveBackPressure minDemand(int minDemand) throws IllegalArgumentException {
+    if (minDemand < 1) {
+      throw new IllegalArgumentException("min demand must be at least 1, was " + minDemand);
+    }
+    this.minDemand = minDemand;
+    return this;
+  }
+
+  public int maxDemand() {
+    return maxDemand;
+  }
+
+  /**
+   * The most batches kept in flight however fast the observer gets. This also sizes the queue
+   * between the connection and the observer. The default is 128.
+   *
+   * @param maxDemand the number of batches
+   * @return this
+   * @throws IllegalArgumentException if the number is less than 1
+   */
+  public AdaptiveBackPressure maxDemand(int maxDemand) throws IllegalArgumentException {
+    if (maxDemand < 1) {
+      throw new IllegalArgumentException("max demand must be at least 1, was " + maxDemand);
+    }
+    this.maxDemand = maxDemand;
+    return this;
+  }
+
+  public long latencyTargetMillis() {
+    return latencyTargetMillis;
+  }
+
+  /**
+   * How long a batch may wait for, and then be handled by, the observer before the processor
+   * backs off. The default is 1s.
+   *
+   * @param latencyTarget the target time
+   * @param unit the time unit
+   * @return this
+   * @throws IllegalArgumentException if the supplied unit is null or the time is less than 1ms
+   */
+  public AdaptiveBackPressure latencyTarget(long latencyTarget, TimeUnit unit)
+      throws IllegalArgumentException {
+    NakadiException.throwNonNull(unit, "Please provide a time unit for the latency target");
+    if (unit.toMillis(latencyTarget) < 1) {
+      throw new IllegalArgumentException("latency target must be at least 1ms");
+    }
+    this.latencyTargetMillis = unit.toMillis(latencyTarget);
+    return this;
+  }
+
+  @Override public String toString() {
+    return "AdaptiveBackPressure{" + "minDemand=" + minDemand +
+        ", maxDemand=" + maxDemand +
+        ", latencyTargetMillis=" + latencyTargetMillis +
+        '}';
+  }
+}
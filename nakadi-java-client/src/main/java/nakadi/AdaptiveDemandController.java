@@ -0,0 +1,161 @@
+package nakadi;
+
+import io.reactivex.FlowableOperator;
+import java.util.concurrent.TimeUnit;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * AIMD control over the batches in flight between the connection and the observer.
+ * <p>
+ * The gate sits in front of the observeOn queue and only passes on as much of the queue's
+ * demand as the current limit allows, counting batches from when they're requested upstream
+ * until the subscriber reports them handled. So the limit bounds the queue and the batch being
+ * handled together, and batches over it are left on the connection. Each handled batch
+ * updates a moving average of the observer's service time; if that times the batches in
+ * flight is over the latency target the limit is halved, at most once per round of limit
+ * batches, otherwise it grows by one per round.
+ * </p>
+ */
+class AdaptiveDemandController {
+
+  private static final double SERVICE_TIME_WEIGHT = 0.125;
+
+  private final MetricCollector metricCollector;
+  private final int minDemand;
+  private final int maxDemand;
+  private final long latencyTargetNanos;
+
+  // all guarded by this
+  private double limit;
+  private double serviceNanos;
+  private long requested;
+  private long outstanding;
+  private int inFlight;
+  private int handledSinceDecrease;
+  private Subscription upstream;
+
+  AdaptiveDemandController(AdaptiveBackPressure config, MetricCollector metricCollector) {
+    this.metricCollector = metricCollector;
+    this.minDemand = config.minDemand();
+    this.maxDemand = config.maxDemand();
+    this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(config.latencyTargetMillis());
+    this.limit = Math.max(minDemand, maxDemand / 4);
+    this.handledSinceDecrease = maxDemand;
+  }
+
+  <T> FlowableOperator<T, T> gate() {
+    return Gate::new;
+  }
+
+  /**
+   * Called by the subscriber after the observer has handled a batch.
+   */
+  void handled(long serviceTimeNanos) {
+    final long request;
+    final long demand;
+    final long depth;
+    synchronized (this) {
+      inFlight--;
+      serviceNanos = serviceNanos == 0
+          ? serviceTimeNanos
+          : serviceNanos + SERVICE_TIME_WEIGHT * (serviceTimeNanos - serviceNanos);
+
+      handledSinceDecrease++;
+      // the newest queued batch waits for everything ahead of it
+      if (serviceNanos * Math.max(1, inFlight) > latencyTargetNanos) {
+        if (handledSinceDecrease >= limit) {
+          limit = Math.max(minDemand, limit / 2);
+          handledSinceDecrease = 0;
+        }
+      } else {
+        limit = Math.min(maxDemand, limit + 1 / limit);
+      }
+
+      request = drain();
+      demand = (long) limit;
+      depth = inFlight;
+    }
+
+    metricCollector.gauge(MetricCollector.Gauge.streamDemand, demand);
+    metricCollector.gauge(MetricCollector.Gauge.streamQueueDepth, depth);
+    if (request > 0) {
+      upstream.request(request);
+    }
+  }
+
+  synchronized int limit() {
+    return (int) limit;
+  }
+
+  synchronized int inFlight() {
+    return inFlight;
+  }
+
+  private synchronized void arrived() {
+    outstanding--;
+    inFlight++;
+  }
+
+  private void requested(long n) {
+    final long request;
+    synchronized (this) {
+      requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+      request = drain();
+    }
+    if (request > 0) {
+      upstream.request(request);
+    }
+  }
+
+  // caller holds the lock
+  private long drain() {
+    final long room = (long) limit - inFlight - outstanding;
+    final long request = Math.min(room, requested);
+    if (request <= 0) {
+      return 0;
+    }
+    if (requested != Long.MAX_VALUE) {
+      requested -= request;
+    }
+    outstanding += request;
+    return request;
+  }
+
+  private class Gate<T> implements Subscriber<T>, Subscription {
+
+    private final Subscriber<? super T> downstream;
+
+    Gate(Subscriber<? super T> downstream) {
+      this.downstream = downstream;
+    }
+
+    @Override public void onSubscribe(Subscription s) {
+      synchronized (AdaptiveDemandController.this) {
+        upstream = s;
+      }
+      downstream.onSubscribe(this);
+    }
+
+    @Override public void onNext(T t) {
+      arrived();
+      downstream.onNext(t);
+    }
+
+    @Override public void onError(Throwable t) {
+      downstream.onError(t);
+    }
+
+    @Override public void onComplete() {
+      downstream.onComplete();
+    }
+
+    @Override public void request(long n) {
+      requested(n);
+    }
+
+    @Override public void cancel() {
+      upstream.cancel();
+    }
+  }
+}
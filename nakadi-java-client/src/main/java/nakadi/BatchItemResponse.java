@@ -17,13 +17,11 @@ public class BatchItemResponse {
     return publishing_status;
   }
 
-  @VisibleForTesting
   BatchItemResponse publishingStatus(PublishingStatus publishingStatus) {
     this.publishing_status = publishingStatus;
     return this;
   }
 
-  @VisibleForTesting
   BatchItemResponse step(Step step) {
     this.step = step;
     return this;
@@ -37,6 +35,11 @@ public class BatchItemResponse {
     return detail;
   }
 
+  BatchItemResponse detail(String detail) {
+    this.detail = detail;
+    return this;
+  }
+
   @Override public int hashCode() {
     return Objects.hash(eid, publishing_status, step, detail);
   }
@@ -0,0 +1,140 @@
+package nakadi;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Frames the newline delimited batches of a consumer stream directly from the response bytes.
+ * <p>
+ * Each call to {@link #next()} reads one batch line into a byte array that is reused across
+ * lines, avoiding the decoding of the line into a String. The array returned by
+ * {@link #buffer()} is only valid until the next call to {@link #next()}, which means callers
+ * must consume the line before asking for another one.
+ * </p>
+ * <p>
+ * Blank lines are skipped and a trailing carriage return is not included in the line.
+ * </p>
+ */
+class BatchLineReader {
+
+  static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+  // don't hold onto the memory of an outsized batch for the life of the connection
+  static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+  private static final byte NEWLINE = '\n';
+  private static final byte CARRIAGE_RETURN = '\r';
+
+  private final BufferedSource source;
+  private byte[] buffer;
+  private int length;
+
+  BatchLineReader(BufferedSource source) {
+    this.source = source;
+    this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+  }
+
+  static BatchLineReader forResponse(Response response) {
+    return new BatchLineReader(bufferedSource(response.responseBody()));
+  }
+
+  private static BufferedSource bufferedSource(ResponseBody responseBody) {
+    if (responseBody instanceof OkHttpResponseBody) {
+      // read straight from okhttp's buffer instead of stacking another one over its stream
+      return ((OkHttpResponseBody) responseBody).asBufferedSource();
+    }
+    return Okio.buffer(Okio.source(responseBody.asInputStream()));
+  }
+
+  /**
+   * Advance to the next non-blank line. This blocks until a full line is available or the
+   * stream is exhausted.
+   *
+   * @return true if a line was read, false if the stream has ended.
+   * @throws UncheckedIOException if the underlying stream cannot be read
+   */
+  boolean next() throws UncheckedIOException {
+    try {
+      while (true) {
+        final long newline = source.indexOf(NEWLINE);
+        final long size;
+        if (newline == -1L) {
+          // the stream is exhausted, anything left in the buffer is an unterminated last line
+          size = source.buffer().size();
+          if (size == 0L) {
+            length = 0;
+            return false;
+          }
+        } else {
+          size = newline;
+        }
+
+        readLine(size);
+
+        if (newline != -1L) {
+          source.skip(1);
+        }
+
+        if (length > 0 && buffer[length - 1] == CARRIAGE_RETURN) {
+          length--;
+        }
+
+        if (length > 0) {
+          return true;
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * @return the array holding the current line, starting at index 0.
+   */
+  byte[] buffer() {
+    return buffer;
+  }
+
+  /**
+   * @return the number of bytes in the current line.
+   */
+  int length() {
+    return length;
+  }
+
+  /**
+   * @return the current line as a String, suitable for logging.
+   */
+  String lineAsString() {
+    return new String(buffer, 0, length, StandardCharsets.UTF_8);
+  }
+
+  private void readLine(long size) throws IOException {
+    if (size > Integer.MAX_VALUE - 8) {
+      throw new IOException("stream batch line is too large to buffer, size=" + size);
+    }
+
+    final int lineSize = (int) size;
+    ensureCapacity(lineSize);
+
+    int read = 0;
+    while (read < lineSize) {
+      final int count = source.read(buffer, read, lineSize - read);
+      if (count == -1) {
+        throw new IOException("stream ended while reading a batch line");
+      }
+      read += count;
+    }
+    length = lineSize;
+  }
+
+  private void ensureCapacity(int lineSize) {
+    if (lineSize > buffer.length) {
+      final long doubled = Math.min(buffer.length * 2L, Integer.MAX_VALUE - 8);
+      buffer = new byte[Math.max(lineSize, (int) doubled)];
+    } else if (buffer.length > MAX_RETAINED_BUFFER_SIZE && lineSize <= DEFAULT_BUFFER_SIZE) {
+      buffer = new byte[DEFAULT_BUFFER_SIZE];
+    }
+  }
+}
@@ -0,0 +1,359 @@
+package nakadi;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects events published one at a time into batches for each event type, sending a batch
+ * once it holds a number of events, reaches a number of serialized bytes, or has waited for the
+ * linger time since its first event.
+ * <p>
+ * Each event's size is measured by serializing it with the client's {@link SerializationSupport}
+ * as it's published. Batches are sent with {@link EventResource#sendBatchAsync(String, List)},
+ * so they're serialized and, if enabled on the client, compressed as any other batch is. Up to
+ * a number of batches are sent at once; the rest wait their turn without holding a thread.
+ * </p>
+ * <p>
+ * The future returned for an event completes with its item from the batch's response. A batch
+ * the server accepted whole has no items, and its events complete with a {@code submitted}
+ * item that has no eid. If the batch can't be sent, its events' futures complete with the
+ * exception. Events of one type are sent in the order they were published, but with more than
+ * one batch in flight they may arrive out of order.
+ * </p>
+ */
+@Experimental
+public class BatchingPublisher implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(NakadiClient.class.getSimpleName());
+  private static final long CLOSE_AWAIT_SECONDS = 8;
+
+  private final NakadiClient client;
+  private final int maxBatchSize;
+  private final long maxBatchBytes;
+  private final long lingerMillis;
+  private final InFlightLimiter flushLimiter;
+  private final SerializationSupport serializationSupport;
+  private final ScheduledExecutorService lingerExecutor;
+  private final Map<String, Accumulator> accumulators = new ConcurrentHashMap<>();
+  private final Map<CompletableFuture<?>, Boolean> sending = new ConcurrentHashMap<>();
+  private volatile boolean closed;
+
+  private BatchingPublisher(Builder builder) {
+    this.client = builder.client;
+    this.maxBatchSize = builder.maxBatchSize;
+    this.maxBatchBytes = builder.maxBatchBytes;
+    this.lingerMillis = builder.lingerMillis;
+    this.flushLimiter = new InFlightLimiter(builder.maxConcurrentFlushes);
+    this.serializationSupport = client.getSerializationSupport();
+    this.lingerExecutor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("nakadi-java-publisher-linger-%d")
+            .setDaemon(true).build());
+  }
+
+  /**
+   * Provide a new builder for creating a publisher.
+   *
+   * @param client the client
+   * @return a builder
+   */
+  public static BatchingPublisher.Builder newBuilder(NakadiClient client) {
+    return new BatchingPublisher.Builder().client(client);
+  }
+
+  /**
+   * Add an event to the current batch for its event type. A String event is treated as raw
+   * JSON.
+   *
+   * @param eventTypeName the event type name
+   * @param event the event
+   * @param <T> the type of the event
+   * @return a future completed with the event's item from the batch's response
+   * @throws NakadiException if the publisher is closed, or the event can't be serialized
+   */
+  public <T> CompletableFuture<BatchItemResponse> publish(String eventTypeName, T event)
+      throws NakadiException {
+    NakadiException.throwNonNull(eventTypeName, "Please provide an event type name");
+    NakadiException.throwNonNull(event, "Please provide an event");
+
+    if (closed) {
+      throw new NakadiException(
+          Problem.localProblem("Cannot publish to a closed publisher", eventTypeName));
+    }
+
+    final long size = sizeOf(eventTypeName, event);
+    final CompletableFuture<BatchItemResponse> future = new CompletableFuture<>();
+    accumulators.computeIfAbsent(eventTypeName, Accumulator::new)
+        .add(new Pending(event, size, future));
+    return future;
+  }
+
+  /**
+   * Send every batch now, without waiting for its size or linger time.
+   *
+   * @return a future completed once everything published before the call has been sent
+   */
+  public CompletableFuture<Void> flush() {
+    accumulators.values().forEach(Accumulator::sendCurrent);
+    return CompletableFuture.allOf(sending.keySet().toArray(new CompletableFuture[0]));
+  }
+
+  /**
+   * Stop accepting events, send the batches collected so far and wait a short while for them
+   * to complete.
+   */
+  @Override public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    logger.info("op=batching_publisher_close msg=flushing event_types={}", accumulators.size());
+
+    try {
+      flush().get(CLOSE_AWAIT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      // already given to the events' futures
+      logger.debug("op=batching_publisher_close msg=batch_failed {}", e.getMessage());
+    } catch (TimeoutException e) {
+      logger.warn("op=batching_publisher_close msg=batches_still_sending batches={}",
+          sending.size());
+    } finally {
+      ExecutorServiceSupport.shutdown(lingerExecutor);
+    }
+  }
+
+  private <T> long sizeOf(String eventTypeName, T event) {
+    if (event instanceof String) {
+      // raw json, plus the comma separating it from the next event
+      return ((String) event).getBytes(StandardCharsets.UTF_8).length + 1;
+    }
+    return serializationSupport.serializePayload(
+        client, eventTypeName, Collections.singletonList(event)).length;
+  }
+
+  private void send(String eventTypeName, List<Pending> batch) {
+    final List<Object> events = new ArrayList<>(batch.size());
+    batch.forEach(p -> events.add(p.event));
+
+    logger.debug("op=batching_publisher msg=sending event_type={} events={}",
+        eventTypeName, events.size());
+
+    final CompletableFuture<?> sent = flushLimiter.submit(
+        () -> client.resources().events().sendBatchAsync(eventTypeName, events))
+        .whenComplete((responses, e) -> {
+          if (e != null) {
+            logger.warn("op=batching_publisher msg=batch_failed event_type={} events={} err={}",
+                eventTypeName, batch.size(), e.getMessage());
+            batch.forEach(p -> p.future.completeExceptionally(e));
+          } else {
+            complete(eventTypeName, batch, responses.items());
+          }
+        });
+    // tracked until its events' futures are complete, for flush to wait on
+    sending.put(sent, Boolean.TRUE);
+    sent.whenComplete((ignored, e) -> sending.remove(sent));
+  }
+
+  private void complete(String eventTypeName, List<Pending> batch, List<BatchItemResponse> items) {
+    if (items.isEmpty()) {
+      batch.forEach(p -> p.future.complete(new BatchItemResponse()
+          .publishingStatus(BatchItemResponse.PublishingStatus.submitted)
+          .step(BatchItemResponse.Step.none)));
+      return;
+    }
+
+    if (items.size() != batch.size()) {
+      // the server sends an item for each event in order; without that they can't be matched
+      final NakadiException e = new NakadiException(Problem.localProblem(
+          "Batch response items don't match the events sent",
+          String.format("event_type=%s events=%d items=%d",
+              eventTypeName, batch.size(), items.size())));
+      batch.forEach(p -> p.future.completeExceptionally(e));
+      return;
+    }
+
+    for (int i = 0; i < batch.size(); i++) {
+      batch.get(i).future.complete(items.get(i));
+    }
+  }
+
+  private static class Pending {
+
+    final Object event;
+    final long size;
+    final CompletableFuture<BatchItemResponse> future;
+
+    Pending(Object event, long size, CompletableFuture<BatchItemResponse> future) {
+      this.event = event;
+      this.size = size;
+      this.future = future;
+    }
+  }
+
+  private class Accumulator {
+
+    private final String eventTypeName;
+    private List<Pending> current = new ArrayList<>();
+    private long currentBytes;
+    private ScheduledFuture<?> linger;
+
+    Accumulator(String eventTypeName) {
+      this.eventTypeName = eventTypeName;
+    }
+
+    // batches are handed on while holding the lock, so that they start in the order they filled
+    synchronized void add(Pending pending) {
+      // an event that would take the batch over the byte limit starts the next one
+      if (!current.isEmpty() && currentBytes + pending.size > maxBatchBytes) {
+        send(eventTypeName, take());
+      }
+
+      current.add(pending);
+      currentBytes += pending.size;
+
+      if (current.size() >= maxBatchSize || currentBytes >= maxBatchBytes) {
+        send(eventTypeName, take());
+      } else if (current.size() == 1 && !scheduleLinger()) {
+        send(eventTypeName, take());
+      }
+    }
+
+    synchronized void sendCurrent() {
+      if (!current.isEmpty()) {
+        send(eventTypeName, take());
+      }
+    }
+
+    private List<Pending> take() {
+      final List<Pending> batch = current;
+      current = new ArrayList<>();
+      currentBytes = 0;
+      if (linger != null) {
+        linger.cancel(false);
+        linger = null;
+      }
+      return batch;
+    }
+
+    private boolean scheduleLinger() {
+      try {
+        linger = lingerExecutor.schedule(this::sendCurrent, lingerMillis, TimeUnit.MILLISECONDS);
+        return true;
+      } catch (RejectedExecutionException e) {
+        // closed while this event was being published, there's no one left to wait for it
+        logger.debug("op=batching_publisher msg=linger_rejected {}", e.getMessage());
+        return false;
+      }
+    }
+  }
+
+  public static class Builder {
+
+    private NakadiClient client;
+    private int maxBatchSize = 500;
+    private long maxBatchBytes = 1024 * 1024;
+    private long lingerMillis = 10;
+    private int maxConcurrentFlushes = 4;
+
+    public Builder() {
+    }
+
+    public BatchingPublisher build() {
+      NakadiException.throwNonNull(client, "Please provide a client");
+
+      if (maxBatchSize < 1) {
+        throw new NakadiException(Problem.localProblem(
+            "max batch size must be at least 1", "max_batch_size=" + maxBatchSize));
+      }
+
+      if (maxBatchBytes < 1) {
+        throw new NakadiException(Problem.localProblem(
+            "max batch bytes must be at least 1", "max_batch_bytes=" + maxBatchBytes));
+      }
+
+      if (lingerMillis < 0) {
+        throw new NakadiException(Problem.localProblem(
+            "linger can't be negative", "linger_millis=" + lingerMillis));
+      }
+
+      if (maxConcurrentFlushes < 1) {
+        throw new NakadiException(Problem.localProblem(
+            "max concurrent flushes must be at least 1",
+            "max_concurrent_flushes=" + maxConcurrentFlushes));
+      }
+
+      return new BatchingPublisher(this);
+    }
+
+    public Builder client(NakadiClient client) {
+      this.client = client;
+      return this;
+    }
+
+    /**
+     * The most events a batch holds before it's sent. The default is 500.
+     *
+     * @param maxBatchSize the number of events
+     * @return this
+     */
+    public Builder maxBatchSize(int maxBatchSize) {
+      this.maxBatchSize = maxBatchSize;
+      return this;
+    }
+
+    /**
+     * The most serialized bytes a batch holds before it's sent, measured before any
+     * compression. An event larger than this is sent in a batch of its own. The default is
+     * 1MiB.
+     *
+     * @param maxBatchBytes the number of bytes
+     * @return this
+     */
+    public Builder maxBatchBytes(long maxBatchBytes) {
+      this.maxBatchBytes = maxBatchBytes;
+      return this;
+    }
+
+    /**
+     * How long a batch waits after its first event for more before it's sent. The default
+     * is 10 milliseconds.
+     *
+     * @param linger the time to wait
+     * @param unit the time unit
+     * @return this
+     */
+    public Builder linger(long linger, TimeUnit unit) {
+      NakadiException.throwNonNull(unit, "Please provide a time unit");
+      this.lingerMillis = unit.toMillis(linger);
+      return this;
+    }
+
+    /**
+     * How many batches can be sent at once. Set this to one to keep the batches of an event
+     * type in order. The default is 4.
+     *
+     * @param maxConcurrentFlushes the number of batches
+     * @return this
+     */
+    public Builder maxConcurrentFlushes(int maxConcurrentFlushes) {
+      this.maxConcurrentFlushes = maxConcurrentFlushes;
+      return this;
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package nakadi;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Presents several consecutive records as one. The events are a view over the records'
+ * event lists, so lazily decoded batches stay lazy. The single cursor and offset observer are
+ * those of the last record; {@link #streamCursorContexts()} has the last one seen for each
+ * partition.
+ */
+class CoalescedStreamBatchRecord<T> implements StreamBatchRecord<T> {
+
+  private final List<StreamBatchRecord<T>> records;
+  private final StreamBatchRecord<T> last;
+  private final List<StreamCursorContext> streamCursorContexts;
+  private final int[] ends;
+  private final StreamBatch<T> streamBatch = new CoalescedStreamBatch();
+
+  CoalescedStreamBatchRecord(List<StreamBatchRecord<T>> records) {
+    this.records = records;
+    this.last = records.get(records.size() - 1);
+
+    final Map<String, StreamCursorContext> latest = new LinkedHashMap<>();
+    ends = new int[records.size()];
+    int size = 0;
+    for (int i = 0; i < records.size(); i++) {
+      final StreamBatchRecord<T> record = records.get(i);
+      final Cursor cursor = record.streamCursorContext().cursor();
+      latest.put(cursor.eventType().orElse("") + "/" + cursor.partition(),
+          record.streamCursorContext());
+      size += record.streamBatch().events().size();
+      ends[i] = size;
+    }
+    this.streamCursorContexts = Collections.unmodifiableList(new ArrayList<>(latest.values()));
+  }
+
+  @Override public StreamBatch<T> streamBatch() {
+    return streamBatch;
+  }
+
+  @Override public StreamCursorContext streamCursorContext() {
+    return last.streamCursorContext();
+  }
+
+  @Override public List<StreamCursorContext> streamCursorContexts() {
+    return streamCursorContexts;
+  }
+
+  @Override public StreamOffsetObserver streamOffsetObserver() {
+    return last.streamOffsetObserver();
+  }
+
+  @Override public String toString() {
+    return "CoalescedStreamBatchRecord{" + "records=" + records.size() +
+        ", events=" + ends[ends.length - 1] +
+        ", streamCursorContexts=" + streamCursorContexts +
+        '}';
+  }
+
+  private class CoalescedStreamBatch implements StreamBatch<T> {
+
+    private final List<T> events = new CoalescedEvents();
+
+    @Override public Cursor cursor() {
+      return last.streamBatch().cursor();
+    }
+
+    @Override public List<Cursor> cursors() {
+      final List<Cursor> cursors = new ArrayList<>(streamCursorContexts.size());
+      streamCursorContexts.forEach(context -> cursors.add(context.cursor()));
+      return cursors;
+    }
+
+    @Override public StreamInfo info() {
+      return last.streamBatch().info();
+    }
+
+    @Override public List<T> events() {
+      return events;
+    }
+
+    @Override public boolean isEmpty() {
+      return ends[ends.length - 1] == 0;
+    }
+
+    @Override public String toString() {
+      return "CoalescedStreamBatch{" + "cursors=" + cursors() +
+          ", events=" + ends[ends.length - 1] +
+          '}';
+    }
+  }
+
+  private class CoalescedEvents extends AbstractList<T> implements RandomAccess {
+
+    @Override public T get(int index) {
+      if (index < 0 || index >= size()) {
+        throw new IndexOutOfBoundsException("index=" + index + " size=" + size());
+      }
+      int lo = 0;
+      int hi = ends.length - 1;
+      while (lo < hi) {
+        final int mid = (lo + hi) >>> 1;
+        if (ends[mid] <= index) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      final int start = lo == 0 ? 0 : ends[lo - 1];
+      return records.get(lo).streamBatch().events().get(index - start);
+    }
+
+    @Override public int size() {
+      return ends[ends.length - 1];
+    }
+  }
+}
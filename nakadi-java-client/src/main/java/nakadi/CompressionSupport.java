@@ -1,6 +1,9 @@
 package nakadi;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+
 /**
  * Provides compression support for the client.
  */
@@ -30,6 +33,29 @@ public interface CompressionSupport {
    */
   String decompress(byte[] compressed);
 
+  /**
+   * Wrap the stream so what's written to it arrives compressed. Closing the returned stream
+   * finishes the compressed data and closes the one underneath.
+   * <p>
+   * The default collects everything written and compresses it with {@link #compress(byte[])}
+   * on close; implementations that can compress as they go should override this.
+   * </p>
+   *
+   * @param out where the compressed bytes go
+   * @return a stream to write the uncompressed bytes to
+   */
+  default OutputStream compressing(OutputStream out) {
+    return new ByteArrayOutputStream() {
+      @Override public void close() throws IOException {
+        try {
+          out.write(compress(toByteArray()));
+        } finally {
+          out.close();
+        }
+      }
+    };
+  }
+
   /**
    * The name of the compression algorithm, suitable for use in the 'Content-Encoding' header.
    * @return the algorithm name.
@@ -4,6 +4,7 @@ import com.google.common.base.Charsets;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import okio.BufferedSink;
 import okio.BufferedSource;
 import okio.GzipSink;
@@ -40,6 +41,10 @@ class CompressionSupportGzip implements CompressionSupport {
     }
   }
 
+  @Override public OutputStream compressing(OutputStream out) {
+    return Okio.buffer(new GzipSink(Okio.sink(out))).outputStream();
+  }
+
   @Override public String name() {
     return "gzip";
   }
@@ -1,6 +1,25 @@
 package nakadi;
 
+import java.io.IOException;
+import okio.BufferedSink;
+
 @FunctionalInterface interface ContentSupplier {
 
   byte[] content();
+
+  /**
+   * Whether the content is written to the request by {@link #writeTo(BufferedSink)} as it's
+   * produced, instead of being supplied whole by {@link #content()}. Its length isn't known
+   * before it's written, so it's sent with chunked transfer encoding.
+   */
+  default boolean isStreamed() {
+    return false;
+  }
+
+  /**
+   * Write the content to the request. This is called for each attempt to send it.
+   */
+  default void writeTo(BufferedSink sink) throws IOException {
+    sink.write(content());
+  }
 }
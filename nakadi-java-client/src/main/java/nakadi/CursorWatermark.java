@@ -0,0 +1,75 @@
+package nakadi;
+
+import java.util.ArrayDeque;
+
+/**
+ * Tracks the batches in flight for one partition of one stream session, in the order they
+ * arrived, and finds the latest batch that can be committed: one that has completed along with
+ * every batch before it.
+ */
+class CursorWatermark {
+
+  private final String session;
+  private volatile boolean retired;
+  // guarded by this
+  private final ArrayDeque<Entry> inFlight = new ArrayDeque<>();
+
+  CursorWatermark(String session) {
+    this.session = session;
+  }
+
+  static class Entry {
+
+    private final StreamBatchRecord<?> record;
+    private boolean completed;
+
+    Entry(StreamBatchRecord<?> record) {
+      this.record = record;
+    }
+
+    StreamBatchRecord<?> record() {
+      return record;
+    }
+  }
+
+  String session() {
+    return session;
+  }
+
+  /**
+   * Called when a new session takes over the partition; its batches can no longer be committed.
+   */
+  void retire() {
+    retired = true;
+  }
+
+  boolean retired() {
+    return retired;
+  }
+
+  synchronized Entry track(StreamBatchRecord<?> record) {
+    final Entry entry = new Entry(record);
+    inFlight.addLast(entry);
+    return entry;
+  }
+
+  /**
+   * Marks the entry complete, whether or not its batch was handled, so later batches aren't
+   * held behind it.
+   *
+   * @return the latest record that's now committable, or null if the entry's completion didn't
+   * move the watermark
+   */
+  synchronized StreamBatchRecord<?> complete(Entry entry) {
+    entry.completed = true;
+    StreamBatchRecord<?> committable = null;
+    while (!inFlight.isEmpty() && inFlight.peekFirst().completed) {
+      committable = inFlight.removeFirst().record;
+    }
+    return committable;
+  }
+
+  synchronized int size() {
+    return inFlight.size();
+  }
+}
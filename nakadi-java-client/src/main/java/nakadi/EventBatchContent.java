@@ -0,0 +1,67 @@
+package nakadi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import okio.Buffer;
+import okio.BufferedSink;
+
+/**
+ * Serializes a batch of events each time a request sends it, so retries serialize the events
+ * again rather than holding their bytes between attempts.
+ * <p>
+ * Uncompressed, the batch is streamed to the request as it's serialized, leaving no copy of
+ * it in memory. Compressed, it's serialized through the compressor into a buffer, since a
+ * compressed request is sent with its length rather than chunked; only the compressed bytes
+ * are held.
+ * </p>
+ */
+class EventBatchContent<T> implements ContentSupplier {
+
+  private final NakadiClient client;
+  private final SerializationSupport serializationSupport;
+  private final String eventTypeName;
+  private final Collection<T> events;
+  private final CompressionSupport compressionSupport;
+
+  /**
+   * @param compressionSupport the compression to apply, or null to send uncompressed
+   */
+  EventBatchContent(NakadiClient client, SerializationSupport serializationSupport,
+      String eventTypeName, Collection<T> events, CompressionSupport compressionSupport) {
+    this.client = client;
+    this.serializationSupport = serializationSupport;
+    this.eventTypeName = eventTypeName;
+    this.events = events;
+    this.compressionSupport = compressionSupport;
+  }
+
+  @Override public boolean isStreamed() {
+    return compressionSupport == null;
+  }
+
+  @Override public void writeTo(BufferedSink sink) throws IOException {
+    if (compressionSupport == null) {
+      serializationSupport.serializePayload(client, eventTypeName, events, sink.outputStream());
+    } else {
+      sink.write(content());
+    }
+  }
+
+  @Override public byte[] content() {
+    final Buffer buffer = new Buffer();
+    try {
+      if (compressionSupport == null) {
+        serializationSupport.serializePayload(client, eventTypeName, events, buffer.outputStream());
+      } else {
+        try (OutputStream out = compressionSupport.compressing(buffer.outputStream())) {
+          serializationSupport.serializePayload(client, eventTypeName, events, out);
+        }
+      }
+    } catch (IOException e) {
+      throw new EncodingException(
+          Problem.localProblem("could not serialize request entity", e.getMessage()), e);
+    }
+    return buffer.readByteArray();
+  }
+}
@@ -0,0 +1,146 @@
+package nakadi;
+
+import com.google.common.base.Utf8;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Splits a batch of events into sub-batches whose serialized size stays under a byte limit.
+ * <p>
+ * Each event is measured as it's reached, by serializing it alone to a counting stream, and a
+ * sub-batch is closed before the event that would take it over the limit. String events are
+ * raw JSON and measured by their UTF-8 length. An event larger than the limit goes in a
+ * sub-batch of its own. The sizes are before any compression.
+ * </p>
+ * <p>
+ * Without a partition key the sub-batches are consecutive runs of the batch. With one, the
+ * events are first grouped by key, in the order each key first appears and keeping each key's
+ * events in order, so that keys spread through the batch end up in sub-batches that share few
+ * keys and can be sent at once.
+ * </p>
+ */
+class EventBatchSplitter {
+
+  private final NakadiClient client;
+  private final SerializationSupport serializationSupport;
+  private final long maxBatchBytes;
+  private final Function<Object, ?> partitionKey;
+
+  /**
+   * @param partitionKey gives the key events are partitioned by, or null if it's not known
+   */
+  EventBatchSplitter(NakadiClient client, SerializationSupport serializationSupport,
+      long maxBatchBytes, Function<Object, ?> partitionKey) {
+    this.client = client;
+    this.serializationSupport = serializationSupport;
+    this.maxBatchBytes = maxBatchBytes;
+    this.partitionKey = partitionKey;
+  }
+
+  <T> List<SubBatch<T>> split(String eventTypeName, List<T> events) {
+    final int[] order = order(events);
+    final List<SubBatch<T>> subBatches = new ArrayList<>();
+    int from = 0;
+    // the enclosing brackets
+    long bytes = 2;
+    for (int i = 0; i < order.length; i++) {
+      final long eventBytes = sizeOf(eventTypeName, events.get(order[i]));
+      if (i == from) {
+        bytes += eventBytes;
+      } else if (bytes + 1 + eventBytes > maxBatchBytes) {
+        subBatches.add(subBatch(events, Arrays.copyOfRange(order, from, i)));
+        from = i;
+        bytes = 2 + eventBytes;
+      } else {
+        // plus the comma before it
+        bytes += 1 + eventBytes;
+      }
+    }
+    subBatches.add(subBatch(events, Arrays.copyOfRange(order, from, order.length)));
+    return subBatches;
+  }
+
+  /**
+   * @return the positions of the events in the order they're to be packed
+   */
+  private <T> int[] order(List<T> events) {
+    if (partitionKey == null) {
+      return IntStream.range(0, events.size()).toArray();
+    }
+
+    final Map<Object, List<Integer>> byKey = new LinkedHashMap<>();
+    for (int i = 0; i < events.size(); i++) {
+      byKey.computeIfAbsent(partitionKey.apply(events.get(i)), k -> new ArrayList<>()).add(i);
+    }
+    return byKey.values().stream().flatMap(List::stream).mapToInt(Integer::intValue).toArray();
+  }
+
+  private <T> SubBatch<T> subBatch(List<T> events, int[] indexes) {
+    final List<T> slice = new ArrayList<>(indexes.length);
+    for (int i : indexes) {
+      slice.add(events.get(i));
+    }
+    if (partitionKey == null) {
+      return new SubBatch<>(indexes, slice, null);
+    }
+
+    final Set<Object> keys = new LinkedHashSet<>();
+    slice.forEach(e -> keys.add(partitionKey.apply(e)));
+    return new SubBatch<>(indexes, slice, keys);
+  }
+
+  private <T> long sizeOf(String eventTypeName, T event) {
+    if (event instanceof String) {
+      return Utf8.encodedLength((String) event);
+    }
+
+    final CountingOutputStream counter = new CountingOutputStream(ByteStreams.nullOutputStream());
+    try {
+      serializationSupport.serializePayload(
+          client, eventTypeName, Collections.singletonList(event), counter);
+    } catch (IOException e) {
+      throw new EncodingException(
+          Problem.localProblem("could not measure event size", e.getMessage()), e);
+    }
+    // less the brackets around it
+    return counter.getCount() - 2;
+  }
+
+  static class SubBatch<T> {
+
+    final int[] indexes;
+    final List<T> events;
+    final Set<Object> partitionKeys;
+
+    /**
+     * @param indexes the position in the batch of each of the events
+     * @param partitionKeys the keys of the events, or null if they're not known
+     */
+    SubBatch(int[] indexes, List<T> events, Set<Object> partitionKeys) {
+      this.indexes = indexes;
+      this.events = events;
+      this.partitionKeys = partitionKeys;
+    }
+
+    /**
+     * @return whether this has to wait for an earlier sub-batch to keep events in order
+     */
+    boolean follows(SubBatch<?> earlier) {
+      if (partitionKeys == null || earlier.partitionKeys == null) {
+        return true;
+      }
+      return !Collections.disjoint(partitionKeys, earlier.partitionKeys);
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package nakadi;
+
+import java.util.function.Function;
+
+/**
+ * Configures a {@link StreamProcessor} to drop events it has recently seen before they reach
+ * the {@link StreamObserver}. Set it with
+ * {@link StreamProcessor.Builder#deduplication(EventDeduplication)}.
+ * <p>
+ * Subscription streams deliver at least once, and batches that weren't committed are sent again
+ * after a reconnect or a rebalance. The processor remembers the last {@link #windowSize()} event
+ * ids for each partition and removes events whose id is among them from their batch. A batch
+ * whose events were all seen is still delivered, empty, so its cursor can be checkpointed.
+ * Duplicates and new events are counted by {@link MetricCollector.Meter#streamDedupHit} and
+ * {@link MetricCollector.Meter#streamDedupMiss}.
+ * </p>
+ * <p>
+ * Ids are read with {@link #eventIdExtractor()}, which by default takes the
+ * {@link EventMetadata#eid()} of a {@link DataChangeEvent} or {@link BusinessEventMapped}.
+ * Events it returns null for are always delivered. Ids are kept as 64 bit hashes, so there's a
+ * vanishingly small chance of a new event being taken for a duplicate.
+ * </p>
+ */
+@Experimental
+public class EventDeduplication {
+
+  static final int DEFAULT_WINDOW_SIZE = 4_096;
+  static final int MAX_WINDOW_SIZE = 1 << 24;
+
+  private int windowSize = DEFAULT_WINDOW_SIZE;
+  private Function<Object, String> eventIdExtractor = EventDeduplication::metadataEid;
+
+  public int windowSize() {
+    return windowSize;
+  }
+
+  /**
+   * The number of recent event ids remembered for each partition. Each id takes about 20 bytes.
+   * The default is 4096.
+   *
+   * @param windowSize the number of ids
+   * @return this
+   * @throws IllegalArgumentException if the size is less than 1 or more than 2^24
+   */
+  public EventDeduplication windowSize(int windowSize) throws IllegalArgumentException {
+    if (windowSize < 1 || windowSize > MAX_WINDOW_SIZE) {
+      throw new IllegalArgumentException(
+          "window size must be between 1 and " + MAX_WINDOW_SIZE + ", was " + windowSize);
+    }
+    this.windowSize = windowSize;
+    return this;
+  }
+
+  public Function<Object, String> eventIdExtractor() {
+    return eventIdExtractor;
+  }
+
+  /**
+   * Reads the id from an event, for event types that aren't marshalled to
+   * {@link DataChangeEvent} or {@link BusinessEventMapped}.
+   *
+   * @param eventIdExtractor returns the event's id, or null to always deliver it
+   * @return this
+   */
+  public EventDeduplication eventIdExtractor(Function<Object, String> eventIdExtractor) {
+    NakadiException.throwNonNull(eventIdExtractor, "Please provide an event id extractor");
+    this.eventIdExtractor = eventIdExtractor;
+    return this;
+  }
+
+  static String metadataEid(Object event) {
+    final EventMetadata metadata;
+    if (event instanceof DataChangeEvent) {
+      metadata = ((DataChangeEvent<?>) event).metadata();
+    } else if (event instanceof BusinessEventMapped) {
+      metadata = ((BusinessEventMapped<?>) event).metadata();
+    } else {
+      return null;
+    }
+    return metadata == null ? null : metadata.eid();
+  }
+
+  @Override public String toString() {
+    return "EventDeduplication{" + "windowSize=" + windowSize + '}';
+  }
+}
@@ -0,0 +1,118 @@
+package nakadi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Removes recently seen events from batches, keeping an {@link EventIdWindow} per partition.
+ * Runs on the processor's io thread, ahead of any queueing for the observer, so the windows
+ * see batches in stream order and need no locking.
+ */
+class EventDeduplicator {
+
+  private final int windowSize;
+  private final Function<Object, String> eventIdExtractor;
+  private final MetricCollector metricCollector;
+  private final Map<String, EventIdWindow> windows = new HashMap<>();
+
+  EventDeduplicator(EventDeduplication config, MetricCollector metricCollector) {
+    this.windowSize = config.windowSize();
+    this.eventIdExtractor = config.eventIdExtractor();
+    this.metricCollector = metricCollector;
+  }
+
+  <T> StreamBatchRecord<T> deduplicate(StreamBatchRecord<T> record) {
+    final StreamBatch<T> batch = record.streamBatch();
+    if (batch.isEmpty()) {
+      return record;
+    }
+
+    final EventIdWindow window = windows.computeIfAbsent(key(batch.cursor()),
+        k -> new EventIdWindow(windowSize));
+    final List<T> events = batch.events();
+    List<T> kept = null;
+    int hits = 0;
+    int misses = 0;
+    for (int i = 0; i < events.size(); i++) {
+      final T event = events.get(i);
+      final String eid = eventIdExtractor.apply(event);
+      if (eid == null) {
+        if (kept != null) {
+          kept.add(event);
+        }
+      } else if (window.add(EventIdWindow.fingerprint(eid))) {
+        misses++;
+        if (kept != null) {
+          kept.add(event);
+        }
+      } else {
+        hits++;
+        if (kept == null) {
+          kept = new ArrayList<>(events.subList(0, i));
+        }
+      }
+    }
+
+    if (misses > 0) {
+      metricCollector.mark(MetricCollector.Meter.streamDedupMiss, misses);
+    }
+
+    if (kept == null) {
+      return record;
+    }
+
+    metricCollector.mark(MetricCollector.Meter.streamDedupHit, hits);
+    final StreamBatchRecordReal<T> deduplicated = new StreamBatchRecordReal<>(
+        new DeduplicatedStreamBatch<>(batch, kept), record.streamOffsetObserver(),
+        record.streamCursorContext().context());
+    if (record instanceof StreamBatchRecordReal) {
+      deduplicated.sizeInBytes(((StreamBatchRecordReal<T>) record).sizeInBytes());
+    }
+    return deduplicated;
+  }
+
+  private static String key(Cursor cursor) {
+    // subscriptions can span event types, which number their partitions independently
+    return cursor.eventType().map(et -> et + "/" + cursor.partition()).orElse(cursor.partition());
+  }
+
+  private static class DeduplicatedStreamBatch<T> implements StreamBatch<T> {
+
+    private final StreamBatch<T> batch;
+    private final List<T> events;
+
+    DeduplicatedStreamBatch(StreamBatch<T> batch, List<T> events) {
+      this.batch = batch;
+      this.events = events;
+    }
+
+    @Override public Cursor cursor() {
+      return batch.cursor();
+    }
+
+    @Override public List<Cursor> cursors() {
+      return batch.cursors();
+    }
+
+    @Override public StreamInfo info() {
+      return batch.info();
+    }
+
+    @Override public List<T> events() {
+      return events;
+    }
+
+    @Override public boolean isEmpty() {
+      return events.isEmpty();
+    }
+
+    @Override public String toString() {
+      return "DeduplicatedStreamBatch{" + "cursor=" + cursor() +
+          ", events=" + events +
+          '}';
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package nakadi;
+
+/**
+ * A set of the most recent event id hashes, holding at most a fixed number. Hashes are kept in
+ * a linear probing table of longs, with 0 marking an empty slot, and in a ring recording the
+ * order they were added so the oldest can be removed when a new one arrives. Nothing is
+ * allocated after construction. Not thread safe.
+ */
+class EventIdWindow {
+
+  private static final long EMPTY = 0L;
+
+  private final long[] table;
+  private final long[] ring;
+  private final int mask;
+  private int next;
+  private int size;
+
+  EventIdWindow(int capacity) {
+    int tableSize = 2;
+    // keeps the load under two thirds
+    while (tableSize < capacity + (capacity >> 1)) {
+      tableSize <<= 1;
+    }
+    this.table = new long[tableSize];
+    this.ring = new long[capacity];
+    this.mask = tableSize - 1;
+  }
+
+  /**
+   * A 64 bit FNV-1a hash of the id, finished with the murmur3 mixer.
+   */
+  static long fingerprint(String id) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < id.length(); i++) {
+      h ^= id.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h == EMPTY ? 1L : h;
+  }
+
+  /**
+   * Adds the hash, evicting the oldest if the window is full.
+   *
+   * @return true if the hash was added, false if it was already in the window
+   */
+  boolean add(long fingerprint) {
+    if (contains(fingerprint)) {
+      return false;
+    }
+
+    if (size == ring.length) {
+      remove(ring[next]);
+      size--;
+    }
+
+    int i = slot(fingerprint);
+    while (table[i] != EMPTY) {
+      i = (i + 1) & mask;
+    }
+    table[i] = fingerprint;
+    ring[next] = fingerprint;
+    next = next + 1 == ring.length ? 0 : next + 1;
+    size++;
+    return true;
+  }
+
+  boolean contains(long fingerprint) {
+    int i = slot(fingerprint);
+    while (table[i] != EMPTY) {
+      if (table[i] == fingerprint) {
+        return true;
+      }
+      i = (i + 1) & mask;
+    }
+    return false;
+  }
+
+  int size() {
+    return size;
+  }
+
+  private void remove(long fingerprint) {
+    int i = slot(fingerprint);
+    while (table[i] != fingerprint) {
+      if (table[i] == EMPTY) {
+        return;
+      }
+      i = (i + 1) & mask;
+    }
+
+    // shift later entries of the run back so none is left behind the gap
+    int j = i;
+    while (true) {
+      j = (j + 1) & mask;
+      if (table[j] == EMPTY) {
+        break;
+      }
+      final int home = slot(table[j]);
+      final boolean reachable = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+      if (!reachable) {
+        table[i] = table[j];
+        i = j;
+      }
+    }
+    table[i] = EMPTY;
+  }
+
+  private int slot(long fingerprint) {
+    return (int) fingerprint & mask;
+  }
+}
@@ -1,9 +1,12 @@
 package nakadi;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 public interface EventResource {
 
@@ -42,6 +45,77 @@ public interface EventResource {
    */
   EventResource flowId(String flowId);
 
+  /**
+   * Set the most serialized bytes a batch sent by {@link #sendBatch(String, List)} or
+   * {@link #sendBatchAsync(String, List)} can hold. A larger batch is split into sub-batches
+   * under the limit, each event being measured before compression as it's reached. An event
+   * larger than the limit is sent alone. Zero, the default, sends batches whole.
+   * <p>
+   * Without a {@link #partitionKey(Function)} the sub-batches are consecutive runs of the
+   * batch, sent one after another. With one, events are grouped by key before splitting,
+   * keeping each key's events in order, and sub-batches with no key in common are sent at
+   * once. The items from each
+   * sub-batch's response are merged back in the order of the events. If some sub-batches are
+   * sent and another can't be, its events are given {@code failed} items with the error as
+   * the detail. Later sub-batches that would have followed a sub-batch that wasn't sent, or
+   * that had any event not accepted, are not sent and given {@code aborted} items. If none
+   * can be sent, the first sub-batch's error is thrown.
+   * </p>
+   * <p>
+   * The default implementation ignores the setting and returns this, so batches are sent
+   * whole.
+   * </p>
+   *
+   * @param maxBatchBytes the number of bytes, or zero to not split batches
+   * @return this
+   */
+  @Experimental
+  default EventResource maxBatchBytes(long maxBatchBytes) {
+    return this;
+  }
+
+  /**
+   * Set a function giving the key an event type's events are partitioned by, for example the
+   * values of its partition key fields. When a batch is split by {@link #maxBatchBytes(long)}
+   * its events are grouped by key, with each key's events kept in order, and sub-batches with
+   * no key in common are sent in parallel. String events are passed as their raw JSON. The default implementation
+   * ignores the function and returns this.
+   *
+   * @param partitionKey the function, or null if the key isn't known
+   * @return this
+   */
+  @Experimental
+  default EventResource partitionKey(Function<Object, ?> partitionKey) {
+    return this;
+  }
+
+  /**
+   * Set a retry policy for resending the events of a batch that were not accepted. When
+   * {@link #sendBatch(String, List)} or {@link #sendBatchAsync(String, List)} gets a 207 or 422
+   * response, the events whose items are {@code failed} or {@code aborted} are sent again as a
+   * new batch after the policy's backoff, until they're accepted or the policy is finished.
+   * Events that failed at the {@code validating} step are not resent. Setting it to null (the
+   * default) leaves partial responses to the caller.
+   * <p>
+   * The response then has an item for every event sent, in order, with each event's status
+   * after its last attempt. Events accepted in a round where the whole batch was accepted
+   * have a {@code submitted} item with no eid. If a resend fails outright, the events keep
+   * their items from the round before. As with {@link #retryPolicy(RetryPolicy)}, the policy
+   * holds the state of its attempts, and should be reset between sends.
+   * </p>
+   * <p>
+   * The default implementation ignores the policy and returns this, leaving partial responses
+   * to the caller.
+   * </p>
+   *
+   * @param partialRetryPolicy the retry policy
+   * @return this
+   */
+  @Experimental
+  default EventResource partialRetryPolicy(RetryPolicy partialRetryPolicy) {
+    return this;
+  }
+
   /**
    * Send a batch of events to the server.
    *
@@ -110,4 +184,78 @@ public interface EventResource {
    */
   <T> BatchItemResponseCollection sendBatch(String eventTypeName, List<T> events);
   <T> BatchItemResponseCollection sendBatch(String eventTypeName, List<T> events, Map<String, Object> headers);
+
+  /**
+   * Send an event to the server without waiting for the response.
+   * <p>
+   * This behaves as {@link #sendBatchAsync(String, List)} for a batch of one event. A String
+   * event is treated as raw JSON.
+   * </p>
+   *
+   * @param eventTypeName the event type name
+   * @param event the event
+   * @param <T> the type of the event
+   * @return a future BatchItemResponseCollection
+   */
+  @Experimental
+  default <T> CompletableFuture<BatchItemResponseCollection> sendAsync(String eventTypeName,
+      T event) {
+    return sendBatchAsync(eventTypeName, Collections.singletonList(event));
+  }
+  @Experimental
+  default <T> CompletableFuture<BatchItemResponseCollection> sendAsync(String eventTypeName,
+      T event, Map<String, Object> headers) {
+    return sendBatchAsync(eventTypeName, Collections.singletonList(event), headers);
+  }
+
+  /**
+   * Send a batch of events to the server without waiting for the response.
+   * <p>
+   * The request is handed to the HTTP client's dispatcher and the calling thread returns
+   * straight away. If a retry policy is set, retries are scheduled after each backoff instead
+   * of sleeping on a thread. The number of requests outstanding across the client's event
+   * resources is bounded by {@link NakadiClient.Builder#maxPublishingRequestsInFlight(int)};
+   * beyond that, sends wait their turn.
+   * </p>
+   * <p>
+   * The future completes as {@link #sendBatch(String, List)} returns, with items for a 422 or
+   * 207 response, or exceptionally with what it would throw. Futures complete on an HTTP
+   * client thread, so dependent work that blocks should be moved to an executor of the
+   * caller's own.
+   * </p>
+   * <p>
+   * The list and headers are copied before this returns, so they can be cleared or reused
+   * straight away. The events themselves are serialized when the request starts, and again
+   * on any retry, so they shouldn't be changed until the future completes.
+   * </p>
+   * <p>
+   * <b>Warning: </b> the ordering of batches sent concurrently is undefined, as it is under
+   * retries.
+   * </p>
+   * <p>
+   * The default implementation calls {@link #sendBatch(String, List)} on the calling thread
+   * and returns the already completed result.
+   * </p>
+   *
+   * @param eventTypeName the event type name
+   * @param events the events
+   * @param <T> the type of the events
+   * @return a future BatchItemResponseCollection
+   */
+  @Experimental
+  default <T> CompletableFuture<BatchItemResponseCollection> sendBatchAsync(String eventTypeName,
+      List<T> events) {
+    return sendBatchAsync(eventTypeName, events, new HashMap<>());
+  }
+  @Experimental
+  default <T> CompletableFuture<BatchItemResponseCollection> sendBatchAsync(String eventTypeName,
+      List<T> events, Map<String, Object> headers) {
+    final CompletableFuture<BatchItemResponseCollection> future = new CompletableFuture<>();
+    try {
+      future.complete(sendBatch(eventTypeName, events, headers));
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
 }
@@ -5,13 +5,18 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.gson.reflect.TypeToken;
+import io.reactivex.schedulers.Schedulers;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +38,9 @@ public class EventResourceReal implements EventResource {
   private final JsonSupport jsonSupport;
   private volatile RetryPolicy retryPolicy;
   private volatile String flowId;
+  private volatile long maxBatchBytes;
+  private volatile Function<Object, ?> partitionKey;
+  private volatile RetryPolicy partialRetryPolicy;
   private boolean enablePublishingCompression;
 
   private final CompressionSupport compressionSupport;
@@ -101,6 +109,25 @@ public class EventResourceReal implements EventResource {
     return this;
   }
 
+  @Override public EventResource maxBatchBytes(long maxBatchBytes) {
+    if (maxBatchBytes < 0) {
+      throw new NakadiException(Problem.localProblem(
+          "max batch bytes can't be negative", "max_batch_bytes=" + maxBatchBytes));
+    }
+    this.maxBatchBytes = maxBatchBytes;
+    return this;
+  }
+
+  @Override public EventResource partitionKey(Function<Object, ?> partitionKey) {
+    this.partitionKey = partitionKey;
+    return this;
+  }
+
+  @Override public EventResource partialRetryPolicy(RetryPolicy partialRetryPolicy) {
+    this.partialRetryPolicy = partialRetryPolicy;
+    return this;
+  }
+
   @Override
   public final <T> Response send(String eventTypeName, Collection<T> events) {
     return send(eventTypeName,events, SENTINEL_HEADERS);
@@ -160,9 +187,253 @@ public class EventResourceReal implements EventResource {
 
   @Override public <T> BatchItemResponseCollection sendBatch(String eventTypeName, List<T> events,
       Map<String, Object> headers) {
+    checkBatch(eventTypeName, events, headers);
+
+    final List<EventBatchSplitter.SubBatch<T>> subBatches = split(eventTypeName, events);
+    final RetryPolicy partialRetry = partialRetryPolicy;
+    if (subBatches == null && partialRetry == null) {
+      return batchItemResponses(send(eventTypeName, events, headers));
+    }
+
+    try {
+      return sendBatchAsync(eventTypeName, events, headers, subBatches, partialRetry).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  @Override public <T> CompletableFuture<BatchItemResponseCollection> sendAsync(
+      String eventTypeName, T event) {
+    return sendAsync(eventTypeName, event, SENTINEL_HEADERS);
+  }
+
+  @Override public <T> CompletableFuture<BatchItemResponseCollection> sendAsync(
+      String eventTypeName, T event, Map<String, Object> headers) {
+    NakadiException.throwNonNull(event, "Please provide an event");
+    return sendBatchAsync(eventTypeName, Collections.singletonList(event), headers);
+  }
+
+  @Override public <T> CompletableFuture<BatchItemResponseCollection> sendBatchAsync(
+      String eventTypeName, List<T> events) {
+    return sendBatchAsync(eventTypeName, events, SENTINEL_HEADERS);
+  }
+
+  @Override public <T> CompletableFuture<BatchItemResponseCollection> sendBatchAsync(
+      String eventTypeName, List<T> events, Map<String, Object> headers) {
+    checkBatch(eventTypeName, events, headers);
+    // serialized later, once the request starts and on each retry, so callers can reuse theirs
+    final List<T> batch = new ArrayList<>(events);
+    final Map<String, Object> batchHeaders = Maps.newHashMap(headers);
+    return sendBatchAsync(
+        eventTypeName, batch, batchHeaders, split(eventTypeName, batch), partialRetryPolicy);
+  }
+
+  private <T> CompletableFuture<BatchItemResponseCollection> sendBatchAsync(String eventTypeName,
+      List<T> events, Map<String, Object> headers, List<EventBatchSplitter.SubBatch<T>> subBatches,
+      RetryPolicy partialRetry) {
+    final CompletableFuture<BatchItemResponseCollection> sent = subBatches == null
+        ? postBatchAsync(eventTypeName, events, headers)
+        : sendSubBatchesAsync(eventTypeName, subBatches, headers);
+    if (partialRetry == null) {
+      return sent;
+    }
+
+    // resent batches are split as the first one was, and left to this policy alone
+    return sent.thenCompose(responses -> new PartialBatchRetry<>(client, eventTypeName, events,
+        partialRetry,
+        batch -> sendBatchAsync(eventTypeName, batch, headers, split(eventTypeName, batch), null),
+        Schedulers.computation())
+        .resendFailed(responses));
+  }
+
+  private <T> void checkBatch(String eventTypeName, List<T> events, Map<String, Object> headers) {
+    NakadiException.throwNonNull(eventTypeName, "Please provide an event type name");
+    NakadiException.throwNonNull(events, "Please provide one or more events");
+    NakadiException.throwNonNull(headers, "Please provide some headers");
+
+    if (events.isEmpty()) {
+      throw new NakadiException(Problem.localProblem("event send called with zero events", ""));
+    }
+  }
+
+  /**
+   * @return the sub-batches to send, or null if the events fit in one batch
+   */
+  private <T> List<EventBatchSplitter.SubBatch<T>> split(String eventTypeName, List<T> events) {
+    if (maxBatchBytes == 0 || events.size() < 2) {
+      return null;
+    }
+
+    final List<EventBatchSplitter.SubBatch<T>> subBatches =
+        new EventBatchSplitter(client, serializationSupport, maxBatchBytes, partitionKey)
+            .split(eventTypeName, events);
+    return subBatches.size() > 1 ? subBatches : null;
+  }
+
+  private <T> CompletableFuture<BatchItemResponseCollection> sendSubBatchesAsync(
+      String eventTypeName, List<EventBatchSplitter.SubBatch<T>> subBatches,
+      Map<String, Object> headers) {
+    logger.debug("op=send_batch msg=splitting event_type={} sub_batches={} max_batch_bytes={}",
+        eventTypeName, subBatches.size(), maxBatchBytes);
+
+    final List<CompletableFuture<SubBatchOutcome>> outcomes = new ArrayList<>(subBatches.size());
+    for (int i = 0; i < subBatches.size(); i++) {
+      final EventBatchSplitter.SubBatch<T> subBatch = subBatches.get(i);
+      final List<CompletableFuture<SubBatchOutcome>> earlier = new ArrayList<>();
+      for (int j = 0; j < i; j++) {
+        if (subBatch.follows(subBatches.get(j))) {
+          earlier.add(outcomes.get(j));
+        }
+      }
+
+      outcomes.add(CompletableFuture.allOf(earlier.toArray(new CompletableFuture[0]))
+          .thenCompose(ignored -> {
+            // sending after an earlier one for the same partition wasn't all accepted would
+            // publish its events ahead of the ones that have to be sent again
+            if (earlier.stream().anyMatch(o -> !o.join().wasAccepted())) {
+              return CompletableFuture.completedFuture(SubBatchOutcome.ABORTED);
+            }
+            return postSubBatchAsync(eventTypeName, subBatch, headers);
+          }));
+    }
+
+    return CompletableFuture.allOf(outcomes.toArray(new CompletableFuture[0]))
+        .thenApply(ignored -> mergeSubBatches(eventTypeName, subBatches, outcomes));
+  }
+
+  private <T> CompletableFuture<SubBatchOutcome> postSubBatchAsync(String eventTypeName,
+      EventBatchSplitter.SubBatch<T> subBatch, Map<String, Object> headers) {
+    try {
+      return postBatchAsync(eventTypeName, subBatch.events, headers)
+          .handle((responses, e) -> e == null
+              ? new SubBatchOutcome(responses, null)
+              : new SubBatchOutcome(null, unwrap(e)));
+    } catch (RuntimeException e) {
+      return CompletableFuture.completedFuture(new SubBatchOutcome(null, e));
+    }
+  }
+
+  private <T> BatchItemResponseCollection mergeSubBatches(String eventTypeName,
+      List<EventBatchSplitter.SubBatch<T>> subBatches,
+      List<CompletableFuture<SubBatchOutcome>> outcomes) {
+
+    boolean anySent = false;
+    boolean allSubmitted = true;
+    Throwable firstFailure = null;
+    for (CompletableFuture<SubBatchOutcome> future : outcomes) {
+      final SubBatchOutcome outcome = future.join();
+      if (outcome.wasSent()) {
+        anySent = true;
+        allSubmitted &= outcome.responses.items().isEmpty();
+      } else {
+        allSubmitted = false;
+        if (firstFailure == null) {
+          firstFailure = outcome.failure;
+        }
+      }
+    }
+
+    if (!anySent) {
+      throw firstFailure instanceof RuntimeException
+          ? (RuntimeException) firstFailure : new CompletionException(firstFailure);
+    }
+
+    if (allSubmitted) {
+      return new BatchItemResponseCollection(Lists.newArrayList(), LINKS_SENTINEL, client);
+    }
+
+    // sub-batches can hold events from anywhere in the batch, so items go back by position
+    final BatchItemResponse[] items =
+        new BatchItemResponse[subBatches.stream().mapToInt(b -> b.events.size()).sum()];
+    for (int i = 0; i < subBatches.size(); i++) {
+      final EventBatchSplitter.SubBatch<T> subBatch = subBatches.get(i);
+      final int size = subBatch.events.size();
+      final SubBatchOutcome outcome = outcomes.get(i).join();
+      if (outcome.wasSent() && !outcome.responses.items().isEmpty()
+          && outcome.responses.items().size() != size) {
+        // the server sends an item for each event in order; without that they can't be merged
+        throw new NakadiException(Problem.localProblem(
+            "Batch response items don't match the events sent",
+            String.format("event_type=%s sub_batch=%d events=%d items=%d", eventTypeName, i,
+                size, outcome.responses.items().size())));
+      }
+
+      for (int j = 0; j < size; j++) {
+        items[subBatch.indexes[j]] = subBatchItem(outcome, j);
+      }
+    }
+    return new BatchItemResponseCollection(Arrays.asList(items), LINKS_SENTINEL, client);
+  }
+
+  private static BatchItemResponse subBatchItem(SubBatchOutcome outcome, int j) {
+    if (!outcome.wasSent()) {
+      final boolean aborted = outcome.failure == null;
+      return new BatchItemResponse()
+          .publishingStatus(aborted
+              ? BatchItemResponse.PublishingStatus.aborted
+              : BatchItemResponse.PublishingStatus.failed)
+          .step(BatchItemResponse.Step.none)
+          .detail(aborted
+              ? "not sent after an earlier sub-batch was not accepted"
+              : outcome.failure.getMessage());
+    }
+
+    if (outcome.responses.items().isEmpty()) {
+      // accepted whole
+      return new BatchItemResponse()
+          .publishingStatus(BatchItemResponse.PublishingStatus.submitted)
+          .step(BatchItemResponse.Step.none);
+    }
+    return outcome.responses.items().get(j);
+  }
+
+  private static Throwable unwrap(Throwable t) {
+    return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+  }
+
+  private <T> CompletableFuture<BatchItemResponseCollection> postBatchAsync(
+      String eventTypeName, List<T> events, Map<String, Object> headers) {
+    // compression sets headers on the map, and sends can overlap, so each gets its own
+    final Map<String, Object> requestHeaders = Maps.newHashMap(headers);
+    final ContentSupplier supplier;
+    if (events.get(0) instanceof String) {
+      final String json = "[" + Joiner.on(",").join(events) + "]";
+      if (enablePublishingCompression) {
+        supplier = supplyStringAsCompressedAndSetHeaders(json, requestHeaders);
+      } else {
+        supplier = () -> json.getBytes(Charsets.UTF_8);
+      }
+    } else {
+      supplier = supplyObject(eventTypeName, events, requestHeaders);
+    }
+
+    final String url = collectionUri(eventTypeName).buildString();
+    final ResourceOptions options = options(requestHeaders);
+    final Resource resource = client.resourceProvider().newResource().retryPolicy(retryPolicy);
+
+    return client.publishingLimiter()
+        .submit(() -> timedAsync(resource.postEventsAsync(url, options, supplier), events.size()))
+        .thenApply(this::batchItemResponses);
+  }
+
+  private CompletableFuture<Response> timedAsync(CompletableFuture<Response> sending,
+      int eventCount) {
+    final long start = System.nanoTime();
+    return sending.whenComplete((response, e) -> {
+      if (response != null) {
+        emitMetric(client, response, eventCount);
+      }
+      client.metricCollector().duration(
+          MetricCollector.Timer.eventSend, (System.nanoTime() - start), TimeUnit.NANOSECONDS);
+    });
+  }
 
+  private BatchItemResponseCollection batchItemResponses(Response response) {
     List<BatchItemResponse> items = Lists.newArrayList();
-    try (Response send = send(eventTypeName, events, headers)) {
+    try (Response send = response) {
       if (send.statusCode() == 207 || send.statusCode() == 422) {
         ResponseBody responseBody = send.responseBody();
         items.addAll(jsonSupport.fromJson(responseBody.asReader(), TYPE_BIR));
@@ -186,13 +457,7 @@ public class EventResourceReal implements EventResource {
   private <T> Response sendBatchOfEvents(String eventTypeName, Collection<T> events, Map<String, Object> headers) {
     NakadiException.throwNonNull(events, "Please provide one or more event records");
 
-    final ContentSupplier supplier;
-
-    if(enablePublishingCompression) {
-      supplier =  supplyObjectAsCompressedAndSetHeaders(eventTypeName, events,  headers);
-    } else {
-      supplier = () -> serializationSupport.serializePayload(client, eventTypeName, events);
-    }
+    final ContentSupplier supplier = supplyObject(eventTypeName, events, headers);
 
     // todo: close
     return timed(() -> client.resourceProvider()
@@ -206,6 +471,18 @@ public class EventResourceReal implements EventResource {
         events.size());
   }
 
+  private <T> ContentSupplier supplyObject(String eventTypeName, Collection<T> events,
+      Map<String, Object> headers) {
+    if(enablePublishingCompression) {
+      // the length header is set by the http client from each attempt's compressed body
+      headers.put("Content-Encoding", compressionSupport.name());
+      return new EventBatchContent<>(
+          client, serializationSupport, eventTypeName, events, compressionSupport);
+    } else {
+      return new EventBatchContent<>(client, serializationSupport, eventTypeName, events, null);
+    }
+  }
+
   private ResourceOptions options(Map<String, Object> headers) {
       final ResourceOptions options = ResourceSupport.options(APPLICATION_JSON);
       options.tokenProvider(client.resourceTokenProvider());
@@ -224,11 +501,6 @@ public class EventResourceReal implements EventResource {
         .path(PATH_COLLECTION);
   }
 
-  private <T> ContentSupplier supplyObjectAsCompressedAndSetHeaders(String eventTypeName, Collection<T> sending, Map<String, Object> headers) {
-    final byte[] batchBytes = serializationSupport.serializePayload(client, eventTypeName, sending);
-    return supplyBytesAsCompressedAndSetHeaders(batchBytes, headers);
-  }
-
   private <T> ContentSupplier supplyStringAsCompressedAndSetHeaders(String sending, Map<String, Object> headers) {
     /*
     Minifying this successfully would require marshalling up to an object
@@ -248,4 +520,26 @@ public class EventResourceReal implements EventResource {
     headers.put("Content-Encoding", compressionSupport.name());
     return supplier;
   }
+
+  private static class SubBatchOutcome {
+
+    static final SubBatchOutcome ABORTED = new SubBatchOutcome(null, null);
+
+    final BatchItemResponseCollection responses;
+    final Throwable failure;
+
+    SubBatchOutcome(BatchItemResponseCollection responses, Throwable failure) {
+      this.responses = responses;
+      this.failure = failure;
+    }
+
+    boolean wasSent() {
+      return responses != null;
+    }
+
+    boolean wasAccepted() {
+      return wasSent() && responses.items().stream().allMatch(
+          item -> item.publishingStatus() == BatchItemResponse.PublishingStatus.submitted);
+    }
+  }
 }
@@ -19,7 +19,7 @@ import java.util.Objects;
  * @see nakadi.BusinessEventMapped
  * @see nakadi.UndefinedEventMapped
  */
-public class EventStreamBatch<T> {
+public class EventStreamBatch<T> implements StreamBatch<T> {
 
   private static final StreamInfo SENTINEL_STREAM_INFO = new StreamInfo();
 
@@ -37,14 +37,14 @@ public class EventStreamBatch<T> {
   /**
    * @return The cursor for this batch.
    */
-  public Cursor cursor() {
+  @Override public Cursor cursor() {
     return cursor;
   }
 
   /**
    * @return the stream information for this batch.
    */
-  public StreamInfo info() {
+  @Override public StreamInfo info() {
     // gson doesn't use the constructor, check this here
     if (info == null) {
       this.info = SENTINEL_STREAM_INFO;
@@ -55,14 +55,14 @@ public class EventStreamBatch<T> {
   /**
    * @return true if the batch is empty (signals a keep-alive batch).
    */
-  public boolean isEmpty() {
+  @Override public boolean isEmpty() {
     return events().isEmpty();
   }
 
   /**
    * @return the list of events in this batch.
    */
-  public List<T> events() {
+  @Override public List<T> events() {
     // gson doesn't use the constructor, check this here
     if (events == null) {
       this.events = new ArrayList<>(); // can't make this a constant because of <T>
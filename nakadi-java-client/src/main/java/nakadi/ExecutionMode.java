@@ -0,0 +1,26 @@
+package nakadi;
+
+/**
+ * The kind of threads the client runs its blocking work on, set via
+ * {@link NakadiClient.Builder#executionMode} or {@link StreamProcessor.Builder#executionMode}.
+ */
+@Experimental
+public enum ExecutionMode {
+
+  /**
+   * Run blocking work on platform threads. This is the default.
+   */
+  PLATFORM_THREADS,
+
+  /**
+   * Run blocking work on virtual threads, when the runtime is JDK 21 or later. Stream reads and
+   * observer callbacks for each {@link StreamProcessor} get a virtual thread of their own, as do
+   * retried resource requests. On older runtimes this falls back to {@link #PLATFORM_THREADS}
+   * with a warning.
+   * <p>
+   * A virtual thread that blocks while holding a monitor stays pinned to its carrier thread,
+   * so observers should avoid blocking inside synchronized code when this mode is used.
+   * </p>
+   */
+  VIRTUAL_THREADS
+}
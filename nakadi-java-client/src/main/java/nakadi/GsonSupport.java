@@ -4,13 +4,22 @@ import com.google.common.base.Charsets;
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
@@ -29,16 +38,27 @@ class GsonSupport implements JsonSupport {
   }
 
   private static final String METADATA_FIELD = "metadata";
+  private static final String CURSOR_FIELD = "cursor";
+  private static final String INFO_FIELD = "info";
+  private static final String EVENTS_FIELD = "events";
 
   private static final Type OFFSET_DATE_TIME_TYPE = new TypeToken<OffsetDateTime>() {
   }.getType();
 
   private final Gson gson;
   private final Gson gsonCompressed;
+  private final TypeAdapter<Cursor> cursorAdapter;
+  private final TypeAdapter<StreamInfo> streamInfoAdapter;
+  private final TypeAdapter<EventMetadata> eventMetadataAdapter;
+  private final TypeAdapter<JsonElement> jsonElementAdapter;
 
   public GsonSupport() {
     gson = gson();
     gsonCompressed = gsonCompressed();
+    cursorAdapter = gson.getAdapter(Cursor.class);
+    streamInfoAdapter = gson.getAdapter(StreamInfo.class);
+    eventMetadataAdapter = gson.getAdapter(EventMetadata.class);
+    jsonElementAdapter = gson.getAdapter(JsonElement.class);
   }
 
   public static Gson gsonCompressed() {
@@ -65,6 +85,14 @@ class GsonSupport implements JsonSupport {
     return toJsonCompressed(o).getBytes(Charsets.UTF_8);
   }
 
+  @Override public void toJsonCompressed(Object o, Writer writer) throws IOException {
+    try {
+      gsonCompressed.toJson(o, writer);
+    } catch (JsonIOException e) {
+      throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e);
+    }
+  }
+
   @Override public <T> T fromJson(String raw, Class<T> c) {
     if (String.class.isAssignableFrom(c)) {
       //noinspection unchecked
@@ -237,7 +265,141 @@ class GsonSupport implements JsonSupport {
   }
 
   @Override public <T> EventStreamBatch<T> marshalEventStreamBatch(String raw, Type type) {
-    // inefficient, marshal string to json; todo see how to pass JsonObject/chars directly
+    return marshalEventStreamBatch(new StringReader(raw), type);
+  }
+
+  @Override public <T> EventStreamBatch<T> marshalEventStreamBatch(
+      byte[] raw, int offset, int length, Type type) {
+    // read the line bytes in place rather than decoding them to an interim String
+    return marshalEventStreamBatch(new Utf8ByteArrayReader(raw, offset, length), type);
+  }
+
+  @Override public <T> T marshalEvent(byte[] raw, int offset, int length, Type type) {
+    final JsonReader in = gson.newJsonReader(new Utf8ByteArrayReader(raw, offset, length));
+    in.setLenient(true);
+    try {
+      return readEvent(in, type);
+    } catch (IOException | IllegalStateException | NumberFormatException e) {
+      throw new JsonSyntaxException(e);
+    }
+  }
+
+  /*
+   * Reads the batch's cursor, info and events in a single pass over the json, handing each
+   * event to a reader for its category as it's reached instead of first building a tree for
+   * the whole batch and marshalling every event a second time.
+   */
+  private <T> EventStreamBatch<T> marshalEventStreamBatch(Reader raw, Type type) {
+    final JsonReader in = gson.newJsonReader(raw);
+    // match gson.fromJson, which the two pass marshalling went through
+    in.setLenient(true);
+    try {
+      Cursor cursor = null;
+      StreamInfo info = null;
+      final List<T> events = new ArrayList<>();
+
+      in.beginObject();
+      while (in.hasNext()) {
+        final String name = in.nextName();
+        if (CURSOR_FIELD.equals(name)) {
+          cursor = cursorAdapter.read(in);
+        } else if (INFO_FIELD.equals(name)) {
+          info = streamInfoAdapter.read(in);
+        } else if (EVENTS_FIELD.equals(name)) {
+          readEvents(in, type, events);
+        } else {
+          in.skipValue();
+        }
+      }
+      in.endObject();
+
+      return new EventStreamBatch<>(cursor, info, events);
+    } catch (IOException | IllegalStateException | NumberFormatException e) {
+      throw new JsonSyntaxException(e);
+    }
+  }
+
+  private <T> void readEvents(JsonReader in, Type type, List<T> events) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return;
+    }
+
+    in.beginArray();
+    while (in.hasNext()) {
+      events.add(readEvent(in, type));
+    }
+    in.endArray();
+  }
+
+  private <T> T readEvent(JsonReader in, Type type) throws IOException {
+    // the same workarounds as marshalJsonObjectToEvent, applied as the event is read
+
+    if (isAssignableFrom(type, UndefinedEventMapped.class)) {
+      // the whole event is the custom data
+      final Type dataType = mappedDataType(type, UndefinedEventMapped.class);
+      //noinspection unchecked
+      return (T) new UndefinedEventMapped<>(readValue(in, dataType));
+    }
+
+    if (isAssignableFrom(type, BusinessEventMapped.class)) {
+      return readBusinessEventMapped(in, type);
+    }
+
+    return readValue(in, type);
+  }
+
+  private <T> T readBusinessEventMapped(JsonReader in, Type type) throws IOException {
+    final Type dataType = mappedDataType(type, BusinessEventMapped.class);
+
+    /*
+     * The metadata is read directly. The custom fields sit beside it at the top level and we
+     * only know where they end when the event does, so those are collected into an object and
+     * marshalled from there. That object holds just the custom fields, never the metadata.
+     */
+    EventMetadata metadata = null;
+    final JsonObject data = new JsonObject();
+
+    in.beginObject();
+    while (in.hasNext()) {
+      final String name = in.nextName();
+      if (METADATA_FIELD.equals(name)) {
+        metadata = eventMetadataAdapter.read(in);
+      } else {
+        data.add(name, jsonElementAdapter.read(in));
+      }
+    }
+    in.endObject();
+
+    //noinspection unchecked
+    return (T) new BusinessEventMapped<>(fromJson(data, dataType), metadata);
+  }
+
+  private <T> T readValue(JsonReader in, Type type) throws IOException {
+    if (type.getTypeName().equals("java.lang.String")) {
+      //noinspection unchecked
+      return (T) jsonElementAdapter.read(in).toString();
+    }
+    //noinspection unchecked
+    return (T) gson.getAdapter(TypeToken.get(type)).read(in);
+  }
+
+  private Type mappedDataType(Type type, Class<?> mappedClass) {
+    if (type instanceof ParameterizedType) {
+      // the generic parameter captured by the mapped event is the type of its data
+      return ((ParameterizedType) type).getActualTypeArguments()[0];
+    }
+    throw new IllegalArgumentException(
+        "Supplied type must be a parameterized " + mappedClass.getSimpleName()
+            + type.getTypeName());
+  }
+
+  /**
+   * The original two pass marshalling, which reads the batch into a tree and then marshals each
+   * event from its subtree. Kept to verify the single pass reader produces the same batches.
+   */
+  @VisibleForTesting
+  <T> EventStreamBatch<T> marshalEventStreamBatchTwoPass(String raw, Type type) {
     EventStreamBatch<JsonObject> esb = marshalBatch(raw, EVENT_STREAM_BATCH_FIRSTPASS_TYPE);
     List<T> ts = marshallEvents(type, esb.events());
     esb.events().clear(); // deallocate interim data
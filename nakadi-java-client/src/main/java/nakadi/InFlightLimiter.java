@@ -0,0 +1,109 @@
+package nakadi;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Bounds how many asynchronous requests are outstanding at once. A request holds its permit
+ * from when it starts until its future completes, including any time spent waiting to retry.
+ * Requests submitted beyond the limit wait in arrival order and start as permits are released;
+ * no thread is blocked while they wait.
+ * <p>
+ * Waiting requests are started in a loop by the thread that released a permit, rather than
+ * each from the completion of the one before, so a run of requests that complete as soon as
+ * they start doesn't deepen the stack.
+ * </p>
+ */
+class InFlightLimiter {
+
+  private final int limit;
+  private final Queue<Runnable> waiting = new ArrayDeque<>();
+  private int inFlight;
+  private boolean draining;
+
+  InFlightLimiter(int limit) {
+    this.limit = limit;
+  }
+
+  /**
+   * Start the request now if a permit is free, or when one is.
+   *
+   * @param request starts the request and supplies its future
+   * @return a future completed as the request's future is
+   */
+  <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> request) {
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    final Runnable start = () -> start(request, result);
+
+    synchronized (this) {
+      // queue behind requests already waiting, so a release can't be overtaken
+      if (inFlight >= limit || !waiting.isEmpty()) {
+        waiting.add(start);
+        return result;
+      }
+      inFlight++;
+    }
+
+    start.run();
+    return result;
+  }
+
+  private <T> void start(Supplier<CompletableFuture<T>> request, CompletableFuture<T> result) {
+    CompletableFuture<T> future;
+    try {
+      future = request.get();
+    } catch (Throwable e) {
+      future = new CompletableFuture<>();
+      future.completeExceptionally(e);
+    }
+
+    future.whenComplete((value, e) -> {
+      release();
+      if (e != null) {
+        result.completeExceptionally(e);
+      } else {
+        result.complete(value);
+      }
+    });
+  }
+
+  private void release() {
+    synchronized (this) {
+      inFlight--;
+      if (draining) {
+        // the thread already draining picks up this permit
+        return;
+      }
+      draining = true;
+    }
+
+    while (true) {
+      final Runnable next;
+      synchronized (this) {
+        if (inFlight >= limit || waiting.isEmpty()) {
+          draining = false;
+          return;
+        }
+        next = waiting.poll();
+        inFlight++;
+      }
+      next.run();
+    }
+  }
+
+  int limit() {
+    return limit;
+  }
+
+  @VisibleForTesting
+  synchronized int inFlight() {
+    return inFlight;
+  }
+
+  @VisibleForTesting
+  synchronized int waiting() {
+    return waiting.size();
+  }
+}
@@ -1,7 +1,9 @@
 package nakadi;
 
 import java.lang.reflect.Type;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 
 class JsonBatchSupport {
 
@@ -25,7 +27,48 @@ class JsonBatchSupport {
     return new StreamBatchRecordReal<>(marshalEventStreamBatch(line, type), observer, context);
   }
 
+  public <T> StreamBatchRecordReal<T> lineToSubscriptionStreamBatchRecord(
+      byte[] line, int offset, int length, Type type, StreamOffsetObserver observer,
+      String xNakadiStreamId, String subscriptionId) {
+    HashMap<String, String> context = new HashMap<>();
+    context.put(StreamResourceSupport.X_NAKADI_STREAM_ID, xNakadiStreamId);
+    context.put(StreamResourceSupport.SUBSCRIPTION_ID, subscriptionId);
+    return lineToStreamBatchRecord(line, offset, length, type, observer, context, false);
+  }
+
+  /**
+   * Make a record from a batch line read off a stream. The context is shared by the records of
+   * a subscription stream session and is null for event type streams.
+   */
+  public <T> StreamBatchRecordReal<T> lineToStreamBatchRecord(byte[] line, int offset,
+      int length, Type type, StreamOffsetObserver observer, Map<String, String> context,
+      boolean lazy) {
+    final StreamBatch<T> batch = lazy
+        ? LazyStreamBatchReal.fromLine(line, offset, length, type, jsonSupport)
+        : marshalEventStreamBatch(line, offset, length, type);
+    return new StreamBatchRecordReal<>(batch, observer, context);
+  }
+
+  /**
+   * Make a record for a keepalive found by {@link KeepaliveScanner}. The context can be shared
+   * across the keepalives of a stream session, and is null for event type streams. Observers
+   * asking for lazy batches get an empty {@link LazyStreamBatch} so every batch they see has
+   * the same type.
+   */
+  public <T> StreamBatchRecord<T> keepaliveToStreamBatchRecord(Cursor cursor,
+      StreamOffsetObserver observer, Map<String, String> context, boolean lazy) {
+    final StreamBatch<T> batch = lazy
+        ? LazyStreamBatchReal.keepalive(cursor)
+        : new EventStreamBatch<T>(cursor, null, Collections.emptyList());
+    return new StreamBatchRecordReal<>(batch, observer, context);
+  }
+
   private <T> EventStreamBatch<T> marshalEventStreamBatch(String line, Type type) {
     return jsonSupport.marshalEventStreamBatch(line, type);
   }
+
+  private <T> EventStreamBatch<T> marshalEventStreamBatch(
+      byte[] line, int offset, int length, Type type) {
+    return jsonSupport.marshalEventStreamBatch(line, offset, length, type);
+  }
 }
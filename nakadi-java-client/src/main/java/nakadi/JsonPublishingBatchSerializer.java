@@ -1,7 +1,12 @@
 package nakadi;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collection;
+import java.util.List;
 import java.util.stream.Collectors;
+import okio.BufferedSink;
+import okio.Okio;
 
 public class JsonPublishingBatchSerializer implements PublishingBatchSerializer {
 
@@ -13,9 +18,22 @@ public class JsonPublishingBatchSerializer implements PublishingBatchSerializer
 
   @Override
   public <T> byte[] toBytes(SerializationContext context, Collection<T> events) {
-    return jsonSupport.toJsonBytesCompressed(events.stream()
+    return jsonSupport.toJsonBytesCompressed(eventRecords(context, events));
+  }
+
+  @Override
+  public <T> void writeTo(SerializationContext context, Collection<T> events, OutputStream out)
+      throws IOException {
+    // not closed, that would close the stream underneath
+    final BufferedSink sink = Okio.buffer(Okio.sink(out));
+    jsonSupport.toJsonCompressed(eventRecords(context, events), new Utf8SinkWriter(sink));
+    sink.emit();
+  }
+
+  private <T> List<Object> eventRecords(SerializationContext context, Collection<T> events) {
+    return events.stream()
         .map(e -> new EventRecord<>(context.name(), e))
         .map(jsonSupport::transformEventRecord)
-        .collect(Collectors.toList()));
+        .collect(Collectors.toList());
   }
 }
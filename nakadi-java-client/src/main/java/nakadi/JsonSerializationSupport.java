@@ -1,5 +1,7 @@
 package nakadi;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -24,6 +26,13 @@ public class JsonSerializationSupport implements SerializationSupport {
     return payloadSerializer.toBytes(context, events);
   }
 
+  @Override
+  public <T> void serializePayload(NakadiClient client, String eventTypeName,
+      Collection<T> events, OutputStream out) throws IOException {
+    SerializationContext context = contextCache.computeIfAbsent(eventTypeName, JsonSerializationContext::new);
+    payloadSerializer.writeTo(context, events, out);
+  }
+
   @Override
   public String contentType() {
     return ResourceSupport.APPLICATION_JSON_CHARSET_UTF_8;
@@ -1,7 +1,10 @@
 package nakadi;
 
+import java.io.IOException;
 import java.io.Reader;
+import java.io.Writer;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Provides JSON support for the client.
@@ -28,6 +31,19 @@ public interface JsonSupport {
 
   byte[] toJsonBytesCompressed(Object o);
 
+  /**
+   * Write the object as JSON with newlines and whitespace removed. The default writes the
+   * String from {@link #toJsonCompressed(Object)}; implementations that can write as they
+   * go should override this.
+   *
+   * @param o the target object
+   * @param writer where to write the JSON, which is not flushed or closed
+   * @throws IOException if the writer fails
+   */
+  default void toJsonCompressed(Object o, Writer writer) throws IOException {
+    writer.write(toJsonCompressed(o));
+  }
+
   /**
    * Marshal the JSON data to an instance of T.
    *
@@ -72,4 +88,47 @@ public interface JsonSupport {
 
   <T> EventStreamBatch<T> marshalEventStreamBatch(String raw, Type type);
 
+  /**
+   * Marshal a batch line held as UTF-8 bytes to an {@link EventStreamBatch}.
+   * <p>
+   * This is used by the stream consumer to avoid creating a String for every batch line. The
+   * supplied array may be reused by the caller once this method returns, so implementations
+   * must not hold onto it. The default implementation decodes the bytes to a String and
+   * calls {@link #marshalEventStreamBatch(String, Type)}.
+   * </p>
+   *
+   * @param raw the array holding the batch line
+   * @param offset the start of the batch line in the array
+   * @param length the number of bytes in the batch line
+   * @param type the type of the events in the batch
+   * @param <T> the parameterized event type
+   * @return an {@link EventStreamBatch}
+   */
+  default <T> EventStreamBatch<T> marshalEventStreamBatch(
+      byte[] raw, int offset, int length, Type type) {
+    return marshalEventStreamBatch(new String(raw, offset, length, StandardCharsets.UTF_8), type);
+  }
+
+  /**
+   * Marshal a single event from a batch, held as UTF-8 bytes, to an instance of T.
+   * <p>
+   * This is used by {@link LazyStreamBatch} to marshal events as they're accessed, and must
+   * handle the event categories the same way as {@link #marshalEventStreamBatch(String, Type)}.
+   * The default implementation wraps the event in a batch of one and marshals that.
+   * </p>
+   *
+   * @param raw the array holding the event
+   * @param offset the start of the event in the array
+   * @param length the number of bytes in the event
+   * @param type the type of the event
+   * @param <T> the parameterized event type
+   * @return the event
+   */
+  default <T> T marshalEvent(byte[] raw, int offset, int length, Type type) {
+    final String batch = "{\"cursor\":{\"partition\":\"\",\"offset\":\"\"},\"events\":["
+        + new String(raw, offset, length, StandardCharsets.UTF_8) + "]}";
+    final EventStreamBatch<T> esb = marshalEventStreamBatch(batch, type);
+    return esb.events().get(0);
+  }
+
 }
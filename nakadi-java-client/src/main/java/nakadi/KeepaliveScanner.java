@@ -0,0 +1,196 @@
+package nakadi;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Recognises keepalive batches, those with a cursor and no events, from the raw bytes of a
+ * batch line and extracts their cursor without going through {@link JsonSupport}.
+ * <p>
+ * The scanner only accepts the plain form of a keepalive, an object holding a cursor of string
+ * fields and optionally an empty events array. Anything else, including a batch with stream
+ * info or escaped strings, is reported as not a keepalive and left to the full parser, so a
+ * line the scanner gets wrong costs a second look rather than a lost batch.
+ * </p>
+ */
+class KeepaliveScanner {
+
+  private static final byte[] CURSOR = bytes("cursor");
+  private static final byte[] EVENTS = bytes("events");
+  private static final byte[] PARTITION = bytes("partition");
+  private static final byte[] OFFSET = bytes("offset");
+  private static final byte[] EVENT_TYPE = bytes("event_type");
+  private static final byte[] CURSOR_TOKEN = bytes("cursor_token");
+
+  private final byte[] line;
+  private final int end;
+  private int pos;
+  // bounds of the last string read
+  private int stringStart;
+  private int stringEnd;
+
+  private KeepaliveScanner(byte[] line, int offset, int length) {
+    this.line = line;
+    this.pos = offset;
+    this.end = offset + length;
+  }
+
+  /**
+   * Scan a batch line for a keepalive.
+   *
+   * @return the keepalive's cursor, or null if the line isn't a plain keepalive.
+   */
+  static Cursor scan(byte[] line, int offset, int length) {
+    return new KeepaliveScanner(line, offset, length).keepaliveCursor();
+  }
+
+  private Cursor keepaliveCursor() {
+    if (!consume('{')) {
+      return null;
+    }
+
+    Cursor cursor = null;
+    while (true) {
+      if (!readString() || !consume(':')) {
+        return null;
+      }
+
+      if (stringEquals(CURSOR) && cursor == null) {
+        cursor = readCursor();
+        if (cursor == null) {
+          return null;
+        }
+      } else if (stringEquals(EVENTS)) {
+        // events are usually left out of a keepalive, but an empty array is still one
+        if (!consume('[') || !consume(']')) {
+          return null;
+        }
+      } else {
+        return null;
+      }
+
+      if (consume(',')) {
+        continue;
+      }
+      if (consume('}')) {
+        break;
+      }
+      return null;
+    }
+
+    skipWhitespace();
+    return pos == end ? cursor : null;
+  }
+
+  private Cursor readCursor() {
+    if (!consume('{')) {
+      return null;
+    }
+
+    final Cursor cursor = new Cursor();
+    while (true) {
+      if (!readString() || !consume(':')) {
+        return null;
+      }
+
+      final byte[] field;
+      if (stringEquals(PARTITION)) {
+        field = PARTITION;
+      } else if (stringEquals(OFFSET)) {
+        field = OFFSET;
+      } else if (stringEquals(EVENT_TYPE)) {
+        field = EVENT_TYPE;
+      } else if (stringEquals(CURSOR_TOKEN)) {
+        field = CURSOR_TOKEN;
+      } else {
+        field = null;
+      }
+
+      if (!readString()) {
+        return null;
+      }
+
+      if (field == PARTITION) {
+        cursor.partition(stringValue());
+      } else if (field == OFFSET) {
+        cursor.offset(stringValue());
+      } else if (field == EVENT_TYPE) {
+        cursor.eventType(stringValue());
+      } else if (field == CURSOR_TOKEN) {
+        cursor.cursorToken(stringValue());
+      }
+
+      if (consume(',')) {
+        continue;
+      }
+      if (consume('}')) {
+        break;
+      }
+      return null;
+    }
+
+    if (cursor.partition() == null || cursor.offset() == null) {
+      return null;
+    }
+    return cursor;
+  }
+
+  private boolean readString() {
+    if (!consume('"')) {
+      return false;
+    }
+
+    stringStart = pos;
+    while (pos < end) {
+      final byte b = line[pos];
+      if (b == '"') {
+        stringEnd = pos++;
+        return true;
+      }
+      if (b == '\\' || (b >= 0 && b < 0x20)) {
+        // leave escapes and control characters to the full parser
+        return false;
+      }
+      pos++;
+    }
+    return false;
+  }
+
+  private boolean stringEquals(byte[] expected) {
+    if (stringEnd - stringStart != expected.length) {
+      return false;
+    }
+    for (int i = 0; i < expected.length; i++) {
+      if (line[stringStart + i] != expected[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String stringValue() {
+    return new String(line, stringStart, stringEnd - stringStart, StandardCharsets.UTF_8);
+  }
+
+  private boolean consume(char c) {
+    skipWhitespace();
+    if (pos < end && line[pos] == c) {
+      pos++;
+      return true;
+    }
+    return false;
+  }
+
+  private void skipWhitespace() {
+    while (pos < end) {
+      final byte b = line[pos];
+      if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+        return;
+      }
+      pos++;
+    }
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+}
@@ -0,0 +1,68 @@
+package nakadi;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A {@link StreamBatch} that keeps each event's raw JSON and only marshals an event to T when
+ * it's first asked for. Batches are delivered this way when the
+ * {@link StreamObserverProvider#decodeEventsLazily()} opts in, and can be had by casting
+ * {@link StreamBatchRecord#streamBatch()}.
+ * <p>
+ * The cursor and info are read when the batch arrives. The list returned by {@link #events()}
+ * marshals each event as it's accessed, so an observer that only looks at a few events, or
+ * just the cursor and the raw bytes, doesn't pay for marshalling the rest. A marshalled event
+ * is kept and returned on later access. An event that can't be marshalled throws when it's
+ * accessed rather than when the batch arrives.
+ * </p>
+ * <p>
+ * When the provider's type literal is {@link TypeLiterals#OF_BYTE_BUFFER} events are never
+ * marshalled, and {@link #events()} holds the same buffers as {@link #rawEvents()}.
+ * </p>
+ * <p>
+ * Batches aren't safe for concurrent access from multiple threads.
+ * </p>
+ *
+ * @param <T> the type of the events in the batch
+ */
+@Experimental
+public interface LazyStreamBatch<T> extends StreamBatch<T> {
+
+  /**
+   * The number of events in the batch, without marshalling them.
+   *
+   * @return the number of events
+   */
+  int size();
+
+  /**
+   * The raw JSON of an event.
+   *
+   * @param index the position of the event in the batch
+   * @return a read only buffer holding the event's UTF-8 JSON
+   * @throws IndexOutOfBoundsException if the index is outside the batch
+   */
+  ByteBuffer rawEvent(int index);
+
+  /**
+   * The raw JSON of the events in the batch.
+   *
+   * @return read only buffers holding each event's UTF-8 JSON
+   */
+  List<ByteBuffer> rawEvents();
+
+  /**
+   * The event at a position in the batch, marshalling it if that hasn't happened already.
+   *
+   * @param index the position of the event in the batch
+   * @return the event
+   * @throws IndexOutOfBoundsException if the index is outside the batch
+   */
+  T event(int index);
+
+  /**
+   * @param index the position of the event in the batch
+   * @return true if the event has been marshalled
+   */
+  boolean isDecoded(int index);
+}
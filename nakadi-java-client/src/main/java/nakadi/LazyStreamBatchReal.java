@@ -0,0 +1,322 @@
+package nakadi;
+
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+class LazyStreamBatchReal<T> implements LazyStreamBatch<T> {
+
+  private static final StreamInfo EMPTY_STREAM_INFO = new StreamInfo();
+  private static final int[] NO_EVENTS = new int[0];
+
+  private final JsonSupport jsonSupport;
+  private final Type type;
+  private final boolean raw;
+  private final byte[] line;
+  private final Cursor cursor;
+  private final StreamInfo info;
+  private final int[] eventOffsets;
+  private final int[] eventLengths;
+  private final Object[] decoded;
+  private final List<T> events = new LazyEvents();
+  private final List<ByteBuffer> rawEvents = new RawEvents();
+
+  private LazyStreamBatchReal(JsonSupport jsonSupport, Type type, byte[] line, Cursor cursor,
+      StreamInfo info, int[] eventOffsets, int[] eventLengths) {
+    this.jsonSupport = jsonSupport;
+    this.type = type;
+    this.raw = isRaw(type);
+    this.line = line;
+    this.cursor = cursor;
+    this.info = info == null ? EMPTY_STREAM_INFO : info;
+    this.eventOffsets = eventOffsets;
+    this.eventLengths = eventLengths;
+    this.decoded = new Object[eventOffsets.length];
+  }
+
+  /**
+   * Split a batch line into its cursor, info and raw events. The line is copied, so the
+   * caller can reuse its array once this returns.
+   */
+  static <T> LazyStreamBatchReal<T> fromLine(byte[] buffer, int offset, int length, Type type,
+      JsonSupport jsonSupport) {
+    final byte[] line = Arrays.copyOfRange(buffer, offset, offset + length);
+    return new Splitter(line).split(type, jsonSupport);
+  }
+
+  /**
+   * True if events of this type are passed through as their raw bytes.
+   */
+  static boolean isRaw(Type type) {
+    return type == ByteBuffer.class;
+  }
+
+  static <T> LazyStreamBatchReal<T> keepalive(Cursor cursor) {
+    return new LazyStreamBatchReal<>(null, null, null, cursor, null, NO_EVENTS, NO_EVENTS);
+  }
+
+  @Override public Cursor cursor() {
+    return cursor;
+  }
+
+  @Override public StreamInfo info() {
+    return info;
+  }
+
+  @Override public List<T> events() {
+    return events;
+  }
+
+  @Override public boolean isEmpty() {
+    return eventOffsets.length == 0;
+  }
+
+  @Override public int size() {
+    return eventOffsets.length;
+  }
+
+  @Override public ByteBuffer rawEvent(int index) {
+    checkIndex(index);
+    return ByteBuffer.wrap(line, eventOffsets[index], eventLengths[index]).slice()
+        .asReadOnlyBuffer();
+  }
+
+  @Override public List<ByteBuffer> rawEvents() {
+    return rawEvents;
+  }
+
+  @Override public T event(int index) {
+    if (raw) {
+      //noinspection unchecked
+      return (T) rawEvent(index);
+    }
+    checkIndex(index);
+    Object event = decoded[index];
+    if (event == null) {
+      event = jsonSupport.marshalEvent(line, eventOffsets[index], eventLengths[index], type);
+      decoded[index] = event;
+    }
+    //noinspection unchecked
+    return (T) event;
+  }
+
+  @Override public boolean isDecoded(int index) {
+    checkIndex(index);
+    return raw || decoded[index] != null;
+  }
+
+  @Override public String toString() {
+    return "LazyStreamBatchReal{" + "cursor=" + cursor +
+        ", info=" + info +
+        ", size=" + eventOffsets.length +
+        '}';
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= eventOffsets.length) {
+      throw new IndexOutOfBoundsException("index=" + index + " size=" + eventOffsets.length);
+    }
+  }
+
+  private class LazyEvents extends AbstractList<T> implements RandomAccess {
+
+    @Override public T get(int index) {
+      return event(index);
+    }
+
+    @Override public int size() {
+      return eventOffsets.length;
+    }
+  }
+
+  private class RawEvents extends AbstractList<ByteBuffer> implements RandomAccess {
+
+    @Override public ByteBuffer get(int index) {
+      return rawEvent(index);
+    }
+
+    @Override public int size() {
+      return eventOffsets.length;
+    }
+  }
+
+  /*
+   * Finds the bounds of the batch's top level values by tracking strings and nesting, without
+   * building anything from them. The cursor and info are small and marshalled straight away;
+   * the events are only located.
+   */
+  private static class Splitter {
+
+    private final byte[] line;
+    private int pos;
+
+    Splitter(byte[] line) {
+      this.line = line;
+    }
+
+    <T> LazyStreamBatchReal<T> split(Type type, JsonSupport jsonSupport) {
+      Cursor cursor = null;
+      StreamInfo info = null;
+      int[] offsets = NO_EVENTS;
+      int[] lengths = NO_EVENTS;
+
+      expect('{');
+      if (!consume('}')) {
+        do {
+          final String name = readName();
+          expect(':');
+          skipWhitespace();
+          final int start = pos;
+          if ("events".equals(name) && peek() == '[') {
+            pos++;
+            int count = 0;
+            offsets = new int[8];
+            lengths = new int[8];
+            if (!consume(']')) {
+              do {
+                skipWhitespace();
+                final int eventStart = pos;
+                skipValue();
+                if (count == offsets.length) {
+                  offsets = Arrays.copyOf(offsets, count * 2);
+                  lengths = Arrays.copyOf(lengths, count * 2);
+                }
+                offsets[count] = eventStart;
+                lengths[count] = pos - eventStart;
+                count++;
+              } while (consume(','));
+              expect(']');
+            }
+            offsets = Arrays.copyOf(offsets, count);
+            lengths = Arrays.copyOf(lengths, count);
+          } else {
+            skipValue();
+            if ("cursor".equals(name)) {
+              cursor = jsonSupport.fromJson(slice(start), Cursor.class);
+            } else if ("info".equals(name)) {
+              info = jsonSupport.fromJson(slice(start), StreamInfo.class);
+            }
+          }
+        } while (consume(','));
+        expect('}');
+      }
+
+      if (cursor == null) {
+        throw malformed("batch has no cursor");
+      }
+      return new LazyStreamBatchReal<>(jsonSupport, type, line, cursor, info, offsets, lengths);
+    }
+
+    private String slice(int start) {
+      return new String(line, start, pos - start, StandardCharsets.UTF_8);
+    }
+
+    private String readName() {
+      skipWhitespace();
+      if (peek() != '"') {
+        throw malformed("expected a field name");
+      }
+      final int start = pos + 1;
+      skipString();
+      // batch field names are plain ascii
+      return new String(line, start, pos - 1 - start, StandardCharsets.UTF_8);
+    }
+
+    private void skipValue() {
+      skipWhitespace();
+      final byte b = peek();
+      if (b == '"') {
+        skipString();
+      } else if (b == '{' || b == '[') {
+        skipNested();
+      } else {
+        // a number, true, false or null
+        final int start = pos;
+        while (pos < line.length) {
+          final byte c = line[pos];
+          if (c == ',' || c == '}' || c == ']' || isWhitespace(c)) {
+            break;
+          }
+          pos++;
+        }
+        if (pos == start) {
+          throw malformed("expected a value");
+        }
+      }
+    }
+
+    private void skipNested() {
+      int depth = 0;
+      while (pos < line.length) {
+        final byte b = line[pos];
+        if (b == '"') {
+          skipString();
+          continue;
+        }
+        pos++;
+        if (b == '{' || b == '[') {
+          depth++;
+        } else if (b == '}' || b == ']') {
+          if (--depth == 0) {
+            return;
+          }
+        }
+      }
+      throw malformed("unterminated object or array");
+    }
+
+    private void skipString() {
+      pos++; // opening quote
+      while (pos < line.length) {
+        final byte b = line[pos++];
+        if (b == '\\') {
+          pos++;
+        } else if (b == '"') {
+          return;
+        }
+      }
+      throw malformed("unterminated string");
+    }
+
+    private byte peek() {
+      if (pos >= line.length) {
+        throw malformed("unexpected end of batch");
+      }
+      return line[pos];
+    }
+
+    private void expect(char c) {
+      if (!consume(c)) {
+        throw malformed("expected '" + c + "'");
+      }
+    }
+
+    private boolean consume(char c) {
+      skipWhitespace();
+      if (pos < line.length && line[pos] == c) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    private void skipWhitespace() {
+      while (pos < line.length && isWhitespace(line[pos])) {
+        pos++;
+      }
+    }
+
+    private static boolean isWhitespace(byte b) {
+      return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private NakadiException malformed(String detail) {
+      return new NakadiException(Problem.localProblem("malformed_stream_batch",
+          String.format("%s at position %d", detail, pos)));
+    }
+  }
+}
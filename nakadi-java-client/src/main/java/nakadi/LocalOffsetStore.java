@@ -0,0 +1,348 @@
+package nakadi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the latest cursor for each event type partition in a local file, so an event type
+ * stream can carry on from where it got to after the process restarts. Give it to
+ * {@link StreamProcessor.Builder#offsetStore(LocalOffsetStore)} and the processor records each
+ * cursor its observer checkpoints, and reads the store each time it connects to choose where
+ * to start.
+ * <p>
+ * The file is an append only log, mapped into memory, of records that each hold one cursor and
+ * a checksum. Storing a cursor is a copy into the mapping rather than a system call, and the
+ * latest cursors are also kept in memory for reads. When the log fills it's compacted down to
+ * the latest cursor per partition, written to a new file that's moved over the old one, and
+ * grown if that's still more than half full. On opening, the log is read up to the first
+ * record that's incomplete or fails its checksum, so a write torn by a crash loses only that
+ * cursor and reading starts a little earlier, never from a corrupted offset.
+ * </p>
+ * <p>
+ * Writes reach the operating system as they're made and so survive the process crashing. They
+ * are flushed to disk on {@link #sync()}, compaction and {@link #close()}; cursors stored
+ * since the last flush can be lost if the machine itself fails. A store should be used by
+ * one process at a time.
+ * </p>
+ */
+@Experimental
+public class LocalOffsetStore implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(NakadiClient.class.getSimpleName());
+
+  static final int DEFAULT_CAPACITY_BYTES = 1 << 20;
+  private static final int MAGIC = 0x4e4b4f53;
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 8;
+  // record length and checksum
+  private static final int RECORD_OVERHEAD_BYTES = 8;
+
+  private final Path path;
+  private final Map<String, Map<String, String>> offsets = new ConcurrentHashMap<>();
+  private final CRC32 crc = new CRC32();
+  // guarded by this
+  private MappedByteBuffer log;
+  private FileChannel channel;
+  private boolean closed;
+
+  private LocalOffsetStore(Path path) {
+    this.path = path;
+  }
+
+  /**
+   * Open the store at the given file, creating it if it doesn't exist.
+   *
+   * @param path the file
+   * @return the store
+   * @throws NakadiException if the file can't be read or written, or isn't an offset store
+   */
+  public static LocalOffsetStore open(Path path) throws NakadiException {
+    NakadiException.throwNonNull(path, "Please provide a path for the offset store");
+    final LocalOffsetStore store = new LocalOffsetStore(path);
+    try {
+      store.load();
+    } catch (IOException e) {
+      throw new NakadiException(
+          Problem.localProblem("offset_store_open_failed", path + " " + e.getMessage()), e);
+    }
+    return store;
+  }
+
+  /**
+   * The stored cursor for a partition.
+   *
+   * @param eventTypeName the event type
+   * @param partition the partition
+   * @return the cursor, or {@link Optional#empty()} if there isn't one
+   */
+  public Optional<Cursor> cursor(String eventTypeName, String partition) {
+    final Map<String, String> partitions = offsets.get(eventTypeName);
+    final String offset = partitions == null ? null : partitions.get(partition);
+    return offset == null ? Optional.empty() : Optional.of(new Cursor(partition, offset));
+  }
+
+  /**
+   * The stored cursors for an event type, ordered by partition.
+   *
+   * @param eventTypeName the event type
+   * @return the cursors, which may be empty
+   */
+  public List<Cursor> cursors(String eventTypeName) {
+    final Map<String, String> partitions = offsets.get(eventTypeName);
+    final List<Cursor> cursors = new ArrayList<>();
+    if (partitions != null) {
+      new TreeMap<>(partitions).forEach((p, offset) -> cursors.add(new Cursor(p, offset)));
+    }
+    return cursors;
+  }
+
+  /**
+   * Store the cursor as the latest for its partition. Storing the offset already held is a
+   * no-op.
+   *
+   * @param eventTypeName the event type
+   * @param cursor the cursor
+   * @throws NakadiException if the store is closed or can't be written
+   */
+  public synchronized void put(String eventTypeName, Cursor cursor) throws NakadiException {
+    NakadiException.throwNonNull(eventTypeName, "Please provide an event type name");
+    NakadiException.throwNonNull(cursor, "Please provide a cursor");
+    if (closed) {
+      throw new NakadiException(Problem.localProblem("offset_store_closed", path.toString()));
+    }
+
+    final Map<String, String> partitions =
+        offsets.computeIfAbsent(eventTypeName, k -> new ConcurrentHashMap<>());
+    if (cursor.offset().equals(partitions.get(cursor.partition()))) {
+      return;
+    }
+
+    final byte[] record = encode(eventTypeName, cursor.partition(), cursor.offset());
+    try {
+      if (log.remaining() < RECORD_OVERHEAD_BYTES + record.length + 4) {
+        partitions.put(cursor.partition(), cursor.offset());
+        // the new cursor is written by the compaction
+        compact();
+        return;
+      }
+    } catch (IOException e) {
+      throw new NakadiException(
+          Problem.localProblem("offset_store_write_failed", path + " " + e.getMessage()), e);
+    }
+    append(log, record);
+    partitions.put(cursor.partition(), cursor.offset());
+  }
+
+  /**
+   * An offset observer that stores each cursor it's given under the event type.
+   *
+   * @param eventTypeName the event type of the stream being observed
+   * @return the observer
+   */
+  public StreamOffsetObserver observer(String eventTypeName) {
+    return context -> put(eventTypeName, context.cursor());
+  }
+
+  /**
+   * Flush stored cursors to disk.
+   */
+  public synchronized void sync() {
+    if (!closed) {
+      log.force();
+    }
+  }
+
+  @Override public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    log.force();
+    try {
+      channel.close();
+    } catch (IOException e) {
+      logger.warn("op=offset_store_close path={} err={}", path, e.getMessage());
+    }
+  }
+
+  /**
+   * The configuration to connect with: its cursors with the stored offsets in place of the
+   * configured ones. A configuration without cursors reads every partition, so partitions
+   * with nothing stored are started from their newest offset.
+   */
+  StreamConfiguration seed(StreamConfiguration sc, NakadiClient client) {
+    final List<Cursor> stored = cursors(sc.eventTypeName());
+    if (stored.isEmpty()) {
+      return sc;
+    }
+
+    final List<Cursor> seeded = new ArrayList<>();
+    final Optional<List<Cursor>> configured = sc.cursors();
+    if (configured.isPresent()) {
+      for (Cursor cursor : configured.get()) {
+        seeded.add(cursor(sc.eventTypeName(), cursor.partition()).orElse(cursor));
+      }
+    } else {
+      client.resources().eventTypes().partitions(sc.eventTypeName()).iterable()
+          .forEach(p -> seeded.add(cursor(sc.eventTypeName(), p.partition())
+              .orElse(new Cursor(p.partition(), p.newestAvailableOffset()))));
+    }
+    logger.info("op=offset_store_seed event_type={} cursors={}", sc.eventTypeName(), seeded);
+    return sc.withCursors(seeded);
+  }
+
+  @VisibleForTesting
+  synchronized int position() {
+    return log.position();
+  }
+
+  @VisibleForTesting
+  synchronized int capacity() {
+    return log.capacity();
+  }
+
+  private void load() throws IOException {
+    final boolean exists = Files.exists(path) && Files.size(path) > 0;
+    final int capacity = exists
+        ? (int) Math.max(Files.size(path), DEFAULT_CAPACITY_BYTES) : DEFAULT_CAPACITY_BYTES;
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    log = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+    if (!exists) {
+      log.putInt(MAGIC).putInt(VERSION);
+      return;
+    }
+
+    final int magic = log.getInt();
+    final int version = log.getInt();
+    if (magic != MAGIC || version != VERSION) {
+      channel.close();
+      throw new IOException(String.format("not an offset store, magic=%x version=%d",
+          magic, version));
+    }
+
+    int records = 0;
+    while (readRecord(log)) {
+      records++;
+    }
+    logger.info("op=offset_store_open path={} records={} event_types={}",
+        path, records, offsets.keySet());
+  }
+
+  // leaves the log positioned after the record, or at its start if there isn't a valid one
+  private boolean readRecord(ByteBuffer buffer) {
+    final int start = buffer.position();
+    if (buffer.remaining() < RECORD_OVERHEAD_BYTES) {
+      return false;
+    }
+    final int length = buffer.getInt();
+    final int checksum = buffer.getInt();
+    if (length <= 0 || length > buffer.remaining()) {
+      buffer.position(start);
+      return false;
+    }
+    final byte[] record = new byte[length];
+    buffer.get(record);
+    crc.reset();
+    crc.update(record, 0, length);
+    if ((int) crc.getValue() != checksum) {
+      logger.warn("op=offset_store_open msg=ignoring_torn_record path={} position={}",
+          path, start);
+      buffer.position(start);
+      return false;
+    }
+
+    final ByteBuffer fields = ByteBuffer.wrap(record);
+    final String eventType = readString(fields);
+    final String partition = readString(fields);
+    final String offset = readString(fields);
+    offsets.computeIfAbsent(eventType, k -> new ConcurrentHashMap<>()).put(partition, offset);
+    return true;
+  }
+
+  private void append(ByteBuffer buffer, byte[] record) {
+    crc.reset();
+    crc.update(record, 0, record.length);
+    final int start = buffer.position();
+    // the length goes in last, so a torn write never looks like a complete record
+    buffer.position(start + 4);
+    buffer.putInt((int) crc.getValue()).put(record);
+    // a zero length after the record marks the end of the log
+    if (buffer.remaining() >= 4) {
+      buffer.putInt(buffer.position(), 0);
+    }
+    buffer.putInt(start, record.length);
+  }
+
+  private void compact() throws IOException {
+    final List<byte[]> records = new ArrayList<>();
+    int size = HEADER_BYTES;
+    for (Map.Entry<String, Map<String, String>> eventType : offsets.entrySet()) {
+      for (Map.Entry<String, String> partition : eventType.getValue().entrySet()) {
+        final byte[] record =
+            encode(eventType.getKey(), partition.getKey(), partition.getValue());
+        records.add(record);
+        size += RECORD_OVERHEAD_BYTES + record.length;
+      }
+    }
+
+    int capacity = log.capacity();
+    while (size + 4 > capacity / 2) {
+      capacity *= 2;
+    }
+
+    final Path compacted = Paths.get(path + ".compact");
+    try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      final MappedByteBuffer buffer = out.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+      buffer.putInt(MAGIC).putInt(VERSION);
+      records.forEach(record -> append(buffer, record));
+      buffer.force();
+    }
+
+    Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    channel.close();
+    channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    log = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    log.position(size);
+    logger.info("op=offset_store_compact path={} records={} capacity={}",
+        path, records.size(), capacity);
+  }
+
+  private static byte[] encode(String eventType, String partition, String offset) {
+    final byte[] e = eventType.getBytes(StandardCharsets.UTF_8);
+    final byte[] p = partition.getBytes(StandardCharsets.UTF_8);
+    final byte[] o = offset.getBytes(StandardCharsets.UTF_8);
+    return ByteBuffer.allocate(6 + e.length + p.length + o.length)
+        .putShort((short) e.length).put(e)
+        .putShort((short) p.length).put(p)
+        .putShort((short) o.length).put(o)
+        .array();
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    final byte[] bytes = new byte[buffer.getShort() & 0xffff];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
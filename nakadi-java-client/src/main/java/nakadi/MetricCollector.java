@@ -49,6 +49,16 @@ public interface MetricCollector {
    */
   void duration(MetricCollector.Timer timer, long duration, TimeUnit unit);
 
+  /**
+   * Record the current value of a {@link Gauge}. The default does nothing, so collectors
+   * written before gauges were added carry on working.
+   *
+   * @param gauge the gauge
+   * @param value its current value
+   */
+  default void gauge(MetricCollector.Gauge gauge, long value) {
+  }
+
   /**
    * A metric that measures an occurrence.
    */
@@ -177,7 +187,22 @@ public interface MetricCollector {
     /**
      * Each time a {@link RetryPolicy} is skipped because it's already finished
      */
-    retrySkipFinished("nakadi.java.client.retry.skip_finished"),;
+    retrySkipFinished("nakadi.java.client.retry.skip_finished"),
+
+    /**
+     * Each time the stream watchdog tears down a silent connection.
+     */
+    streamWatchdogKick("nakadi.java.client.stream.watchdogKick"),
+
+    /**
+     * Each event dropped as a duplicate by {@link EventDeduplication}.
+     */
+    streamDedupHit("nakadi.java.client.stream.dedupHit"),
+
+    /**
+     * Each event with an id not seen before by {@link EventDeduplication}.
+     */
+    streamDedupMiss("nakadi.java.client.stream.dedupMiss"),;
 
     private final String path;
 
@@ -194,6 +219,37 @@ public interface MetricCollector {
     }
   }
 
+  /**
+   * A metric that reports a current value.
+   */
+  enum Gauge {
+
+    /**
+     * How many batches an adaptive stream processor currently lets in flight.
+     */
+    streamDemand("nakadi.java.client.stream.demand"),
+
+    /**
+     * How many batches are queued for, or being handled by, an adaptive processor's observer.
+     */
+    streamQueueDepth("nakadi.java.client.stream.queueDepth"),
+    ;
+
+    private final String path;
+
+    Gauge(String path) {
+      this.path = path;
+    }
+
+    /**
+     * The distinct path for the metric restricted to a dotted string. Useful for sending
+     * into downstream metric collectors.
+     */
+    public String path() {
+      return path;
+    }
+  }
+
   /**
    * A metric that measures a duration of time.
    */
@@ -213,6 +269,16 @@ public interface MetricCollector {
      * How long it took to reset cursor offsets.
      */
     cursorReset("nakadi.java.client.cursor.reset.sendtime"),
+
+    /**
+     * How long a stream connection had been silent when the watchdog closed it.
+     */
+    streamWatchdogDetect("nakadi.java.client.stream.watchdog.detecttime"),
+
+    /**
+     * How long a stream was without a connection between one ending and the next starting.
+     */
+    streamRestartPause("nakadi.java.client.stream.event.restart.pause"),
     ;
 
     private final String path;
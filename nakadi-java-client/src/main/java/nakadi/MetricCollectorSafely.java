@@ -38,4 +38,12 @@ class MetricCollectorSafely implements MetricCollector {
       logger.info(e.getMessage());
     }
   }
+
+  @Override public void gauge(Gauge gauge, long value) {
+    try {
+      metricCollector.gauge(gauge, value);
+    } catch (Exception e) {
+      logger.info(e.getMessage());
+    }
+  }
 }
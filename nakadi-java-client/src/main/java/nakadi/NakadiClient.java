@@ -1,8 +1,11 @@
 package nakadi;
 
+import io.reactivex.schedulers.Schedulers;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +31,8 @@ public class NakadiClient {
   private final boolean enablePublishingCompression;
   private final CompressionSupport compressionSupport;
   private final SerializationSupport serializationSupport;
+  private final ExecutionMode executionMode;
+  private final InFlightLimiter publishingLimiter;
 
   private NakadiClient(Builder builder) {
     NakadiException.throwNonNull(builder.baseURI, "Please provide a base URI.");
@@ -41,6 +46,8 @@ public class NakadiClient {
     this.enablePublishingCompression = builder.enablePublishingCompression;
     this.compressionSupport = builder.compressionSupport;
     this.serializationSupport = builder.serializationSupport;
+    this.executionMode = builder.executionMode;
+    this.publishingLimiter = new InFlightLimiter(builder.maxPublishingRequestsInFlight);
   }
 
   /**
@@ -103,6 +110,11 @@ public class NakadiClient {
     return enablePublishingCompression;
   }
 
+  // shared by the event resources so the limit holds across them
+  InFlightLimiter publishingLimiter() {
+    return publishingLimiter;
+  }
+
   /**
    * Access API resources from the client.
    */
@@ -114,6 +126,16 @@ public class NakadiClient {
     return serializationSupport;
   }
 
+  /**
+   * The {@link ExecutionMode} used by the client. This is the mode in effect, which is
+   * {@link ExecutionMode#PLATFORM_THREADS} if virtual threads were asked for but aren't
+   * supported by the runtime.
+   */
+  @Experimental
+  public ExecutionMode executionMode() {
+    return executionMode;
+  }
+
   @SuppressWarnings("WeakerAccess")
   public static class Builder {
 
@@ -130,11 +152,14 @@ public class NakadiClient {
     private CompressionSupport compressionSupport;
     private String certificatePath;
     private SerializationSupport serializationSupport;
+    private ExecutionMode executionMode;
+    private int maxPublishingRequestsInFlight;
 
     Builder() {
       connectTimeout = 20_000;
       readTimeout = 20_000;
       writeTimeout = 10_000;
+      maxPublishingRequestsInFlight = 64;
     }
 
     /**
@@ -148,6 +173,12 @@ public class NakadiClient {
 
       NakadiException.throwNonNull(baseURI, "Please provide a base URI");
 
+      if (maxPublishingRequestsInFlight < 1) {
+        throw new NakadiException(Problem.localProblem(
+            "max publishing requests in flight must be at least 1",
+            "max_publishing_requests_in_flight=" + maxPublishingRequestsInFlight));
+      }
+
       if (jsonSupport == null) {
         jsonSupport = new GsonSupport();
       }
@@ -176,6 +207,9 @@ public class NakadiClient {
 
       metricCollector = new MetricCollectorSafely(metricCollector);
 
+      executionMode = ThreadSupport.resolve(executionMode);
+      logger.info("Using execution mode {}", executionMode);
+
       if (resourceProvider == null) {
         resourceProvider = buildResourceProvider();
       }
@@ -207,6 +241,24 @@ public class NakadiClient {
         logger.info("Enabled http tracing");
       }
 
+      final ExecutorService virtualExecutor = ThreadSupport.newVirtualThreadPerTaskExecutor(
+          executionMode, "nakadi-java-http-", null);
+      // async calls and retried requests run on virtual threads; a first attempt runs on the
+      // caller's thread, which will be virtual if the caller is
+      final Dispatcher dispatcher =
+          virtualExecutor != null ? new Dispatcher(virtualExecutor) : new Dispatcher();
+      // asynchronous publishing is bounded by the client's limit, not the dispatcher's
+      // default of five calls per host
+      dispatcher.setMaxRequests(
+          Math.max(dispatcher.getMaxRequests(), maxPublishingRequestsInFlight));
+      dispatcher.setMaxRequestsPerHost(maxPublishingRequestsInFlight);
+      builder.dispatcher(dispatcher);
+
+      if (virtualExecutor != null) {
+        return new OkHttpResourceProvider(builder.build(), jsonSupport, metricCollector,
+            Schedulers.from(virtualExecutor));
+      }
+
       return new OkHttpResourceProvider(builder.build(), jsonSupport, metricCollector);
     }
 
@@ -230,6 +282,21 @@ public class NakadiClient {
       return this;
     }
 
+    /**
+     * Optionally set how many asynchronous publishing requests, such as
+     * {@link EventResource#sendBatchAsync(String, java.util.List)}, may be outstanding at once across the
+     * client's event resources. Requests beyond the limit wait, without holding a thread,
+     * until earlier ones complete. A request counts against the limit while it waits to be
+     * retried. The default is 64.
+     *
+     * @return this builder
+     */
+    @Experimental
+    public Builder maxPublishingRequestsInFlight(int maxPublishingRequestsInFlight) {
+      this.maxPublishingRequestsInFlight = maxPublishingRequestsInFlight;
+      return this;
+    }
+
     /**
      * Optionally set the default connect timeout for new connections. If 0, no timeout, otherwise
      * values must be between 1 and {@link Integer#MAX_VALUE}. The default is 20s.
@@ -327,5 +394,22 @@ public class NakadiClient {
       this.serializationSupport = serializationSupport;
       return this;
     }
+
+    /**
+     * Optionally set the {@link ExecutionMode} for the client's resources and the stream
+     * processors it builds. The default is {@link ExecutionMode#PLATFORM_THREADS}. Asking for
+     * virtual threads on a runtime older than JDK 21 logs a warning and uses platform threads.
+     * <p>
+     * Resource requests are made on the calling thread, with retries after a backoff run on a
+     * virtual thread. A supplied {@link ResourceProvider} is left as is.
+     * </p>
+     *
+     * @return this
+     */
+    @Experimental
+    public Builder executionMode(ExecutionMode executionMode) {
+      this.executionMode = executionMode;
+      return this;
+    }
   }
 }
@@ -2,15 +2,19 @@ package nakadi;
 
 import io.reactivex.Observable;
 import io.reactivex.ObservableTransformer;
+import io.reactivex.Scheduler;
 import io.reactivex.schedulers.Schedulers;
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
+import okio.BufferedSink;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,6 +29,7 @@ class OkHttpResource implements Resource {
   private final OkHttpClient okHttpClient;
   private final JsonSupport jsonSupport;
   private final MetricCollector metricCollector;
+  private final Scheduler retryScheduler;
   private long connectTimeout = 0;
   private long readTimeout = 0;
   private long writeTimeout = 0;
@@ -35,12 +40,19 @@ class OkHttpResource implements Resource {
   private volatile Response response;
 
   OkHttpResource(OkHttpClient okHttpClient, JsonSupport jsonSupport, MetricCollector collector) {
+    this(okHttpClient, jsonSupport, collector, Schedulers.computation());
+  }
+
+  OkHttpResource(OkHttpClient okHttpClient, JsonSupport jsonSupport, MetricCollector collector,
+      Scheduler retryScheduler) {
     NakadiException.throwNonNull(okHttpClient, "Please provide a client");
     NakadiException.throwNonNull(jsonSupport, "Please provide JSON support");
     NakadiException.throwNonNull(collector, "Please provide a metric collector");
+    NakadiException.throwNonNull(retryScheduler, "Please provide a retry scheduler");
     this.okHttpClient = okHttpClient;
     this.jsonSupport = jsonSupport;
     this.metricCollector = collector;
+    this.retryScheduler = retryScheduler;
   }
 
   public OkHttpResource connectTimeout(long timeout, TimeUnit unit) {
@@ -131,6 +143,22 @@ class OkHttpResource implements Resource {
             throwPostEventsIfError(requestInner(POST, url, options, body))))).blockingFirst();
   }
 
+  @Override
+  public CompletableFuture<Response> postEventsAsync(String url, ResourceOptions options,
+      ContentSupplier body) {
+
+    RetryPolicy policy = retryPolicy;
+    if (policy != null && policy.isFinished()) {
+      logger.warn("no_retry_cowardly refusing to apply finished retry policy {}", policy);
+      metricCollector.mark(retrySkipFinished);
+      policy = null;
+    }
+
+    final CompletableFuture<Response> future = new CompletableFuture<>();
+    enqueuePostEvents(url, options, body, policy, 1, future);
+    return future;
+  }
+
   @Override
   public <Res> Res requestThrowing(String method, String url, ResourceOptions options,
       Class<Res> res) throws NakadiException {
@@ -152,6 +180,88 @@ class OkHttpResource implements Resource {
     return marshalResponse(response, res);
   }
 
+  private void enqueuePostEvents(String url, ResourceOptions options, ContentSupplier body,
+      RetryPolicy policy, int attempt, CompletableFuture<Response> future) {
+
+    final Call call;
+    try {
+      call = okHttpCall(prepareBuilder(POST, url, options, body));
+    } catch (Exception e) {
+      future.completeExceptionally(e);
+      return;
+    }
+
+    call.enqueue(new Callback() {
+      @Override public void onFailure(Call call, IOException e) {
+        final EncodingException entityFailure = entityWriteFailure(e);
+        if (entityFailure != null) {
+          // sending it again would fail the same way
+          future.completeExceptionally(entityFailure);
+          return;
+        }
+        retryOrFail(new RetryableException(Problem.networkProblem(e.getMessage(), ""), e));
+      }
+
+      @Override public void onResponse(Call call, okhttp3.Response okResponse) {
+        final Response response;
+        try {
+          response = throwPostEventsIfError(new OkHttpResponse(okResponse, call));
+        } catch (Exception e) {
+          retryOrFail(e);
+          return;
+        }
+        if (!future.complete(response)) {
+          // cancelled by the caller while the request was in flight
+          ResponseSupport.closeQuietly(response);
+        }
+      }
+
+      private void retryOrFail(Exception e) {
+        if (future.isDone()) {
+          return;
+        }
+
+        final long delay = nextBackoffMillis(policy, attempt, e);
+        if (delay == RetryPolicy.STOP) {
+          future.completeExceptionally(e);
+          return;
+        }
+
+        logger.info("request_retry_async: will retry after backoff, delay={} attempt={}/{} error={}",
+            delay, attempt, policy.maxAttempts(), e.getMessage());
+        // the timer holds no thread while it waits, the retry is enqueued again when it fires
+        retryScheduler.scheduleDirect(
+            () -> enqueuePostEvents(url, options, body, policy, attempt + 1, future),
+            delay, TimeUnit.MILLISECONDS);
+      }
+    });
+  }
+
+  private long nextBackoffMillis(RetryPolicy policy, int attempt, Exception e) {
+    if (policy == null) {
+      return RetryPolicy.STOP;
+    }
+
+    if (!ExceptionSupport.isApiRequestRetryable(e)) {
+      logger.warn("request_retry_async: not retryable, propagating error {}, {}",
+          e.getClass().getSimpleName(), e.getMessage());
+      return RetryPolicy.STOP;
+    }
+
+    if (attempt > policy.maxAttempts() || policy.isFinished()) {
+      logger.warn("request_retry_async: cycle failed after {} attempts, propagating error {}, {}",
+          attempt, e.getClass().getSimpleName(), e.getMessage());
+      return RetryPolicy.STOP;
+    }
+
+    final long delay = policy.nextBackoffMillis();
+    if (delay == RetryPolicy.STOP) {
+      logger.warn("request_retry_async: cycle failed after {} attempts, propagating error {}, {}",
+          attempt, e.getClass().getSimpleName(), e.getMessage());
+    }
+    return delay;
+  }
+
   private void releaseResponseQuietly() {
     if (response != null) {
       try {
@@ -196,8 +306,10 @@ class OkHttpResource implements Resource {
     Request.Builder builder;
     if (body != null) {
       {
-        RequestBody requestBody =
-                RequestBody.create(MediaType.parse((String) options.headers().get("Content-Type")), body.content());
+        final MediaType mediaType = MediaType.parse((String) options.headers().get("Content-Type"));
+        RequestBody requestBody = body.isStreamed()
+            ? new StreamedRequestBody(mediaType, body)
+            : RequestBody.create(mediaType, body.content());
 
         builder = new Request.Builder().url(url).method(method, requestBody);
       }
@@ -224,13 +336,36 @@ class OkHttpResource implements Resource {
   @SuppressWarnings("WeakerAccess") @VisibleForTesting
   Response okHttpRequest(Request.Builder builder) {
     try {
-      return new OkHttpResponse(okHttpCall(builder));
+      final Call call = okHttpCall(builder);
+      return new OkHttpResponse(call.execute(), call);
     } catch (IOException e) {
+      final EncodingException entityFailure = entityWriteFailure(e);
+      if (entityFailure != null) {
+        throw entityFailure;
+      }
       throw new RetryableException(Problem.networkProblem(e.getMessage(), ""), e);
     }
   }
 
-  private okhttp3.Response okHttpCall(Request.Builder builder) throws IOException {
+  /**
+   * @return the error that stopped a streamed body being produced, or null if the failure
+   * was in sending it
+   */
+  private static EncodingException entityWriteFailure(IOException e) {
+    for (Throwable t = e; t != null; t = t.getCause()) {
+      if (t instanceof EntityWriteException) {
+        final Throwable cause = t.getCause();
+        if (cause instanceof EncodingException) {
+          return (EncodingException) cause;
+        }
+        return new EncodingException(
+            Problem.localProblem("could not write request entity", cause.getMessage()), cause);
+      }
+    }
+    return null;
+  }
+
+  private Call okHttpCall(Request.Builder builder) {
 
     if (hasPerRequestReadTimeout || hasPerRequestConnectTimeout || hasPerRequestWriteTimeout) {
 
@@ -247,9 +382,9 @@ class OkHttpResource implements Resource {
         clientBuilder.writeTimeout(writeTimeout, TimeUnit.MILLISECONDS);
       }
 
-      return clientBuilder.build().newCall(builder.build()).execute();
+      return clientBuilder.build().newCall(builder.build());
     } else {
-      return okHttpClient.newCall(builder.build()).execute();
+      return okHttpClient.newCall(builder.build());
     }
   }
 
@@ -261,7 +396,8 @@ class OkHttpResource implements Resource {
     return new RequestRetry()
         .retryWhenWithBackoffObserver(
             backoff,
-            Schedulers.computation(),
+            // the retried request blocks whichever thread this resubscribes on
+            retryScheduler,
             ExceptionSupport::isApiRequestRetryable);
   }
 
@@ -319,4 +455,36 @@ class OkHttpResource implements Resource {
   private <T> T throwProblem(int code, Problem problem) {
     return ProblemSupport.throwProblem(code, problem, metricCollector);
   }
+
+  private static class StreamedRequestBody extends RequestBody {
+
+    private final MediaType mediaType;
+    private final ContentSupplier body;
+
+    StreamedRequestBody(MediaType mediaType, ContentSupplier body) {
+      this.mediaType = mediaType;
+      this.body = body;
+    }
+
+    @Override public MediaType contentType() {
+      return mediaType;
+    }
+
+    @Override public void writeTo(BufferedSink sink) throws IOException {
+      try {
+        body.writeTo(sink);
+      } catch (RuntimeException e) {
+        // an async call only reports IOExceptions, anything else would leave it unanswered;
+        // this one is unwrapped again rather than reported as a network failure
+        throw new EntityWriteException(e);
+      }
+    }
+  }
+
+  private static class EntityWriteException extends IOException {
+
+    EntityWriteException(RuntimeException cause) {
+      super("could not write request entity " + cause.getMessage(), cause);
+    }
+  }
 }
@@ -1,5 +1,7 @@
 package nakadi;
 
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
 import okhttp3.OkHttpClient;
 
 class OkHttpResourceProvider implements ResourceProvider {
@@ -7,16 +9,23 @@ class OkHttpResourceProvider implements ResourceProvider {
   private final OkHttpClient okHttpClient;
   private final JsonSupport jsonSupport;
   private MetricCollector metricCollector;
+  private final Scheduler retryScheduler;
 
   public OkHttpResourceProvider(OkHttpClient okHttpClient, JsonSupport jsonSupport,
       MetricCollector metricCollector) {
+    this(okHttpClient, jsonSupport, metricCollector, Schedulers.computation());
+  }
+
+  OkHttpResourceProvider(OkHttpClient okHttpClient, JsonSupport jsonSupport,
+      MetricCollector metricCollector, Scheduler retryScheduler) {
 
     this.okHttpClient = okHttpClient;
     this.jsonSupport = jsonSupport;
     this.metricCollector = metricCollector;
+    this.retryScheduler = retryScheduler;
   }
 
   @Override public Resource newResource() {
-    return new OkHttpResource(okHttpClient, jsonSupport, metricCollector);
+    return new OkHttpResource(okHttpClient, jsonSupport, metricCollector, retryScheduler);
   }
 }
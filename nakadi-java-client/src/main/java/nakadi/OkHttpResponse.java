@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import okhttp3.Call;
 import okhttp3.internal.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,9 +14,27 @@ class OkHttpResponse implements Response {
   private static final Logger logger = LoggerFactory.getLogger(NakadiClient.class.getSimpleName());
 
   private final okhttp3.Response okResponse;
+  private final Call call;
 
   public OkHttpResponse(okhttp3.Response okResponse) {
+    this(okResponse, null);
+  }
+
+  OkHttpResponse(okhttp3.Response okResponse, Call call) {
     this.okResponse = okResponse;
+    this.call = call;
+  }
+
+  /**
+   * Cancel the call from any thread, failing a read that's blocked on it. Returns false if
+   * the call isn't known.
+   */
+  boolean cancel() {
+    if (call == null) {
+      return false;
+    }
+    call.cancel();
+    return true;
   }
 
   public int statusCode() {
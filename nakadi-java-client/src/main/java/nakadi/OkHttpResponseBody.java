@@ -4,6 +4,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import okio.BufferedSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,6 +39,11 @@ class OkHttpResponseBody implements ResponseBody {
     return okResponse.body().byteStream();
   }
 
+  // package visible, okio is shaded and not part of the public api
+  BufferedSource asBufferedSource() {
+    return okResponse.body().source();
+  }
+
   @Override
   public String mediaTypeString() {
     return okResponse.body().contentType().toString();
@@ -0,0 +1,174 @@
+package nakadi;
+
+import io.reactivex.Scheduler;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resends the events of a batch whose items came back {@code failed} or {@code aborted},
+ * leaving out the ones that were accepted.
+ * <p>
+ * The items of a partial response are in the order of the events sent, so each one is
+ * matched to its event by index. Events that failed validation are not resent, since they'd
+ * fail again; the events aborted alongside them are. Each resend waits for the policy's next
+ * backoff, on a timer rather than a thread, and the rounds stop once every event has been
+ * accepted or ruled out, or the policy is finished. If a resend can't be sent at all, the
+ * rounds stop there.
+ * </p>
+ * <p>
+ * The result has an item for every event of the original batch, holding the last response
+ * seen for it. An event accepted as part of a batch accepted whole has a {@code submitted}
+ * item with no eid.
+ * </p>
+ */
+class PartialBatchRetry<T> {
+
+  private static final Logger logger = LoggerFactory.getLogger(NakadiClient.class.getSimpleName());
+
+  private final NakadiClient client;
+  private final String eventTypeName;
+  private final List<T> events;
+  private final RetryPolicy policy;
+  private final Function<List<T>, CompletableFuture<BatchItemResponseCollection>> sender;
+  private final Scheduler scheduler;
+  private final BatchItemResponse[] items;
+  private final CompletableFuture<BatchItemResponseCollection> result = new CompletableFuture<>();
+  private int round;
+
+  /**
+   * @param sender sends a batch of the events, as the original batch was sent
+   */
+  PartialBatchRetry(NakadiClient client, String eventTypeName, List<T> events,
+      RetryPolicy policy, Function<List<T>, CompletableFuture<BatchItemResponseCollection>> sender,
+      Scheduler scheduler) {
+    this.client = client;
+    this.eventTypeName = eventTypeName;
+    this.events = events;
+    this.policy = policy;
+    this.sender = sender;
+    this.scheduler = scheduler;
+    this.items = new BatchItemResponse[events.size()];
+  }
+
+  /**
+   * @param responses the response to the original batch
+   * @return a future completed with the final item of every event, or the response itself if
+   * the batch was accepted whole
+   */
+  CompletableFuture<BatchItemResponseCollection> resendFailed(
+      BatchItemResponseCollection responses) {
+    if (responses.items().isEmpty()) {
+      return CompletableFuture.completedFuture(responses);
+    }
+
+    if (!record(IntStream.range(0, events.size()).toArray(), responses)) {
+      return CompletableFuture.completedFuture(responses);
+    }
+    next();
+    return result;
+  }
+
+  private void next() {
+    final int[] resend = IntStream.range(0, items.length)
+        .filter(i -> isResendable(items[i]))
+        .toArray();
+    if (resend.length == 0) {
+      finish();
+      return;
+    }
+
+    final long delay = policy.isFinished() ? RetryPolicy.STOP : policy.nextBackoffMillis();
+    if (delay == RetryPolicy.STOP) {
+      logger.warn("op=partial_retry msg=policy_finished event_type={} rounds={} unsent={}",
+          eventTypeName, round, resend.length);
+      finish();
+      return;
+    }
+
+    round++;
+    logger.info("op=partial_retry msg=resending event_type={} events={} round={} delay={}",
+        eventTypeName, resend.length, round, delay);
+    scheduler.scheduleDirect(() -> resend(resend), delay, TimeUnit.MILLISECONDS);
+  }
+
+  private void resend(int[] indexes) {
+    final List<T> batch = new ArrayList<>(indexes.length);
+    for (int i : indexes) {
+      batch.add(events.get(i));
+    }
+
+    final CompletableFuture<BatchItemResponseCollection> sending;
+    try {
+      sending = sender.apply(batch);
+    } catch (RuntimeException e) {
+      stop(e);
+      return;
+    }
+
+    sending.whenComplete((responses, e) -> {
+      if (e != null) {
+        stop(e);
+      } else if (record(indexes, responses)) {
+        next();
+      } else {
+        finish();
+      }
+    });
+  }
+
+  /**
+   * @return false if the response can't be matched to the events
+   */
+  private boolean record(int[] indexes, BatchItemResponseCollection responses) {
+    final List<BatchItemResponse> received = responses.items();
+    if (received.isEmpty()) {
+      for (int i : indexes) {
+        items[i] = new BatchItemResponse()
+            .publishingStatus(BatchItemResponse.PublishingStatus.submitted)
+            .step(BatchItemResponse.Step.none);
+      }
+      return true;
+    }
+
+    if (received.size() != indexes.length) {
+      logger.warn("op=partial_retry msg=items_unmatched event_type={} events={} items={}",
+          eventTypeName, indexes.length, received.size());
+      return false;
+    }
+
+    for (int k = 0; k < indexes.length; k++) {
+      items[indexes[k]] = received.get(k);
+    }
+    return true;
+  }
+
+  private void stop(Throwable e) {
+    final Throwable cause = e instanceof CompletionException && e.getCause() != null
+        ? e.getCause() : e;
+    // the events keep their items from the last response
+    logger.warn("op=partial_retry msg=resend_failed event_type={} round={} err={}",
+        eventTypeName, round, cause.getMessage());
+    finish();
+  }
+
+  private void finish() {
+    result.complete(
+        new BatchItemResponseCollection(Arrays.asList(items), new ArrayList<>(), client));
+  }
+
+  private static boolean isResendable(BatchItemResponse item) {
+    if (item.publishingStatus() == BatchItemResponse.PublishingStatus.aborted) {
+      return true;
+    }
+    return item.publishingStatus() == BatchItemResponse.PublishingStatus.failed
+        && item.step() != BatchItemResponse.Step.validating;
+  }
+}
@@ -0,0 +1,269 @@
+package nakadi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Consumes an event type over several connections at once, one per partition or per group of
+ * partitions, instead of the single connection a {@link StreamProcessor} opens for a named event
+ * type stream.
+ * <p>
+ * Each group of partitions is read by its own {@link StreamProcessor}, with its own connection
+ * and threads, and with the X-Nakadi-Cursors header scoped to that group. This handle starts and
+ * stops them together. They share the client's {@link MetricCollector}, and each is given its
+ * own observer from the {@link StreamObserverProvider}. The latest cursor checkpointed for each
+ * partition is kept separately, so a stream that reconnects resumes from its own partitions'
+ * cursors, and the current set is available from {@link #cursors()}.
+ * </p>
+ * <p>
+ * If the configuration has cursors only their partitions are read, starting from those offsets.
+ * Otherwise all the event type's partitions are read from their newest available offset, which
+ * is where a stream with no cursors would start.
+ * </p>
+ */
+@Experimental
+public class PartitionFanOutProcessor {
+
+  private static final Logger logger = LoggerFactory.getLogger(NakadiClient.class.getSimpleName());
+
+  private final List<StreamProcessor> processors;
+  private final List<PartitionStreamCursors> streamCursors;
+
+  private PartitionFanOutProcessor(List<StreamProcessor> processors,
+      List<PartitionStreamCursors> streamCursors) {
+    this.processors = processors;
+    this.streamCursors = streamCursors;
+  }
+
+  /**
+   * Provide a new builder for creating a fan out processor.
+   *
+   * @param client the client
+   * @return a builder
+   */
+  public static PartitionFanOutProcessor.Builder newBuilder(NakadiClient client) {
+    return new PartitionFanOutProcessor.Builder().client(client);
+  }
+
+  /**
+   * Start consuming all the streams in the background.
+   *
+   * @throws IllegalStateException if the processor has already been stopped.
+   * @see StreamProcessor#start()
+   */
+  public void start() throws IllegalStateException {
+    logger.info("op=partition_fan_out msg=starting streams={}", processors.size());
+    processors.forEach(StreamProcessor::start);
+  }
+
+  /**
+   * Perform a controlled shutdown of all the streams.
+   *
+   * @see StreamProcessor#stop()
+   */
+  public void stop() {
+    logger.info("op=partition_fan_out msg=stopping streams={}", processors.size());
+    processors.forEach(StreamProcessor::stop);
+  }
+
+  /**
+   * Indicates if any of the streams is running. A stream that has stopped after running out of
+   * retries doesn't stop the others.
+   *
+   * @return true if at least one stream is running, false if none are.
+   */
+  public boolean running() {
+    return processors.stream().anyMatch(StreamProcessor::running);
+  }
+
+  /**
+   * The exception that stopped the first failed stream, if any has failed.
+   *
+   * @return the exception, or {@link Optional#empty()}
+   */
+  public Optional<Throwable> failedProcessorException() {
+    return processors.stream()
+        .map(StreamProcessor::failedProcessorException)
+        .filter(Optional::isPresent)
+        .map(Optional::get)
+        .findFirst();
+  }
+
+  /**
+   * The latest checkpointed cursor for each partition, or the starting cursor for a partition
+   * that has none yet.
+   *
+   * @return the cursors, one per partition
+   */
+  public List<Cursor> cursors() {
+    final List<Cursor> cursors = new ArrayList<>();
+    streamCursors.forEach(stream -> cursors.addAll(stream.cursors()));
+    return cursors;
+  }
+
+  /**
+   * @return the number of streams, and so connections, the partitions are spread over
+   */
+  public int streamCount() {
+    return processors.size();
+  }
+
+  @VisibleForTesting
+  List<StreamProcessor> processors() {
+    return Collections.unmodifiableList(processors);
+  }
+
+  public static class Builder {
+
+    private NakadiClient client;
+    private StreamConfiguration streamConfiguration;
+    private StreamObserverProvider streamObserverProvider;
+    private StreamOffsetObserver streamOffsetObserver;
+    private StreamScheduler streamScheduler;
+    private int partitionsPerStream = 1;
+
+    public Builder() {
+    }
+
+    public PartitionFanOutProcessor build() {
+      NakadiException.throwNonNull(client, "Please provide a client");
+      NakadiException.throwNonNull(streamConfiguration, "Please provide a stream configuration");
+      NakadiException.throwNonNull(streamObserverProvider,
+          "Please provide a StreamObserverProvider");
+
+      if (streamConfiguration.isSubscriptionStream() || !streamConfiguration.isEventTypeStream()) {
+        throw new NakadiException(Problem.localProblem(
+            "Partition fan out needs an event type stream, not a subscription",
+            String.format("subscriptionId=%s eventTypeName=%s",
+                streamConfiguration.subscriptionId(), streamConfiguration.eventTypeName())));
+      }
+
+      if (partitionsPerStream < 1) {
+        throw new NakadiException(Problem.localProblem(
+            "Partitions per stream must be at least 1",
+            "partitionsPerStream=" + partitionsPerStream));
+      }
+
+      if (streamOffsetObserver == null) {
+        streamOffsetObserver = new LoggingStreamOffsetObserver();
+      }
+
+      final List<Cursor> start = startingCursors();
+      if (start.isEmpty()) {
+        throw new NakadiException(Problem.localProblem(
+            "No partitions found for event type", streamConfiguration.eventTypeName()));
+      }
+
+      final List<StreamProcessor> processors = new ArrayList<>();
+      final List<PartitionStreamCursors> streamCursors = new ArrayList<>();
+      for (int i = 0; i < start.size(); i += partitionsPerStream) {
+        final List<Cursor> group =
+            new ArrayList<>(start.subList(i, Math.min(start.size(), i + partitionsPerStream)));
+        final PartitionStreamCursors cursors =
+            new PartitionStreamCursors(streamConfiguration, group, streamOffsetObserver);
+        final StreamProcessor.Builder builder = StreamProcessor.newBuilder(client)
+            .streamConfiguration(cursors.configuration())
+            .streamObserverFactory(streamObserverProvider)
+            .streamOffsetObserver(cursors)
+            .streamProcessorRequestFactory(new StreamProcessorRequestFactory(client) {
+              @Override
+              Response onCall(StreamConfiguration sc, StreamProcessor streamProcessor)
+                  throws Exception {
+                return super.onCall(cursors.configuration(), streamProcessor);
+              }
+            });
+        if (streamScheduler != null) {
+          builder.streamScheduler(streamScheduler);
+        }
+        processors.add(builder.build());
+        streamCursors.add(cursors);
+      }
+
+      logger.info("op=partition_fan_out msg=built event_type={} partitions={} streams={}",
+          streamConfiguration.eventTypeName(), start.size(), processors.size());
+
+      return new PartitionFanOutProcessor(processors, streamCursors);
+    }
+
+    private List<Cursor> startingCursors() {
+      final Optional<List<Cursor>> configured = streamConfiguration.cursors();
+      if (configured.isPresent()) {
+        return configured.get();
+      }
+
+      final List<Cursor> cursors = new ArrayList<>();
+      client.resources().eventTypes().partitions(streamConfiguration.eventTypeName())
+          .iterable()
+          .forEach(p -> cursors.add(new Cursor(p.partition(), p.newestAvailableOffset())));
+      return cursors;
+    }
+
+    public Builder client(NakadiClient client) {
+      this.client = client;
+      return this;
+    }
+
+    /**
+     * The event type stream to fan out. Every stream is opened with these settings, bar the
+     * cursors.
+     *
+     * @param streamConfiguration the configuration
+     * @return this
+     */
+    public Builder streamConfiguration(StreamConfiguration streamConfiguration) {
+      this.streamConfiguration = streamConfiguration;
+      return this;
+    }
+
+    /**
+     * Provides an observer for each stream. Observers for different streams are called at the
+     * same time from different threads.
+     *
+     * @param streamObserverProvider the provider
+     * @return this
+     */
+    public Builder streamObserverFactory(StreamObserverProvider streamObserverProvider) {
+      this.streamObserverProvider = streamObserverProvider;
+      return this;
+    }
+
+    /**
+     * Shared by all the streams, so it will be called from different threads. The default is a
+     * {@link LoggingStreamOffsetObserver}.
+     *
+     * @param streamOffsetObserver the offset observer
+     * @return this
+     */
+    public Builder streamOffsetObserver(StreamOffsetObserver streamOffsetObserver) {
+      this.streamOffsetObserver = streamOffsetObserver;
+      return this;
+    }
+
+    /**
+     * How many partitions each stream reads. The default of 1 opens a connection per partition.
+     *
+     * @param partitionsPerStream the number of partitions for each connection
+     * @return this
+     */
+    public Builder partitionsPerStream(int partitionsPerStream) {
+      this.partitionsPerStream = partitionsPerStream;
+      return this;
+    }
+
+    /**
+     * Run the streams on a shared {@link StreamScheduler} instead of two threads each.
+     *
+     * @param streamScheduler the shared scheduler.
+     * @return this
+     * @see StreamProcessor.Builder#streamScheduler(StreamScheduler)
+     */
+    public Builder streamScheduler(StreamScheduler streamScheduler) {
+      this.streamScheduler = streamScheduler;
+      return this;
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package nakadi;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The cursors for one of a {@link PartitionFanOutProcessor}'s streams. It sits in front of the
+ * offset observer, noting each partition's latest checkpointed cursor, and each time the stream
+ * connects its configuration is rebuilt to start from those cursors. So a reconnect resumes
+ * where the observer got to on its own partitions, whatever the other streams have done.
+ */
+class PartitionStreamCursors implements StreamOffsetObserver {
+
+  private final StreamConfiguration configuration;
+  private final StreamOffsetObserver delegate;
+  // insertion ordered so the header lists partitions as the server did; guarded by this
+  private final Map<String, Cursor> cursors = new LinkedHashMap<>();
+
+  PartitionStreamCursors(StreamConfiguration configuration, List<Cursor> start,
+      StreamOffsetObserver delegate) {
+    this.configuration = configuration;
+    this.delegate = delegate;
+    start.forEach(cursor -> cursors.put(cursor.partition(), cursor));
+  }
+
+  @Override public void onNext(StreamCursorContext streamCursorContext) throws NakadiException {
+    delegate.onNext(streamCursorContext);
+    final Cursor cursor = streamCursorContext.cursor();
+    synchronized (this) {
+      // only this stream's partitions are tracked, the header must stay scoped to them
+      if (cursors.containsKey(cursor.partition())) {
+        cursors.put(cursor.partition(), new Cursor(cursor.partition(), cursor.offset()));
+      }
+    }
+  }
+
+  synchronized List<Cursor> cursors() {
+    return new ArrayList<>(cursors.values());
+  }
+
+  StreamConfiguration configuration() {
+    return configuration.withCursors(cursors());
+  }
+}
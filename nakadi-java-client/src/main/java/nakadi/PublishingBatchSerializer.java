@@ -1,9 +1,26 @@
 package nakadi;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collection;
 
 public interface PublishingBatchSerializer {
 
   <T> byte[] toBytes(SerializationContext context, Collection<T> events);
 
+  /**
+   * Write the batch to the stream. The default writes the bytes from
+   * {@link #toBytes(SerializationContext, Collection)}; serializers that can write as they go
+   * should override this so a batch isn't held in memory to be sent.
+   *
+   * @param context the serialization context
+   * @param events the events
+   * @param out where to write the batch, which is not closed
+   * @throws IOException if the stream fails
+   */
+  default <T> void writeTo(SerializationContext context, Collection<T> events, OutputStream out)
+      throws IOException {
+    out.write(toBytes(context, events));
+  }
+
 }
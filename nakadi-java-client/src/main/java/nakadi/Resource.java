@@ -1,5 +1,6 @@
 package nakadi;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -128,6 +129,24 @@ interface Resource {
       throws AuthorizationException, ClientException, ServerException, RateLimitException,
       NakadiException;
 
+  /**
+   * Post events without waiting for the response. The request is made on the HTTP client's
+   * dispatcher and a retry policy, if set, is applied by scheduling each retry after its
+   * backoff rather than sleeping a thread.
+   * <p>
+   * The future completes with the response as {@link #postEventsThrowing} would return it,
+   * or exceptionally with what it would throw. Callers are responsible for closing the
+   * response.
+   * </p>
+   *
+   * @param url the resource url
+   * @param options request options such as headers, and tokens.
+   * @param body supplies the request body, once per attempt
+   * @return a future response
+   */
+  CompletableFuture<Response> postEventsAsync(String url, ResourceOptions options,
+      ContentSupplier body);
+
   /**
    * Make a request against the server with an expected response entity. Useful for get
    * requests. Exceptions are thrown for HTTP level errors (4xx and 5xx).
@@ -40,6 +40,20 @@ class ResponseSupport {
     }
   }
 
+  /**
+   * Fail a response that another thread may be blocked reading. The okhttp call is cancelled,
+   * which closes its socket and lets the reading thread close the response as usual; other
+   * responses can only be closed directly.
+   */
+  static void abort(Response res) {
+    if (res instanceof OkHttpResponse && ((OkHttpResponse) res).cancel()) {
+      logger.info("op=connection_abort msg=cancelled_call thread={} res_hash={}",
+          Thread.currentThread().getName(), res.hashCode());
+      return;
+    }
+    closeQuietly(res);
+  }
+
   static void closeQuietly(Closeable closeable, int attempts) {
     final String tName = Thread.currentThread().getName();
     boolean closed = false;
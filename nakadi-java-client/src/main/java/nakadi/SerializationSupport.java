@@ -1,11 +1,29 @@
 package nakadi;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collection;
 
 public interface SerializationSupport {
 
   <T> byte[] serializePayload(NakadiClient client, String eventTypeName, Collection<T> events);
 
+  /**
+   * Write the payload to the stream. The default writes the bytes from
+   * {@link #serializePayload(NakadiClient, String, Collection)}; implementations that can write
+   * as they serialize should override this.
+   *
+   * @param client the client
+   * @param eventTypeName the event type name
+   * @param events the events
+   * @param out where to write the payload, which is not closed
+   * @throws IOException if the stream fails
+   */
+  default <T> void serializePayload(NakadiClient client, String eventTypeName,
+      Collection<T> events, OutputStream out) throws IOException {
+    out.write(serializePayload(client, eventTypeName, events));
+  }
+
   String contentType();
 
 }
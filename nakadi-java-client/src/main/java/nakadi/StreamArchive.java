@@ -0,0 +1,458 @@
+package nakadi;
+
+import com.google.common.io.CountingOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the batches a {@link StreamProcessor} consumes in local files, so they can be read
+ * again with a {@link StreamArchiveReplay} without going back to the server. Give it to
+ * {@link StreamProcessor.Builder#archive(StreamArchive)} and each batch line is appended as it
+ * was received, before it's handed to the observer. Keepalives aren't kept.
+ * <p>
+ * Lines are written to gzip compressed segment files, a new one started when the current one
+ * has taken {@code segmentBytes} of lines. Each segment is a series of gzip members, one every
+ * {@code indexIntervalBytes} of lines, and alongside it is an index with an entry for each
+ * member giving where it ends and the last offset it holds for each partition. A replay from a
+ * cursor uses the index to start at the first member with anything after that cursor, so only
+ * part of one member is read and skipped per partition.
+ * </p>
+ * <p>
+ * Lines in the open member are buffered and compressed in memory; they reach the file when the
+ * member is finished, on {@link #flush()} and on {@link #close()}. A member left unfinished by a
+ * crash is read up to where it was cut off. Segments older than the retention period are
+ * deleted as new ones are started. An archive directory should be written by one archive at a
+ * time.
+ * </p>
+ */
+@Experimental
+public class StreamArchive implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(NakadiClient.class.getSimpleName());
+
+  static final String SEGMENT_SUFFIX = ".seg.gz";
+  static final String INDEX_SUFFIX = ".idx";
+  private static final String BEGIN = "BEGIN";
+  private static final byte NEWLINE = '\n';
+
+  private final Path directory;
+  private final long segmentBytes;
+  private final long indexIntervalBytes;
+  private final long retentionMillis;
+  // guarded by this
+  private final Map<String, Cursor> memberLastCursors = new LinkedHashMap<>();
+  private long sequence;
+  private CountingOutputStream segmentOut;
+  private GZIPOutputStream memberOut;
+  private DataOutputStream indexOut;
+  private long segmentLineBytes;
+  private long memberLineBytes;
+  private boolean closed;
+
+  private StreamArchive(Builder builder) throws IOException {
+    this.directory = builder.directory;
+    this.segmentBytes = builder.segmentBytes;
+    this.indexIntervalBytes = builder.indexIntervalBytes;
+    this.retentionMillis = builder.retentionMillis;
+    Files.createDirectories(directory);
+    final List<Segment> existing = segments(directory);
+    // never append to a segment that may have been cut off
+    this.sequence = existing.isEmpty() ? 0 : existing.get(existing.size() - 1).sequence + 1;
+  }
+
+  /**
+   * Provide a new builder for creating an archive.
+   *
+   * @return a builder
+   */
+  public static StreamArchive.Builder newBuilder() {
+    return new StreamArchive.Builder();
+  }
+
+  /**
+   * Compare two offsets from the same partition. Nakadi offsets are fixed width within a
+   * partition and sort as strings; a shorter one sorts first, and {@code BEGIN} sorts before
+   * everything else.
+   */
+  static int compareOffsets(String a, String b) {
+    if (a.equals(b)) {
+      return 0;
+    }
+    if (BEGIN.equals(a)) {
+      return -1;
+    }
+    if (BEGIN.equals(b)) {
+      return 1;
+    }
+    if (a.length() != b.length()) {
+      return Integer.compare(a.length(), b.length());
+    }
+    return a.compareTo(b);
+  }
+
+  static String key(Cursor cursor) {
+    return cursor.eventType().orElse("") + "/" + cursor.partition();
+  }
+
+  /**
+   * The archive's segments, oldest first.
+   */
+  static List<Segment> segments(Path directory) throws IOException {
+    final List<Segment> segments = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+      for (Path path : stream) {
+        final String name = path.getFileName().toString();
+        try {
+          final long sequence =
+              Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+          segments.add(new Segment(sequence, path,
+              directory.resolve(segmentName(sequence, INDEX_SUFFIX))));
+        } catch (NumberFormatException e) {
+          logger.warn("op=stream_archive msg=ignoring_unknown_file file={}", path);
+        }
+      }
+    }
+    segments.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+    return segments;
+  }
+
+  private static String segmentName(long sequence, String suffix) {
+    return String.format("%019d%s", sequence, suffix);
+  }
+
+  /**
+   * @return the directory holding the archive
+   */
+  public Path directory() {
+    return directory;
+  }
+
+  /**
+   * Finish the open member, so everything appended so far is in the segment file and indexed.
+   *
+   * @throws NakadiException if the archive can't be written
+   */
+  public synchronized void flush() throws NakadiException {
+    try {
+      finishMember();
+    } catch (IOException e) {
+      throw new NakadiException(
+          Problem.localProblem("stream_archive_write_failed", directory + " " + e.getMessage()),
+          e);
+    }
+  }
+
+  /**
+   * Flush and close the archive.
+   */
+  @Override public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    try {
+      closeSegment();
+    } catch (IOException e) {
+      logger.warn("op=stream_archive msg=close_failed directory={} err={}",
+          directory, e.getMessage());
+    } finally {
+      closed = true;
+    }
+  }
+
+  /**
+   * Append a batch line.
+   *
+   * @param cursor the batch's cursor
+   * @param line the array holding the line
+   * @param offset where the line starts in the array
+   * @param length the length of the line
+   * @throws NakadiException if the archive is closed or can't be written
+   */
+  synchronized void append(Cursor cursor, byte[] line, int offset, int length)
+      throws NakadiException {
+    if (closed) {
+      throw new NakadiException(
+          Problem.localProblem("stream_archive_closed", directory.toString()));
+    }
+
+    try {
+      if (memberOut == null) {
+        if (segmentOut == null) {
+          openSegment();
+        }
+        memberOut = new GZIPOutputStream(nonClosing(segmentOut), 64 * 1024);
+      }
+
+      memberOut.write(line, offset, length);
+      memberOut.write(NEWLINE);
+      memberLastCursors.put(key(cursor), cursor);
+      memberLineBytes += length + 1;
+      segmentLineBytes += length + 1;
+
+      if (segmentLineBytes >= segmentBytes) {
+        closeSegment();
+      } else if (memberLineBytes >= indexIntervalBytes) {
+        finishMember();
+      }
+    } catch (IOException e) {
+      throw new NakadiException(
+          Problem.localProblem("stream_archive_write_failed", directory + " " + e.getMessage()),
+          e);
+    }
+  }
+
+  private void openSegment() throws IOException {
+    final long next = sequence++;
+    segmentOut = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(
+        directory.resolve(segmentName(next, SEGMENT_SUFFIX)), StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.WRITE)));
+    indexOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+        directory.resolve(segmentName(next, INDEX_SUFFIX)), StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.WRITE)));
+    segmentLineBytes = 0;
+    logger.info("op=stream_archive msg=segment_started directory={} sequence={}",
+        directory, next);
+    deleteExpiredSegments();
+  }
+
+  private void finishMember() throws IOException {
+    if (memberOut == null) {
+      return;
+    }
+    memberOut.finish();
+    segmentOut.flush();
+
+    // the member is in the file before the index points at it
+    indexOut.writeLong(segmentOut.getCount());
+    indexOut.writeInt(memberLastCursors.size());
+    for (Cursor cursor : memberLastCursors.values()) {
+      indexOut.writeUTF(cursor.eventType().orElse(""));
+      indexOut.writeUTF(cursor.partition());
+      indexOut.writeUTF(cursor.offset());
+    }
+    indexOut.flush();
+
+    memberOut = null;
+    memberLastCursors.clear();
+    memberLineBytes = 0;
+  }
+
+  private void closeSegment() throws IOException {
+    if (segmentOut == null) {
+      return;
+    }
+    try {
+      finishMember();
+    } finally {
+      segmentOut.close();
+      indexOut.close();
+      segmentOut = null;
+      indexOut = null;
+    }
+  }
+
+  private void deleteExpiredSegments() throws IOException {
+    if (retentionMillis <= 0) {
+      return;
+    }
+    final long expiry = System.currentTimeMillis() - retentionMillis;
+    final List<Segment> segments = segments(directory);
+    // the newest is the one just started
+    for (Segment segment : segments.subList(0, Math.max(0, segments.size() - 1))) {
+      if (Files.getLastModifiedTime(segment.data).toMillis() < expiry) {
+        logger.info("op=stream_archive msg=segment_expired directory={} sequence={}",
+            directory, segment.sequence);
+        Files.deleteIfExists(segment.data);
+        Files.deleteIfExists(segment.index);
+      }
+    }
+  }
+
+  private static OutputStream nonClosing(OutputStream out) {
+    // each member's stream is finished, not closed, so the segment stays open for the next
+    return new OutputStream() {
+      @Override public void write(int b) throws IOException {
+        out.write(b);
+      }
+
+      @Override public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+      }
+
+      @Override public void flush() throws IOException {
+        out.flush();
+      }
+    };
+  }
+
+  @Override public String toString() {
+    return "StreamArchive{" + "directory=" + directory +
+        ", segmentBytes=" + segmentBytes +
+        ", indexIntervalBytes=" + indexIntervalBytes +
+        ", retentionMillis=" + retentionMillis +
+        '}';
+  }
+
+  /**
+   * A segment file and its index.
+   */
+  static class Segment {
+
+    final long sequence;
+    final Path data;
+    final Path index;
+
+    Segment(long sequence, Path data, Path index) {
+      this.sequence = sequence;
+      this.data = data;
+      this.index = index;
+    }
+
+    /**
+     * Read the index entries, up to the first incomplete one.
+     */
+    List<IndexEntry> readIndex() throws IOException {
+      if (!Files.exists(index)) {
+        return Collections.emptyList();
+      }
+      final List<IndexEntry> entries = new ArrayList<>();
+      try (InputStream in = Files.newInputStream(index);
+           DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+        long start = 0;
+        while (true) {
+          final long end = data.readLong();
+          final int count = data.readInt();
+          final Map<String, String> lastOffsets = new LinkedHashMap<>();
+          for (int i = 0; i < count; i++) {
+            final String eventType = data.readUTF();
+            final String partition = data.readUTF();
+            lastOffsets.put(eventType + "/" + partition, data.readUTF());
+          }
+          entries.add(new IndexEntry(start, end, lastOffsets));
+          start = end;
+        }
+      } catch (EOFException e) {
+        return entries;
+      }
+    }
+  }
+
+  /**
+   * Where a member starts and ends in its segment, and the last offset it holds for each
+   * partition, keyed as {@link #key(Cursor)}.
+   */
+  static class IndexEntry {
+
+    final long start;
+    final long end;
+    final Map<String, String> lastOffsets;
+
+    IndexEntry(long start, long end, Map<String, String> lastOffsets) {
+      this.start = start;
+      this.end = end;
+      this.lastOffsets = lastOffsets;
+    }
+  }
+
+  public static class Builder {
+
+    static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    static final long DEFAULT_INDEX_INTERVAL_BYTES = 256L * 1024;
+
+    private Path directory;
+    private long segmentBytes = DEFAULT_SEGMENT_BYTES;
+    private long indexIntervalBytes = DEFAULT_INDEX_INTERVAL_BYTES;
+    private long retentionMillis;
+
+    public Builder() {
+    }
+
+    public StreamArchive build() {
+      NakadiException.throwNonNull(directory, "Please provide a directory");
+
+      if (segmentBytes < 1 || indexIntervalBytes < 1 || indexIntervalBytes > segmentBytes) {
+        throw new NakadiException(Problem.localProblem(
+            "Segment and index interval sizes must be positive, with the interval no larger than the segment",
+            String.format("segment_bytes=%d index_interval_bytes=%d",
+                segmentBytes, indexIntervalBytes)));
+      }
+
+      try {
+        return new StreamArchive(this);
+      } catch (IOException e) {
+        throw new NakadiException(
+            Problem.localProblem("stream_archive_open_failed", directory + " " + e.getMessage()),
+            e);
+      }
+    }
+
+    /**
+     * The directory to keep segments in. It's created if it doesn't exist.
+     *
+     * @param directory the directory
+     * @return this
+     */
+    public Builder directory(Path directory) {
+      this.directory = directory;
+      return this;
+    }
+
+    /**
+     * The uncompressed bytes of batch lines after which a new segment is started. The default
+     * is 64MiB.
+     *
+     * @param segmentBytes the size
+     * @return this
+     */
+    public Builder segmentBytes(long segmentBytes) {
+      this.segmentBytes = segmentBytes;
+      return this;
+    }
+
+    /**
+     * The uncompressed bytes of batch lines between index entries. Smaller intervals make a
+     * replay from a cursor skip less at the cost of compressing less well. The default is
+     * 256KiB.
+     *
+     * @param indexIntervalBytes the size
+     * @return this
+     */
+    public Builder indexIntervalBytes(long indexIntervalBytes) {
+      this.indexIntervalBytes = indexIntervalBytes;
+      return this;
+    }
+
+    /**
+     * How long to keep segments for. Segments last written longer ago than this are deleted
+     * when a new segment is started. By default segments are kept.
+     *
+     * @param retention the retention period
+     * @param unit the unit of the period
+     * @return this
+     */
+    public Builder retention(long retention, TimeUnit unit) {
+      NakadiException.throwNonNull(unit, "Please provide a time unit");
+      this.retentionMillis = unit.toMillis(retention);
+      return this;
+    }
+  }
+}
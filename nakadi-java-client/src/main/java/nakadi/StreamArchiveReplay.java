@@ -0,0 +1,319 @@
+package nakadi;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import okio.Okio;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the batches kept by a {@link StreamArchive} back through a {@link StreamObserver}, as
+ * they'd have been delivered by a {@link StreamProcessor}.
+ * <p>
+ * Without cursors every archived batch is replayed, oldest first. Given cursors, only their
+ * partitions are replayed, starting after each cursor's offset; the archive's index is used to
+ * skip straight to the first segment and member holding anything later. Cursors for batches
+ * from an event type stream have just a partition and offset, while those from a subscription
+ * also need the event type.
+ * </p>
+ * <p>
+ * {@link #run()} replays on the calling thread, handing each batch to {@code onNext} in the
+ * order it was archived, and returns once the archive has been read; there are no retries,
+ * buffering or back pressure. Checkpoints the observer makes go to the replay's offset
+ * observer, not the server.
+ * </p>
+ */
+@Experimental
+public class StreamArchiveReplay {
+
+  private static final Logger logger = LoggerFactory.getLogger(NakadiClient.class.getSimpleName());
+
+  private final Path directory;
+  private final Map<String, String> fromOffsets;
+  private final StreamObserverProvider streamObserverProvider;
+  private final StreamOffsetObserver streamOffsetObserver;
+  private final JsonBatchSupport jsonBatchSupport;
+  private volatile boolean stopping;
+
+  private StreamArchiveReplay(Builder builder) {
+    this.directory = builder.directory;
+    this.fromOffsets = new HashMap<>();
+    builder.cursors.forEach(c -> fromOffsets.put(StreamArchive.key(c), c.offset()));
+    this.streamObserverProvider = builder.streamObserverProvider;
+    this.streamOffsetObserver = builder.streamOffsetObserver;
+    this.jsonBatchSupport = new JsonBatchSupport(builder.client.jsonSupport());
+  }
+
+  /**
+   * Provide a new builder for creating a replay.
+   *
+   * @param client the client
+   * @return a builder
+   */
+  public static StreamArchiveReplay.Builder newBuilder(NakadiClient client) {
+    return new StreamArchiveReplay.Builder().client(client);
+  }
+
+  /**
+   * Find the segment and position to start reading from, or null if nothing in the archive
+   * is after the cursors.
+   */
+  static Position startPosition(List<StreamArchive.Segment> segments,
+      Map<String, String> fromOffsets) throws IOException {
+    if (segments.isEmpty()) {
+      return null;
+    }
+    if (fromOffsets.isEmpty()) {
+      return new Position(0, 0);
+    }
+
+    for (int i = 0; i < segments.size(); i++) {
+      long indexed = 0;
+      for (StreamArchive.IndexEntry entry : segments.get(i).readIndex()) {
+        if (holdsLaterOffsets(entry, fromOffsets)) {
+          return new Position(i, entry.start);
+        }
+        indexed = entry.end;
+      }
+      // a member that was never indexed could hold anything
+      if (Files.size(segments.get(i).data) > indexed) {
+        return new Position(i, indexed);
+      }
+    }
+    return null;
+  }
+
+  private static boolean holdsLaterOffsets(StreamArchive.IndexEntry entry,
+      Map<String, String> fromOffsets) {
+    for (Map.Entry<String, String> from : fromOffsets.entrySet()) {
+      final String last = entry.lastOffsets.get(from.getKey());
+      if (last != null && StreamArchive.compareOffsets(last, from.getValue()) > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Replay the archive to a new observer from the provider.
+   *
+   * @return the number of batches replayed
+   * @throws NakadiException if the archive can't be read, or wrapping what the observer threw
+   */
+  public long run() throws NakadiException {
+    return replay(streamObserverProvider);
+  }
+
+  /**
+   * Stop a replay that's running, after the current batch.
+   */
+  public void stop() {
+    stopping = true;
+  }
+
+  private <T> long replay(StreamObserverProvider<T> provider) {
+    final TypeLiteral<T> literal = provider.typeLiteral();
+    final boolean decodeEventsLazily =
+        provider.decodeEventsLazily() || LazyStreamBatchReal.isRaw(literal.type());
+    final StreamObserver<T> observer = provider.createStreamObserver();
+    stopping = false;
+    long count = 0;
+
+    observer.onStart();
+    try {
+      final List<StreamArchive.Segment> segments = StreamArchive.segments(directory);
+      final Position start = startPosition(segments, fromOffsets);
+      logger.info("op=stream_archive_replay msg=starting directory={} segments={} from={}",
+          directory, segments.size(), start);
+
+      if (start != null) {
+        for (int i = start.segment; i < segments.size() && !stopping; i++) {
+          count += replaySegment(segments.get(i), i == start.segment ? start.position : 0,
+              literal, decodeEventsLazily, observer);
+        }
+      }
+
+      observer.onCompleted();
+    } catch (Exception e) {
+      observer.onError(e);
+      if (e instanceof NakadiException) {
+        throw (NakadiException) e;
+      }
+      throw new NakadiException(Problem.localProblem("stream_archive_replay_failed",
+          directory + " " + e.getMessage()), e);
+    } finally {
+      observer.onStop();
+      logger.info("op=stream_archive_replay msg=stopped directory={} batches={}",
+          directory, count);
+    }
+    return count;
+  }
+
+  private <T> long replaySegment(StreamArchive.Segment segment, long position,
+      TypeLiteral<T> literal, boolean decodeEventsLazily, StreamObserver<T> observer)
+      throws IOException {
+    long count = 0;
+    try (FileChannel channel = FileChannel.open(segment.data)) {
+      if (position >= channel.size()) {
+        return 0;
+      }
+      channel.position(position);
+      final InputStream in;
+      try {
+        in = new GZIPInputStream(
+            new BufferedInputStream(Channels.newInputStream(channel)), 64 * 1024);
+      } catch (EOFException e) {
+        logTruncated(segment, e);
+        return 0;
+      }
+      final BatchLineReader reader = new BatchLineReader(Okio.buffer(Okio.source(in)));
+
+      while (!stopping && nextLine(reader, segment)) {
+        // archived lines are replayed without a session, there's nothing to commit to
+        final StreamBatchRecordReal<T> record = jsonBatchSupport.<T>lineToStreamBatchRecord(
+            reader.buffer(), 0, reader.length(), literal.type(), streamOffsetObserver, null,
+            decodeEventsLazily).sizeInBytes(reader.length());
+
+        if (isAfterCursors(record.streamBatch().cursor())) {
+          observer.onNext(record);
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  private boolean nextLine(BatchLineReader reader, StreamArchive.Segment segment) {
+    try {
+      return reader.next();
+    } catch (UncheckedIOException e) {
+      logTruncated(segment, e);
+      return false;
+    }
+  }
+
+  private void logTruncated(StreamArchive.Segment segment, Exception e) {
+    // the rest of the segment was cut off or is still being written
+    logger.warn("op=stream_archive_replay msg=segment_truncated sequence={} err={}",
+        segment.sequence, e.getMessage());
+  }
+
+  private boolean isAfterCursors(Cursor cursor) {
+    if (fromOffsets.isEmpty()) {
+      return true;
+    }
+    final String from = fromOffsets.get(StreamArchive.key(cursor));
+    return from != null && StreamArchive.compareOffsets(cursor.offset(), from) > 0;
+  }
+
+  static class Position {
+
+    final int segment;
+    final long position;
+
+    Position(int segment, long position) {
+      this.segment = segment;
+      this.position = position;
+    }
+
+    @Override public String toString() {
+      return "{segment=" + segment + ", position=" + position + '}';
+    }
+  }
+
+  public static class Builder {
+
+    private NakadiClient client;
+    private Path directory;
+    private List<Cursor> cursors = Collections.emptyList();
+    private StreamObserverProvider streamObserverProvider;
+    private StreamOffsetObserver streamOffsetObserver;
+
+    public Builder() {
+    }
+
+    public StreamArchiveReplay build() {
+      NakadiException.throwNonNull(client, "Please provide a client");
+      NakadiException.throwNonNull(directory, "Please provide an archive directory");
+      NakadiException.throwNonNull(streamObserverProvider,
+          "Please provide a StreamObserverProvider");
+
+      if (!Files.isDirectory(directory)) {
+        throw new NakadiException(Problem.localProblem(
+            "The archive directory does not exist", directory.toString()));
+      }
+
+      if (streamOffsetObserver == null) {
+        streamOffsetObserver = new LoggingStreamOffsetObserver();
+      }
+
+      return new StreamArchiveReplay(this);
+    }
+
+    public Builder client(NakadiClient client) {
+      this.client = client;
+      return this;
+    }
+
+    /**
+     * The directory of the archive to replay.
+     *
+     * @param directory the directory
+     * @return this
+     */
+    public Builder directory(Path directory) {
+      this.directory = directory;
+      return this;
+    }
+
+    /**
+     * The partitions to replay, and the offsets to replay them from. Each batch replayed has
+     * an offset after its partition's cursor.
+     *
+     * @param cursors the cursors
+     * @return this
+     */
+    public Builder cursors(Cursor... cursors) {
+      NakadiException.throwNonNull(cursors, "Please provide cursors");
+      this.cursors = new ArrayList<>(Arrays.asList(cursors));
+      return this;
+    }
+
+    /**
+     * Provides the observer batches are replayed to.
+     *
+     * @param streamObserverProvider the provider
+     * @return this
+     */
+    public Builder streamObserverFactory(StreamObserverProvider streamObserverProvider) {
+      this.streamObserverProvider = streamObserverProvider;
+      return this;
+    }
+
+    /**
+     * Given to each replayed batch for the observer to checkpoint with. The default logs the
+     * cursors.
+     *
+     * @param streamOffsetObserver the offset observer
+     * @return this
+     */
+    public Builder streamOffsetObserver(StreamOffsetObserver streamOffsetObserver) {
+      this.streamOffsetObserver = streamOffsetObserver;
+      return this;
+    }
+  }
+}
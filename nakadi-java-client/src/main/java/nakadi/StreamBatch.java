@@ -1,5 +1,6 @@
 package nakadi;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -16,6 +17,18 @@ public interface StreamBatch<T> {
    */
   Cursor cursor();
 
+  /**
+   * The latest position for each partition in the batch. A batch from the server covers one
+   * partition and has just its {@link #cursor()}; a batch made by
+   * {@link StreamObserver#requestCoalescing()} can cover several.
+   *
+   * @return the latest {@link Cursor} for each partition in the batch
+   */
+  @Experimental
+  default List<Cursor> cursors() {
+    return Collections.singletonList(cursor());
+  }
+
   /**
    * Notification data sent by the server.
    *
@@ -1,5 +1,8 @@
 package nakadi;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Supplies a {@link StreamBatch} and {@link StreamOffsetObserver} to
  * the {@link StreamObserver}.
@@ -23,6 +26,18 @@ public interface StreamBatchRecord<T> {
    */
   StreamCursorContext streamCursorContext();
 
+  /**
+   * The cursor contexts to checkpoint once the batch is processed, one for each partition the
+   * batch covers. This is {@link #streamCursorContext()} alone unless the batch was merged by
+   * {@link StreamObserver#requestCoalescing()}.
+   *
+   * @return the latest {@link StreamCursorContext} for each partition in the batch.
+   */
+  @Experimental
+  default List<StreamCursorContext> streamCursorContexts() {
+    return Collections.singletonList(streamCursorContext());
+  }
+
   /**
    * An observer that can be called by {@link StreamObserver} when it has completed processing
    * the batch.
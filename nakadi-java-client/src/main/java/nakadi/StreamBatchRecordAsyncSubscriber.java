@@ -0,0 +1,226 @@
+package nakadi;
+
+import io.reactivex.subscribers.ResourceSubscriber;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands batches to a {@link StreamObserverAsync} without waiting for earlier ones to complete,
+ * keeping up to the observer's {@link StreamObserverAsync#maxBatchesInFlight()} outstanding,
+ * and commits each partition's {@link CursorWatermark} as stages complete.
+ * <p>
+ * Batches are requested from the stream as stages complete. Stages complete on the observer's
+ * threads, so as with partition lanes the observer is told the stream has ended by whichever
+ * thread sees the last outstanding stage complete.
+ * </p>
+ */
+class StreamBatchRecordAsyncSubscriber<T> extends ResourceSubscriber<StreamBatchRecord<T>> {
+
+  private static final Logger logger = LoggerFactory.getLogger(NakadiClient.class.getSimpleName());
+
+  private final StreamObserverAsync<T> observer;
+  private final MetricCollector metricCollector;
+  private final int maxInFlight;
+  private final Consumer<Throwable> onFailure;
+  // only touched from onNext
+  private final Map<String, CursorWatermark> watermarks = new HashMap<>();
+  private final AtomicBoolean done = new AtomicBoolean(false);
+  // batches handed to the observer whose stages haven't completed
+  private final AtomicInteger pending = new AtomicInteger();
+  private final AtomicBoolean terminated = new AtomicBoolean(false);
+  private volatile boolean upstreamDone;
+  private volatile Throwable upstreamError;
+
+  /**
+   * @param onFailure told of a failure that should stop the processor, seen on the observer's
+   * thread where rx can't see it
+   */
+  StreamBatchRecordAsyncSubscriber(StreamObserverAsync<T> observer,
+      MetricCollector metricCollector, Consumer<Throwable> onFailure) {
+    super();
+    this.observer = observer;
+    this.metricCollector = metricCollector;
+    this.maxInFlight = Math.max(1, observer.maxBatchesInFlight());
+    this.onFailure = onFailure;
+  }
+
+  @Override protected void onStart() {
+    // not calling super.onStart, that requests an unbounded number of batches
+    logger.debug("StreamBatchRecordAsyncSubscriber.onStart max_in_flight={}", maxInFlight);
+    observer.onBegin();
+    request(maxInFlight);
+  }
+
+  @Override public void onNext(StreamBatchRecord<T> record) {
+
+    if (done.get()) {
+      return;
+    }
+
+    if (record == null) {
+      NullPointerException npe = new NullPointerException("onNext called with null batch record. "
+          + "Null values are not expected from stream processors.");
+      onError(npe);
+      throw npe;
+    }
+
+    if (!record.streamBatch().isEmpty()) {
+      metricCollector.mark(MetricCollector.Meter.receivedBatch, 1);
+      metricCollector.mark(MetricCollector.Meter.received, record.streamBatch().events().size());
+    } else {
+      metricCollector.mark(MetricCollector.Meter.receivedKeepalive, 1);
+    }
+
+    final CursorWatermark watermark = watermark(record);
+    final CursorWatermark.Entry entry = watermark.track(record);
+    pending.incrementAndGet();
+
+    final CompletionStage<Void> stage;
+    try {
+      stage = Objects.requireNonNull(observer.onNextAsync(record),
+          "onNextAsync returned a null stage");
+    } catch (Throwable t) {
+      completed(watermark, entry, t);
+      return;
+    }
+    stage.whenComplete((ignored, t) -> completed(watermark, entry, t));
+  }
+
+  @Override public void onError(Throwable e) {
+    logger.error("StreamBatchRecordAsyncSubscriber.onError " + e.getMessage());
+    upstreamError = e;
+    upstreamDone = true;
+    terminateWhenDrained();
+  }
+
+  @Override public void onComplete() {
+    logger.info("StreamBatchRecordAsyncSubscriber.onCompleted");
+    upstreamDone = true;
+    terminateWhenDrained();
+  }
+
+  private CursorWatermark watermark(StreamBatchRecord<T> record) {
+    final Cursor cursor = record.streamBatch().cursor();
+    final String key = cursor.eventType().orElse("") + "/" + cursor.partition();
+    final String session =
+        record.streamCursorContext().context().get(StreamResourceSupport.X_NAKADI_STREAM_ID);
+    CursorWatermark watermark = watermarks.get(key);
+    if (watermark == null || !Objects.equals(watermark.session(), session)) {
+      if (watermark != null) {
+        // the old session's cursors would be rejected, and its batches will be resent
+        watermark.retire();
+      }
+      watermark = new CursorWatermark(session);
+      watermarks.put(key, watermark);
+    }
+    return watermark;
+  }
+
+  private void completed(CursorWatermark watermark, CursorWatermark.Entry entry, Throwable t) {
+    try {
+      final Throwable stageFailure = t == null ? null : unwrap(t);
+      final Throwable failure;
+      if (stageFailure == null) {
+        failure = commit(watermark, entry, true);
+      } else if (isFatal(stageFailure)) {
+        failure = stageFailure;
+      } else {
+        logger.info(String.format(
+            "StreamBatchRecordAsyncSubscriber.skipping_batch_after_retryable_exception type=%s msg=%s",
+            stageFailure.getClass().getSimpleName(), stageFailure.getMessage()));
+        // skipped, as the blocking subscriber skips a batch whose observer throws a retryable
+        // error; holding it in the watermark would stop the partition from committing again
+        failure = commit(watermark, entry, false);
+      }
+
+      if (failure == null) {
+        request(1);
+      } else if (isFatal(failure)) {
+        logger.error(String.format(
+            "StreamBatchRecordAsyncSubscriber.detected_nonretryable_exception type=%s msg=%s",
+            failure.getClass().getSimpleName(), failure.getMessage()));
+        fail(failure);
+      } else {
+        logger.info(String.format(
+            "StreamBatchRecordAsyncSubscriber.detected_retryable_exception type=%s msg=%s",
+            failure.getClass().getSimpleName(), failure.getMessage()));
+        request(1);
+      }
+    } finally {
+      if (pending.decrementAndGet() == 0) {
+        terminateWhenDrained();
+      }
+    }
+  }
+
+  /**
+   * @param handled false if the entry's batch was skipped, in which case its own cursor isn't
+   * committed, only those of later batches it was holding back
+   */
+  private Throwable commit(CursorWatermark watermark, CursorWatermark.Entry entry,
+      boolean handled) {
+    // held while committing so a partition's cursors go out in order
+    synchronized (watermark) {
+      final StreamBatchRecord<?> committable = watermark.complete(entry);
+      if (committable == null || (!handled && committable == entry.record())
+          || watermark.retired() || done.get() || isDisposed()) {
+        return null;
+      }
+      try {
+        committable.streamOffsetObserver().onNext(committable.streamCursorContext());
+        return null;
+      } catch (Throwable e) {
+        return e;
+      }
+    }
+  }
+
+  private static boolean isFatal(Throwable t) {
+    return t instanceof Error || !ExceptionSupport.isConsumerStreamRetryable(t);
+  }
+
+  private static Throwable unwrap(Throwable t) {
+    return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+  }
+
+  private void fail(Throwable t) {
+    notifyError(t);
+    dispose();
+    onFailure.accept(t);
+  }
+
+  private void terminateWhenDrained() {
+    if (!upstreamDone || pending.get() != 0 || terminated.getAndSet(true)) {
+      return;
+    }
+
+    if (upstreamError != null) {
+      notifyError(upstreamError);
+    } else if (!done.get()) {
+      observer.onCompleted();
+    }
+  }
+
+  private void notifyError(Throwable e) {
+    if (done.getAndSet(true)) {
+      logger.warn("observer_on_error_exception msg=onError_already_called");
+      return;
+    }
+
+    try {
+      observer.onError(e);
+    } catch (Exception e1) {
+      throw new NonRetryableNakadiException(
+          Problem.localProblem("observer_on_error_exception", "observer.onError_threw_exception"),
+          e1);
+    }
+  }
+}
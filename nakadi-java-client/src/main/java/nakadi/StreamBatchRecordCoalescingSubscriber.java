@@ -0,0 +1,191 @@
+package nakadi;
+
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.subscribers.ResourceSubscriber;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds batches until a {@link StreamCoalescing} bound is reached and then gives them to the
+ * observer as one {@link CoalescedStreamBatchRecord}. The linger timer runs on the same
+ * scheduler that delivers batches, and both paths hold the subscriber's lock, so the observer
+ * is never called concurrently.
+ */
+class StreamBatchRecordCoalescingSubscriber<T> extends ResourceSubscriber<StreamBatchRecord<T>> {
+
+  private static final Logger logger = LoggerFactory.getLogger(NakadiClient.class.getSimpleName());
+
+  private final StreamObserver<T> observer;
+  private final MetricCollector metricCollector;
+  private final int maxEvents;
+  private final long maxBytes;
+  private final long maxLingerMillis;
+  private final Scheduler.Worker worker;
+  private final List<StreamBatchRecord<T>> pending = new ArrayList<>();
+  private int pendingEvents;
+  private long pendingBytes;
+  private long generation;
+  private Disposable linger;
+  private boolean done;
+
+  StreamBatchRecordCoalescingSubscriber(StreamObserver<T> observer,
+      MetricCollector metricCollector, StreamCoalescing coalescing, Scheduler scheduler) {
+    super();
+    this.observer = observer;
+    this.metricCollector = metricCollector;
+    this.maxEvents = coalescing.maxEvents();
+    this.maxBytes = coalescing.maxBytes();
+    this.maxLingerMillis = coalescing.maxLingerMillis();
+    this.worker = scheduler.createWorker();
+    add(worker);
+  }
+
+  @Override protected void onStart() {
+    super.onStart();
+    logger.debug("StreamBatchRecordCoalescingSubscriber.onStart");
+    observer.onBegin();
+  }
+
+  @Override public synchronized void onNext(StreamBatchRecord<T> record) {
+
+    if (done) {
+      return;
+    }
+
+    if (record == null) {
+      NullPointerException npe = new NullPointerException("onNext called with null batch record. "
+          + "Null values are not expected from stream processors.");
+      onError(npe);
+      throw npe;
+    }
+
+    final int size = record.streamBatch().events().size();
+    if (size > 0) {
+      metricCollector.mark(MetricCollector.Meter.receivedBatch, 1);
+      metricCollector.mark(MetricCollector.Meter.received, size);
+    } else {
+      metricCollector.mark(MetricCollector.Meter.receivedKeepalive, 1);
+    }
+
+    // cursors from an earlier subscription session can't be committed with this one's
+    if (!pending.isEmpty() && !sameSession(pending.get(0), record)) {
+      flush();
+    }
+
+    pending.add(record);
+    pendingEvents += size;
+    if (record instanceof StreamBatchRecordReal) {
+      pendingBytes += ((StreamBatchRecordReal<T>) record).sizeInBytes();
+    }
+
+    if (pendingEvents >= maxEvents || pendingBytes >= maxBytes) {
+      flush();
+    } else if (pending.size() == 1) {
+      final long scheduled = generation;
+      linger = worker.schedule(() -> lingerExpired(scheduled), maxLingerMillis,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override public synchronized void onError(Throwable e) {
+    logger.error("StreamBatchRecordCoalescingSubscriber.onError " + e.getMessage());
+
+    if (done) {
+      logger.warn("observer_on_error_exception msg=onError_already_called");
+      return;
+    }
+
+    done = true;
+    if (!pending.isEmpty()) {
+      logger.warn("op=coalescing_discard msg=discarding_undelivered_batches batches={} events={}",
+          pending.size(), pendingEvents);
+      pending.clear();
+    }
+    worker.dispose();
+
+    try {
+      observer.onError(e);
+    } catch (Exception e1) {
+      throw new NonRetryableNakadiException(
+          Problem.localProblem("observer_on_error_exception", "observer.onError_threw_exception"),
+          e1);
+    }
+  }
+
+  @Override public synchronized void onComplete() {
+    logger.info("StreamBatchRecordCoalescingSubscriber.onCompleted");
+    if (!done && !pending.isEmpty()) {
+      flush();
+    }
+    worker.dispose();
+    observer.onCompleted();
+  }
+
+  private synchronized void lingerExpired(long scheduled) {
+    // a flush on size since this was scheduled makes it stale
+    if (!done && scheduled == generation && !pending.isEmpty()) {
+      flush();
+    }
+  }
+
+  private void flush() {
+    generation++;
+    if (linger != null) {
+      linger.dispose();
+      linger = null;
+    }
+
+    final StreamBatchRecord<T> record = pending.size() == 1
+        ? pending.get(0)
+        : new CoalescedStreamBatchRecord<>(new ArrayList<>(pending));
+    pending.clear();
+    pendingEvents = 0;
+    pendingBytes = 0;
+    deliver(record);
+  }
+
+  private void deliver(StreamBatchRecord<T> record) {
+    try {
+      observer.onNext(record);
+      // allow the observer to set back pressure by requesting a number of items
+      observer.requestBackPressure().ifPresent(this::request);
+    } catch (RetryableException e) {
+      logger.warn("StreamBatchRecordCoalescingSubscriber.retryable_exception msg=" + e.getMessage(),
+          e);
+    } catch (NonRetryableNakadiException e) {
+      logger.warn(
+          "StreamBatchRecordCoalescingSubscriber.non_retryable_exception msg=" + e.getMessage());
+      onError(e);
+      throw e;
+    } catch (Throwable t) {
+      if (t instanceof Error) {
+        logger.error("StreamBatchRecordCoalescingSubscriber.detected_error msg={}", t.getMessage());
+        onError(t);
+        throw (Error) t;
+      }
+
+      if (!ExceptionSupport.isConsumerStreamRetryable(t)) {
+        logger.error(String.format(
+            "StreamBatchRecordCoalescingSubscriber.detected_nonretryable_exception type=%s msg=%s",
+            t.getClass().getSimpleName(), t.getMessage()));
+        onError(t);
+        throw t;
+      } else {
+        logger.info(String.format(
+            "StreamBatchRecordCoalescingSubscriber.detected_retryable_exception type=%s msg=%s",
+            t.getClass().getSimpleName(), t.getMessage()));
+      }
+    }
+  }
+
+  private static boolean sameSession(StreamBatchRecord<?> a, StreamBatchRecord<?> b) {
+    return Objects.equals(
+        a.streamCursorContext().context().get(StreamResourceSupport.X_NAKADI_STREAM_ID),
+        b.streamCursorContext().context().get(StreamResourceSupport.X_NAKADI_STREAM_ID));
+  }
+}
@@ -0,0 +1,205 @@
+package nakadi;
+
+import io.reactivex.disposables.Disposables;
+import io.reactivex.subscribers.ResourceSubscriber;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands batches to the observer on a set of lanes, each a single thread, where a partition is
+ * always given to the same lane. Batches for a partition reach the observer in the order they
+ * arrived, while batches for partitions on different lanes are processed in parallel.
+ * <p>
+ * The observer's onNext can be called from several threads at once and must be thread safe.
+ * Batches are requested from the stream as lanes finish with them, so no more than
+ * {@code maxInFlight} are ever queued or being processed across the lanes.
+ * </p>
+ */
+class StreamBatchRecordPartitionSubscriber<T> extends ResourceSubscriber<StreamBatchRecord<T>> {
+
+  private static final Logger logger = LoggerFactory.getLogger(NakadiClient.class.getSimpleName());
+
+  private final StreamObserver<T> observer;
+  private final MetricCollector metricCollector;
+  private final int maxInFlight;
+  private final ExecutorService[] lanes;
+  private final Consumer<Throwable> onFailure;
+  private final AtomicBoolean done = new AtomicBoolean(false);
+  // batches handed to a lane and not yet processed
+  private final AtomicInteger pending = new AtomicInteger();
+  private final AtomicBoolean terminated = new AtomicBoolean(false);
+  private volatile boolean upstreamDone;
+  private volatile Throwable upstreamError;
+
+  /**
+   * @param onFailure told of a failure on a lane that should stop the processor, which rx
+   * can't see
+   */
+  StreamBatchRecordPartitionSubscriber(StreamObserver<T> observer,
+      MetricCollector metricCollector, int laneCount, int maxInFlight, ThreadFactory threadFactory,
+      Consumer<Throwable> onFailure) {
+    super();
+    this.observer = observer;
+    this.metricCollector = metricCollector;
+    this.maxInFlight = maxInFlight;
+    this.onFailure = onFailure;
+    this.lanes = new ExecutorService[laneCount];
+    for (int i = 0; i < laneCount; i++) {
+      lanes[i] = Executors.newSingleThreadExecutor(threadFactory);
+    }
+    // a stop disposes the subscriber; queued work sees that and is dropped
+    add(Disposables.fromRunnable(this::shutdownLanes));
+  }
+
+  static int lane(String partition, int laneCount) {
+    try {
+      // nakadi partitions are usually numbered, which spreads them evenly across lanes
+      return Math.floorMod(Integer.parseInt(partition), laneCount);
+    } catch (NumberFormatException e) {
+      return Math.floorMod(partition.hashCode(), laneCount);
+    }
+  }
+
+  @Override protected void onStart() {
+    // not calling super.onStart, that requests an unbounded number of batches
+    logger.debug("StreamBatchRecordPartitionSubscriber.onStart lanes={} max_in_flight={}",
+        lanes.length, maxInFlight);
+    observer.onBegin();
+    request(maxInFlight);
+  }
+
+  @Override public void onNext(StreamBatchRecord<T> record) {
+
+    if (done.get()) {
+      return;
+    }
+
+    if (record == null) {
+      NullPointerException npe = new NullPointerException("onNext called with null batch record. "
+          + "Null values are not expected from stream processors.");
+      onError(npe);
+      throw npe;
+    }
+
+    if (!record.streamBatch().isEmpty()) {
+      metricCollector.mark(MetricCollector.Meter.receivedBatch, 1);
+      metricCollector.mark(MetricCollector.Meter.received, record.streamBatch().events().size());
+    } else {
+      metricCollector.mark(MetricCollector.Meter.receivedKeepalive, 1);
+    }
+
+    final int lane = lane(record.streamBatch().cursor().partition(), lanes.length);
+    pending.incrementAndGet();
+    try {
+      lanes[lane].execute(() -> dispatch(record));
+    } catch (RejectedExecutionException e) {
+      pending.decrementAndGet();
+      logger.debug("StreamBatchRecordPartitionSubscriber.lane_rejected lane={} msg={}",
+          lane, e.getMessage());
+    }
+  }
+
+  @Override public void onError(Throwable e) {
+    logger.error("StreamBatchRecordPartitionSubscriber.onError " + e.getMessage());
+    upstreamError = e;
+    upstreamDone = true;
+    terminateWhenDrained();
+  }
+
+  @Override public void onComplete() {
+    logger.info("StreamBatchRecordPartitionSubscriber.onCompleted");
+    upstreamDone = true;
+    terminateWhenDrained();
+  }
+
+  /*
+   * Upstream signals can arrive on a lane thread when a lane's request is answered
+   * synchronously, so rather than waiting on the lanes the observer is told the stream has
+   * ended by whichever thread sees the last pending batch finish.
+   */
+  private void terminateWhenDrained() {
+    if (!upstreamDone || pending.get() != 0 || terminated.getAndSet(true)) {
+      return;
+    }
+
+    if (upstreamError != null) {
+      notifyError(upstreamError);
+    } else if (!done.get()) {
+      observer.onCompleted();
+    }
+  }
+
+  private void dispatch(StreamBatchRecord<T> record) {
+    try {
+      dispatchToObserver(record);
+    } finally {
+      if (pending.decrementAndGet() == 0) {
+        terminateWhenDrained();
+      }
+    }
+  }
+
+  private void dispatchToObserver(StreamBatchRecord<T> record) {
+    if (done.get() || isDisposed()) {
+      return;
+    }
+
+    try {
+      observer.onNext(record);
+      request(1);
+    } catch (RetryableException e) {
+      logger.warn("StreamBatchRecordPartitionSubscriber.retryable_exception msg=" + e.getMessage(),
+          e);
+      request(1);
+    } catch (Throwable t) {
+      if (t instanceof Error || !ExceptionSupport.isConsumerStreamRetryable(t)) {
+        logger.error(String.format(
+            "StreamBatchRecordPartitionSubscriber.detected_nonretryable_exception type=%s msg=%s",
+            t.getClass().getSimpleName(), t.getMessage()));
+        failFromLane(t);
+      } else {
+        logger.info(String.format(
+            "StreamBatchRecordPartitionSubscriber.detected_retryable_exception type=%s msg=%s",
+            t.getClass().getSimpleName(), t.getMessage()));
+        request(1);
+      }
+    }
+  }
+
+  private void failFromLane(Throwable t) {
+    notifyError(t);
+    dispose();
+    onFailure.accept(t);
+  }
+
+  private void notifyError(Throwable e) {
+    if (done.getAndSet(true)) {
+      logger.warn("observer_on_error_exception msg=onError_already_called");
+      return;
+    }
+
+    try {
+      observer.onError(e);
+    } catch (Exception e1) {
+      throw new NonRetryableNakadiException(
+          Problem.localProblem("observer_on_error_exception", "observer.onError_threw_exception"),
+          e1);
+    }
+  }
+
+  private void shutdownLanes() {
+    logger.debug("op=stream_processor_stop msg=stopping_executor name=partitionLanes count={}",
+        lanes.length);
+    for (ExecutorService lane : lanes) {
+      // don't wait here, a lane can be the thread disposing us
+      lane.shutdown();
+    }
+  }
+}
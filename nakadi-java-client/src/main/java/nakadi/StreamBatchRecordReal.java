@@ -6,26 +6,40 @@ import java.util.Objects;
 class StreamBatchRecordReal<T> implements StreamBatchRecord<T> {
 
   private final StreamBatch<T> streamBatchRecord;
-  private final StreamCursorContext streamCursorContext;
+  private final Map<String, String> context;
   private final StreamOffsetObserver streamOffsetObserver;
+  private StreamCursorContext streamCursorContext;
   private String streamIdHeader;
+  private int sizeInBytes;
 
   StreamBatchRecordReal(EventStreamBatch<T> batch, StreamOffsetObserver streamOffsetObserver,
       Map<String, String> context) {
-    Objects.requireNonNull(batch);
-    Objects.requireNonNull(streamOffsetObserver);
-    Objects.requireNonNull(context);
-    this.streamOffsetObserver = streamOffsetObserver;
-    this.streamBatchRecord = new StreamBatchReal<>(batch);
-    streamCursorContext = new StreamCursorContextReal(streamBatchRecord.cursor(), context);
+    this((StreamBatch<T>) Objects.requireNonNull(batch), streamOffsetObserver,
+        Objects.requireNonNull(context));
   }
 
   StreamBatchRecordReal(EventStreamBatch<T> batch, StreamOffsetObserver streamOffsetObserver) {
+    this((StreamBatch<T>) Objects.requireNonNull(batch), streamOffsetObserver, null);
+  }
+
+  // a null context is for event type streams, which have none
+  StreamBatchRecordReal(StreamBatch<T> batch, StreamOffsetObserver streamOffsetObserver,
+      Map<String, String> context) {
     Objects.requireNonNull(batch);
     Objects.requireNonNull(streamOffsetObserver);
     this.streamOffsetObserver = streamOffsetObserver;
-    this.streamBatchRecord = new StreamBatchReal<>(batch);
-    streamCursorContext = new StreamCursorContextReal(streamBatchRecord.cursor());
+    this.streamBatchRecord = batch;
+    this.context = context;
+  }
+
+  // the size of the batch line, used to bound coalescing
+  int sizeInBytes() {
+    return sizeInBytes;
+  }
+
+  StreamBatchRecordReal<T> sizeInBytes(int sizeInBytes) {
+    this.sizeInBytes = sizeInBytes;
+    return this;
   }
 
   @Override public StreamBatch<T> streamBatch() {
@@ -33,6 +47,13 @@ class StreamBatchRecordReal<T> implements StreamBatchRecord<T> {
   }
 
   @Override public StreamCursorContext streamCursorContext() {
+    // made when first asked for, many records are never checkpointed individually. Racing
+    // threads can each make one, they're immutable and equal
+    if (streamCursorContext == null) {
+      streamCursorContext = context == null
+          ? new StreamCursorContextReal(streamBatchRecord.cursor())
+          : new StreamCursorContextReal(streamBatchRecord.cursor(), context);
+    }
     return streamCursorContext;
   }
 
@@ -41,7 +62,7 @@ class StreamBatchRecordReal<T> implements StreamBatchRecord<T> {
   }
 
   @Override public int hashCode() {
-    return Objects.hash(streamBatchRecord, streamCursorContext, streamOffsetObserver,
+    return Objects.hash(streamBatchRecord, streamCursorContext(), streamOffsetObserver,
         streamIdHeader);
   }
 
@@ -50,14 +71,14 @@ class StreamBatchRecordReal<T> implements StreamBatchRecord<T> {
     if (o == null || getClass() != o.getClass()) return false;
     StreamBatchRecordReal<?> that = (StreamBatchRecordReal<?>) o;
     return Objects.equals(streamBatchRecord, that.streamBatchRecord) &&
-        Objects.equals(streamCursorContext, that.streamCursorContext) &&
+        Objects.equals(streamCursorContext(), that.streamCursorContext()) &&
         Objects.equals(streamOffsetObserver, that.streamOffsetObserver) &&
         Objects.equals(streamIdHeader, that.streamIdHeader);
   }
 
   @Override public String toString() {
     return "StreamBatchRecordReal{" + "streamBatchRecord=" + streamBatchRecord +
-        ", streamCursorContext=" + streamCursorContext +
+        ", streamCursorContext=" + streamCursorContext() +
         ", streamOffsetObserver=" + streamOffsetObserver +
         ", streamIdHeader='" + streamIdHeader + '\'' +
         '}';
@@ -10,12 +10,20 @@ class StreamBatchRecordSubscriber<T> extends ResourceSubscriber<StreamBatchRecor
 
   private final StreamObserver<T> observer;
   private final MetricCollector metricCollector;
+  private final AdaptiveDemandController demandController;
   private boolean done;
 
   StreamBatchRecordSubscriber(StreamObserver<T> observer, MetricCollector metricCollector) {
+    this(observer, metricCollector, null);
+  }
+
+  // a null controller leaves demand to the observer's requestBackPressure
+  StreamBatchRecordSubscriber(StreamObserver<T> observer, MetricCollector metricCollector,
+      AdaptiveDemandController demandController) {
     super();
     this.observer = observer;
     this.metricCollector = metricCollector;
+    this.demandController = demandController;
   }
 
   @Override protected void onStart() {
@@ -37,6 +45,7 @@ class StreamBatchRecordSubscriber<T> extends ResourceSubscriber<StreamBatchRecor
       throw npe;
     }
 
+    final long start = System.nanoTime();
     try {
       if (!record.streamBatch().isEmpty()) {
         metricCollector.mark(MetricCollector.Meter.receivedBatch, 1);
@@ -72,6 +81,10 @@ class StreamBatchRecordSubscriber<T> extends ResourceSubscriber<StreamBatchRecor
             "StreamBatchRecordSubscriber.detected_retryable_exception type=%s msg=%s", t.getClass().getSimpleName(),
             t.getMessage()));
       }
+    } finally {
+      if (demandController != null) {
+        demandController.handled(System.nanoTime() - start);
+      }
     }
   }
 
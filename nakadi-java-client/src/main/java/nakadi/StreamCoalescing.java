@@ -0,0 +1,96 @@
+package nakadi;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configures how a {@link StreamProcessor} merges consecutive batches before handing them to a
+ * {@link StreamObserver} that asks for it via {@link StreamObserver#requestCoalescing()}.
+ * <p>
+ * Batches are held until one of the bounds is reached: the number of events, the number of
+ * bytes the batches took on the wire, or the time since the first held batch arrived. The
+ * held batches are then delivered as a single {@link StreamBatchRecord} whose events are those
+ * of the held batches in arrival order. The record's
+ * {@link StreamBatchRecord#streamCursorContexts()} has the latest cursor for each partition
+ * seen, which is what a subscription observer should checkpoint.
+ * </p>
+ */
+@Experimental
+public class StreamCoalescing {
+
+  static final int DEFAULT_MAX_EVENTS = 1_000;
+  static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+  static final long DEFAULT_MAX_LINGER_MILLIS = 1_000;
+
+  private int maxEvents = DEFAULT_MAX_EVENTS;
+  private long maxBytes = DEFAULT_MAX_BYTES;
+  private long maxLingerMillis = DEFAULT_MAX_LINGER_MILLIS;
+
+  public int maxEvents() {
+    return maxEvents;
+  }
+
+  /**
+   * Deliver once the held batches have at least this many events. The default is 1000.
+   *
+   * @param maxEvents the number of events
+   * @return this
+   * @throws IllegalArgumentException if the number is less than 1
+   */
+  public StreamCoalescing maxEvents(int maxEvents) throws IllegalArgumentException {
+    if (maxEvents < 1) {
+      throw new IllegalArgumentException("max events must be at least 1, was " + maxEvents);
+    }
+    this.maxEvents = maxEvents;
+    return this;
+  }
+
+  public long maxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Deliver once the held batches add up to at least this many bytes of batch JSON. The
+   * default is 1MiB.
+   *
+   * @param maxBytes the number of bytes
+   * @return this
+   * @throws IllegalArgumentException if the number is less than 1
+   */
+  public StreamCoalescing maxBytes(long maxBytes) throws IllegalArgumentException {
+    if (maxBytes < 1) {
+      throw new IllegalArgumentException("max bytes must be at least 1, was " + maxBytes);
+    }
+    this.maxBytes = maxBytes;
+    return this;
+  }
+
+  public long maxLingerMillis() {
+    return maxLingerMillis;
+  }
+
+  /**
+   * Deliver once this long has passed since the first held batch arrived, however few events
+   * there are. The default is 1s.
+   *
+   * @param maxLinger the time to wait
+   * @param unit the time unit
+   * @return this
+   * @throws IllegalArgumentException if the supplied unit is null or the time is less than 1ms
+   */
+  public StreamCoalescing maxLinger(long maxLinger, TimeUnit unit)
+      throws IllegalArgumentException {
+    NakadiException.throwNonNull(unit, "Please provide a time unit for max linger");
+    if (unit.toMillis(maxLinger) < 1) {
+      throw new IllegalArgumentException("max linger must be at least 1ms");
+    }
+    this.maxLingerMillis = unit.toMillis(maxLinger);
+    return this;
+  }
+
+  @Override public String toString() {
+    return "StreamCoalescing{" + "maxEvents=" + maxEvents +
+        ", maxBytes=" + maxBytes +
+        ", maxLingerMillis=" + maxLingerMillis +
+        '}';
+  }
+}
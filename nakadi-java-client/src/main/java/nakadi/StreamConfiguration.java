@@ -22,6 +22,7 @@ public class StreamConfiguration {
   static final int DEFAULT_COMMIT_TIMEOUT = 60;
   static final int DEFAULT_STREAM_KEEPALIVE_COUNT = 0;
   static final int DEFAULT_MAX_UNCOMMITTED_EVENTS = 10;
+  static final double DEFAULT_WATCHDOG_FACTOR = 2.0;
   private final Map<String, String> requestHeaders = new HashMap<>();
   // api declared
   private int batchLimit = DEFAULT_BATCH_LIMIT;
@@ -42,6 +43,7 @@ public class StreamConfiguration {
   private long minRetryDelay = StreamConnectionRetryFlowable.DEFAULT_MIN_DELAY_SECONDS;
   private int maxRetryAttempts = StreamConnectionRetryFlowable.DEFAULT_MAX_ATTEMPTS;
   private int batchBufferCount = StreamProcessor.DEFAULT_BACKPRESSURE_BUFFER_SIZE;
+  private double watchdogFactor = DEFAULT_WATCHDOG_FACTOR;
 
   public String eventTypeName() {
     return topic;
@@ -98,6 +100,33 @@ public class StreamConfiguration {
     return maxUncommittedEvents;
   }
 
+  public double watchdogFactor() {
+    return watchdogFactor;
+  }
+
+  /**
+   * Sets how many {@link #batchFlushTimeoutSeconds()} the processor will wait on a connection
+   * that has sent nothing before assuming it's half-open and reconnecting. The server sends a
+   * batch, or a keepalive when there are no events, at least once per batch flush timeout, so
+   * a connection that misses that by this factor is treated as dead. Time spent waiting on a
+   * slow observer isn't counted. The default is 2, and 0 turns the watchdog off, leaving
+   * detection to the read timeout.
+   *
+   * @param watchdogFactor the number of batch flush timeouts to wait, 0 or at least 1
+   * @return this
+   * @throws IllegalArgumentException if the factor is negative or between 0 and 1
+   */
+  @Experimental
+  public StreamConfiguration watchdogFactor(double watchdogFactor)
+      throws IllegalArgumentException {
+    if (watchdogFactor != 0 && !(watchdogFactor >= 1)) {
+      throw new IllegalArgumentException(
+          "watchdog factor must be 0 or at least 1, was " + watchdogFactor);
+    }
+    this.watchdogFactor = watchdogFactor;
+    return this;
+  }
+
   public StreamConfiguration maxUncommittedEvents(long maxUncommittedEvents) {
     this.maxUncommittedEvents = maxUncommittedEvents;
     return this;
@@ -346,9 +375,36 @@ public class StreamConfiguration {
     return this.eventTypeName() != null;
   }
 
+  /**
+   * A copy of this configuration reading from the given cursors instead of its own.
+   */
+  StreamConfiguration withCursors(List<Cursor> cursors) {
+    final StreamConfiguration copy = new StreamConfiguration();
+    copy.requestHeaders.putAll(requestHeaders);
+    copy.batchLimit = batchLimit;
+    copy.streamLimit = streamLimit;
+    copy.batchFlushTimeout = batchFlushTimeout;
+    copy.streamTimeout = streamTimeout;
+    copy.commitTimeout = commitTimeout;
+    copy.streamKeepAliveLimit = streamKeepAliveLimit;
+    copy.cursors = new ArrayList<>(cursors);
+    copy.topic = topic;
+    copy.subscriptionId = subscriptionId;
+    copy.maxUncommittedEvents = maxUncommittedEvents;
+    copy.connectTimeout = connectTimeout;
+    copy.readTimeout = readTimeout;
+    copy.maxRetryDelay = maxRetryDelay;
+    copy.minRetryDelay = minRetryDelay;
+    copy.maxRetryAttempts = maxRetryAttempts;
+    copy.batchBufferCount = batchBufferCount;
+    copy.watchdogFactor = watchdogFactor;
+    return copy;
+  }
+
   @Override public int hashCode() {
     return Objects.hash(batchLimit, streamLimit, batchFlushTimeout, streamTimeout,
-        streamKeepAliveLimit, cursors, connectTimeout, readTimeout, batchBufferCount);
+        streamKeepAliveLimit, cursors, connectTimeout, readTimeout, batchBufferCount,
+        watchdogFactor);
   }
 
   @Override public boolean equals(Object o) {
@@ -363,6 +419,7 @@ public class StreamConfiguration {
         connectTimeout == that.connectTimeout &&
         readTimeout == that.readTimeout &&
         batchBufferCount == that.batchBufferCount &&
+        watchdogFactor == that.watchdogFactor &&
         Objects.equals(cursors, that.cursors);
   }
 
@@ -376,6 +433,7 @@ public class StreamConfiguration {
         ", connectTimeoutMillis=" + connectTimeout +
         ", readTimeoutMillis=" + readTimeout +
         ", batchBufferCount=" + batchBufferCount +
+        ", watchdogFactor=" + watchdogFactor +
         '}';
   }
 }
@@ -9,9 +9,10 @@ class StreamCursorContextReal implements StreamCursorContext {
 
   private static final Map<String, String> U_SENTINEL =
       Collections.unmodifiableMap(new HashMap<>());
+  private static final Class<?> UNMODIFIABLE_MAP = U_SENTINEL.getClass();
 
   private final Cursor cursor;
-  private Map<String, String> context;
+  private final Map<String, String> context;
 
   StreamCursorContextReal(Cursor cursor) {
     this(cursor, U_SENTINEL);
@@ -19,7 +20,10 @@ class StreamCursorContextReal implements StreamCursorContext {
 
   StreamCursorContextReal(Cursor cursor, Map<String, String> context) {
     this.cursor = cursor;
-    this.context = context;
+    // wrapped once here rather than on every read; a session's shared context already is
+    this.context = context.getClass() == UNMODIFIABLE_MAP
+        ? context
+        : Collections.unmodifiableMap(context);
   }
 
   @Override public Cursor cursor() {
@@ -27,10 +31,7 @@ class StreamCursorContextReal implements StreamCursorContext {
   }
 
   @Override public Map<String, String> context() {
-    if (context == U_SENTINEL) {
-      return context;
-    }
-    return Collections.unmodifiableMap(context);
+    return context;
   }
 
   @Override public int hashCode() {
@@ -98,4 +98,33 @@ public interface StreamObserver<T> {
    * @return the size of the requestBuffer or {@link Optional#empty()} to indicate no buffering
    */
   Optional<Integer> requestBuffer();
+
+  /**
+   * Ask the {@link StreamProcessor} to merge consecutive batches and pass them to
+   * {@link #onNext} as one, bounded by the given {@link StreamCoalescing}. This is called on
+   * initialization and fixed thereafter, and takes precedence over {@link #requestBuffer()}.
+   *
+   * <p>Subscription observers should checkpoint each of the merged record's
+   * {@link StreamBatchRecord#streamCursorContexts()}.</p>
+   *
+   * @return the coalescing bounds or {@link Optional#empty()} to receive batches as they arrive
+   */
+  @Experimental
+  default Optional<StreamCoalescing> requestCoalescing() {
+    return Optional.empty();
+  }
+
+  /**
+   * Ask the {@link StreamProcessor} to pass keepalive batches, those with a cursor and no
+   * events, to {@link #onNext}. This is called on initialization and fixed thereafter.
+   *
+   * <p>By default keepalives are counted in {@link MetricCollector.Meter#receivedKeepalive}
+   * and then dropped before reaching the observer.</p>
+   *
+   * @return true to receive keepalive batches.
+   */
+  @Experimental
+  default boolean requestKeepalives() {
+    return false;
+  }
 }
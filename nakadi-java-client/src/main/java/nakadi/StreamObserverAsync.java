@@ -0,0 +1,61 @@
+package nakadi;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * An observer that handles batches asynchronously, returning a {@link CompletionStage} for each
+ * one instead of doing its work in {@link #onNext}.
+ *
+ * <p>The {@link StreamProcessor} hands over up to {@link #maxBatchesInFlight()} batches without
+ * waiting for earlier ones to complete, and commits cursors itself: for each partition it
+ * passes the cursor of the latest batch whose stage, and every earlier batch's stage, has
+ * completed to the record's {@link StreamOffsetObserver}. For a subscription that's its
+ * checkpointer. A batch is never committed before its stage completes, and a batch whose stage
+ * succeeds is delivered at least once. Implementations shouldn't call the offset observer
+ * themselves.</p>
+ *
+ * <p>A stage that completes with a {@link NonRetryableNakadiException}, or an {@link Error},
+ * stops the processor as a thrown exception would. Any other failure is logged and the batch
+ * is skipped, as it is when {@link StreamObserver#onNext} throws a retryable exception: its
+ * cursor isn't committed, but the partition's later batches are committed past it once they
+ * complete, so its events are not redelivered. An observer that can't afford to lose them
+ * should retry within its stage, or fail it with a non-retryable exception to stop the
+ * processor before anything later is committed.</p>
+ *
+ * <p>Stages for different batches, including those from the same partition, can complete in
+ * any order and on any thread. Buffering, coalescing, partition lanes and adaptive back
+ * pressure don't apply to asynchronous observers.</p>
+ *
+ * @param <T> the type of the events in the batch
+ */
+@Experimental
+public interface StreamObserverAsync<T> extends StreamObserver<T> {
+
+  /**
+   * Starts handling a batch.
+   *
+   * @param record the emitted {@link StreamBatchRecord}
+   * @return a stage that completes when the batch has been handled
+   */
+  CompletionStage<Void> onNextAsync(StreamBatchRecord<T> record);
+
+  /**
+   * The most batches handed to {@link #onNextAsync} whose stages haven't completed. This is
+   * called on initialization and fixed thereafter. The default is 8.
+   *
+   * @return the number of batches
+   */
+  default int maxBatchesInFlight() {
+    return 8;
+  }
+
+  /**
+   * Handles a batch synchronously by waiting on {@link #onNextAsync}. The processor doesn't
+   * call this.
+   *
+   * @param record the emitted {@link StreamBatchRecord}
+   */
+  @Override default void onNext(StreamBatchRecord<T> record) {
+    onNextAsync(record).toCompletableFuture().join();
+  }
+}
@@ -26,4 +26,16 @@ public interface StreamObserverProvider<T> {
    * @return the captured generic type for consuming events.
    */
   TypeLiteral<T> typeLiteral();
+
+  /**
+   * Ask for batches to be delivered as a {@link LazyStreamBatch}, where events are held as
+   * raw JSON and only marshalled to T when accessed. This suits observers that route or count
+   * batches by their cursor or raw contents without needing every event marshalled.
+   *
+   * @return true to have events marshalled lazily, false to marshal them all on arrival.
+   */
+  @Experimental
+  default boolean decodeEventsLazily() {
+    return false;
+  }
 }
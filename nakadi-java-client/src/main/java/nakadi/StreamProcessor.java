@@ -1,21 +1,24 @@
 package nakadi;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.reactivex.Flowable;
 import io.reactivex.FlowableTransformer;
 import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
 import io.reactivex.exceptions.UndeliverableException;
 import io.reactivex.functions.Consumer;
 import io.reactivex.functions.Function;
 import io.reactivex.functions.Predicate;
 import io.reactivex.plugins.RxJavaPlugins;
 import io.reactivex.schedulers.Schedulers;
-import java.io.BufferedReader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.slf4j.Logger;
@@ -38,6 +41,11 @@ public class StreamProcessor implements StreamProcessorManaged {
   static final int DEFAULT_BACKPRESSURE_BUFFER_SIZE = 128;
   private static final int START_AWAIT_TIMEOUT_SECONDS = 63;
   private static final TimeUnit START_AWAIT_TIMEOUT_UNIT = TimeUnit.SECONDS;
+  // stands in for keepalives the observer didn't ask for; they're dropped after the half-open
+  // timeout, which still needs to see them on an idle stream
+  private static final StreamBatchRecord<?> COLLAPSED_KEEPALIVE =
+      new StreamBatchRecordReal<>(new EventStreamBatch<>(new Cursor(), null, null),
+          new LoggingStreamOffsetObserver());
   private final NakadiClient client;
   private final StreamConfiguration streamConfiguration;
   private final StreamObserverProvider streamObserverProvider;
@@ -53,21 +61,25 @@ public class StreamProcessor implements StreamProcessorManaged {
   private final CountDownLatch startLatch;
   private final StreamProcessorRequestFactory streamProcessorRequestFactory;
   private final int batchBufferCount;
+  private final int partitionLanes;
+  private final AdaptiveBackPressure adaptiveBackPressure;
+  private final EventDeduplication deduplication;
+  private final LocalOffsetStore offsetStore;
+  private final StreamArchive archive;
+  private final ExecutionMode executionMode;
   private volatile Throwable failedProcessorException;
-  private StreamBatchRecordSubscriber subscriber;
-  private final ExecutorService monoIoExecutor = Executors.newSingleThreadExecutor(
-      new ThreadFactoryBuilder()
-          .setNameFormat("nakadi-java-io-%d")
-          .setUncaughtExceptionHandler((t, e) -> handleUncaught(t, e, "stream_processor_err_io"))
-          .build());
-  private final Scheduler monoIoScheduler = Schedulers.from(monoIoExecutor);
-  private final ExecutorService monoComputeExecutor = Executors.newSingleThreadExecutor(
-      new ThreadFactoryBuilder()
-          .setNameFormat("nakadi-java-compute-%d")
-          .setUncaughtExceptionHandler(
-              (t, e) -> handleUncaught(t, e, "stream_processor_err_compute"))
-          .build());
-  private final Scheduler monoComputeScheduler = Schedulers.from(monoComputeExecutor);
+  private volatile Disposable subscriber;
+  private volatile StreamWatchdog watchdog;
+  private final boolean warmReconnect;
+  private volatile StreamStandby standby;
+  private volatile long streamEndedNanos;
+  // either this processor's own executors, or a lease on a shared scheduler's loops
+  private final StreamScheduler streamScheduler;
+  private final ExecutorService monoIoExecutor;
+  private final ExecutorService monoComputeExecutor;
+  private volatile StreamScheduler.Lease schedulerLease;
+  private volatile Scheduler monoIoScheduler;
+  private volatile Scheduler monoComputeScheduler;
   private volatile StreamObserver streamObserver;
   private volatile int currentStreamResponseCode;
 
@@ -82,8 +94,20 @@ public class StreamProcessor implements StreamProcessorManaged {
     this.maxRetryDelay = StreamConnectionRetryFlowable.DEFAULT_MAX_DELAY_SECONDS;
     this.maxRetryAttempts = StreamConnectionRetryFlowable.DEFAULT_MAX_ATTEMPTS;
     this.batchBufferCount = StreamProcessor.DEFAULT_BACKPRESSURE_BUFFER_SIZE;
+    this.partitionLanes = 0;
+    this.adaptiveBackPressure = null;
+    this.deduplication = null;
+    this.offsetStore = null;
+    this.archive = null;
+    this.warmReconnect = false;
+    this.executionMode = ExecutionMode.PLATFORM_THREADS;
     startLatch = new CountDownLatch(1);
     this.streamProcessorRequestFactory = streamProcessorRequestFactory;
+    this.streamScheduler = null;
+    this.monoIoExecutor = newMonoIoExecutor();
+    this.monoIoScheduler = Schedulers.from(monoIoExecutor);
+    this.monoComputeExecutor = newMonoComputeExecutor();
+    this.monoComputeScheduler = Schedulers.from(monoComputeExecutor);
   }
 
   private StreamProcessor(Builder builder) {
@@ -95,8 +119,37 @@ public class StreamProcessor implements StreamProcessorManaged {
     this.maxRetryDelay = streamConfiguration.maxRetryDelaySeconds();
     this.maxRetryAttempts = streamConfiguration.maxRetryAttempts();
     this.batchBufferCount = streamConfiguration.batchBufferCount();
+    this.partitionLanes = builder.partitionLanes;
+    this.adaptiveBackPressure = builder.adaptiveBackPressure;
+    this.deduplication = builder.deduplication;
+    this.offsetStore = builder.offsetStore;
+    this.archive = builder.archive;
+    this.warmReconnect = builder.warmReconnect;
+    this.executionMode = builder.executionMode;
     startLatch = new CountDownLatch(1);
     this.streamProcessorRequestFactory = builder.streamProcessorRequestFactory;
+    this.streamScheduler = builder.streamScheduler;
+    if (streamScheduler != null) {
+      // leased when the processor starts
+      this.monoIoExecutor = null;
+      this.monoComputeExecutor = null;
+    } else {
+      this.monoIoExecutor = newMonoIoExecutor();
+      this.monoIoScheduler = Schedulers.from(monoIoExecutor);
+      this.monoComputeExecutor = newMonoComputeExecutor();
+      this.monoComputeScheduler = Schedulers.from(monoComputeExecutor);
+    }
+  }
+
+  private ExecutorService newMonoIoExecutor() {
+    // still a single thread when virtual, the response is closed on the thread that opened it
+    return Executors.newSingleThreadExecutor(ThreadSupport.threadFactory(executionMode,
+        "nakadi-java-io-", (t, e) -> handleUncaught(t, e, "stream_processor_err_io")));
+  }
+
+  private ExecutorService newMonoComputeExecutor() {
+    return Executors.newSingleThreadExecutor(ThreadSupport.threadFactory(executionMode,
+        "nakadi-java-compute-", (t, e) -> handleUncaught(t, e, "stream_processor_err_compute")));
   }
 
   /**
@@ -214,6 +267,11 @@ public class StreamProcessor implements StreamProcessorManaged {
   }
 
   private void startStreaming() {
+    if (streamScheduler != null) {
+      schedulerLease = streamScheduler.lease();
+      monoIoScheduler = schedulerLease.ioScheduler();
+      monoComputeScheduler = schedulerLease.computeScheduler();
+    }
     //noinspection unchecked
     stream(streamConfiguration, streamObserverProvider);
     startLatch.countDown();
@@ -243,47 +301,171 @@ public class StreamProcessor implements StreamProcessorManaged {
       streamObserver.onStop();
     }
 
-    subscriber.dispose();
-    logger.debug("op=stream_processor_stop msg=stopping_executor name=monoIoScheduler");
-    ExecutorServiceSupport.shutdown(monoIoExecutor);
-    logger.debug("op=stream_processor_stop msg=stopping_executor name=monoComputeScheduler");
-    ExecutorServiceSupport.shutdown(monoComputeExecutor);
+    if (subscriber != null) {
+      subscriber.dispose();
+    }
+    if (watchdog != null) {
+      watchdog.stop();
+    }
+    if (standby != null) {
+      standby.disconnected();
+    }
+    closeStreamOffsetObserver();
+    if (streamScheduler != null) {
+      if (schedulerLease != null) {
+        logger.debug("op=stream_processor_stop msg=releasing_stream_scheduler_lease");
+        schedulerLease.release();
+      }
+    } else {
+      logger.debug("op=stream_processor_stop msg=stopping_executor name=monoIoScheduler");
+      ExecutorServiceSupport.shutdown(monoIoExecutor);
+      logger.debug("op=stream_processor_stop msg=stopping_executor name=monoComputeScheduler");
+      ExecutorServiceSupport.shutdown(monoComputeExecutor);
+    }
     stopped.getAndSet(true);
   }
 
+  private void closeStreamOffsetObserver() {
+    if (streamOffsetObserver instanceof AutoCloseable) {
+      try {
+        logger.debug("op=stream_processor_stop msg=closing_offset_observer");
+        ((AutoCloseable) streamOffsetObserver).close();
+      } catch (Exception e) {
+        logger.warn("op=stream_processor_stop msg=offset_observer_close_failed {}",
+            e.getMessage());
+      }
+    }
+  }
+
   private <T> void stream(StreamConfiguration sc, StreamObserverProvider<T> provider) {
 
     final StreamObserver<T> observer = provider.createStreamObserver();
     streamObserver = observer;
+
+    final long watchdogDeadline = StreamWatchdog.deadlineMillis(sc);
+    if (watchdogDeadline > 0) {
+      logger.info("op=processor_configure msg=stream_watchdog factor={} deadline={}ms",
+          sc.watchdogFactor(), watchdogDeadline);
+      watchdog = new StreamWatchdog(
+          watchdogDeadline, TimeUnit.MILLISECONDS, client.metricCollector());
+      watchdog.start(Schedulers.single());
+    }
+
+    if (warmReconnect) {
+      logger.info("op=processor_configure msg=warm_reconnect stream_timeout={}s",
+          sc.streamTimeoutSeconds());
+      standby = StreamStandby.forStream(client, sc, Schedulers.io());
+    }
     final TypeLiteral<T> literal = provider.typeLiteral();
-    final Flowable<StreamBatchRecord<T>> observable = this.buildObservable(observer, sc, literal);
+    // raw events are always split lazily, there's nothing to marshal them to
+    final boolean decodeEventsLazily =
+        provider.decodeEventsLazily() || LazyStreamBatchReal.isRaw(literal.type());
+    Flowable<StreamBatchRecord<T>> observable =
+        this.buildObservable(observer, sc, literal, decodeEventsLazily)
+            .filter(record -> record != COLLAPSED_KEEPALIVE);
+
+    if (deduplication != null) {
+      if (decodeEventsLazily) {
+        // reading ids would decode every event, defeating the point of a lazy batch
+        logger.warn("op=create_subscriber msg=deduplication_ignored_for_lazy_batches {}",
+            deduplication);
+      } else {
+        logger.info("op=create_subscriber msg=deduplication {}", deduplication);
+        final EventDeduplicator deduplicator =
+            new EventDeduplicator(deduplication, client.metricCollector());
+        observable = observable.map(deduplicator::deduplicate);
+      }
+    }
 
+    Optional<StreamCoalescing> maybeCoalescing = observer.requestCoalescing();
     Optional<Integer> maybeBuffering = observer.requestBuffer();
-    if (maybeBuffering.isPresent()) {
-      logger.info("op=create_subscriber type=buffering buffer={} config={}", sc);
+    if (adaptiveBackPressure != null && (observer instanceof StreamObserverAsync
+        || maybeCoalescing.isPresent() || maybeBuffering.isPresent() || partitionLanes > 0)) {
+      logger.warn("op=create_subscriber msg=adaptive_back_pressure_ignored {}", adaptiveBackPressure);
+    }
+
+    if (observer instanceof StreamObserverAsync) {
+      final StreamObserverAsync<T> asyncObserver = (StreamObserverAsync<T>) observer;
+      logger.info("op=create_subscriber type=async max_in_flight={} config={}",
+          asyncObserver.maxBatchesInFlight(), sc);
+
+      if (maybeCoalescing.isPresent() || maybeBuffering.isPresent() || partitionLanes > 0) {
+        logger.warn(
+            "op=create_subscriber msg=coalescing_buffering_and_partition_dispatch_ignored_for_async_observer lanes={}",
+            partitionLanes);
+      }
 
-      observable.observeOn(monoComputeScheduler)
+      subscriber = observable.observeOn(monoComputeScheduler)
+          .subscribeWith(
+              new StreamBatchRecordAsyncSubscriber<>(asyncObserver, client.metricCollector(),
+                  this::stopOnSubscriberFailure));
+    } else if (maybeCoalescing.isPresent()) {
+      logger.info("op=create_subscriber type=coalescing coalescing={} config={}",
+          maybeCoalescing.get(), sc);
+
+      if (maybeBuffering.isPresent() || partitionLanes > 0) {
+        logger.warn(
+            "op=create_subscriber msg=buffering_and_partition_dispatch_ignored_for_coalescing_observer buffer={} lanes={}",
+            maybeBuffering.orElse(0), partitionLanes);
+      }
+
+      subscriber = observable.observeOn(monoComputeScheduler)
+          .subscribeWith(new StreamBatchRecordCoalescingSubscriber<>(observer,
+              client.metricCollector(), maybeCoalescing.get(), monoComputeScheduler));
+    } else if (maybeBuffering.isPresent()) {
+      logger.info("op=create_subscriber type=buffering buffer={} config={}",
+          maybeBuffering.get(), sc);
+
+      if (partitionLanes > 0) {
+        logger.warn(
+            "op=create_subscriber msg=partition_dispatch_ignored_for_buffering_observer lanes={}",
+            partitionLanes);
+      }
+
+      subscriber = observable.observeOn(monoComputeScheduler)
           // If the stream observer wants buffering set that up; it will see discrete
           // batches but the rx observer wrapping around it will be given buffered lists.
           .buffer(maybeBuffering.get())
           .subscribeWith(
               new StreamBatchRecordBufferingSubscriber<>(observer, client.metricCollector()));
+    } else if (partitionLanes > 0) {
+      logger.info("op=create_subscriber type=partition lanes={} max_in_flight={} config={}",
+          partitionLanes, batchBufferCount, sc);
+      subscriber = observable.observeOn(monoComputeScheduler)
+          .subscribeWith(new StreamBatchRecordPartitionSubscriber<>(
+              observer, client.metricCollector(), partitionLanes, batchBufferCount,
+              partitionThreadFactory(), this::stopOnSubscriberFailure));
+    } else if (adaptiveBackPressure != null) {
+      logger.info("op=create_subscriber type=adaptive {} config={}", adaptiveBackPressure, sc);
+      final AdaptiveDemandController controller =
+          new AdaptiveDemandController(adaptiveBackPressure, client.metricCollector());
+      // the gate goes before observeOn so its queue is what's being held down
+      subscriber = observable.lift(controller.<StreamBatchRecord<T>>gate())
+          .observeOn(monoComputeScheduler, false, adaptiveBackPressure.maxDemand())
+          .subscribeWith(
+              new StreamBatchRecordSubscriber<>(observer, client.metricCollector(), controller));
     } else {
       logger.info("op=create_subscriber type=regular config={}", sc);
-      subscriber = new StreamBatchRecordSubscriber<>(observer, client.metricCollector());
-      observable.observeOn(monoComputeScheduler)
+      subscriber = observable.observeOn(monoComputeScheduler)
           .subscribeWith(new StreamBatchRecordSubscriber<>(observer, client.metricCollector()));
     }
   }
 
+  private ThreadFactory partitionThreadFactory() {
+    return ThreadSupport.threadFactory(executionMode, "nakadi-java-partition-",
+        (t, e) -> handleUncaught(t, e, "stream_processor_err_partition"));
+  }
+
   private <T> Flowable<StreamBatchRecord<T>> buildObservable(
       StreamObserver<T> streamObserver,
       StreamConfiguration streamConfiguration,
-      TypeLiteral<T> typeLiteral) {
+      TypeLiteral<T> typeLiteral,
+      boolean decodeEventsLazily) {
 
     // compute a timeout after which we assume the server's gone away or we're on
     // one end of a half-open connection. this is a big downside trying to emulate
-    // a streaming model over http get
+    // a streaming model over http get. when the stream watchdog is on it'll usually
+    // close a silent connection well before this
     TimeUnit halfOpenUnit = TimeUnit.SECONDS;
     long halfOpenGrace = DEFAULT_HALF_OPEN_CONNECTION_GRACE_SECONDS;
     long batchFlushTimeoutSeconds = this.streamConfiguration.batchFlushTimeoutSeconds();
@@ -296,8 +478,9 @@ public class StreamProcessor implements StreamProcessorManaged {
     // single thread scheduler allows that to happen whereas the default/io/compute schedulers
     // all use multiple threads which can cause resource leaks: http://bit.ly/2fe4UZH
     final Flowable<StreamBatchRecord<T>> flowable = Flowable.using(
-        httpRequestFactory(streamConfiguration),
-        streamConsumerFactory(typeLiteral, streamConfiguration),
+        connectionFactory(streamConfiguration),
+        streamConsumerFactory(typeLiteral, streamConfiguration,
+            streamObserver.requestKeepalives(), decodeEventsLazily),
         httpResponseDispose()
     )
         .subscribeOn(monoIoScheduler)
@@ -310,8 +493,9 @@ public class StreamProcessor implements StreamProcessorManaged {
           streamObserver.onStart();
         })
         .doOnComplete( () -> {
+          streamEndedNanos = System.nanoTime();
           streamObserver.onCompleted();
-          if (successfulResponseAndCustomStreamTimeout()) {
+          if (successfulResponseAndCustomStreamTimeout() && !warmReconnect) {
             logger.info(
                 "op=stop_processor_on_complete msg=stopping_assuming_server_closed_ok_stream_due_to_stream_timeout stream_timeout={}  server_response={}",
                 streamConfiguration.streamTimeoutSeconds(), this.currentStreamResponseCode);
@@ -330,7 +514,7 @@ public class StreamProcessor implements StreamProcessorManaged {
 
           }
 
-          if (successfulResponseAndCustomStreamTimeout()) {
+          if (successfulResponseAndCustomStreamTimeout() && !warmReconnect) {
             logger.info(
                 "op=stop_processor_on_cancel msg=stopping_assuming_server_closed_ok_stream_due_to_stream_timeout stream_timeout={}  server_response={}",
                 streamConfiguration.streamTimeoutSeconds(), this.currentStreamResponseCode);
@@ -339,6 +523,11 @@ public class StreamProcessor implements StreamProcessorManaged {
           }
 
         })
+        .doOnTerminate(() -> {
+          if (standby != null) {
+            standby.disconnected();
+          }
+        })
         .timeout(halfOpenKick, halfOpenUnit)
         // retries handle issues like network failures and 409 conflicts
         .retryWhen(buildStreamConnectionRetryFlowable())
@@ -352,22 +541,101 @@ public class StreamProcessor implements StreamProcessorManaged {
     return currentStreamResponseCode == 200 && hasCustomStreamTimeout();
   }
 
+  private Callable<Response> connectionFactory(StreamConfiguration sc) {
+    // with a store, each connection starts from the latest stored cursors
+    final Callable<Response> factory = offsetStore == null
+        ? httpRequestFactory(sc)
+        : () -> httpRequestFactory(offsetStore.seed(sc, client)).call();
+    return () -> {
+      final Response response = factory.call();
+      final long ended = streamEndedNanos;
+      if (ended != 0) {
+        streamEndedNanos = 0;
+        client.metricCollector().duration(MetricCollector.Timer.streamRestartPause,
+            System.nanoTime() - ended, TimeUnit.NANOSECONDS);
+      }
+      if (standby != null && response.statusCode() == 200) {
+        standby.connected();
+      }
+      return response;
+    };
+  }
+
   @SuppressWarnings("WeakerAccess") @VisibleForTesting
   Callable<Response> httpRequestFactory(StreamConfiguration sc) {
     return streamProcessorRequestFactory.createCallable(sc, this);
   }
 
   private <T> Function<? super Response, Flowable<StreamBatchRecord<T>>> streamConsumerFactory(
-      TypeLiteral<T> literal, StreamConfiguration sc) {
+      TypeLiteral<T> literal, StreamConfiguration sc, boolean forwardKeepalives,
+      boolean decodeEventsLazily) {
 
     return (Response response) -> {
-      final BufferedReader br = new BufferedReader(response.responseBody().asReader());
-      return Flowable.fromIterable(br.lines()::iterator)
-          .doOnError(throwable -> ResponseSupport.closeQuietly(response))
-          .map(r -> lineToStreamBatchRecord(r, literal, response, sc));
+      // the batches and keepalives of a session share one context instead of a map each, and
+      // the stream id header is read once rather than copying the headers for every batch
+      final Map<String, String> context =
+          sc.isSubscriptionStream() ? sessionContext(response, sc) : null;
+      final StreamStrings strings = new StreamStrings();
+
+      final StreamWatchdog watchdog = this.watchdog;
+
+      // frame batches from the response bytes; each line is marshalled before the reader
+      // is asked for the next one, so its reused line buffer is never read from twice
+      return Flowable.<StreamBatchRecord<T>, BatchLineReader>generate(
+          () -> BatchLineReader.forResponse(response),
+          (reader, emitter) -> {
+            if (watchdog != null) {
+              watchdog.waiting(response);
+            }
+            if (!reader.next()) {
+              emitter.onComplete();
+              return;
+            }
+            if (watchdog != null) {
+              watchdog.arrived();
+            }
+
+            final Cursor keepalive = KeepaliveScanner.scan(reader.buffer(), 0, reader.length());
+            if (keepalive == null) {
+              final StreamBatchRecord<T> record = lineToStreamBatchRecord(
+                  reader, literal, response, context, strings, decodeEventsLazily);
+              if (archive != null) {
+                archive(record.streamBatch().cursor(), reader);
+              }
+              emitter.onNext(record);
+            } else if (forwardKeepalives) {
+              emitter.onNext(jsonBatchSupport.keepaliveToStreamBatchRecord(
+                  strings.share(keepalive), streamOffsetObserver(), context, decodeEventsLazily));
+            } else {
+              client.metricCollector().mark(MetricCollector.Meter.receivedKeepalive, 1);
+              emitter.onNext(collapsedKeepalive());
+            }
+          })
+          .doOnError(throwable -> ResponseSupport.closeQuietly(response));
     };
   }
 
+  private void archive(Cursor cursor, BatchLineReader reader) {
+    try {
+      archive.append(cursor, reader.buffer(), 0, reader.length());
+    } catch (NakadiException e) {
+      logger.warn("op=stream_archive msg=append_failed cursor={} err={}", cursor, e.getMessage());
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> StreamBatchRecord<T> collapsedKeepalive() {
+    return (StreamBatchRecord<T>) COLLAPSED_KEEPALIVE;
+  }
+
+  private Map<String, String> sessionContext(Response response, StreamConfiguration sc) {
+    final Map<String, String> context = new HashMap<>();
+    context.put(StreamResourceSupport.X_NAKADI_STREAM_ID,
+        response.headers().get(X_NAKADI_STREAM_ID).get(0));
+    context.put(StreamResourceSupport.SUBSCRIPTION_ID, sc.subscriptionId());
+    return Collections.unmodifiableMap(context);
+  }
+
   private Consumer<? super Response> httpResponseDispose() {
     return ResponseSupport::closeQuietly;
   }
@@ -392,7 +660,8 @@ public class StreamProcessor implements StreamProcessorManaged {
     return new StreamConnectionRestart()
         .repeatWhenWithDelayAndUntil(
             stopRepeatingPredicate(),
-            StreamConnectionRestart.DEFAULT_DELAY_SECONDS,
+            // the standby connection makes an immediate reconnect cheap
+            warmReconnect ? 0 : StreamConnectionRestart.DEFAULT_DELAY_SECONDS,
             StreamConnectionRestart.DEFAULT_DELAY_UNIT,
             StreamConnectionRestart.DEFAULT_MAX_RESTARTS);
   }
@@ -421,19 +690,20 @@ public class StreamProcessor implements StreamProcessorManaged {
     return streamConfiguration.streamTimeoutSeconds() != StreamConfiguration.DEFAULT_STREAM_TIMEOUT;
   }
 
-  private <T> StreamBatchRecord<T> lineToStreamBatchRecord(String line,
-      TypeLiteral<T> typeLiteral, Response response, StreamConfiguration sc) {
+  private <T> StreamBatchRecord<T> lineToStreamBatchRecord(BatchLineReader reader,
+      TypeLiteral<T> typeLiteral, Response response, Map<String, String> context,
+      StreamStrings strings, boolean decodeEventsLazily) {
 
-    if (sc.isSubscriptionStream()) {
-      String sessionId = response.headers().get(X_NAKADI_STREAM_ID).get(0);
-      logger.debug("op=line_to_batch x_nakadi_stream_id={} line={}, response={}", sessionId, line, response);
-      return jsonBatchSupport.lineToSubscriptionStreamBatchRecord(
-          line, typeLiteral.type(), streamOffsetObserver(), sessionId, sc.subscriptionId());
-    } else {
-      logger.debug("op=line_to_batch line={}, response={}", line, response);
-      return jsonBatchSupport.lineToEventStreamBatchRecord(
-          line, typeLiteral.type(), streamOffsetObserver());
+    if (logger.isDebugEnabled()) {
+      logger.debug("op=line_to_batch context={} line={}, response={}",
+          context, reader.lineAsString(), response);
     }
+
+    final StreamBatchRecordReal<T> record = jsonBatchSupport.lineToStreamBatchRecord(
+        reader.buffer(), 0, reader.length(), typeLiteral.type(), streamOffsetObserver(),
+        context, decodeEventsLazily);
+    strings.share(record.streamBatch().cursor());
+    return record.sizeInBytes(reader.length());
   }
 
   private void setupRxErrorHandler() {
@@ -479,6 +749,17 @@ public class StreamProcessor implements StreamProcessorManaged {
     );
   }
 
+  // the rx error handler is global to the jvm and replaced by each processor's start, so a
+  // subscriber failing off the rx threads stops its own processor directly
+  private void stopOnSubscriberFailure(Throwable t) {
+    logger.error(String.format("op=subscriber_failure action=stopping type=%s %s",
+        t.getClass().getSimpleName(), t.getMessage()), t);
+    if (failedProcessorException == null) {
+      failedProcessorException = t;
+    }
+    stopStreaming();
+  }
+
   private void handleUncaught(Thread t, Throwable e, String name) {
     if (ExceptionSupport.isInterruptedIOException(e)) {
       Thread.currentThread().interrupt();
@@ -524,6 +805,18 @@ public class StreamProcessor implements StreamProcessorManaged {
     private StreamOffsetObserver streamOffsetObserver;
     private StreamConfiguration streamConfiguration;
     private StreamProcessorRequestFactory streamProcessorRequestFactory;
+    private int partitionLanes;
+    private long checkpointFlushInterval;
+    private TimeUnit checkpointFlushIntervalUnit;
+    private int checkpointFlushCount;
+    private int checkpointMaxInFlight;
+    private StreamScheduler streamScheduler;
+    private ExecutionMode executionMode;
+    private AdaptiveBackPressure adaptiveBackPressure;
+    private EventDeduplication deduplication;
+    private LocalOffsetStore offsetStore;
+    private StreamArchive archive;
+    private boolean warmReconnect;
 
     public Builder() {
     }
@@ -553,17 +846,63 @@ public class StreamProcessor implements StreamProcessorManaged {
               new SubscriptionOffsetCheckpointer(client).suppressInvalidSessionException(false);
         }
 
-        this.streamOffsetObserver = new SubscriptionOffsetObserver(checkpointer);
+        if (checkpointFlushIntervalUnit != null) {
+          this.streamOffsetObserver = buildCoalescingObserver();
+        } else {
+          this.streamOffsetObserver = new SubscriptionOffsetObserver(checkpointer);
+        }
+      } else if (checkpointFlushIntervalUnit != null) {
+        logger.warn("op=build_processor msg=coalescing_checkpoints_ignored reason={}",
+            streamConfiguration.isSubscriptionStream()
+                ? "stream_offset_observer_supplied" : "not_a_subscription_stream");
+      }
+
+      if (offsetStore != null) {
+        if (streamConfiguration.isEventTypeStream()) {
+          final StreamOffsetObserver storing =
+              offsetStore.observer(streamConfiguration.eventTypeName());
+          final StreamOffsetObserver supplied = streamOffsetObserver;
+          this.streamOffsetObserver = supplied == null ? storing : context -> {
+            storing.onNext(context);
+            supplied.onNext(context);
+          };
+        } else {
+          logger.warn("op=build_processor msg=offset_store_ignored reason=not_an_event_type_stream");
+        }
       }
 
       if (streamConfiguration.isEventTypeStream() && streamOffsetObserver == null) {
         this.streamOffsetObserver = new LoggingStreamOffsetObserver();
       }
 
+      if (partitionLanes < 0) {
+        throw new NakadiException(Problem.localProblem(
+            "Partition lanes cannot be negative", "partitionLanes=" + partitionLanes));
+      }
+
+      if (adaptiveBackPressure != null
+          && adaptiveBackPressure.minDemand() > adaptiveBackPressure.maxDemand()) {
+        throw new NakadiException(Problem.localProblem(
+            "Adaptive back pressure min demand cannot be more than max demand",
+            String.format("min_demand=%d max_demand=%d", adaptiveBackPressure.minDemand(),
+                adaptiveBackPressure.maxDemand())));
+      }
+
       if (streamProcessorRequestFactory == null) {
         streamProcessorRequestFactory = new StreamProcessorRequestFactory(client);
       }
 
+      if (executionMode == null) {
+        executionMode = client.executionMode();
+      } else {
+        executionMode = ThreadSupport.resolve(executionMode);
+      }
+
+      if (executionMode == ExecutionMode.VIRTUAL_THREADS && streamScheduler != null) {
+        logger.warn("op=build_processor msg=execution_mode_ignored_for_stream_scheduler mode={}",
+            executionMode);
+      }
+
       return new StreamProcessor(this);
     }
 
@@ -598,12 +937,214 @@ public class StreamProcessor implements StreamProcessorManaged {
       return this;
     }
 
+    /**
+     * Process partitions in parallel. Batches are given to the {@link StreamObserver} on one of a
+     * number of lanes, each with its own thread, and a partition is always assigned to the same
+     * lane. This preserves the order of batches within each partition but allows batches from
+     * partitions on different lanes to be processed at the same time.
+     * <p>
+     * The observer's onNext will be called from multiple threads and must be thread safe.
+     * Each batch still carries its own cursor, so checkpointing via the
+     * {@link StreamOffsetObserver} continues to work per partition. The number of batches queued
+     * or being worked on across all lanes is limited to
+     * {@link StreamConfiguration#batchBufferCount()}, and the observer's
+     * {@link StreamObserver#requestBackPressure()} is not consulted.
+     * </p>
+     * <p>
+     * Not applied to observers that ask for buffering via {@link StreamObserver#requestBuffer()}.
+     * The default of 0 disables partition dispatch, delivering batches on a single thread.
+     * </p>
+     *
+     * @param partitionLanes the number of lanes, usually not more than the number of partitions.
+     * @return this
+     */
+    @Experimental
+    public Builder partitionLanes(int partitionLanes) {
+      this.partitionLanes = partitionLanes;
+      return this;
+    }
+
+    /**
+     * Let the processor decide how many batches to have in flight to the observer, based on
+     * how long the observer takes to handle them, instead of a fixed buffer. See
+     * {@link AdaptiveBackPressure}.
+     * <p>
+     * Not applied to asynchronous observers, observers that ask for buffering or coalescing,
+     * or with partition lanes.
+     * The observer's {@link StreamObserver#requestBackPressure()} is still honoured.
+     * </p>
+     *
+     * @param adaptiveBackPressure the controller's bounds and latency target
+     * @return this
+     */
+    @Experimental
+    public Builder adaptiveBackPressure(AdaptiveBackPressure adaptiveBackPressure) {
+      NakadiException.throwNonNull(adaptiveBackPressure,
+          "Please provide an adaptive back pressure configuration");
+      this.adaptiveBackPressure = adaptiveBackPressure;
+      return this;
+    }
+
+    /**
+     * Drop events whose ids were recently seen on the same partition before they reach the
+     * observer, such as those redelivered after a reconnect. See {@link EventDeduplication}.
+     * <p>
+     * Not applied to lazily decoded or raw batches.
+     * </p>
+     *
+     * @param deduplication the window size and how to read event ids
+     * @return this
+     */
+    @Experimental
+    public Builder deduplication(EventDeduplication deduplication) {
+      NakadiException.throwNonNull(deduplication, "Please provide a deduplication configuration");
+      this.deduplication = deduplication;
+      return this;
+    }
+
+    /**
+     * Keep an event type stream's cursors in a {@link LocalOffsetStore}. Each cursor passed to
+     * the offset observer is stored, before any observer set via {@link #streamOffsetObserver}
+     * is called, and each connection starts from the stored cursors, falling back to the
+     * configuration's for partitions with none stored.
+     * <p>
+     * The processor doesn't close the store. Ignored for subscription streams, whose cursors
+     * are kept by the server.
+     * </p>
+     *
+     * @param offsetStore the store
+     * @return this
+     */
+    @Experimental
+    public Builder offsetStore(LocalOffsetStore offsetStore) {
+      NakadiException.throwNonNull(offsetStore, "Please provide an offset store");
+      this.offsetStore = offsetStore;
+      return this;
+    }
+
+    /**
+     * Append each batch line received to a {@link StreamArchive}, as it arrived and before it's
+     * given to the observer, so it can be replayed later with a {@link StreamArchiveReplay}.
+     * Lines are compressed on the connection's thread. A failure to write to the archive is
+     * logged and doesn't stop the stream.
+     * <p>
+     * The processor doesn't close the archive.
+     * </p>
+     *
+     * @param archive the archive
+     * @return this
+     */
+    @Experimental
+    public Builder archive(StreamArchive archive) {
+      NakadiException.throwNonNull(archive, "Please provide an archive");
+      this.archive = archive;
+      return this;
+    }
+
+    /**
+     * Reconnect as soon as a stream ends, using a connection kept warm in the client's pool
+     * while the stream was open, instead of pausing for a few seconds and connecting from
+     * cold. The warm connection is made with a metadata request for the event type or
+     * subscription, so the client's token needs to be able to read those.
+     * <p>
+     * With this on, a stream ended by its {@link StreamConfiguration#streamTimeoutSeconds()}
+     * is reconnected rather than stopping the processor. The pause between streams is
+     * recorded by {@link MetricCollector.Timer#streamRestartPause}.
+     * </p>
+     *
+     * @param warmReconnect true to keep a warm connection and reconnect immediately
+     * @return this
+     */
+    @Experimental
+    public Builder warmReconnect(boolean warmReconnect) {
+      this.warmReconnect = warmReconnect;
+      return this;
+    }
+
     @Unstable
     public Builder checkpointer(SubscriptionOffsetCheckpointer checkpointer) {
       this.checkpointer = checkpointer;
       return this;
     }
 
+    /**
+     * Checkpoint a subscription in the background instead of committing every batch's cursor
+     * as the batch is processed. Only the latest cursor for each partition is kept, and these
+     * are committed together in one request every flush interval, or sooner after
+     * {@code flushCount} cursors have been seen since the last commit.
+     * <p>
+     * The flush interval must be no more than half the configuration's
+     * {@link StreamConfiguration#commitTimeoutSeconds()}. A failed commit is raised the next
+     * time a batch is checkpointed rather than as the batch is processed, and any pending
+     * cursors are committed when the processor is stopped.
+     * </p>
+     * <p>
+     * This applies to subscription streams that use the default offset observer; it's ignored
+     * if an observer is given via {@link #streamOffsetObserver}.
+     * </p>
+     *
+     * @param flushInterval how often to commit pending cursors.
+     * @param unit the unit of the flush interval.
+     * @param flushCount the number of cursors seen that triggers an early flush.
+     * @param maxInFlightCommits the number of commit requests that can be in flight at once.
+     * @return this
+     */
+    @Experimental
+    public Builder coalescingCheckpoints(
+        long flushInterval, TimeUnit unit, int flushCount, int maxInFlightCommits) {
+      NakadiException.throwNonNull(unit, "Please provide a time unit");
+      this.checkpointFlushInterval = flushInterval;
+      this.checkpointFlushIntervalUnit = unit;
+      this.checkpointFlushCount = flushCount;
+      this.checkpointMaxInFlight = maxInFlightCommits;
+      return this;
+    }
+
+    private StreamOffsetObserver buildCoalescingObserver() {
+      SubscriptionOffsetCoalescingObserver.checkFlushInterval(checkpointFlushInterval,
+          checkpointFlushIntervalUnit, streamConfiguration.commitTimeoutSeconds());
+
+      if (checkpointFlushCount < 1 || checkpointMaxInFlight < 1) {
+        throw new NakadiException(Problem.localProblem(
+            "Checkpoint flush count and commits in flight must be at least 1",
+            String.format("flush_count=%d max_in_flight_commits=%d",
+                checkpointFlushCount, checkpointMaxInFlight)));
+      }
+
+      return new SubscriptionOffsetCoalescingObserver(checkpointer, checkpointFlushInterval,
+          checkpointFlushIntervalUnit, checkpointFlushCount, checkpointMaxInFlight);
+    }
+
+    /**
+     * Run the processor on a {@link StreamScheduler} shared with other processors, instead of
+     * on threads of its own. The processor's batches are handed to its observer on one of the
+     * scheduler's compute loops, and its stream is read on an IO loop leased from the
+     * scheduler until the processor stops. The IO loop is a thread of the processor's own;
+     * only compute threads are shared.
+     *
+     * @param streamScheduler the shared scheduler.
+     * @return this
+     */
+    @Experimental
+    public Builder streamScheduler(StreamScheduler streamScheduler) {
+      this.streamScheduler = streamScheduler;
+      return this;
+    }
+
+    /**
+     * Set the kind of threads the processor reads its stream and calls its observer on. If not
+     * set, the client's {@link NakadiClient#executionMode()} is used. Ignored when a
+     * {@link #streamScheduler} is supplied, as the processor runs on the scheduler's threads.
+     *
+     * @param executionMode the execution mode.
+     * @return this
+     */
+    @Experimental
+    public Builder executionMode(ExecutionMode executionMode) {
+      this.executionMode = executionMode;
+      return this;
+    }
+
     @VisibleForTesting
     Builder streamProcessorRequestFactory(StreamProcessorRequestFactory factory) {
       this.streamProcessorRequestFactory = factory;
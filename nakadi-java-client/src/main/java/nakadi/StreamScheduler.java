@@ -0,0 +1,206 @@
+package nakadi;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of compute threads that can be shared by many {@link StreamProcessor}s, supplied via
+ * {@link StreamProcessor.Builder#streamScheduler}.
+ * <p>
+ * Without a scheduler each processor creates a single threaded IO loop that reads its stream
+ * and a single threaded compute loop that hands batches to its {@link StreamObserver}. With a
+ * scheduler the compute work of many processors is multiplexed onto a fixed number of compute
+ * loops; each processor is placed on the loop with the fewest processors and keeps that loop
+ * for its lifetime, so its batches are still delivered in order on one thread. An observer
+ * that blocks will hold up the other processors on its loop.
+ * </p>
+ * <p>
+ * IO loops are not multiplexed. Reading a stream blocks its thread until data arrives, and the
+ * response must be closed on the thread that opened it, so each processor is given its own IO
+ * loop which is shut down when the processor stops. Only the compute threads are bounded: a
+ * scheduler running n processors uses its compute loops plus n IO threads.
+ * </p>
+ * <p>
+ * The scheduler is not closed by the processors using it; call {@link #close()} once they
+ * have all been stopped.
+ * </p>
+ */
+@Experimental
+public class StreamScheduler implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(NakadiClient.class.getSimpleName());
+  private static final String COMPUTE_LOOP_NAME = "nakadi-java-compute-shared-";
+  private static final String IO_LOOP_NAME = "nakadi-java-io-shared-";
+
+  private final ExecutorService[] computeExecutors;
+  private final Scheduler[] computeSchedulers;
+  private final int[] computeLoad;
+  private final Map<String, ExecutorService> ioLoops = new ConcurrentHashMap<>();
+  private final AtomicInteger ioLoopCounter = new AtomicInteger();
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+
+  private StreamScheduler(Builder builder) {
+    final int computeLoops = builder.computeLoops;
+    computeExecutors = new ExecutorService[computeLoops];
+    computeSchedulers = new Scheduler[computeLoops];
+    computeLoad = new int[computeLoops];
+    for (int i = 0; i < computeLoops; i++) {
+      computeExecutors[i] = Executors.newSingleThreadExecutor(
+          threadFactory(COMPUTE_LOOP_NAME + i, "stream_scheduler_err_compute"));
+      computeSchedulers[i] = Schedulers.from(computeExecutors[i]);
+    }
+  }
+
+  /**
+   * Provide a new builder for creating a scheduler.
+   *
+   * @return a builder
+   */
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * Report the number of processors currently using each loop, keyed by the loop's thread name.
+   *
+   * @return the number of processors on each compute and IO loop.
+   */
+  public synchronized Map<String, Integer> processorsPerLoop() {
+    final Map<String, Integer> loads = new LinkedHashMap<>();
+    for (int i = 0; i < computeLoad.length; i++) {
+      loads.put(COMPUTE_LOOP_NAME + i, computeLoad[i]);
+    }
+    for (String name : ioLoops.keySet()) {
+      loads.put(name, 1);
+    }
+    return loads;
+  }
+
+  /**
+   * Shut down the compute loops and any IO loops still leased to processors.
+   */
+  @Override public void close() {
+    if (closed.getAndSet(true)) {
+      return;
+    }
+
+    logger.info("op=stream_scheduler_close compute_loops={} io_loops={}",
+        computeExecutors.length, ioLoops.size());
+    for (ExecutorService executor : computeExecutors) {
+      ExecutorServiceSupport.shutdown(executor);
+    }
+    ioLoops.values().forEach(ExecutorServiceSupport::shutdown);
+    ioLoops.clear();
+  }
+
+  synchronized Lease lease() {
+    if (closed.get()) {
+      throw new IllegalStateException("stream scheduler has been closed");
+    }
+
+    int loop = 0;
+    for (int i = 1; i < computeLoad.length; i++) {
+      if (computeLoad[i] < computeLoad[loop]) {
+        loop = i;
+      }
+    }
+    computeLoad[loop]++;
+
+    final String ioLoopName = IO_LOOP_NAME + ioLoopCounter.getAndIncrement();
+    final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(
+        threadFactory(ioLoopName, "stream_scheduler_err_io"));
+    ioLoops.put(ioLoopName, ioExecutor);
+
+    logger.info("op=stream_scheduler_lease compute_loop={}{} compute_loop_processors={} io_loop={}",
+        COMPUTE_LOOP_NAME, loop, computeLoad[loop], ioLoopName);
+    return new Lease(loop, ioLoopName, ioExecutor);
+  }
+
+  private void release(Lease lease) {
+    synchronized (this) {
+      computeLoad[lease.computeLoop]--;
+    }
+    final ExecutorService ioExecutor = ioLoops.remove(lease.ioLoopName);
+    if (ioExecutor != null) {
+      ExecutorServiceSupport.shutdown(ioExecutor);
+    }
+  }
+
+  private static ThreadFactory threadFactory(String name, String errName) {
+    return new ThreadFactoryBuilder()
+        .setNameFormat(name)
+        .setUncaughtExceptionHandler((t, e) -> logger.error(
+            String.format("op=handle_exception type=%s %s %s",
+                e.getClass().getSimpleName(), errName, t), e))
+        .build();
+  }
+
+  /**
+   * A processor's use of a scheduler's loops, given back via {@link #release()}.
+   */
+  class Lease {
+
+    private final int computeLoop;
+    private final String ioLoopName;
+    private final Scheduler ioScheduler;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    private Lease(int computeLoop, String ioLoopName, ExecutorService ioExecutor) {
+      this.computeLoop = computeLoop;
+      this.ioLoopName = ioLoopName;
+      this.ioScheduler = Schedulers.from(ioExecutor);
+    }
+
+    Scheduler ioScheduler() {
+      return ioScheduler;
+    }
+
+    Scheduler computeScheduler() {
+      return computeSchedulers[computeLoop];
+    }
+
+    void release() {
+      if (!released.getAndSet(true)) {
+        StreamScheduler.this.release(this);
+      }
+    }
+  }
+
+  public static class Builder {
+
+    private int computeLoops = Runtime.getRuntime().availableProcessors();
+
+    Builder() {
+    }
+
+    /**
+     * Set the number of compute loops. The default is the number of available processors.
+     *
+     * @param computeLoops the number of compute loops, at least 1.
+     * @return this
+     */
+    public Builder computeLoops(int computeLoops) {
+      this.computeLoops = computeLoops;
+      return this;
+    }
+
+    public StreamScheduler build() {
+      if (computeLoops < 1) {
+        throw new NakadiException(Problem.localProblem(
+            "Please provide at least one compute loop", "compute_loops=" + computeLoops));
+      }
+      return new StreamScheduler(this);
+    }
+  }
+}
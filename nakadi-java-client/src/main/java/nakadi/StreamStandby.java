@@ -0,0 +1,75 @@
+package nakadi;
+
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a warm connection to the server in the client's pool while a stream is open, so the
+ * next stream doesn't pay for DNS, TCP and TLS when it connects.
+ * <p>
+ * A stream holds its own connection, so the standby is made by a small metadata request for
+ * the stream's event type or subscription, which leaves its connection idle in the pool. It's
+ * made shortly before a configured stream timeout ends the stream, or straight away if there's
+ * none, and repeated before the pool would evict it. No second stream is opened, which for a
+ * subscription would contend with the current one for partitions.
+ * </p>
+ */
+class StreamStandby {
+
+  private static final Logger logger = LoggerFactory.getLogger(NakadiClient.class.getSimpleName());
+
+  // okhttp's pool keeps idle connections for 5 minutes by default
+  static final long REFRESH_MILLIS = TimeUnit.MINUTES.toMillis(4);
+  static final long LEAD_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+  private final Runnable warmer;
+  private final long firstWarmMillis;
+  private final Scheduler scheduler;
+  private Disposable task;
+
+  StreamStandby(Runnable warmer, long firstWarmMillis, Scheduler scheduler) {
+    this.warmer = warmer;
+    this.firstWarmMillis = firstWarmMillis;
+    this.scheduler = scheduler;
+  }
+
+  static StreamStandby forStream(NakadiClient client, StreamConfiguration sc,
+      Scheduler scheduler) {
+    final Runnable warmer = sc.isSubscriptionStream()
+        ? () -> client.resources().subscriptions().find(sc.subscriptionId())
+        : () -> client.resources().eventTypes().findByName(sc.eventTypeName());
+    final long streamTimeoutMillis = TimeUnit.SECONDS.toMillis(sc.streamTimeoutSeconds());
+    return new StreamStandby(warmer, Math.max(0, streamTimeoutMillis - LEAD_MILLIS), scheduler);
+  }
+
+  synchronized void connected() {
+    cancel();
+    task = scheduler.schedulePeriodicallyDirect(this::warm, firstWarmMillis, REFRESH_MILLIS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  synchronized void disconnected() {
+    cancel();
+  }
+
+  private void cancel() {
+    if (task != null) {
+      task.dispose();
+      task = null;
+    }
+  }
+
+  private void warm() {
+    try {
+      warmer.run();
+      logger.debug("op=stream_standby msg=warmed_connection");
+    } catch (Exception e) {
+      // the next stream will just connect from cold
+      logger.info("op=stream_standby msg=warm_failed type={} err={}",
+          e.getClass().getSimpleName(), e.getMessage());
+    }
+  }
+}
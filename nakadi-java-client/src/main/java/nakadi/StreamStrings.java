@@ -0,0 +1,67 @@
+package nakadi;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shares the strings that repeat from batch to batch on one connection, the partition ids and
+ * event type names in cursors, so the records waiting in buffers, coalescers and watermarks all
+ * refer to one copy of each rather than a copy per batch.
+ * <p>
+ * The parser still makes a new string for each value it reads; those become garbage straight
+ * away instead of living as long as their record. The table is bounded and isn't thread safe,
+ * it's made for a connection and used by the thread reading it.
+ * </p>
+ */
+class StreamStrings {
+
+  // well beyond the partitions of the event types one stream reads
+  static final int DEFAULT_MAX_SIZE = 4096;
+
+  private final Map<String, String> strings = new HashMap<>();
+  private final int maxSize;
+
+  StreamStrings() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  StreamStrings(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * @return the shared copy of the string, which is the string itself the first time it's seen
+   * or once the table is full.
+   */
+  String share(String string) {
+    if (string == null) {
+      return null;
+    }
+    final String shared = strings.get(string);
+    if (shared != null) {
+      return shared;
+    }
+    if (strings.size() < maxSize) {
+      strings.put(string, string);
+    }
+    return string;
+  }
+
+  /**
+   * Replace the cursor's partition and event type with their shared copies.
+   *
+   * @return the cursor
+   */
+  Cursor share(Cursor cursor) {
+    if (cursor != null) {
+      cursor.partition(share(cursor.partition()));
+      cursor.eventType(share(cursor.eventType().orElse(null)));
+    }
+    return cursor;
+  }
+
+  @VisibleForTesting
+  int size() {
+    return strings.size();
+  }
+}
@@ -0,0 +1,100 @@
+package nakadi;
+
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a stream connection for silence. The reading thread marks when it starts waiting on
+ * the connection and when a line arrives, and a periodic check aborts the response once the
+ * current wait is past the deadline. Waiting only starts when downstream asks for a batch, so
+ * a slow observer doesn't look like a dead connection.
+ */
+class StreamWatchdog {
+
+  private static final Logger logger = LoggerFactory.getLogger(NakadiClient.class.getSimpleName());
+
+  private static final long MIN_CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final long deadlineNanos;
+  private final MetricCollector metricCollector;
+  private volatile Response response;
+  private volatile long waitingSince;
+  private volatile long lastArrival;
+  private Disposable check;
+
+  StreamWatchdog(long deadline, TimeUnit unit, MetricCollector metricCollector) {
+    this.deadlineNanos = unit.toNanos(deadline);
+    this.metricCollector = metricCollector;
+  }
+
+  /**
+   * The deadline for a stream, or 0 if the configuration turns the watchdog off.
+   */
+  static long deadlineMillis(StreamConfiguration sc) {
+    return (long) (TimeUnit.SECONDS.toMillis(sc.batchFlushTimeoutSeconds())
+        * sc.watchdogFactor());
+  }
+
+  synchronized void start(Scheduler scheduler) {
+    final long interval = Math.max(MIN_CHECK_INTERVAL_NANOS, deadlineNanos / 10);
+    check = scheduler.schedulePeriodicallyDirect(
+        () -> check(System.nanoTime()), interval, interval, TimeUnit.NANOSECONDS);
+  }
+
+  synchronized void stop() {
+    if (check != null) {
+      check.dispose();
+    }
+  }
+
+  /**
+   * Called on the reading thread before it blocks on the connection.
+   */
+  void waiting(Response response) {
+    final long now = System.nanoTime();
+    if (this.response != response) {
+      // a new connection, its silence starts now
+      this.response = response;
+      lastArrival = now;
+    }
+    waitingSince = now;
+  }
+
+  /**
+   * Called on the reading thread when a line, including a keepalive, has arrived.
+   */
+  void arrived() {
+    final long now = System.nanoTime();
+    waitingSince = 0;
+    lastArrival = now;
+  }
+
+  @VisibleForTesting
+  void check(long now) {
+    final long since = waitingSince;
+    final Response current = response;
+    if (since == 0 || current == null || now - since < deadlineNanos) {
+      return;
+    }
+
+    synchronized (this) {
+      // the reading thread may have moved on, or an earlier check got here first
+      if (since != waitingSince || current != response) {
+        return;
+      }
+      waitingSince = 0;
+    }
+
+    final long silentNanos = now - lastArrival;
+    logger.warn("op=stream_watchdog msg=closing_silent_connection silent_millis={} "
+            + "deadline_millis={} res_hash={}", TimeUnit.NANOSECONDS.toMillis(silentNanos),
+        TimeUnit.NANOSECONDS.toMillis(deadlineNanos), current.hashCode());
+    metricCollector.mark(MetricCollector.Meter.streamWatchdogKick);
+    metricCollector.duration(MetricCollector.Timer.streamWatchdogDetect, silentNanos,
+        TimeUnit.NANOSECONDS);
+    ResponseSupport.abort(current);
+  }
+}
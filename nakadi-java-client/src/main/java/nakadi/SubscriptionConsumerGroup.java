@@ -0,0 +1,435 @@
+package nakadi;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a varying number of {@link StreamProcessor}s for one subscription, each its own session
+ * with the server, which shares the subscription's partitions between them.
+ * <p>
+ * The number of processors is chosen from the subscription's {@link SubscriptionResource#stats}:
+ * one for every {@code eventsPerProcessor} unconsumed events, kept between the minimum and
+ * maximum and never more than the number of partitions, since a session without partitions
+ * gets no events. It's checked again every resize interval. The group grows straight to the
+ * new size and shrinks one processor per interval, so a brief dip in lag doesn't drop sessions
+ * that are about to be needed.
+ * </p>
+ * <p>
+ * All the processors run on one {@link StreamScheduler}, so their observers share a fixed set
+ * of compute threads however many sessions there are. Each session still reads its stream on
+ * an IO thread of its own. A scheduler given to the builder is left
+ * open when the group stops; otherwise the group makes its own and closes it.
+ * </p>
+ */
+@Experimental
+public class SubscriptionConsumerGroup {
+
+  private static final Logger logger = LoggerFactory.getLogger(NakadiClient.class.getSimpleName());
+
+  private final NakadiClient client;
+  private final StreamConfiguration streamConfiguration;
+  private final StreamObserverProvider streamObserverProvider;
+  private final StreamOffsetObserver streamOffsetObserver;
+  private final StreamScheduler streamScheduler;
+  private final boolean ownsScheduler;
+  private final int minProcessors;
+  private final int maxProcessors;
+  private final long eventsPerProcessor;
+  private final long resizeIntervalMillis;
+  // guarded by this
+  private final List<StreamProcessor> processors = new ArrayList<>();
+  private ScheduledExecutorService resizer;
+  private boolean stopped;
+
+  private SubscriptionConsumerGroup(Builder builder) {
+    this.client = builder.client;
+    this.streamConfiguration = builder.streamConfiguration;
+    this.streamObserverProvider = builder.streamObserverProvider;
+    this.streamOffsetObserver = builder.streamOffsetObserver;
+    this.ownsScheduler = builder.streamScheduler == null;
+    this.streamScheduler =
+        ownsScheduler ? StreamScheduler.newBuilder().build() : builder.streamScheduler;
+    this.minProcessors = builder.minProcessors;
+    this.maxProcessors = builder.maxProcessors;
+    this.eventsPerProcessor = builder.eventsPerProcessor;
+    this.resizeIntervalMillis = builder.resizeIntervalMillis;
+  }
+
+  /**
+   * Provide a new builder for creating a consumer group.
+   *
+   * @param client the client
+   * @return a builder
+   */
+  public static SubscriptionConsumerGroup.Builder newBuilder(NakadiClient client) {
+    return new SubscriptionConsumerGroup.Builder().client(client);
+  }
+
+  /**
+   * The number of processors for the given stats and bounds.
+   */
+  static int targetSize(SubscriptionEventTypeStatsCollection stats, int minProcessors,
+      int maxProcessors, long eventsPerProcessor) {
+    int partitions = 0;
+    long unconsumed = 0;
+    for (SubscriptionEventTypeStats eventTypeStats : stats.iterable()) {
+      for (SubscriptionEventTypeStats.Partition partition : eventTypeStats.partitions()) {
+        partitions++;
+        unconsumed += parseUnconsumed(partition.unconsumedEvents());
+      }
+    }
+
+    final long forLag = (unconsumed + eventsPerProcessor - 1) / eventsPerProcessor;
+    final long bounded = Math.min(maxProcessors, Math.max(minProcessors, forLag));
+    return (int) Math.max(1, Math.min(partitions, bounded));
+  }
+
+  private static long parseUnconsumed(String unconsumedEvents) {
+    if (unconsumedEvents == null) {
+      // only reported for assigned partitions
+      return 0;
+    }
+    try {
+      return Long.parseLong(unconsumedEvents);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Size the group from the subscription's stats, start its processors, and start checking
+   * its size in the background. If the first sizing fails, its error is thrown and the group
+   * can be started again.
+   *
+   * @throws IllegalStateException if the group has already been stopped.
+   */
+  public void start() throws IllegalStateException {
+    synchronized (this) {
+      if (stopped) {
+        throw new IllegalStateException("group has already been stopped and cannot be restarted");
+      }
+      if (resizer != null) {
+        return;
+      }
+      resizer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+          .setNameFormat("nakadi-java-group-resize-%d")
+          .setDaemon(true)
+          .build());
+    }
+
+    try {
+      resize();
+    } catch (RuntimeException e) {
+      // leave the group as it was, so it can be started again
+      synchronized (this) {
+        resizer.shutdownNow();
+        resizer = null;
+      }
+      throw e;
+    }
+
+    synchronized (this) {
+      if (!stopped) {
+        resizer.scheduleWithFixedDelay(this::resizeQuietly, resizeIntervalMillis,
+            resizeIntervalMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  /**
+   * Stop the processors and the background size checks.
+   */
+  public void stop() {
+    final List<StreamProcessor> stopping;
+    synchronized (this) {
+      if (stopped) {
+        return;
+      }
+      stopped = true;
+      if (resizer != null) {
+        resizer.shutdownNow();
+      }
+      stopping = new ArrayList<>(processors);
+      processors.clear();
+    }
+
+    logger.info("op=consumer_group msg=stopping subscription_id={} processors={}",
+        streamConfiguration.subscriptionId(), stopping.size());
+    stopping.forEach(StreamProcessor::stop);
+    if (ownsScheduler) {
+      streamScheduler.close();
+    }
+  }
+
+  /**
+   * @return the number of processors currently in the group
+   */
+  public synchronized int size() {
+    return processors.size();
+  }
+
+  /**
+   * Indicates if any of the group's processors is running.
+   *
+   * @return true if at least one processor is running
+   */
+  public synchronized boolean running() {
+    return processors.stream().anyMatch(StreamProcessor::running);
+  }
+
+  @VisibleForTesting
+  synchronized List<StreamProcessor> processors() {
+    return Collections.unmodifiableList(new ArrayList<>(processors));
+  }
+
+  /**
+   * Called from start and then only from the resizer thread. The stats call and the starting
+   * and stopping of sessions can be slow, so none of them hold the lock.
+   */
+  @VisibleForTesting
+  void resize() {
+    synchronized (this) {
+      if (stopped) {
+        return;
+      }
+    }
+
+    final int target = targetSize(
+        client.resources().subscriptions().stats(streamConfiguration.subscriptionId()),
+        minProcessors, maxProcessors, eventsPerProcessor);
+
+    final int current;
+    synchronized (this) {
+      if (stopped) {
+        return;
+      }
+      pruneStopped();
+      current = processors.size();
+    }
+
+    if (target > current) {
+      logger.info("op=consumer_group msg=growing subscription_id={} from={} to={}",
+          streamConfiguration.subscriptionId(), current, target);
+      final List<StreamProcessor> started = new ArrayList<>();
+      try {
+        for (int i = current; i < target; i++) {
+          final StreamProcessor processor = newProcessor();
+          processor.start();
+          started.add(processor);
+        }
+      } finally {
+        publish(started);
+      }
+    } else if (target < current) {
+      final StreamProcessor stopping;
+      synchronized (this) {
+        if (stopped || processors.isEmpty()) {
+          return;
+        }
+        // the newest session goes first, its partitions are rebalanced onto the others
+        stopping = processors.remove(processors.size() - 1);
+      }
+      logger.info("op=consumer_group msg=shrinking subscription_id={} from={} to={}",
+          streamConfiguration.subscriptionId(), current, current - 1);
+      stopping.stop();
+    }
+  }
+
+  // guarded by this
+  private void pruneStopped() {
+    final int before = processors.size();
+    // a processor that stopped itself, eg on a non-retryable error, no longer holds a session
+    processors.removeIf(processor -> !processor.running());
+    if (processors.size() < before) {
+      logger.info("op=consumer_group msg=pruned_stopped_processors subscription_id={} count={}",
+          streamConfiguration.subscriptionId(), before - processors.size());
+    }
+  }
+
+  private void publish(List<StreamProcessor> started) {
+    synchronized (this) {
+      if (!stopped) {
+        processors.addAll(started);
+        return;
+      }
+    }
+    // the group stopped while these were starting and won't stop them itself
+    started.forEach(StreamProcessor::stop);
+  }
+
+  private void resizeQuietly() {
+    try {
+      resize();
+    } catch (Exception e) {
+      // keep the current size and try again next interval
+      logger.warn("op=consumer_group msg=resize_failed subscription_id={} type={} err={}",
+          streamConfiguration.subscriptionId(), e.getClass().getSimpleName(), e.getMessage());
+    }
+  }
+
+  private StreamProcessor newProcessor() {
+    final StreamProcessor.Builder builder = StreamProcessor.newBuilder(client)
+        .streamConfiguration(streamConfiguration)
+        .streamObserverFactory(streamObserverProvider)
+        .streamScheduler(streamScheduler);
+    if (streamOffsetObserver != null) {
+      builder.streamOffsetObserver(streamOffsetObserver);
+    }
+    return builder.build();
+  }
+
+  public static class Builder {
+
+    static final int DEFAULT_MAX_PROCESSORS = 8;
+    static final long DEFAULT_EVENTS_PER_PROCESSOR = 10_000;
+    static final long DEFAULT_RESIZE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private NakadiClient client;
+    private StreamConfiguration streamConfiguration;
+    private StreamObserverProvider streamObserverProvider;
+    private StreamOffsetObserver streamOffsetObserver;
+    private StreamScheduler streamScheduler;
+    private int minProcessors = 1;
+    private int maxProcessors = DEFAULT_MAX_PROCESSORS;
+    private long eventsPerProcessor = DEFAULT_EVENTS_PER_PROCESSOR;
+    private long resizeIntervalMillis = DEFAULT_RESIZE_INTERVAL_MILLIS;
+
+    public Builder() {
+    }
+
+    public SubscriptionConsumerGroup build() {
+      NakadiException.throwNonNull(client, "Please provide a client");
+      NakadiException.throwNonNull(streamConfiguration, "Please provide a stream configuration");
+      NakadiException.throwNonNull(streamObserverProvider,
+          "Please provide a StreamObserverProvider");
+
+      if (!streamConfiguration.isSubscriptionStream()
+          || streamConfiguration.isEventTypeStream()) {
+        throw new NakadiException(Problem.localProblem(
+            "A consumer group needs a subscription stream",
+            String.format("subscriptionId=%s eventTypeName=%s",
+                streamConfiguration.subscriptionId(), streamConfiguration.eventTypeName())));
+      }
+
+      if (minProcessors < 1 || maxProcessors < minProcessors) {
+        throw new NakadiException(Problem.localProblem(
+            "Processor bounds must be at least 1 with the minimum no more than the maximum",
+            String.format("min_processors=%d max_processors=%d", minProcessors, maxProcessors)));
+      }
+
+      if (eventsPerProcessor < 1 || resizeIntervalMillis < 1) {
+        throw new NakadiException(Problem.localProblem(
+            "Events per processor and the resize interval must be positive",
+            String.format("events_per_processor=%d resize_interval_millis=%d",
+                eventsPerProcessor, resizeIntervalMillis)));
+      }
+
+      return new SubscriptionConsumerGroup(this);
+    }
+
+    public Builder client(NakadiClient client) {
+      this.client = client;
+      return this;
+    }
+
+    /**
+     * The subscription stream each processor opens.
+     *
+     * @param streamConfiguration the configuration
+     * @return this
+     */
+    public Builder streamConfiguration(StreamConfiguration streamConfiguration) {
+      this.streamConfiguration = streamConfiguration;
+      return this;
+    }
+
+    /**
+     * Provides an observer for each processor. Observers for different processors are called
+     * at the same time from different threads.
+     *
+     * @param streamObserverProvider the provider
+     * @return this
+     */
+    public Builder streamObserverFactory(StreamObserverProvider streamObserverProvider) {
+      this.streamObserverProvider = streamObserverProvider;
+      return this;
+    }
+
+    /**
+     * Shared by all the processors. If not set each processor checkpoints to the server with
+     * its own {@link SubscriptionOffsetObserver}.
+     *
+     * @param streamOffsetObserver the offset observer
+     * @return this
+     */
+    public Builder streamOffsetObserver(StreamOffsetObserver streamOffsetObserver) {
+      this.streamOffsetObserver = streamOffsetObserver;
+      return this;
+    }
+
+    /**
+     * The scheduler the processors share. If not set the group creates one with a compute
+     * loop per available processor.
+     *
+     * @param streamScheduler the scheduler
+     * @return this
+     */
+    public Builder streamScheduler(StreamScheduler streamScheduler) {
+      this.streamScheduler = streamScheduler;
+      return this;
+    }
+
+    /**
+     * The fewest processors to run, partitions allowing. The default is 1.
+     *
+     * @param minProcessors the number of processors
+     * @return this
+     */
+    public Builder minProcessors(int minProcessors) {
+      this.minProcessors = minProcessors;
+      return this;
+    }
+
+    /**
+     * The most processors to run. The default is 8.
+     *
+     * @param maxProcessors the number of processors
+     * @return this
+     */
+    public Builder maxProcessors(int maxProcessors) {
+      this.maxProcessors = maxProcessors;
+      return this;
+    }
+
+    /**
+     * The unconsumed events each processor is expected to handle. The default is 10,000.
+     *
+     * @param eventsPerProcessor the number of events
+     * @return this
+     */
+    public Builder eventsPerProcessor(long eventsPerProcessor) {
+      this.eventsPerProcessor = eventsPerProcessor;
+      return this;
+    }
+
+    /**
+     * How often to check the subscription's stats and resize. The default is 1 minute.
+     *
+     * @param resizeInterval the interval
+     * @param unit the unit of the interval
+     * @return this
+     */
+    public Builder resizeInterval(long resizeInterval, TimeUnit unit) {
+      NakadiException.throwNonNull(unit, "Please provide a time unit");
+      this.resizeIntervalMillis = unit.toMillis(resizeInterval);
+      return this;
+    }
+  }
+}
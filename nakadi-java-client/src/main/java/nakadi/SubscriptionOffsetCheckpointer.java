@@ -1,7 +1,12 @@
 package nakadi;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -92,17 +97,55 @@ public class SubscriptionOffsetCheckpointer {
    * @param context holds the cursor information.
    */
   public void checkpoint(StreamCursorContext context) {
-    checkpointInner(context, suppressInvalidSessionException, suppressNetworkException);
+    checkpointInner(Collections.singletonList(context),
+        resource -> checkpointInner(context, resource),
+        suppressInvalidSessionException, suppressNetworkException);
+  }
+
+  /**
+   * Ask the server to commit the supplied {@link StreamCursorContext}s in a single request,
+   * moving the subscription offset for each of their partitions.
+   * <p>
+   *  The contexts must all come from the same stream session, that is, share the same
+   *  {@link StreamResourceSupport#X_NAKADI_STREAM_ID}. The result consumer is called once for
+   *  each context with the result for the whole request.
+   * </p>
+   *
+   * @param contexts holds the cursor information, one per partition.
+   */
+  public void checkpoint(List<StreamCursorContext> contexts) {
+    NakadiException.throwNonNull(contexts, "Please provide non-null cursor contexts");
+    if (contexts.isEmpty()) {
+      return;
+    }
+
+    final Map<String, String> context = contexts.get(0).context();
+    final String streamId = context.get(StreamResourceSupport.X_NAKADI_STREAM_ID);
+    final Cursor[] cursors = new Cursor[contexts.size()];
+    for (int i = 0; i < cursors.length; i++) {
+      final StreamCursorContext cursorContext = contexts.get(i);
+      if (!Objects.equals(streamId,
+          cursorContext.context().get(StreamResourceSupport.X_NAKADI_STREAM_ID))) {
+        throw new NakadiException(Problem.localProblem(
+            "Cannot checkpoint cursors from different stream sessions together",
+            String.format("expected_stream_id=%s context=%s", streamId, cursorContext)));
+      }
+      cursors[i] = cursorContext.cursor();
+    }
+
+    checkpointInner(contexts, resource -> checkpointInner(context, cursors, resource),
+        suppressInvalidSessionException, suppressNetworkException);
   }
 
   private void checkpointInner(
-      StreamCursorContext context,
+      List<StreamCursorContext> contexts,
+      Function<SubscriptionResource, CursorCommitResultCollection> commit,
       boolean suppressInvalidSessionException,
       boolean suppressNetworkException) {
     SubscriptionResource resource = client.resources().subscriptions();
 
     try {
-      final CursorCommitResultCollection ccr = checkpointInner(context, resource);
+      final CursorCommitResultCollection ccr = commit.apply(resource);
 
       if (ccr.items().isEmpty()) {
         client.metricCollector()
@@ -112,7 +155,9 @@ public class SubscriptionOffsetCheckpointer {
             .mark(MetricCollector.Meter.sessionCheckpointOkIndicatedStaleCursor, 1);
       }
 
-      resultCollectionConsumer.accept(ccr, context);
+      for (StreamCursorContext context : contexts) {
+        resultCollectionConsumer.accept(ccr, context);
+      }
 
     } catch (RateLimitException e) {
       /*
@@ -139,7 +184,8 @@ public class SubscriptionOffsetCheckpointer {
     } catch (NetworkException e) {
       client.metricCollector().mark(MetricCollector.Meter.sessionCheckpointNetworkException, 1);
       if (suppressNetworkException) {
-        logger.info("suppressed_network_checkpoint_err {} {}", cursorTrackingKey(context), e.getMessage());
+        logger.info("suppressed_network_checkpoint_err {} {}", cursorTrackingKeys(contexts),
+            e.getMessage());
       } else {
         throw e;
       }
@@ -156,6 +202,19 @@ public class SubscriptionOffsetCheckpointer {
     return resource.checkpoint(context.context(), context.cursor());
   }
 
+  @VisibleForTesting
+  CursorCommitResultCollection checkpointInner(
+      Map<String, String> context, Cursor[] cursors, SubscriptionResource resource) {
+    return resource.checkpoint(context, cursors);
+  }
+
+  private String cursorTrackingKeys(List<StreamCursorContext> contexts) {
+    if (contexts.size() == 1) {
+      return cursorTrackingKey(contexts.get(0));
+    }
+    return contexts.stream().map(this::cursorTrackingKey).collect(Collectors.joining(","));
+  }
+
   private String cursorTrackingKey(StreamCursorContext context) {
     Cursor cursor = context.cursor();
     if (cursor != null) {
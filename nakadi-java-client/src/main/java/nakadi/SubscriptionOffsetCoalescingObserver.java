@@ -0,0 +1,271 @@
+package nakadi;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checkpoints a subscription in the background, keeping only the latest cursor seen for each
+ * partition and committing them together in a single request.
+ * <p>
+ * Pending cursors are flushed every interval, or sooner once a number of cursors have been
+ * observed since the last flush. Commits run on their own threads and up to a bounded number
+ * can be in flight; a flush that finds no commit slot free leaves its cursors to be picked up,
+ * and possibly superseded, by the next one. Cursors from an earlier stream session are dropped
+ * as the server won't accept them after a reconnect.
+ * </p>
+ * <p>
+ * A failed commit is thrown from the next call to {@link #onNext} in the same session, so
+ * that the processor handles it as it would an error from a synchronous checkpoint. Failures
+ * from a session that's since been replaced are only logged; its cursors are expected to be
+ * rejected once the new session starts.
+ * </p>
+ */
+class SubscriptionOffsetCoalescingObserver implements StreamOffsetObserver, AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(NakadiClient.class.getSimpleName());
+  private static final long CLOSE_AWAIT_SECONDS = 8;
+
+  private final SubscriptionOffsetCheckpointer checkpointer;
+  private final long flushIntervalMillis;
+  private final int flushCount;
+  private final int maxInFlightCommits;
+  private final Map<String, StreamCursorContext> pending = new ConcurrentHashMap<>();
+  private final AtomicInteger observedSinceFlush = new AtomicInteger();
+  private final AtomicReference<DeferredError> deferredError = new AtomicReference<>();
+  private final Semaphore commitSlots;
+  private final ScheduledExecutorService flushExecutor;
+  private final ExecutorService commitExecutor;
+  private volatile String currentStreamId;
+
+  SubscriptionOffsetCoalescingObserver(SubscriptionOffsetCheckpointer checkpointer,
+      long flushInterval, TimeUnit flushIntervalUnit, int flushCount, int maxInFlightCommits) {
+    NakadiException.throwNonNull(checkpointer, "Please provide a checkpointer");
+    this.checkpointer = checkpointer;
+    this.flushIntervalMillis = flushIntervalUnit.toMillis(flushInterval);
+    this.flushCount = flushCount;
+    this.maxInFlightCommits = maxInFlightCommits;
+    this.commitSlots = new Semaphore(maxInFlightCommits);
+
+    this.flushExecutor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("nakadi-java-checkpoint-flush-%d").build());
+    this.commitExecutor = Executors.newFixedThreadPool(maxInFlightCommits,
+        new ThreadFactoryBuilder().setNameFormat("nakadi-java-checkpoint-commit-%d").build());
+
+    flushExecutor.scheduleWithFixedDelay(
+        this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Check the flush interval leaves room to commit before the server's commit timeout expires.
+   * A cursor can wait up to one interval to be flushed, so the interval is limited to half the
+   * commit timeout, leaving the other half for the commit itself.
+   */
+  static void checkFlushInterval(long flushInterval, TimeUnit unit, long commitTimeoutSeconds) {
+    final long flushIntervalMillis = unit.toMillis(flushInterval);
+    if (flushIntervalMillis <= 0) {
+      throw new NakadiException(Problem.localProblem(
+          "Checkpoint flush interval must be positive",
+          "flush_interval_millis=" + flushIntervalMillis));
+    }
+
+    final long limitMillis = TimeUnit.SECONDS.toMillis(commitTimeoutSeconds) / 2;
+    if (flushIntervalMillis > limitMillis) {
+      throw new NakadiException(Problem.localProblem(
+          "Checkpoint flush interval must be no more than half the commit timeout",
+          String.format("flush_interval_millis=%d commit_timeout_seconds=%d",
+              flushIntervalMillis, commitTimeoutSeconds)));
+    }
+  }
+
+  @Override public void onNext(StreamCursorContext context) throws NakadiException {
+    final String streamId = context.context().get(StreamResourceSupport.X_NAKADI_STREAM_ID);
+    if (!Objects.equals(streamId, currentStreamId)) {
+      // a new session; the server will reject cursors from the old one
+      logger.info("subscription_checkpoint_coalescing msg=new_stream_session dropped={} "
+          + "x_nakadi_stream_id={}", pending.size(), streamId);
+      currentStreamId = streamId;
+      pending.values().removeIf(c -> !sameStream(c, streamId));
+    }
+
+    pending.put(partitionKey(context), context);
+
+    if (observedSinceFlush.incrementAndGet() >= flushCount) {
+      observedSinceFlush.set(0);
+      try {
+        flushExecutor.execute(this::flushQuietly);
+      } catch (RejectedExecutionException e) {
+        logger.debug("subscription_checkpoint_coalescing msg=flush_rejected {}", e.getMessage());
+      }
+    }
+
+    // after the cursor's recorded, so an error from the session doesn't lose it
+    throwDeferredError(streamId);
+  }
+
+  /**
+   * Commit the pending cursors and stop the background threads, waiting a short while for
+   * commits in flight to complete.
+   */
+  @Override public void close() {
+    logger.info("subscription_checkpoint_coalescing op=close pending={}", pending.size());
+    flushExecutor.shutdown();
+    try {
+      flushExecutor.awaitTermination(CLOSE_AWAIT_SECONDS, TimeUnit.SECONDS);
+      // wait for commits in flight, then a last flush for whatever arrived after them
+      if (commitSlots.tryAcquire(maxInFlightCommits, CLOSE_AWAIT_SECONDS, TimeUnit.SECONDS)) {
+        commitSlots.release(maxInFlightCommits);
+      }
+      flushQuietly();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    ExecutorServiceSupport.shutdown(commitExecutor);
+    ExecutorServiceSupport.shutdown(flushExecutor);
+
+    final DeferredError deferred = deferredError.getAndSet(null);
+    if (deferred != null) {
+      logger.warn("subscription_checkpoint_coalescing op=close msg=unreported_checkpoint_error {}",
+          deferred.error.getMessage());
+    }
+  }
+
+  @VisibleForTesting
+  int pendingCount() {
+    return pending.size();
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (Throwable t) {
+      // keep the scheduler alive, and keep the first error to throw back to the processor
+      logger.warn("subscription_checkpoint_coalescing msg=flush_failed {}", t.getMessage());
+      defer(currentStreamId, t);
+    }
+  }
+
+  private void flush() {
+    if (pending.isEmpty()) {
+      return;
+    }
+
+    if (!commitSlots.tryAcquire()) {
+      logger.debug("subscription_checkpoint_coalescing msg=commits_in_flight_at_limit limit={}",
+          maxInFlightCommits);
+      return;
+    }
+
+    final String streamId = currentStreamId;
+    final List<StreamCursorContext> contexts = new ArrayList<>(pending.size());
+    for (String key : pending.keySet()) {
+      // remove is atomic; a newer cursor put after this is left for the next flush
+      final StreamCursorContext context = pending.remove(key);
+      if (context != null && sameStream(context, streamId)) {
+        contexts.add(context);
+      }
+    }
+
+    if (contexts.isEmpty()) {
+      commitSlots.release();
+      return;
+    }
+
+    try {
+      commitExecutor.execute(() -> commit(contexts));
+    } catch (RejectedExecutionException e) {
+      commitSlots.release();
+      restore(contexts);
+      throw e;
+    }
+  }
+
+  private void commit(List<StreamCursorContext> contexts) {
+    final String streamId =
+        contexts.get(0).context().get(StreamResourceSupport.X_NAKADI_STREAM_ID);
+    try {
+      logger.debug("subscription_checkpoint_coalescing op=commit cursors={}", contexts.size());
+      checkpointer.checkpoint(contexts);
+    } catch (InvalidException e) {
+      // the session's gone, those cursors can't be committed again
+      defer(streamId, e);
+    } catch (Throwable t) {
+      restore(contexts);
+      defer(streamId, t);
+    } finally {
+      commitSlots.release();
+    }
+  }
+
+  private void restore(List<StreamCursorContext> contexts) {
+    // put back the cursors we failed to commit unless a newer one has since arrived
+    for (StreamCursorContext context : contexts) {
+      pending.putIfAbsent(partitionKey(context), context);
+    }
+  }
+
+  private void defer(String streamId, Throwable t) {
+    deferredError.compareAndSet(null, new DeferredError(streamId, t));
+  }
+
+  private void throwDeferredError(String streamId) {
+    final DeferredError deferred = deferredError.getAndSet(null);
+    if (deferred == null) {
+      return;
+    }
+
+    final Throwable t = deferred.error;
+    if (!Objects.equals(deferred.streamId, streamId)) {
+      // the old session's cursors are expected to be refused after a rebalance or reconnect
+      logger.info("subscription_checkpoint_coalescing msg=superseded_session_checkpoint_error "
+          + "x_nakadi_stream_id={} type={} {}", deferred.streamId, t.getClass().getSimpleName(),
+          t.getMessage());
+      return;
+    }
+
+    if (t instanceof NakadiException) {
+      throw (NakadiException) t;
+    }
+
+    if (t instanceof Error) {
+      throw (Error) t;
+    }
+
+    throw new NakadiException(Problem.localProblem("checkpoint_failed", t.getMessage()), t);
+  }
+
+  private String partitionKey(StreamCursorContext context) {
+    // a subscription can span event types, each with their own partitions
+    final Cursor cursor = context.cursor();
+    return cursor.eventType().orElse("") + "/" + cursor.partition();
+  }
+
+  private boolean sameStream(StreamCursorContext context, String streamId) {
+    return Objects.equals(
+        streamId, context.context().get(StreamResourceSupport.X_NAKADI_STREAM_ID));
+  }
+
+  private static class DeferredError {
+
+    final String streamId;
+    final Throwable error;
+
+    DeferredError(String streamId, Throwable error) {
+      this.streamId = streamId;
+      this.error = error;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package nakadi;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates threads for an {@link ExecutionMode}.
+ * <p>
+ * The client is built for Java 8, so virtual threads are looked up reflectively from the
+ * running JDK. When they're not there, the same jar carries on with platform threads.
+ * </p>
+ */
+class ThreadSupport {
+
+  private static final Logger logger = LoggerFactory.getLogger(NakadiClient.class.getSimpleName());
+
+  private static final Method OF_VIRTUAL;
+  private static final Method BUILDER_NAME;
+  private static final Method BUILDER_UNCAUGHT_EXCEPTION_HANDLER;
+  private static final Method BUILDER_FACTORY;
+  private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+  static {
+    Method ofVirtual = null;
+    Method name = null;
+    Method handler = null;
+    Method factory = null;
+    Method perTask = null;
+    try {
+      final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      name = builder.getMethod("name", String.class, long.class);
+      handler = builder.getMethod("uncaughtExceptionHandler",
+          Thread.UncaughtExceptionHandler.class);
+      factory = builder.getMethod("factory");
+      perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+      // preview builds of 19 and 20 have the methods but throw unless preview is enabled
+      ofVirtual.invoke(null);
+    } catch (ReflectiveOperationException | LinkageError e) {
+      ofVirtual = null;
+    }
+
+    OF_VIRTUAL = ofVirtual;
+    BUILDER_NAME = name;
+    BUILDER_UNCAUGHT_EXCEPTION_HANDLER = handler;
+    BUILDER_FACTORY = factory;
+    NEW_THREAD_PER_TASK_EXECUTOR = perTask;
+  }
+
+  static boolean virtualThreadsAvailable() {
+    return OF_VIRTUAL != null;
+  }
+
+  /**
+   * The mode that will actually be used for a requested mode, which is platform threads if
+   * virtual threads were asked for but the runtime doesn't have them.
+   */
+  static ExecutionMode resolve(ExecutionMode requested) {
+    if (requested == ExecutionMode.VIRTUAL_THREADS && !virtualThreadsAvailable()) {
+      logger.warn("op=resolve_execution_mode msg=virtual_threads_unavailable_using_platform "
+          + "java_version={}", System.getProperty("java.version"));
+      return ExecutionMode.PLATFORM_THREADS;
+    }
+    return requested == null ? ExecutionMode.PLATFORM_THREADS : requested;
+  }
+
+  /**
+   * A thread factory naming its threads with the prefix followed by a counter.
+   */
+  static ThreadFactory threadFactory(ExecutionMode mode, String namePrefix,
+      Thread.UncaughtExceptionHandler handler) {
+    if (useVirtualThreads(mode)) {
+      return virtualThreadFactory(namePrefix, handler);
+    }
+
+    final ThreadFactoryBuilder builder =
+        new ThreadFactoryBuilder().setNameFormat(namePrefix + "%d");
+    if (handler != null) {
+      builder.setUncaughtExceptionHandler(handler);
+    }
+    return builder.build();
+  }
+
+  /**
+   * An executor starting a virtual thread per task, or null for platform threads where the
+   * caller should stay with its existing executor.
+   */
+  static ExecutorService newVirtualThreadPerTaskExecutor(ExecutionMode mode, String namePrefix,
+      Thread.UncaughtExceptionHandler handler) {
+    if (!useVirtualThreads(mode)) {
+      return null;
+    }
+
+    try {
+      return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(
+          null, virtualThreadFactory(namePrefix, handler));
+    } catch (ReflectiveOperationException e) {
+      throw new NakadiException(
+          Problem.localProblem("virtual_thread_executor_failed", e.getMessage()), e);
+    }
+  }
+
+  private static boolean useVirtualThreads(ExecutionMode mode) {
+    // callers resolve the mode up front, which is where the fallback gets logged
+    return mode == ExecutionMode.VIRTUAL_THREADS && virtualThreadsAvailable();
+  }
+
+  private static ThreadFactory virtualThreadFactory(String namePrefix,
+      Thread.UncaughtExceptionHandler handler) {
+    try {
+      Object builder = OF_VIRTUAL.invoke(null);
+      builder = BUILDER_NAME.invoke(builder, namePrefix + "virtual-", 0L);
+      if (handler != null) {
+        builder = BUILDER_UNCAUGHT_EXCEPTION_HANDLER.invoke(builder, handler);
+      }
+      return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+    } catch (ReflectiveOperationException e) {
+      throw new NakadiException(
+          Problem.localProblem("virtual_thread_factory_failed", e.getMessage()), e);
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package nakadi;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 /**
@@ -13,6 +14,14 @@ public class TypeLiterals {
   public static final TypeLiteral<String> OF_STRING = new TypeLiteral<String>() {
   };
 
+  /**
+   * Represent an event as its raw UTF-8 JSON. Stream processors given this type skip
+   * marshalling and deliver each event as a read only slice of the batch, see
+   * {@link LazyStreamBatch#rawEvent(int)}.
+   */
+  public static final TypeLiteral<ByteBuffer> OF_BYTE_BUFFER = new TypeLiteral<ByteBuffer>() {
+  };
+
   /**
    * Represent an event as a typed Map
    */
@@ -0,0 +1,102 @@
+package nakadi;
+
+import java.io.Reader;
+
+/**
+ * Decodes UTF-8 from a range of a byte array straight into the caller's char array.
+ * <p>
+ * An {@link java.io.InputStreamReader} over the same bytes allocates an 8KiB byte buffer and a
+ * decoder for every line it's made for, which costs more than the objects made from a small
+ * batch. This holds only its position. Malformed input is replaced with U+FFFD.
+ * </p>
+ */
+class Utf8ByteArrayReader extends Reader {
+
+  private static final char REPLACEMENT = '\uFFFD';
+
+  private final byte[] bytes;
+  private final int end;
+  private int position;
+  // the second half of a surrogate pair that didn't fit in the last read
+  private char pendingLowSurrogate;
+
+  Utf8ByteArrayReader(byte[] bytes, int offset, int length) {
+    this.bytes = bytes;
+    this.position = offset;
+    this.end = offset + length;
+  }
+
+  @Override public int read(char[] cbuf, int off, int len) {
+    if (len == 0) {
+      return 0;
+    }
+
+    int count = 0;
+    if (pendingLowSurrogate != 0) {
+      cbuf[off + count++] = pendingLowSurrogate;
+      pendingLowSurrogate = 0;
+    }
+
+    while (count < len && position < end) {
+      final int lead = bytes[position];
+      if (lead >= 0) {
+        cbuf[off + count++] = (char) lead;
+        position++;
+        continue;
+      }
+
+      final int continuations;
+      final int min;
+      int codePoint;
+      // 0xc0 and 0xc1 could only start an overlong form
+      if ((lead & 0xE0) == 0xC0 && (lead & 0xFF) >= 0xC2) {
+        continuations = 1;
+        min = 0x80;
+        codePoint = lead & 0x1F;
+      } else if ((lead & 0xF0) == 0xE0) {
+        continuations = 2;
+        min = 0x800;
+        codePoint = lead & 0x0F;
+      } else if ((lead & 0xF8) == 0xF0) {
+        continuations = 3;
+        min = 0x10000;
+        codePoint = lead & 0x07;
+      } else {
+        cbuf[off + count++] = REPLACEMENT;
+        position++;
+        continue;
+      }
+
+      int read = 1;
+      while (read <= continuations) {
+        final int index = position + read;
+        if (index >= end || (bytes[index] & 0xC0) != 0x80) {
+          break;
+        }
+        codePoint = (codePoint << 6) | (bytes[index] & 0x3F);
+        read++;
+      }
+      position += read;
+
+      if (read <= continuations || codePoint < min || codePoint > Character.MAX_CODE_POINT
+          || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+        // truncated, overlong or not a character
+        cbuf[off + count++] = REPLACEMENT;
+      } else if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+        cbuf[off + count++] = (char) codePoint;
+      } else {
+        cbuf[off + count++] = Character.highSurrogate(codePoint);
+        if (count < len) {
+          cbuf[off + count++] = Character.lowSurrogate(codePoint);
+        } else {
+          pendingLowSurrogate = Character.lowSurrogate(codePoint);
+        }
+      }
+    }
+
+    return count == 0 ? -1 : count;
+  }
+
+  @Override public void close() {
+  }
+}
@@ -0,0 +1,85 @@
+package nakadi;
+
+import java.io.IOException;
+import java.io.Writer;
+import okio.BufferedSink;
+
+/**
+ * Encodes what's written to it as UTF-8 straight into a sink's buffer.
+ * <p>
+ * An {@link java.io.OutputStreamWriter} wraps each write in a new CharBuffer before encoding
+ * it, which for a JSON writer's many short writes costs more than the text it produces. This
+ * holds only a high surrogate waiting for its pair. Unpaired surrogates are written as '?',
+ * as the sink does for strings.
+ * </p>
+ * <p>
+ * Flushing emits the sink's complete segments to whatever is underneath it. Closing leaves
+ * the sink open.
+ * </p>
+ */
+class Utf8SinkWriter extends Writer {
+
+  private static final int REPLACEMENT = '?';
+
+  private final BufferedSink sink;
+  private char pendingHighSurrogate;
+
+  Utf8SinkWriter(BufferedSink sink) {
+    this.sink = sink;
+  }
+
+  @Override public void write(int c) throws IOException {
+    final char ch = (char) c;
+    if (pendingHighSurrogate != 0) {
+      final char high = pendingHighSurrogate;
+      pendingHighSurrogate = 0;
+      if (Character.isLowSurrogate(ch)) {
+        sink.writeUtf8CodePoint(Character.toCodePoint(high, ch));
+        return;
+      }
+      sink.writeByte(REPLACEMENT);
+    }
+
+    if (Character.isHighSurrogate(ch)) {
+      pendingHighSurrogate = ch;
+    } else if (Character.isLowSurrogate(ch)) {
+      sink.writeByte(REPLACEMENT);
+    } else {
+      sink.writeUtf8CodePoint(ch);
+    }
+  }
+
+  @Override public void write(String str, int off, int len) throws IOException {
+    int start = off;
+    int end = off + len;
+    if (pendingHighSurrogate != 0 && start < end) {
+      write(str.charAt(start++));
+    }
+    // a high surrogate at the end waits for the next write to bring its pair
+    if (start < end && Character.isHighSurrogate(str.charAt(end - 1))) {
+      sink.writeUtf8(str, start, end - 1);
+      pendingHighSurrogate = str.charAt(end - 1);
+    } else if (start < end) {
+      sink.writeUtf8(str, start, end);
+    }
+  }
+
+  @Override public void write(char[] cbuf, int off, int len) throws IOException {
+    for (int i = off; i < off + len; i++) {
+      write(cbuf[i]);
+    }
+  }
+
+  @Override public Writer append(CharSequence csq) throws IOException {
+    final String s = String.valueOf(csq);
+    write(s, 0, s.length());
+    return this;
+  }
+
+  @Override public void flush() throws IOException {
+    sink.emitCompleteSegments();
+  }
+
+  @Override public void close() {
+  }
+}
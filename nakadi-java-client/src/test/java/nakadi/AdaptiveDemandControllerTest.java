@@ -0,0 +1,92 @@
+package nakadi;
+
+import io.reactivex.Flowable;
+import io.reactivex.subscribers.TestSubscriber;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveDemandControllerTest {
+
+  private final List<Long> demands = new ArrayList<>();
+  private final MetricCollector metrics = new MetricCollectorDevnull() {
+    @Override public void gauge(Gauge gauge, long value) {
+      if (gauge == Gauge.streamDemand) {
+        demands.add(value);
+      }
+    }
+  };
+
+  @Test
+  public void holdsBackBatchesOverTheLimit() {
+    final AdaptiveDemandController controller = new AdaptiveDemandController(
+        new AdaptiveBackPressure().maxDemand(16), metrics);
+    final AtomicLong upstreamRequested = new AtomicLong();
+
+    final TestSubscriber<Integer> subscriber = Flowable.range(0, 100)
+        .doOnRequest(upstreamRequested::addAndGet)
+        .lift(controller.<Integer>gate())
+        .test();
+
+    // starts at a quarter of the max
+    assertEquals(4, upstreamRequested.get());
+    subscriber.assertValueCount(4);
+    assertEquals(4, controller.inFlight());
+
+    controller.handled(0);
+    assertEquals(5, upstreamRequested.get());
+    subscriber.assertValueCount(5);
+  }
+
+  @Test
+  public void opensUpForAFastObserver() {
+    final AdaptiveDemandController controller = new AdaptiveDemandController(
+        new AdaptiveBackPressure().maxDemand(16), metrics);
+
+    final int[] maxInFlight = new int[1];
+    Flowable.range(0, 1000)
+        .lift(controller.<Integer>gate())
+        .subscribe(i -> {
+          maxInFlight[0] = Math.max(maxInFlight[0], controller.inFlight());
+          controller.handled(TimeUnit.MICROSECONDS.toNanos(10));
+        });
+
+    assertEquals(16, controller.limit());
+    assertEquals(16L, (long) demands.get(demands.size() - 1));
+    assertTrue(maxInFlight[0] <= 16);
+  }
+
+  @Test
+  public void backsOffForASlowObserver() {
+    final AdaptiveDemandController controller = new AdaptiveDemandController(
+        new AdaptiveBackPressure()
+            .minDemand(2)
+            .maxDemand(64)
+            .latencyTarget(100, TimeUnit.MILLISECONDS), metrics);
+    assertEquals(16, controller.limit());
+
+    final TestSubscriber<Integer> subscriber = Flowable.range(0, 1000)
+        .lift(controller.<Integer>gate())
+        .test();
+    subscriber.assertValueCount(16);
+
+    // 50ms per batch with 16 queued is well over the target
+    controller.handled(TimeUnit.MILLISECONDS.toNanos(50));
+    assertEquals(8, controller.limit());
+    // only once per round
+    controller.handled(TimeUnit.MILLISECONDS.toNanos(50));
+    assertEquals(8, controller.limit());
+
+    for (int i = 0; i < 100; i++) {
+      controller.handled(TimeUnit.MILLISECONDS.toNanos(50));
+    }
+    // 50ms a batch against a 100ms target settles around two queued
+    assertTrue(controller.limit() >= 2 && controller.limit() <= 4);
+    assertTrue(controller.inFlight() <= 4);
+  }
+}
@@ -0,0 +1,149 @@
+package nakadi;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchLineReaderTest {
+
+  @Test
+  public void readsLines() {
+    final List<String> lines = readAll("{\"a\":1}\n{\"b\":2}\n");
+    assertEquals(Arrays.asList("{\"a\":1}", "{\"b\":2}"), lines);
+  }
+
+  @Test
+  public void stripsCarriageReturns() {
+    final List<String> lines = readAll("{\"a\":1}\r\n{\"b\":2}\r\n");
+    assertEquals(Arrays.asList("{\"a\":1}", "{\"b\":2}"), lines);
+  }
+
+  @Test
+  public void skipsBlankLines() {
+    final List<String> lines = readAll("\n{\"a\":1}\n\r\n\n{\"b\":2}\n\n");
+    assertEquals(Arrays.asList("{\"a\":1}", "{\"b\":2}"), lines);
+  }
+
+  @Test
+  public void readsUnterminatedLastLine() {
+    final List<String> lines = readAll("{\"a\":1}\n{\"b\":2}");
+    assertEquals(Arrays.asList("{\"a\":1}", "{\"b\":2}"), lines);
+  }
+
+  @Test
+  public void emptyStream() {
+    assertTrue(readAll("").isEmpty());
+    assertTrue(readAll("\n\r\n").isEmpty());
+  }
+
+  @Test
+  public void readsMultiByteCharacters() {
+    final String line = "{\"name\":\"événement ☃\"}";
+    final BatchLineReader reader = reader(line + "\n");
+    assertTrue(reader.next());
+    final byte[] expected = line.getBytes(StandardCharsets.UTF_8);
+    assertEquals(expected.length, reader.length());
+    assertArrayEquals(expected, Arrays.copyOf(reader.buffer(), reader.length()));
+    assertEquals(line, reader.lineAsString());
+  }
+
+  @Test
+  public void growsAndShrinksBuffer() {
+    final char[] chars = new char[BatchLineReader.MAX_RETAINED_BUFFER_SIZE + 1];
+    Arrays.fill(chars, 'x');
+    final String large = new String(chars);
+
+    final BatchLineReader reader = reader(large + "\nsmall\nsmall\n");
+
+    assertTrue(reader.next());
+    assertEquals(large.length(), reader.length());
+    assertEquals(large, reader.lineAsString());
+
+    assertTrue(reader.next());
+    assertEquals("small", reader.lineAsString());
+    assertEquals(BatchLineReader.DEFAULT_BUFFER_SIZE, reader.buffer().length);
+
+    assertTrue(reader.next());
+    assertEquals("small", reader.lineAsString());
+    assertFalse(reader.next());
+  }
+
+  @Test
+  public void readsLinesSplitAcrossReads() {
+    // hand the reader a few bytes at a time to mimic chunks arriving off the network
+    final Buffer data = new Buffer().writeUtf8("{\"a\":1}\n{\"b\":2}\n{\"c\":3}");
+    final Source trickle = new Source() {
+      @Override public long read(Buffer sink, long byteCount) throws IOException {
+        if (data.size() == 0) {
+          return -1;
+        }
+        return data.read(sink, Math.min(3, byteCount));
+      }
+
+      @Override public Timeout timeout() {
+        return Timeout.NONE;
+      }
+
+      @Override public void close() {
+      }
+    };
+
+    final List<String> lines = readAll(new BatchLineReader(Okio.buffer(trickle)));
+    assertEquals(Arrays.asList("{\"a\":1}", "{\"b\":2}", "{\"c\":3}"), lines);
+  }
+
+  @Test
+  public void ioFailureIsUnchecked() {
+    final Source broken = new Source() {
+      @Override public long read(Buffer sink, long byteCount) throws IOException {
+        throw new IOException("connection reset");
+      }
+
+      @Override public Timeout timeout() {
+        return Timeout.NONE;
+      }
+
+      @Override public void close() {
+      }
+    };
+
+    try {
+      new BatchLineReader(Okio.buffer(broken)).next();
+      fail("expected an UncheckedIOException");
+    } catch (UncheckedIOException e) {
+      assertEquals("connection reset", e.getCause().getMessage());
+    }
+  }
+
+  private BatchLineReader reader(String data) {
+    final BufferedSource source = new Buffer().writeUtf8(data);
+    return new BatchLineReader(source);
+  }
+
+  private List<String> readAll(String data) {
+    return readAll(reader(data));
+  }
+
+  private List<String> readAll(BatchLineReader reader) {
+    final List<String> lines = new ArrayList<>();
+    while (reader.next()) {
+      lines.add(reader.lineAsString());
+    }
+    return lines;
+  }
+}
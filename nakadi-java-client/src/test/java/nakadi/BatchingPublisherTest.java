@@ -0,0 +1,181 @@
+package nakadi;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchingPublisherTest {
+
+  private static final int MOCK_SERVER_PORT = 8323;
+  private static final String EVENT_TYPE = "priority-requisitions";
+
+  private final MockWebServer server = new MockWebServer();
+  private final NakadiClient client = NakadiClient.newBuilder()
+      .baseURI("http://localhost:" + MOCK_SERVER_PORT)
+      .build();
+
+  static class Requisition {
+    String id;
+
+    Requisition(String id) {
+      this.id = id;
+    }
+  }
+
+  @Before
+  public void before() throws Exception {
+    server.start(InetAddress.getByName("localhost"), MOCK_SERVER_PORT);
+  }
+
+  @After
+  public void after() throws Exception {
+    server.shutdown();
+  }
+
+  @Test
+  public void sendsABatchOnceItIsFull() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(200));
+    server.enqueue(new MockResponse().setResponseCode(200));
+
+    final List<CompletableFuture<BatchItemResponse>> futures = new ArrayList<>();
+    try (BatchingPublisher publisher = BatchingPublisher.newBuilder(client)
+        .maxBatchSize(3)
+        .linger(1, TimeUnit.MINUTES)
+        .maxConcurrentFlushes(1)
+        .build()) {
+      for (int i = 0; i < 7; i++) {
+        futures.add(publisher.publish(EVENT_TYPE, new Requisition("" + i)));
+      }
+
+      for (int i = 0; i < 6; i++) {
+        assertEquals(BatchItemResponse.PublishingStatus.submitted,
+            futures.get(i).get(5, TimeUnit.SECONDS).publishingStatus());
+      }
+      // still lingering
+      assertFalse(futures.get(6).isDone());
+
+      assertEquals("[{\"id\":\"0\"},{\"id\":\"1\"},{\"id\":\"2\"}]",
+          server.takeRequest().getBody().readUtf8());
+      assertEquals("[{\"id\":\"3\"},{\"id\":\"4\"},{\"id\":\"5\"}]",
+          server.takeRequest().getBody().readUtf8());
+
+      // the close sends the rest
+      server.enqueue(new MockResponse().setResponseCode(200));
+    }
+
+    assertTrue(futures.get(6).isDone());
+    assertEquals("[{\"id\":\"6\"}]", server.takeRequest().getBody().readUtf8());
+  }
+
+  @Test
+  public void sendsAfterTheLingerTime() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(200));
+
+    try (BatchingPublisher publisher = BatchingPublisher.newBuilder(client)
+        .linger(50, TimeUnit.MILLISECONDS)
+        .build()) {
+      final CompletableFuture<BatchItemResponse> first =
+          publisher.publish(EVENT_TYPE, "{\"id\":\"a\"}");
+      final CompletableFuture<BatchItemResponse> second =
+          publisher.publish(EVENT_TYPE, "{\"id\":\"b\"}");
+
+      second.get(5, TimeUnit.SECONDS);
+      assertTrue(first.isDone());
+      assertEquals("[{\"id\":\"a\"},{\"id\":\"b\"}]", server.takeRequest().getBody().readUtf8());
+      assertEquals(1, server.getRequestCount());
+    }
+  }
+
+  @Test
+  public void startsANewBatchBeforeTheByteLimit() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(200));
+    server.enqueue(new MockResponse().setResponseCode(200));
+
+    // each of these events is 12 bytes serialized alone
+    try (BatchingPublisher publisher = BatchingPublisher.newBuilder(client)
+        .maxBatchBytes(25)
+        .linger(1, TimeUnit.MINUTES)
+        .build()) {
+      publisher.publish(EVENT_TYPE, new Requisition("1"));
+      publisher.publish(EVENT_TYPE, new Requisition("2"));
+      final CompletableFuture<BatchItemResponse> third =
+          publisher.publish(EVENT_TYPE, new Requisition("3"));
+
+      assertEquals("[{\"id\":\"1\"},{\"id\":\"2\"}]", server.takeRequest().getBody().readUtf8());
+      assertFalse(third.isDone());
+      publisher.flush().get(5, TimeUnit.SECONDS);
+      assertTrue(third.isDone());
+      assertEquals("[{\"id\":\"3\"}]", server.takeRequest().getBody().readUtf8());
+    }
+  }
+
+  @Test
+  public void completesEachEventFromItsBatchItem() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(207)
+        .setBody(TestSupport.load("err_batch_item_response_array.json")));
+
+    try (BatchingPublisher publisher = BatchingPublisher.newBuilder(client)
+        .maxBatchSize(2)
+        .build()) {
+      final CompletableFuture<BatchItemResponse> first =
+          publisher.publish(EVENT_TYPE, new Requisition("1"));
+      final CompletableFuture<BatchItemResponse> second =
+          publisher.publish(EVENT_TYPE, new Requisition("2"));
+
+      final BatchItemResponse failed = first.get(5, TimeUnit.SECONDS);
+      assertEquals("7d7574c3-42ac-4e23-8c92-cd854ab1845a", failed.eid());
+      assertEquals(BatchItemResponse.PublishingStatus.failed, failed.publishingStatus());
+      final BatchItemResponse submitted = second.get(5, TimeUnit.SECONDS);
+      assertEquals("980c8aa9-7921-4675-a0c0-0b33b1459944", submitted.eid());
+      assertEquals(BatchItemResponse.PublishingStatus.submitted, submitted.publishingStatus());
+    }
+  }
+
+  @Test
+  public void failsEachEventOfABatchThatCannotBeSent() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(404));
+
+    try (BatchingPublisher publisher = BatchingPublisher.newBuilder(client)
+        .maxBatchSize(2)
+        .build()) {
+      final CompletableFuture<BatchItemResponse> first =
+          publisher.publish(EVENT_TYPE, new Requisition("1"));
+      final CompletableFuture<BatchItemResponse> second =
+          publisher.publish(EVENT_TYPE, new Requisition("2"));
+
+      for (CompletableFuture<BatchItemResponse> future : new CompletableFuture[] {first, second}) {
+        try {
+          future.get(5, TimeUnit.SECONDS);
+          fail("expected the event to fail");
+        } catch (ExecutionException e) {
+          assertTrue(e.getCause() instanceof NotFoundException);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void rejectsEventsOnceClosed() {
+    final BatchingPublisher publisher = BatchingPublisher.newBuilder(client).build();
+    publisher.close();
+
+    try {
+      publisher.publish(EVENT_TYPE, new Requisition("1"));
+      fail("expected a closed publisher to reject the event");
+    } catch (NakadiException ignored) {
+    }
+  }
+}
@@ -1,6 +1,9 @@
 package nakadi;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import okio.Buffer;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 
@@ -19,4 +22,40 @@ public class CompressionSupportTest {
     assertEquals(json, unzipped);
   }
 
+  @Test
+  public void compressingStreamRoundTrips() throws IOException {
+    final String json = "[{\"id\":\"1\"},{\"id\":\"2\"}]";
+
+    final CompressionSupportGzip gzip = new CompressionSupportGzip();
+    final Buffer streamed = new Buffer();
+    try (OutputStream out = gzip.compressing(streamed.outputStream())) {
+      out.write(json.getBytes(StandardCharsets.UTF_8));
+    }
+    assertEquals(json, gzip.decompress(streamed.readByteArray()));
+
+    // the default collects what's written and compresses it on close
+    final CompressionSupport buffering = new CompressionSupport() {
+      @Override public byte[] compress(byte[] bytes) {
+        return gzip.compress(bytes);
+      }
+
+      @Override public byte[] compress(String json) {
+        return gzip.compress(json);
+      }
+
+      @Override public String decompress(byte[] compressed) {
+        return gzip.decompress(compressed);
+      }
+
+      @Override public String name() {
+        return gzip.name();
+      }
+    };
+    final Buffer collected = new Buffer();
+    try (OutputStream out = buffering.compressing(collected.outputStream())) {
+      out.write(json.getBytes(StandardCharsets.UTF_8));
+    }
+    assertEquals(json, gzip.decompress(collected.readByteArray()));
+  }
+
 }
\ No newline at end of file
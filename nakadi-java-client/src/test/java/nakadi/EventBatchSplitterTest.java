@@ -0,0 +1,115 @@
+package nakadi;
+
+import com.google.common.collect.Lists;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Function;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EventBatchSplitterTest {
+
+  private final NakadiClient client = NakadiClient.newBuilder()
+      .baseURI("http://localhost:9080")
+      .build();
+
+  static class Happened {
+    String id;
+
+    Happened(String id) {
+      this.id = id;
+    }
+  }
+
+  @Test
+  public void splitsBeforeTheEventThatWouldPassTheLimit() {
+    final List<Happened> events = Lists.newArrayList(
+        new Happened("1"), new Happened("2"), new Happened("3"), new Happened("4"),
+        new Happened("5"));
+    // [{"id":"1"},{"id":"2"}] is 23 bytes
+    final List<EventBatchSplitter.SubBatch<Happened>> subBatches = splitter(23, null)
+        .split("et-1", events);
+
+    assertEquals(3, subBatches.size());
+    int index = 0;
+    for (EventBatchSplitter.SubBatch<Happened> subBatch : subBatches) {
+      for (int i : subBatch.indexes) {
+        assertEquals(index++, i);
+      }
+      assertTrue(serializedSize(subBatch.events) <= 23);
+      assertNull(subBatch.partitionKeys);
+    }
+    assertEquals(2, subBatches.get(0).events.size());
+    assertEquals(1, subBatches.get(2).events.size());
+
+    assertEquals(5, splitter(22, null).split("et-1", events).size());
+    assertEquals(1, splitter(59, null).split("et-1", events).size());
+  }
+
+  @Test
+  public void sendsAnEventOverTheLimitAlone() {
+    final List<String> events = Lists.newArrayList(
+        "{\"id\":\"1\"}", "{\"id\":\"big-and-over-the-limit\"}", "{\"id\":\"3\"}");
+    final List<EventBatchSplitter.SubBatch<String>> subBatches = splitter(20, null)
+        .split("et-1", events);
+
+    assertEquals(3, subBatches.size());
+    assertEquals("{\"id\":\"big-and-over-the-limit\"}", subBatches.get(1).events.get(0));
+  }
+
+  @Test
+  public void subBatchesFollowEarlierOnesSharingAKey() {
+    final List<Happened> events = Lists.newArrayList(
+        new Happened("a"), new Happened("b"), new Happened("b"), new Happened("c"),
+        new Happened("d"), new Happened("d"));
+    final List<EventBatchSplitter.SubBatch<Happened>> subBatches =
+        splitter(23, e -> ((Happened) e).id).split("et-1", events);
+
+    assertEquals(3, subBatches.size());
+    assertEquals(Lists.newArrayList("a", "b"), Lists.newArrayList(subBatches.get(0).partitionKeys));
+    assertTrue(subBatches.get(1).follows(subBatches.get(0)));
+    assertFalse(subBatches.get(2).follows(subBatches.get(0)));
+    assertFalse(subBatches.get(2).follows(subBatches.get(1)));
+
+    final List<EventBatchSplitter.SubBatch<Happened>> unkeyed =
+        splitter(23, null).split("et-1", events);
+    assertTrue(unkeyed.get(2).follows(unkeyed.get(0)));
+  }
+
+  @Test
+  public void groupsEventsByKeyBeforeSplitting() {
+    final List<Happened> events = Lists.newArrayList(
+        new Happened("a"), new Happened("b"), new Happened("a"), new Happened("b"),
+        new Happened("a"), new Happened("b"));
+    // three of these events serialized are 34 bytes
+    final List<EventBatchSplitter.SubBatch<Happened>> subBatches =
+        splitter(34, e -> ((Happened) e).id).split("et-1", events);
+
+    assertEquals(2, subBatches.size());
+    assertArrayEquals(new int[] {0, 2, 4}, subBatches.get(0).indexes);
+    assertArrayEquals(new int[] {1, 3, 5}, subBatches.get(1).indexes);
+    assertEquals(Lists.newArrayList("b"), Lists.newArrayList(subBatches.get(1).partitionKeys));
+    assertFalse(subBatches.get(1).follows(subBatches.get(0)));
+
+    // without a key they stay in order and every sub-batch follows the one before
+    final List<EventBatchSplitter.SubBatch<Happened>> unkeyed =
+        splitter(34, null).split("et-1", events);
+    assertArrayEquals(new int[] {3, 4, 5}, unkeyed.get(1).indexes);
+    assertTrue(unkeyed.get(1).follows(unkeyed.get(0)));
+  }
+
+  private EventBatchSplitter splitter(long maxBatchBytes, Function<Object, ?> partitionKey) {
+    return new EventBatchSplitter(
+        client, client.getSerializationSupport(), maxBatchBytes, partitionKey);
+  }
+
+  private int serializedSize(List<Happened> events) {
+    return new String(client.getSerializationSupport().serializePayload(client, "et-1", events),
+        StandardCharsets.UTF_8).length();
+  }
+}
@@ -0,0 +1,135 @@
+package nakadi;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EventDeduplicatorTest {
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final StreamOffsetObserver offsetObserver = context -> {
+  };
+  private final MetricCollector metrics = new MetricCollectorDevnull() {
+    @Override public void mark(Meter meter, long count) {
+      if (meter == Meter.streamDedupHit) {
+        hits.addAndGet(count);
+      } else if (meter == Meter.streamDedupMiss) {
+        misses.addAndGet(count);
+      }
+    }
+  };
+
+  @Test
+  public void windowMatchesAReferenceSet() {
+    // small keys and a small window exercise collisions, runs and eviction shifting
+    final int capacity = 37;
+    final EventIdWindow window = new EventIdWindow(capacity);
+    final ArrayDeque<Long> order = new ArrayDeque<>();
+    final Set<Long> reference = new HashSet<>();
+    final Random random = new Random(7);
+
+    for (int i = 0; i < 50_000; i++) {
+      final long fingerprint = 1 + random.nextInt(120);
+      final boolean added = window.add(fingerprint);
+      assertEquals(!reference.contains(fingerprint), added);
+      if (added) {
+        if (order.size() == capacity) {
+          reference.remove(order.removeFirst());
+        }
+        order.addLast(fingerprint);
+        reference.add(fingerprint);
+      }
+      assertEquals(reference.size(), window.size());
+    }
+    for (long fingerprint = 1; fingerprint <= 120; fingerprint++) {
+      assertEquals(reference.contains(fingerprint), window.contains(fingerprint));
+    }
+  }
+
+  @Test
+  public void dropsRedeliveredEventsPerPartition() {
+    final EventDeduplicator deduplicator =
+        new EventDeduplicator(new EventDeduplication(), metrics);
+
+    final StreamBatchRecord<DataChangeEvent<String>> first = record("0", "a", "b");
+    assertSame(first, deduplicator.deduplicate(first));
+
+    // the same ids on another partition are different events
+    final StreamBatchRecord<DataChangeEvent<String>> other = record("1", "a", "b");
+    assertSame(other, deduplicator.deduplicate(other));
+
+    final StreamBatchRecord<DataChangeEvent<String>> replay =
+        deduplicator.deduplicate(record("0", "b", "c", "a", "d"));
+    assertEquals(Arrays.asList("c", "d"), eids(replay.streamBatch().events()));
+    assertEquals(new Cursor("0", "1"), replay.streamBatch().cursor());
+    assertEquals(new Cursor("0", "1"), replay.streamCursorContext().cursor());
+    assertSame(offsetObserver, replay.streamOffsetObserver());
+
+    // a batch of nothing new is still delivered for its cursor
+    final StreamBatchRecord<DataChangeEvent<String>> seen =
+        deduplicator.deduplicate(record("0", "c", "d"));
+    assertTrue(seen.streamBatch().isEmpty());
+
+    assertEquals(4, hits.get());
+    assertEquals(6, misses.get());
+  }
+
+  @Test
+  public void eventsWithoutIdsAreKept() {
+    final EventDeduplicator deduplicator = new EventDeduplicator(
+        new EventDeduplication().windowSize(2).eventIdExtractor(
+            event -> "-".equals(event) ? null : (String) event), metrics);
+
+    deduplicator.deduplicate(strings("x", "-"));
+    final StreamBatchRecord<String> again = deduplicator.deduplicate(strings("x", "-", "y"));
+    assertEquals(Arrays.asList("-", "y"), again.streamBatch().events());
+
+    // x has been evicted by y and z
+    deduplicator.deduplicate(strings("z"));
+    assertEquals(Collections.singletonList("x"),
+        deduplicator.deduplicate(strings("x")).streamBatch().events());
+  }
+
+  @Test
+  public void readsMetadataEids() {
+    final DataChangeEvent<String> event = new DataChangeEvent<String>()
+        .metadata(new EventMetadata().eid("e1"));
+    assertEquals("e1", EventDeduplication.metadataEid(event));
+    assertEquals(null, EventDeduplication.metadataEid("{}"));
+    assertFalse(new EventIdWindow(1).contains(EventIdWindow.fingerprint("e1")));
+  }
+
+  private StreamBatchRecord<DataChangeEvent<String>> record(String partition, String... eids) {
+    final List<DataChangeEvent<String>> events = new ArrayList<>();
+    for (String eid : eids) {
+      events.add(new DataChangeEvent<String>().metadata(new EventMetadata().eid(eid)));
+    }
+    return new StreamBatchRecordReal<>(
+        new EventStreamBatch<>(new Cursor(partition, "1"), null, events), offsetObserver);
+  }
+
+  private StreamBatchRecord<String> strings(String... events) {
+    return new StreamBatchRecordReal<>(
+        new EventStreamBatch<>(new Cursor("0", "1"), null, Arrays.asList(events)),
+        offsetObserver);
+  }
+
+  private List<String> eids(List<DataChangeEvent<String>> events) {
+    final List<String> eids = new ArrayList<>();
+    events.forEach(e -> eids.add(e.metadata().eid()));
+    return eids;
+  }
+}
@@ -6,6 +6,7 @@ import java.lang.reflect.Type;
 import java.net.InetAddress;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
@@ -141,4 +142,41 @@ public class EventResourceRealCompressionTest {
     }
   }
 
+  @Test
+  public void compressesARetriedBatchForEachAttempt() throws Exception {
+    NakadiClient client = NakadiClient.newBuilder()
+        .baseURI("http://localhost:" + MOCK_SERVER_PORT)
+        .enablePublishingCompression()
+        .build();
+
+    CompressionSupport compressionSupport = client.compressionSupport();
+
+    try {
+      before();
+
+      server.enqueue(new MockResponse().setResponseCode(503));
+      server.enqueue(new MockResponse().setResponseCode(200));
+
+      Response response = client.resources().events()
+          .retryPolicy(ExponentialRetry.newBuilder()
+              .initialInterval(10, TimeUnit.MILLISECONDS)
+              .maxInterval(20, TimeUnit.MILLISECONDS)
+              .maxAttempts(3)
+              .build())
+          .send("be-1-200", new EventResourceRealTest.BusinessPayload("221", "A1", "B1"));
+      assertEquals(200, response.statusCode());
+
+      for (int i = 0; i < 2; i++) {
+        RecordedRequest request = server.takeRequest();
+        final byte[] zipped = request.getBody().readByteArray();
+        assertEquals(String.valueOf(zipped.length), request.getHeader("Content-Length"));
+        assertNull(request.getHeader("Transfer-Encoding"));
+        assertEquals(compressionSupport.name(), request.getHeader("Content-Encoding"));
+        assertTrue(compressionSupport.decompress(zipped).contains("\"id\":\"221\""));
+      }
+    } finally {
+      after();
+    }
+  }
+
 }
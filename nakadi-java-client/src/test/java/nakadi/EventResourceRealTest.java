@@ -9,14 +9,22 @@ import com.google.gson.JsonObject;
 import com.google.gson.reflect.TypeToken;
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.io.OutputStream;
 import java.net.InetAddress;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import junit.framework.TestCase;
 import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
@@ -28,6 +36,7 @@ import static junit.framework.TestCase.assertFalse;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
@@ -446,6 +455,486 @@ public class EventResourceRealTest {
     assertNull(options.getValue().scope());
   }
 
+  @Test
+  public void batchIsStreamedAndSerializedForEachAttempt() throws Exception {
+    final AtomicInteger serialized = new AtomicInteger();
+    final SerializationSupport json = JsonSerializationSupport.newInstance(new GsonSupport());
+    NakadiClient client = NakadiClient.newBuilder()
+        .baseURI("http://localhost:" + MOCK_SERVER_PORT)
+        .serializationSupport(new SerializationSupport() {
+          @Override public <T> byte[] serializePayload(NakadiClient client, String eventTypeName,
+              Collection<T> events) {
+            throw new AssertionError("expected the batch to be streamed");
+          }
+
+          @Override public <T> void serializePayload(NakadiClient client, String eventTypeName,
+              Collection<T> events, OutputStream out) throws IOException {
+            serialized.incrementAndGet();
+            json.serializePayload(client, eventTypeName, events, out);
+          }
+
+          @Override public String contentType() {
+            return json.contentType();
+          }
+        })
+        .build();
+
+    try {
+      before();
+
+      server.enqueue(new MockResponse().setResponseCode(503));
+      server.enqueue(new MockResponse().setResponseCode(200));
+
+      Response response = client.resources().events()
+          .retryPolicy(ExponentialRetry.newBuilder()
+              .initialInterval(10, TimeUnit.MILLISECONDS)
+              .maxInterval(20, TimeUnit.MILLISECONDS)
+              .maxAttempts(3)
+              .build())
+          .send("ue-1-1479125860", Lists.newArrayList(new Happened("1"), new Happened("2")));
+      assertEquals(200, response.statusCode());
+
+      // each attempt writes the batch again rather than keeping its bytes
+      assertEquals(2, serialized.get());
+      for (int i = 0; i < 2; i++) {
+        RecordedRequest request = server.takeRequest();
+        assertEquals("chunked", request.getHeader("Transfer-Encoding"));
+        assertEquals("[{\"id\":\"1\"},{\"id\":\"2\"}]", request.getBody().readUtf8());
+      }
+    } finally {
+      after();
+    }
+  }
+
+  @Test
+  public void sendBatchAsyncCompletesWithBatchItems() throws Exception {
+    NakadiClient client = NakadiClient.newBuilder()
+        .baseURI("http://localhost:" + MOCK_SERVER_PORT)
+        .build();
+
+    String errJson = TestSupport.load("err_batch_item_response_array.json");
+
+    try {
+      before();
+
+      EventResource resource = client.resources().events();
+
+      server.enqueue(new MockResponse().setResponseCode(207).setBody(errJson));
+      BatchItemResponseCollection partial = resource.sendBatchAsync("ue-1-1479125860",
+          Lists.newArrayList(new Happened("1"), new Happened("2"))).get(5, TimeUnit.SECONDS);
+      assertEquals(2, partial.items().size());
+      assertEquals("failed", partial.items().get(0).publishingStatus().name());
+      RecordedRequest request = server.takeRequest();
+      assertEquals("POST", request.getMethod());
+      assertEquals("/event-types/ue-1-1479125860/events", request.getPath());
+      assertEquals("[{\"id\":\"1\"},{\"id\":\"2\"}]", request.getBody().readUtf8());
+
+      server.enqueue(new MockResponse().setResponseCode(200));
+      BatchItemResponseCollection sent = resource.sendAsync("ue-1-1479125860",
+          "{\"id\":\"3\"}").get(5, TimeUnit.SECONDS);
+      assertTrue(sent.items().isEmpty());
+      assertEquals("[{\"id\":\"3\"}]", server.takeRequest().getBody().readUtf8());
+      assertEquals(0, client.publishingLimiter().inFlight());
+    } finally {
+      after();
+    }
+  }
+
+  @Test
+  public void sendBatchAsyncRetriesAfterBackoff() throws Exception {
+    NakadiClient client = NakadiClient.newBuilder()
+        .baseURI("http://localhost:" + MOCK_SERVER_PORT)
+        .build();
+
+    try {
+      before();
+
+      server.enqueue(new MockResponse().setResponseCode(503));
+      server.enqueue(new MockResponse().setResponseCode(503));
+      server.enqueue(new MockResponse().setResponseCode(200));
+
+      BatchItemResponseCollection sent = client.resources().events()
+          .retryPolicy(ExponentialRetry.newBuilder()
+              .initialInterval(10, TimeUnit.MILLISECONDS)
+              .maxInterval(20, TimeUnit.MILLISECONDS)
+              .maxAttempts(5)
+              .build())
+          .sendBatchAsync("ue-1-1479125860", Lists.newArrayList(new Happened("1")))
+          .get(5, TimeUnit.SECONDS);
+
+      assertTrue(sent.items().isEmpty());
+      assertEquals(3, server.getRequestCount());
+
+      // not found isn't retried
+      server.enqueue(new MockResponse().setResponseCode(404));
+      try {
+        client.resources().events()
+            .retryPolicy(ExponentialRetry.newBuilder()
+                .initialInterval(10, TimeUnit.MILLISECONDS)
+                .maxAttempts(5)
+                .build())
+            .sendBatchAsync("ue-1-1479125860", Lists.newArrayList(new Happened("1")))
+            .get(5, TimeUnit.SECONDS);
+        fail("expected the future to fail");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof NotFoundException);
+      }
+      assertEquals(4, server.getRequestCount());
+
+      // without a policy the first failure is returned
+      server.enqueue(new MockResponse().setResponseCode(503));
+      try {
+        client.resources().events()
+            .sendBatchAsync("ue-1-1479125860", Lists.newArrayList(new Happened("1")))
+            .get(5, TimeUnit.SECONDS);
+        fail("expected the future to fail");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof ServerException);
+      }
+      assertEquals(5, server.getRequestCount());
+    } finally {
+      after();
+    }
+  }
+
+  @Test
+  public void sendBatchAsyncHonorsTheInFlightLimit() throws Exception {
+    NakadiClient client = NakadiClient.newBuilder()
+        .baseURI("http://localhost:" + MOCK_SERVER_PORT)
+        .maxPublishingRequestsInFlight(1)
+        .build();
+
+    try {
+      before();
+
+      server.enqueue(new MockResponse().setResponseCode(503));
+      server.enqueue(new MockResponse().setResponseCode(200));
+      server.enqueue(new MockResponse().setResponseCode(200));
+
+      CompletableFuture<BatchItemResponseCollection> first = client.resources().events()
+          .retryPolicy(ExponentialRetry.newBuilder()
+              .initialInterval(500, TimeUnit.MILLISECONDS)
+              .maxInterval(500, TimeUnit.MILLISECONDS)
+              .maxAttempts(2)
+              .build())
+          .sendBatchAsync("ue-1-1479125860", Lists.newArrayList(new Happened("1")));
+      CompletableFuture<BatchItemResponseCollection> second = client.resources().events()
+          .sendBatchAsync("ue-1-1479125860", Lists.newArrayList(new Happened("2")));
+
+      // the second waits for the first, including its backoff, without holding this thread
+      assertEquals(1, client.publishingLimiter().waiting());
+      first.get(5, TimeUnit.SECONDS);
+      second.get(5, TimeUnit.SECONDS);
+
+      assertEquals("[{\"id\":\"1\"}]", server.takeRequest().getBody().readUtf8());
+      assertEquals("[{\"id\":\"1\"}]", server.takeRequest().getBody().readUtf8());
+      assertEquals("[{\"id\":\"2\"}]", server.takeRequest().getBody().readUtf8());
+      assertEquals(0, client.publishingLimiter().inFlight());
+    } finally {
+      after();
+    }
+  }
+
+  @Test
+  public void maxPublishingRequestsInFlightMustBePositive() {
+    try {
+      NakadiClient.newBuilder()
+          .baseURI("http://localhost:" + MOCK_SERVER_PORT)
+          .maxPublishingRequestsInFlight(0)
+          .build();
+      fail("expected a zero limit to be rejected");
+    } catch (NakadiException ignored) {
+    }
+  }
+
+  @Test
+  public void sendBatchAsyncCopiesTheCallersList() throws Exception {
+    NakadiClient client = NakadiClient.newBuilder()
+        .baseURI("http://localhost:" + MOCK_SERVER_PORT)
+        .build();
+
+    try {
+      before();
+
+      server.enqueue(new MockResponse().setResponseCode(200));
+      List<Happened> events = Lists.newArrayList(new Happened("1"), new Happened("2"));
+      CompletableFuture<BatchItemResponseCollection> future =
+          client.resources().events().sendBatchAsync("ue-1-1479125860", events);
+      // a producer reusing its buffer for the next batch
+      events.clear();
+
+      assertTrue(future.get(10, TimeUnit.SECONDS).items().isEmpty());
+      assertEquals("[{\"id\":\"1\"},{\"id\":\"2\"}]",
+          server.takeRequest().getBody().readUtf8());
+    } finally {
+      after();
+    }
+  }
+
+  @Test
+  public void sendBatchSplitsOverMaxBatchBytesAndMergesItemsInOrder() throws Exception {
+    NakadiClient client = NakadiClient.newBuilder()
+        .baseURI("http://localhost:" + MOCK_SERVER_PORT)
+        .build();
+
+    String errJson = TestSupport.load("err_batch_item_response_array.json");
+
+    try {
+      before();
+
+      // two of these events serialized are 23 bytes
+      EventResource resource = client.resources().events().maxBatchBytes(23);
+
+      server.enqueue(new MockResponse().setResponseCode(200));
+      server.enqueue(new MockResponse().setResponseCode(207).setBody(errJson));
+      BatchItemResponseCollection sent = resource.sendBatch("ue-1-1479125860",
+          Lists.newArrayList(new Happened("1"), new Happened("2"), new Happened("3"),
+              new Happened("4"), new Happened("5")));
+
+      // the last sub-batch waits on the partly accepted one and isn't sent
+      assertEquals(2, server.getRequestCount());
+      assertEquals("[{\"id\":\"1\"},{\"id\":\"2\"}]", server.takeRequest().getBody().readUtf8());
+      assertEquals("[{\"id\":\"3\"},{\"id\":\"4\"}]", server.takeRequest().getBody().readUtf8());
+
+      List<BatchItemResponse> items = sent.items();
+      assertEquals(5, items.size());
+      assertEquals(BatchItemResponse.PublishingStatus.submitted, items.get(0).publishingStatus());
+      assertNull(items.get(0).eid());
+      assertEquals(BatchItemResponse.PublishingStatus.submitted, items.get(1).publishingStatus());
+      assertEquals("7d7574c3-42ac-4e23-8c92-cd854ab1845a", items.get(2).eid());
+      assertEquals(BatchItemResponse.PublishingStatus.failed, items.get(2).publishingStatus());
+      assertEquals("980c8aa9-7921-4675-a0c0-0b33b1459944", items.get(3).eid());
+      assertEquals(BatchItemResponse.PublishingStatus.aborted, items.get(4).publishingStatus());
+
+      // a batch under the limit goes whole, with no items when accepted
+      server.enqueue(new MockResponse().setResponseCode(200));
+      assertTrue(resource.sendBatch("ue-1-1479125860",
+          Lists.newArrayList(new Happened("6"), new Happened("7"))).items().isEmpty());
+      assertEquals(3, server.getRequestCount());
+    } finally {
+      after();
+    }
+  }
+
+  @Test
+  public void sendBatchAsyncSendsSubBatchesForDifferentPartitionsAtOnce() throws Exception {
+    NakadiClient client = NakadiClient.newBuilder()
+        .baseURI("http://localhost:" + MOCK_SERVER_PORT)
+        .build();
+
+    String errJson = TestSupport.load("err_batch_item_response_array.json");
+    CountDownLatch bothArrived = new CountDownLatch(2);
+
+    try {
+      server.setDispatcher(new Dispatcher() {
+        @Override public MockResponse dispatch(RecordedRequest request)
+            throws InterruptedException {
+          bothArrived.countDown();
+          // answering neither until both are in shows they were sent together
+          if (!bothArrived.await(5, TimeUnit.SECONDS)) {
+            return new MockResponse().setResponseCode(400);
+          }
+          if (request.getBody().readUtf8().contains("a1")) {
+            return new MockResponse().setResponseCode(207).setBody(errJson);
+          }
+          return new MockResponse().setResponseCode(200);
+        }
+      });
+      before();
+
+      EventResource resource = client.resources().events()
+          .maxBatchBytes(25)
+          .partitionKey(e -> ((Happened) e).id.substring(0, 1));
+
+      // interleaved keys are grouped, so each key's events go in a sub-batch of their own
+      BatchItemResponseCollection sent = resource.sendBatchAsync("ue-1-1479125860",
+          Lists.newArrayList(new Happened("a1"), new Happened("b1"), new Happened("a2"),
+              new Happened("b2"))).get(10, TimeUnit.SECONDS);
+
+      assertEquals(2, server.getRequestCount());
+      List<BatchItemResponse> items = sent.items();
+      assertEquals(4, items.size());
+      assertEquals(BatchItemResponse.PublishingStatus.failed, items.get(0).publishingStatus());
+      assertEquals("980c8aa9-7921-4675-a0c0-0b33b1459944", items.get(2).eid());
+      assertEquals(BatchItemResponse.PublishingStatus.submitted, items.get(1).publishingStatus());
+      assertEquals(BatchItemResponse.PublishingStatus.submitted, items.get(3).publishingStatus());
+    } finally {
+      after();
+    }
+  }
+
+  @Test
+  public void sendBatchAbortsSubBatchesAfterOneFails() throws Exception {
+    NakadiClient client = NakadiClient.newBuilder()
+        .baseURI("http://localhost:" + MOCK_SERVER_PORT)
+        .build();
+
+    try {
+      before();
+
+      EventResource resource = client.resources().events().maxBatchBytes(23);
+
+      server.enqueue(new MockResponse().setResponseCode(200));
+      server.enqueue(new MockResponse().setResponseCode(413));
+      List<BatchItemResponse> items = resource.sendBatch("ue-1-1479125860",
+          Lists.newArrayList(new Happened("1"), new Happened("2"), new Happened("3"),
+              new Happened("4"), new Happened("5"))).items();
+
+      assertEquals(2, server.getRequestCount());
+      assertEquals(5, items.size());
+      assertEquals(BatchItemResponse.PublishingStatus.submitted, items.get(1).publishingStatus());
+      assertEquals(BatchItemResponse.PublishingStatus.failed, items.get(2).publishingStatus());
+      assertEquals(BatchItemResponse.PublishingStatus.failed, items.get(3).publishingStatus());
+      assertEquals(BatchItemResponse.PublishingStatus.aborted, items.get(4).publishingStatus());
+
+      // with nothing sent, the error is thrown as it would be for a whole batch
+      server.enqueue(new MockResponse().setResponseCode(413));
+      try {
+        resource.sendBatch("ue-1-1479125860",
+            Lists.newArrayList(new Happened("1"), new Happened("2"), new Happened("3")));
+        fail("expected the first sub-batch's error");
+      } catch (ClientException ignored) {
+      }
+      assertEquals(3, server.getRequestCount());
+
+      // a rejected sub-batch holds back the ones after it too
+      server.enqueue(new MockResponse().setResponseCode(422)
+          .setBody(TestSupport.load("err_batch_item_response_array.json")));
+      items = resource.sendBatch("ue-1-1479125860",
+          Lists.newArrayList(new Happened("1"), new Happened("2"), new Happened("3"))).items();
+
+      assertEquals(4, server.getRequestCount());
+      assertEquals(3, items.size());
+      assertEquals(BatchItemResponse.PublishingStatus.failed, items.get(0).publishingStatus());
+      assertEquals(BatchItemResponse.PublishingStatus.aborted, items.get(2).publishingStatus());
+    } finally {
+      after();
+    }
+  }
+
+  @Test
+  public void maxBatchBytesCannotBeNegative() {
+    NakadiClient client = NakadiClient.newBuilder()
+        .baseURI("http://localhost:" + MOCK_SERVER_PORT)
+        .build();
+    try {
+      client.resources().events().maxBatchBytes(-1);
+      fail("expected a negative limit to be rejected");
+    } catch (NakadiException ignored) {
+    }
+  }
+
+  @Test
+  public void sendBatchResendsOnlyTheItemsNotAccepted() throws Exception {
+    NakadiClient client = NakadiClient.newBuilder()
+        .baseURI("http://localhost:" + MOCK_SERVER_PORT)
+        .build();
+
+    try {
+      before();
+
+      EventResource resource = client.resources().events()
+          .partialRetryPolicy(ExponentialRetry.newBuilder()
+              .initialInterval(10, TimeUnit.MILLISECONDS)
+              .maxInterval(20, TimeUnit.MILLISECONDS)
+              .maxAttempts(3)
+              .build());
+
+      server.enqueue(new MockResponse().setResponseCode(207).setBody("["
+          + "{\"eid\":\"e1\",\"publishing_status\":\"submitted\",\"step\":\"none\"},"
+          + "{\"eid\":\"e2\",\"publishing_status\":\"failed\",\"step\":\"publishing\"},"
+          + "{\"eid\":\"e3\",\"publishing_status\":\"aborted\",\"step\":\"publishing\"}]"));
+      server.enqueue(new MockResponse().setResponseCode(207).setBody("["
+          + "{\"eid\":\"e2\",\"publishing_status\":\"submitted\",\"step\":\"none\"},"
+          + "{\"eid\":\"e3\",\"publishing_status\":\"failed\",\"step\":\"publishing\"}]"));
+      server.enqueue(new MockResponse().setResponseCode(200));
+
+      List<BatchItemResponse> items = resource.sendBatch("ue-1-1479125860",
+          Lists.newArrayList(new Happened("1"), new Happened("2"), new Happened("3"))).items();
+
+      assertEquals(3, server.getRequestCount());
+      assertEquals("[{\"id\":\"1\"},{\"id\":\"2\"},{\"id\":\"3\"}]",
+          server.takeRequest().getBody().readUtf8());
+      assertEquals("[{\"id\":\"2\"},{\"id\":\"3\"}]", server.takeRequest().getBody().readUtf8());
+      assertEquals("[{\"id\":\"3\"}]", server.takeRequest().getBody().readUtf8());
+
+      assertEquals(3, items.size());
+      assertEquals("e1", items.get(0).eid());
+      assertEquals("e2", items.get(1).eid());
+      for (BatchItemResponse item : items) {
+        assertEquals(BatchItemResponse.PublishingStatus.submitted, item.publishingStatus());
+      }
+    } finally {
+      after();
+    }
+  }
+
+  @Test
+  public void sendBatchAsyncDoesNotResendItemsThatFailedValidation() throws Exception {
+    NakadiClient client = NakadiClient.newBuilder()
+        .baseURI("http://localhost:" + MOCK_SERVER_PORT)
+        .build();
+
+    try {
+      before();
+
+      EventResource resource = client.resources().events()
+          .partialRetryPolicy(ExponentialRetry.newBuilder()
+              .initialInterval(10, TimeUnit.MILLISECONDS)
+              .maxInterval(20, TimeUnit.MILLISECONDS)
+              .maxAttempts(2)
+              .build());
+
+      server.enqueue(new MockResponse().setResponseCode(422).setBody("["
+          + "{\"publishing_status\":\"aborted\",\"step\":\"validating\"},"
+          + "{\"publishing_status\":\"failed\",\"step\":\"validating\",\"detail\":\"bad\"},"
+          + "{\"publishing_status\":\"aborted\",\"step\":\"validating\"}]"));
+      server.enqueue(new MockResponse().setResponseCode(207).setBody("["
+          + "{\"eid\":\"e1\",\"publishing_status\":\"submitted\",\"step\":\"none\"},"
+          + "{\"eid\":\"e3\",\"publishing_status\":\"failed\",\"step\":\"publishing\"}]"));
+
+      List<BatchItemResponse> items = resource.sendBatchAsync("ue-1-1479125860",
+          Lists.newArrayList(new Happened("1"), new Happened("2"), new Happened("3")))
+          .get(5, TimeUnit.SECONDS).items();
+
+      // the policy allows one resend, so the last failure stands
+      assertEquals(2, server.getRequestCount());
+      server.takeRequest();
+      assertEquals("[{\"id\":\"1\"},{\"id\":\"3\"}]", server.takeRequest().getBody().readUtf8());
+
+      assertEquals(3, items.size());
+      assertEquals(BatchItemResponse.PublishingStatus.submitted, items.get(0).publishingStatus());
+      assertEquals(BatchItemResponse.PublishingStatus.failed, items.get(1).publishingStatus());
+      assertEquals(BatchItemResponse.Step.validating, items.get(1).step());
+      assertEquals("bad", items.get(1).detail());
+      assertEquals("e3", items.get(2).eid());
+      assertEquals(BatchItemResponse.PublishingStatus.failed, items.get(2).publishingStatus());
+    } finally {
+      after();
+    }
+  }
+
+  @Test
+  public void sendBatchLeavesAnAcceptedBatchAloneWithAPartialRetryPolicy() throws Exception {
+    NakadiClient client = NakadiClient.newBuilder()
+        .baseURI("http://localhost:" + MOCK_SERVER_PORT)
+        .build();
+
+    try {
+      before();
+
+      EventResource resource = client.resources().events()
+          .partialRetryPolicy(ExponentialRetry.newBuilder().maxAttempts(3).build());
+
+      server.enqueue(new MockResponse().setResponseCode(200));
+      assertTrue(resource.sendBatch("ue-1-1479125860",
+          Lists.newArrayList(new Happened("1"), new Happened("2"))).items().isEmpty());
+      assertEquals(1, server.getRequestCount());
+    } finally {
+      after();
+    }
+  }
+
   static class UndefinedPayload {
     String id;
     String foo;
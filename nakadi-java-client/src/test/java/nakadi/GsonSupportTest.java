@@ -171,6 +171,80 @@ public class GsonSupportTest {
                     metadata.getAsJsonObject().get("occurred_at").getAsString()));
   }
 
+  @Test
+  public void singlePassBatchMatchesTwoPass() {
+    final GsonSupport gsonSupport = new GsonSupport();
+
+    final String business = TestSupport.load("business-event-batch-1.json");
+    final String undefined = TestSupport.load("undefined-event-batch-1.json");
+    final String dataChange = TestSupport.load("data-change-event-batch-1.json");
+    final String spanCtx = TestSupport.load("business-event-batch-span-ctx.json");
+
+    assertSameBatch(gsonSupport, business,
+        new TypeLiteral<BusinessEventMapped<Map<String, Object>>>() {}.type());
+    assertSameBatch(gsonSupport, spanCtx,
+        new TypeLiteral<BusinessEventMapped<Map<String, Object>>>() {}.type());
+    assertSameBatch(gsonSupport, business,
+        new TypeLiteral<BusinessEventMapped<JsonObject>>() {}.type());
+    assertSameBatch(gsonSupport, undefined,
+        new TypeLiteral<UndefinedEventMapped<Map<String, Object>>>() {}.type());
+    assertSameBatch(gsonSupport, undefined,
+        new TypeLiteral<UndefinedEventMapped<String>>() {}.type());
+    assertSameBatch(gsonSupport, dataChange,
+        new TypeLiteral<DataChangeEvent<Map<String, Object>>>() {}.type());
+    assertSameBatch(gsonSupport, dataChange, new TypeLiteral<Map<String, Object>>() {}.type());
+    assertSameBatch(gsonSupport, dataChange, new TypeLiteral<String>() {}.type());
+    assertSameBatch(gsonSupport, dataChange, new TypeLiteral<JsonObject>() {}.type());
+  }
+
+  @Test
+  public void singlePassBatchHandlesInfoAndEmptyEvents() {
+    final GsonSupport gsonSupport = new GsonSupport();
+    final java.lang.reflect.Type type =
+        new TypeLiteral<BusinessEventMapped<Map<String, Object>>>() {}.type();
+
+    final String keepalive =
+        "{\"cursor\":{\"partition\":\"0\",\"offset\":\"9\"},\"info\":{\"debug\":\"x\"},\"unknown\":[1,{}]}";
+    final EventStreamBatch<Object> batch = gsonSupport.marshalEventStreamBatch(keepalive, type);
+    assertEquals("9", batch.cursor().offset());
+    assertTrue(batch.isEmpty());
+    assertEquals(gsonSupport.marshalEventStreamBatchTwoPass(keepalive, type), batch);
+
+    final String nullEvents =
+        "{\"cursor\":{\"partition\":\"0\",\"offset\":\"9\"},\"events\":null}";
+    assertTrue(gsonSupport.marshalEventStreamBatch(nullEvents, type).isEmpty());
+  }
+
+  @Test
+  public void singlePassBatchRejectsUnparameterizedMappedEvents() {
+    final GsonSupport gsonSupport = new GsonSupport();
+    final String business = TestSupport.load("business-event-batch-1.json");
+
+    try {
+      gsonSupport.marshalEventStreamBatch(business, BusinessEventMapped.class);
+      Assert.fail("An un-parameterized BusinessEventMapped should not be processed");
+    } catch (IllegalArgumentException ignored) {
+    }
+  }
+
+  @Test(expected = com.google.gson.JsonSyntaxException.class)
+  public void singlePassBatchRejectsMalformedJson() {
+    new GsonSupport().marshalEventStreamBatch(
+        "{\"cursor\":{\"partition\":\"0\",\"offset\":\"9\"},\"events\":[{]}",
+        new TypeLiteral<Map<String, Object>>() {}.type());
+  }
+
+  private void assertSameBatch(
+      GsonSupport gsonSupport, String json, java.lang.reflect.Type type) {
+    final EventStreamBatch<Object> expected =
+        gsonSupport.marshalEventStreamBatchTwoPass(json, type);
+    final EventStreamBatch<Object> actual = gsonSupport.marshalEventStreamBatch(json, type);
+    assertEquals(expected.cursor(), actual.cursor());
+    assertEquals(expected.info(), actual.info());
+    assertEquals(expected.events(), actual.events());
+    assertEquals(expected.events().size(), actual.events().size());
+  }
+
   static class EventThing implements Event {
     final String a;
     final String b;
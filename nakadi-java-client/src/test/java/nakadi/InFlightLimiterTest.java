@@ -0,0 +1,90 @@
+package nakadi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InFlightLimiterTest {
+
+  @Test
+  public void startsWaitingRequestsInOrderAsPermitsFree() {
+    final InFlightLimiter limiter = new InFlightLimiter(2);
+    final List<CompletableFuture<Integer>> started = new ArrayList<>();
+    final List<CompletableFuture<Integer>> results = new ArrayList<>();
+
+    for (int i = 0; i < 5; i++) {
+      results.add(limiter.submit(() -> {
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+        started.add(future);
+        return future;
+      }));
+    }
+
+    assertEquals(2, started.size());
+    assertEquals(2, limiter.inFlight());
+    assertEquals(3, limiter.waiting());
+
+    started.get(0).complete(0);
+    assertEquals(Integer.valueOf(0), results.get(0).join());
+    assertEquals(3, started.size());
+    assertEquals(2, limiter.inFlight());
+
+    started.get(2).completeExceptionally(new NakadiException(Problem.localProblem("t", "d")));
+    assertTrue(results.get(2).isCompletedExceptionally());
+    assertEquals(4, started.size());
+
+    started.get(1).complete(1);
+    started.get(3).complete(3);
+    assertEquals(5, started.size());
+    assertFalse(results.get(4).isDone());
+
+    started.get(4).complete(4);
+    assertEquals(Integer.valueOf(4), results.get(4).join());
+    assertEquals(0, limiter.inFlight());
+    assertEquals(0, limiter.waiting());
+  }
+
+  @Test
+  public void startsWaitingRequestsThatCompleteAtOnceWithoutRecursing() {
+    final InFlightLimiter limiter = new InFlightLimiter(1);
+    final CompletableFuture<Integer> first = new CompletableFuture<>();
+    limiter.submit(() -> first);
+
+    final int queued = 100_000;
+    final List<CompletableFuture<Integer>> results = new ArrayList<>();
+    for (int i = 0; i < queued; i++) {
+      final int n = i;
+      results.add(limiter.submit(() -> CompletableFuture.completedFuture(n)));
+    }
+    assertEquals(queued, limiter.waiting());
+
+    // each waiting request completes as it starts, which used to start the next one nested
+    first.complete(-1);
+
+    assertEquals(0, limiter.waiting());
+    assertEquals(0, limiter.inFlight());
+    for (int i = 0; i < queued; i++) {
+      assertEquals(i, (int) results.get(i).join());
+    }
+  }
+
+  @Test
+  public void releasesThePermitWhenARequestFailsToStart() {
+    final InFlightLimiter limiter = new InFlightLimiter(1);
+
+    final CompletableFuture<Object> failed = limiter.submit(() -> {
+      throw new NakadiException(Problem.localProblem("t", "d"));
+    });
+
+    assertTrue(failed.isCompletedExceptionally());
+    assertEquals(0, limiter.inFlight());
+
+    final CompletableFuture<String> next = limiter.submit(() -> CompletableFuture.completedFuture("ok"));
+    assertEquals("ok", next.join());
+  }
+}
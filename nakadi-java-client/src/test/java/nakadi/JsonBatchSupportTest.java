@@ -1,10 +1,15 @@
 package nakadi;
 
 import com.google.common.collect.Maps;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -236,6 +241,54 @@ public class JsonBatchSupportTest {
     assertTrue(sbr1.streamBatch().events().size() == 0);
   }
 
+  @Test
+  public void testBytesMarshalMatchesStringMarshal() {
+
+    TypeLiteral<BusinessEventMapped<Map<String, Object>>> eventType =
+        new TypeLiteral<BusinessEventMapped<Map<String, Object>>>() {
+        };
+
+    // pad the array to check the offset and length are respected
+    byte[] line = businessLine.getBytes(StandardCharsets.UTF_8);
+    byte[] padded = new byte[line.length + 6];
+    Arrays.fill(padded, (byte) '{');
+    System.arraycopy(line, 0, padded, 3, line.length);
+
+    StreamBatchRecord<BusinessEventMapped<Map<String, Object>>> fromBytes =
+        support.lineToSubscriptionStreamBatchRecord(
+            padded, 3, line.length, eventType.type(), observer, "s1", "sub1");
+    StreamBatchRecord<BusinessEventMapped<Map<String, Object>>> fromString =
+        support.lineToSubscriptionStreamBatchRecord(
+            businessLine, eventType.type(), observer, "s1", "sub1");
+
+    assertEquals(fromString.streamBatch().cursor(), fromBytes.streamBatch().cursor());
+    assertEquals(fromString.streamBatch().events(), fromBytes.streamBatch().events());
+    assertEquals(fromString.streamCursorContext().context(),
+        fromBytes.streamCursorContext().context());
+  }
+
+  @Test
+  public void recordsShareTheSessionContext() {
+    final Map<String, String> context = new HashMap<>();
+    context.put(StreamResourceSupport.X_NAKADI_STREAM_ID, "s1");
+    final Map<String, String> session = Collections.unmodifiableMap(context);
+    final byte[] line = businessLine.getBytes(StandardCharsets.UTF_8);
+
+    final StreamBatchRecord<String> first = support.lineToStreamBatchRecord(
+        line, 0, line.length, TypeLiterals.OF_STRING.type(), observer, session, false);
+    final StreamBatchRecord<String> second = support.lineToStreamBatchRecord(
+        line, 0, line.length, TypeLiterals.OF_STRING.type(), observer, session, true);
+
+    // neither copied nor rewrapped, per record or per read
+    assertSame(session, first.streamCursorContext().context());
+    assertSame(session, second.streamCursorContext().context());
+    assertSame(first.streamCursorContext(), first.streamCursorContext());
+
+    final StreamBatchRecord<String> eventTypeRecord = support.lineToStreamBatchRecord(
+        line, 0, line.length, TypeLiterals.OF_STRING.type(), observer, null, false);
+    assertTrue(eventTypeRecord.streamCursorContext().context().isEmpty());
+  }
+
   private static class UndefinedPayload {
     String id;
     String foo;
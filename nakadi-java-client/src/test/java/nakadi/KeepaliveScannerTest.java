@@ -0,0 +1,63 @@
+package nakadi;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class KeepaliveScannerTest {
+
+  @Test
+  public void scansEventTypeStreamKeepalive() {
+    final Cursor cursor = scan("{\"cursor\":{\"partition\":\"0\",\"offset\":\"BEGIN\"}}");
+    assertEquals("0", cursor.partition());
+    assertEquals("BEGIN", cursor.offset());
+    assertFalse(cursor.eventType().isPresent());
+    assertFalse(cursor.cursorToken().isPresent());
+  }
+
+  @Test
+  public void scansSubscriptionKeepalive() {
+    final Cursor cursor = scan(" { \"cursor\" : {\"partition\": \"3\","
+        + " \"offset\": \"001-0001-000000000000000042\", \"event_type\": \"et-1\","
+        + " \"cursor_token\": \"b75c3102-98a4-4385-a5fd-b96f1d7872f2\"},"
+        + " \"events\": [ ] } ");
+    assertEquals(new Cursor("3", "001-0001-000000000000000042", "et-1",
+        "b75c3102-98a4-4385-a5fd-b96f1d7872f2"), cursor);
+  }
+
+  @Test
+  public void scansWithinAnOffsetAndLength() {
+    final byte[] line =
+        "xx{\"cursor\":{\"offset\":\"7\",\"partition\":\"1\"}}yy".getBytes(StandardCharsets.UTF_8);
+    final Cursor cursor = KeepaliveScanner.scan(line, 2, line.length - 4);
+    assertEquals(new Cursor("1", "7"), cursor);
+  }
+
+  @Test
+  public void leavesOtherLinesToTheParser() {
+    // a batch with events
+    assertNull(scan(TestSupport.load("data-change-event-batch-oneline-1.json")));
+    // stream info isn't handled by the scanner
+    assertNull(scan("{\"cursor\":{\"partition\":\"0\",\"offset\":\"1\"},\"info\":{\"debug\":\"x\"}}"));
+    // escapes aren't decoded by the scanner
+    assertNull(scan("{\"cursor\":{\"partition\":\"0\",\"offset\":\"\\u0031\"}}"));
+    // a cursor needs a partition and offset
+    assertNull(scan("{\"cursor\":{\"partition\":\"0\"}}"));
+    assertNull(scan("{\"cursor\":{\"partition\":\"0\",\"offset\":1}}"));
+    assertNull(scan("{\"events\":[]}"));
+    assertNull(scan("{}"));
+    // malformed
+    assertNull(scan("{\"cursor\":{\"partition\":\"0\",\"offset\":\"1\"}"));
+    assertNull(scan("{\"cursor\":{\"partition\":\"0\",\"offset\":\"1\"}}}"));
+    assertNull(scan("{\"cursor\":{\"partition\":\"0\",\"offset\":\"1}}"));
+    assertNull(scan(""));
+  }
+
+  private static Cursor scan(String line) {
+    final byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+    return KeepaliveScanner.scan(bytes, 0, bytes.length);
+  }
+}
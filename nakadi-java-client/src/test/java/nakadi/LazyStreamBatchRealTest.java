@@ -0,0 +1,177 @@
+package nakadi;
+
+import com.google.gson.JsonObject;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LazyStreamBatchRealTest {
+
+  private final GsonSupport gsonSupport = new GsonSupport();
+
+  @Test
+  public void lazyEventsMatchEagerBatch() {
+    final String business = TestSupport.load("business-event-batch-1.json");
+    final String undefined = TestSupport.load("undefined-event-batch-1.json");
+    final String dataChange = TestSupport.load("data-change-event-batch-1.json");
+    final String spanCtx = TestSupport.load("business-event-batch-span-ctx.json");
+
+    assertSameEvents(business,
+        new TypeLiteral<BusinessEventMapped<Map<String, Object>>>() {}.type());
+    assertSameEvents(spanCtx,
+        new TypeLiteral<BusinessEventMapped<Map<String, Object>>>() {}.type());
+    assertSameEvents(undefined,
+        new TypeLiteral<UndefinedEventMapped<Map<String, Object>>>() {}.type());
+    assertSameEvents(dataChange,
+        new TypeLiteral<DataChangeEvent<Map<String, Object>>>() {}.type());
+    assertSameEvents(dataChange, new TypeLiteral<String>() {}.type());
+    assertSameEvents(dataChange, new TypeLiteral<JsonObject>() {}.type());
+  }
+
+  @Test
+  public void decodesOnFirstAccessAndKeepsTheResult() {
+    final String line = "{\"cursor\":{\"partition\":\"1\",\"offset\":\"5\"},"
+        + "\"events\":[{\"id\":\"a\",\"n\":[1,{\"x\":\"]}\"}]}, {\"id\":\"b\\\"\"}]}";
+    final LazyStreamBatch<Map<String, Object>> batch =
+        lazy(line, new TypeLiteral<Map<String, Object>>() {}.type());
+
+    assertEquals(new Cursor("1", "5"), batch.cursor());
+    assertEquals(2, batch.size());
+    assertEquals(2, batch.events().size());
+    assertFalse(batch.isEmpty());
+    assertFalse(batch.isDecoded(0));
+    assertFalse(batch.isDecoded(1));
+
+    assertEquals("{\"id\":\"b\\\"\"}", utf8(batch.rawEvent(1)));
+    assertEquals("{\"id\":\"a\",\"n\":[1,{\"x\":\"]}\"}]}", utf8(batch.rawEvents().get(0)));
+    assertFalse(batch.isDecoded(0));
+
+    final Map<String, Object> second = batch.events().get(1);
+    assertEquals("b\"", second.get("id"));
+    assertTrue(batch.isDecoded(1));
+    assertFalse(batch.isDecoded(0));
+    assertSame(second, batch.event(1));
+  }
+
+  @Test
+  public void byteBufferEventsAreNotMarshalled() {
+    final JsonSupport failing = new JsonSupportNoop("no-events") {
+      @Override public <T> T fromJson(String raw, Class<T> c) {
+        return gsonSupport.fromJson(raw, c);
+      }
+
+      @Override public <T> T marshalEvent(byte[] raw, int offset, int length, Type type) {
+        throw new AssertionError("raw events should not be marshalled");
+      }
+    };
+    final byte[] line = ("{\"cursor\":{\"partition\":\"0\",\"offset\":\"1\"},"
+        + "\"events\":[{\"a\":1},\"b\"]}").getBytes(StandardCharsets.UTF_8);
+    final LazyStreamBatch<ByteBuffer> batch = LazyStreamBatchReal.fromLine(
+        line, 0, line.length, TypeLiterals.OF_BYTE_BUFFER.type(), failing);
+
+    assertEquals(new Cursor("0", "1"), batch.cursor());
+    assertTrue(batch.isDecoded(0));
+    assertEquals("{\"a\":1}", utf8(batch.events().get(0)));
+    assertEquals("\"b\"", utf8(batch.event(1)));
+    assertTrue(batch.event(1).isReadOnly());
+  }
+
+  @Test
+  public void rawEventsAreReadOnlyViews() {
+    final LazyStreamBatch<String> batch = lazy(
+        "{\"cursor\":{\"partition\":\"0\",\"offset\":\"1\"},\"events\":[{\"a\":1}]}",
+        new TypeLiteral<String>() {}.type());
+
+    final ByteBuffer raw = batch.rawEvent(0);
+    assertTrue(raw.isReadOnly());
+    assertEquals(0, raw.position());
+    assertEquals(7, raw.remaining());
+  }
+
+  @Test
+  public void copiesTheLine() {
+    final byte[] line = "xx{\"cursor\":{\"partition\":\"0\",\"offset\":\"1\"},\"events\":[\"e\"]}"
+        .getBytes(StandardCharsets.UTF_8);
+    final LazyStreamBatch<String> batch = LazyStreamBatchReal.fromLine(
+        line, 2, line.length - 2, new TypeLiteral<String>() {}.type(), gsonSupport);
+    // the reader reuses its buffer for the next line
+    java.util.Arrays.fill(line, (byte) ' ');
+    assertEquals("\"e\"", utf8(batch.rawEvent(0)));
+  }
+
+  @Test
+  public void handlesEmptyAndMissingEvents() {
+    final Type type = new TypeLiteral<String>() {}.type();
+    assertTrue(lazy("{\"cursor\":{\"partition\":\"0\",\"offset\":\"1\"}}", type).isEmpty());
+    assertTrue(lazy("{\"cursor\":{\"partition\":\"0\",\"offset\":\"1\"},\"events\":[ ]}", type)
+        .isEmpty());
+    assertTrue(lazy("{\"events\":null,\"cursor\":{\"partition\":\"0\",\"offset\":\"1\"},"
+        + "\"info\":{\"debug\":\"x\"}}", type).isEmpty());
+  }
+
+  @Test
+  public void rejectsMalformedLines() {
+    final Type type = new TypeLiteral<String>() {}.type();
+    assertMalformed("{\"events\":[]}", type);
+    assertMalformed("{\"cursor\":{\"partition\":\"0\",\"offset\":\"1\"},\"events\":[{]", type);
+    assertMalformed("{\"cursor\":{\"partition\":\"0\",\"offset\":\"1\"}", type);
+    assertMalformed("{\"cursor\":{\"partition\":\"0\",\"offset\":\"1}}", type);
+
+    final LazyStreamBatch<String> batch = lazy(
+        "{\"cursor\":{\"partition\":\"0\",\"offset\":\"1\"},\"events\":[]}", type);
+    try {
+      batch.event(0);
+      fail("expected an out of range index to be rejected");
+    } catch (IndexOutOfBoundsException ignored) {
+    }
+  }
+
+  @Test
+  public void defaultMarshalEventWrapsTheEventInABatch() {
+    final JsonSupport wrapped = new JsonSupportNoop("gson-batches") {
+      @Override public <T> EventStreamBatch<T> marshalEventStreamBatch(String raw, Type type) {
+        return gsonSupport.marshalEventStreamBatch(raw, type);
+      }
+    };
+
+    final byte[] event = "{\"id\":\"x\"}".getBytes(StandardCharsets.UTF_8);
+    final Map<String, Object> marshalled = wrapped.marshalEvent(
+        event, 0, event.length, new TypeLiteral<Map<String, Object>>() {}.type());
+    assertEquals("x", marshalled.get("id"));
+  }
+
+  private void assertSameEvents(String json, Type type) {
+    final EventStreamBatch<Object> eager = gsonSupport.marshalEventStreamBatch(json, type);
+    final LazyStreamBatch<Object> lazy = lazy(json, type);
+    assertEquals(eager.cursor(), lazy.cursor());
+    assertEquals(eager.events().size(), lazy.size());
+    assertEquals(eager.events(), lazy.events());
+  }
+
+  private void assertMalformed(String line, Type type) {
+    try {
+      lazy(line, type);
+      fail("expected a malformed line to be rejected " + line);
+    } catch (NakadiException ignored) {
+    }
+  }
+
+  private <T> LazyStreamBatch<T> lazy(String line, Type type) {
+    final byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+    return LazyStreamBatchReal.fromLine(bytes, 0, bytes.length, type, gsonSupport);
+  }
+
+  private static String utf8(ByteBuffer buffer) {
+    final byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
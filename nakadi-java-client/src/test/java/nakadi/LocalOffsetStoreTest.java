@@ -0,0 +1,133 @@
+package nakadi;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LocalOffsetStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void keepsTheLatestCursorsAcrossRestarts() throws Exception {
+    final Path path = folder.getRoot().toPath().resolve("offsets");
+    try (LocalOffsetStore store = LocalOffsetStore.open(path)) {
+      store.put("et1", new Cursor("1", "000000000000000007"));
+      store.put("et1", new Cursor("0", "000000000000000003"));
+      store.put("et1", new Cursor("0", "000000000000000004"));
+      store.put("et2", new Cursor("0", "BEGIN"));
+      store.observer("et2").onNext(new StreamCursorContextReal(new Cursor("0", "000000000000000001")));
+    }
+
+    try (LocalOffsetStore store = LocalOffsetStore.open(path)) {
+      assertEquals(Arrays.asList(new Cursor("0", "000000000000000004"),
+          new Cursor("1", "000000000000000007")), store.cursors("et1"));
+      assertEquals(Optional.of(new Cursor("0", "000000000000000001")), store.cursor("et2", "0"));
+      assertEquals(Optional.empty(), store.cursor("et2", "1"));
+      assertEquals(Collections.emptyList(), store.cursors("et3"));
+    }
+  }
+
+  @Test
+  public void compactsWhenTheLogFills() throws Exception {
+    final Path path = folder.getRoot().toPath().resolve("offsets");
+    try (LocalOffsetStore store = LocalOffsetStore.open(path)) {
+      final int capacity = store.capacity();
+      for (int i = 0; i < 100_000; i++) {
+        store.put("et1", new Cursor(String.valueOf(i % 4), String.valueOf(i)));
+      }
+      // a handful of partitions compacts to a handful of records in the same space
+      assertEquals(capacity, store.capacity());
+      assertTrue(store.position() < capacity / 2);
+    }
+
+    try (LocalOffsetStore store = LocalOffsetStore.open(path)) {
+      assertEquals(Arrays.asList(new Cursor("0", "99996"), new Cursor("1", "99997"),
+          new Cursor("2", "99998"), new Cursor("3", "99999")), store.cursors("et1"));
+    }
+  }
+
+  @Test
+  public void growsWhenCompactionIsNotEnough() throws Exception {
+    final Path path = folder.getRoot().toPath().resolve("offsets");
+    try (LocalOffsetStore store = LocalOffsetStore.open(path)) {
+      final int capacity = store.capacity();
+      for (int i = 0; i < 40_000; i++) {
+        store.put("event-type-with-a-longish-name", new Cursor(String.valueOf(i), "BEGIN"));
+      }
+      assertTrue(store.capacity() > capacity);
+    }
+
+    try (LocalOffsetStore store = LocalOffsetStore.open(path)) {
+      assertEquals(40_000, store.cursors("event-type-with-a-longish-name").size());
+    }
+  }
+
+  @Test
+  public void tornRecordsAreIgnored() throws Exception {
+    final Path path = folder.getRoot().toPath().resolve("offsets");
+    final int torn;
+    try (LocalOffsetStore store = LocalOffsetStore.open(path)) {
+      store.put("et1", new Cursor("0", "10"));
+      torn = store.position();
+      store.put("et1", new Cursor("0", "11"));
+    }
+
+    try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+      // flip a byte of the last record's checksum
+      file.seek(torn + 4);
+      final int b = file.read();
+      file.seek(torn + 4);
+      file.write(b ^ 0xff);
+    }
+
+    try (LocalOffsetStore store = LocalOffsetStore.open(path)) {
+      assertEquals(Optional.of(new Cursor("0", "10")), store.cursor("et1", "0"));
+      // and the log carries on from the torn record
+      store.put("et1", new Cursor("0", "12"));
+    }
+
+    try (LocalOffsetStore store = LocalOffsetStore.open(path)) {
+      assertEquals(Optional.of(new Cursor("0", "12")), store.cursor("et1", "0"));
+    }
+  }
+
+  @Test
+  public void seedsConfiguredCursors() throws Exception {
+    final NakadiClient client = NakadiClient.newBuilder().baseURI("http://localhost:9081").build();
+    try (LocalOffsetStore store = LocalOffsetStore.open(folder.newFile().toPath())) {
+      final StreamConfiguration sc = new StreamConfiguration().eventTypeName("et1")
+          .cursors(new Cursor("0", "BEGIN"), new Cursor("1", "BEGIN"));
+      assertSame(sc, store.seed(sc, client));
+
+      store.put("et1", new Cursor("1", "5"));
+      store.put("et1", new Cursor("2", "9"));
+      assertEquals(Arrays.asList(new Cursor("0", "BEGIN"), new Cursor("1", "5")),
+          store.seed(sc, client).cursors().get());
+    }
+  }
+
+  @Test
+  public void rejectsOtherFiles() throws Exception {
+    final Path path = folder.newFile().toPath();
+    Files.write(path, "not offsets".getBytes("UTF-8"));
+    try {
+      LocalOffsetStore.open(path);
+      fail("expected a file that isn't a store to be rejected");
+    } catch (NakadiException e) {
+      assertTrue(e.getMessage().contains("offset_store_open_failed"));
+    }
+  }
+}
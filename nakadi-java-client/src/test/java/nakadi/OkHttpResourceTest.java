@@ -8,11 +8,14 @@ import java.net.InetAddress;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import okhttp3.OkHttpClient;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
+import okio.BufferedSink;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -26,6 +29,7 @@ import static junit.framework.TestCase.assertTrue;
 import static junit.framework.TestCase.fail;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Mockito.mock;
@@ -398,6 +402,53 @@ public class OkHttpResourceTest {
     assertEquals(subscription, fromJson);
   }
 
+  @Test
+  public void streamedBodyEncodingFailureIsNotRetried() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(200));
+    server.enqueue(new MockResponse().setResponseCode(200));
+
+    final AtomicInteger writes = new AtomicInteger();
+    final EncodingException failure =
+        new EncodingException(Problem.localProblem("cannot encode", ""));
+    final ContentSupplier body = new ContentSupplier() {
+      @Override public byte[] content() {
+        throw new AssertionError("expected the body to be streamed");
+      }
+
+      @Override public boolean isStreamed() {
+        return true;
+      }
+
+      @Override public void writeTo(BufferedSink sink) {
+        writes.incrementAndGet();
+        throw failure;
+      }
+    };
+
+    OkHttpResource r = buildResource();
+    ResourceOptions options = buildOptionsWithJsonContent();
+
+    try {
+      r.postEventsThrowing(baseUrl(), options, body);
+      fail("expected the encoding failure");
+    } catch (EncodingException e) {
+      assertSame(failure, e);
+    }
+
+    r.retryPolicy(ExponentialRetry.newBuilder()
+        .initialInterval(10, TimeUnit.MILLISECONDS)
+        .maxAttempts(3)
+        .build());
+    writes.set(0);
+    try {
+      r.postEventsAsync(baseUrl(), options, body).get(10, TimeUnit.SECONDS);
+      fail("expected the encoding failure");
+    } catch (ExecutionException e) {
+      assertSame(failure, e.getCause());
+    }
+    assertEquals(1, writes.get());
+  }
+
   @Test
   public void requestThrowingRetries() throws Exception {
 
@@ -0,0 +1,170 @@
+package nakadi;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PartitionFanOutProcessorTest {
+
+  private static final int MOCK_SERVER_PORT = 8320;
+
+  private final MockWebServer server = new MockWebServer();
+  private final List<String> cursorHeaders = new CopyOnWriteArrayList<>();
+  private final Map<String, Thread> streamThreads = new ConcurrentHashMap<>();
+  private NakadiClient client;
+
+  @Before
+  public void before() throws Exception {
+    server.start(InetAddress.getByName("localhost"), MOCK_SERVER_PORT);
+    client = NakadiClient.newBuilder().baseURI("http://localhost:" + MOCK_SERVER_PORT).build();
+    server.setDispatcher(new Dispatcher() {
+      @Override public MockResponse dispatch(RecordedRequest request) {
+        if (request.getPath().equals("/event-types/foo/partitions")) {
+          return new MockResponse().setResponseCode(200)
+              .setBody("[{\"partition\":\"0\",\"oldest_available_offset\":\"0\","
+                  + "\"newest_available_offset\":\"10\"},"
+                  + "{\"partition\":\"1\",\"oldest_available_offset\":\"0\","
+                  + "\"newest_available_offset\":\"11\"},"
+                  + "{\"partition\":\"2\",\"oldest_available_offset\":\"0\","
+                  + "\"newest_available_offset\":\"12\"}]")
+              .setHeader("Content-Type", "application/json");
+        }
+        if (request.getPath().startsWith("/event-types/foo/events")) {
+          final String header = request.getHeader("X-Nakadi-Cursors");
+          cursorHeaders.add(header);
+          final Cursor first = GsonSupport.gson().fromJson(header, Cursor[].class)[0];
+          final String offset = String.valueOf(Long.parseLong(first.offset()) + 100);
+          return new MockResponse().setResponseCode(200)
+              .setBody("{\"cursor\":{\"partition\":\"" + first.partition() + "\",\"offset\":\""
+                  + offset + "\"},\"events\":[{\"id\":\"" + first.partition() + "\"}]}\n")
+              .setHeader("Content-Type", "application/x-json-stream;charset=UTF-8");
+        }
+        return new MockResponse().setResponseCode(404);
+      }
+    });
+  }
+
+  @After
+  public void after() throws Exception {
+    server.shutdown();
+  }
+
+  @Test
+  public void opensAStreamPerPartitionGroup() throws Exception {
+    final PartitionFanOutProcessor processor = PartitionFanOutProcessor.newBuilder(client)
+        .streamConfiguration(new StreamConfiguration().eventTypeName("foo"))
+        .streamObserverFactory(new CheckpointingObserverProvider())
+        .partitionsPerStream(2)
+        .build();
+
+    assertEquals(2, processor.streamCount());
+    assertEquals(Arrays.asList(new Cursor("0", "10"), new Cursor("1", "11"),
+        new Cursor("2", "12")), processor.cursors());
+
+    processor.start();
+    final long deadline = System.currentTimeMillis() + 3_000;
+    while (streamThreads.size() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    assertTrue(processor.running());
+    processor.stop();
+    assertFalse(processor.running());
+    assertEquals(Optional.empty(), processor.failedProcessorException());
+
+    assertTrue(cursorHeaders.contains(
+        "[{\"partition\":\"0\",\"offset\":\"10\"},{\"partition\":\"1\",\"offset\":\"11\"}]"));
+    assertTrue(cursorHeaders.contains("[{\"partition\":\"2\",\"offset\":\"12\"}]"));
+    // each stream is observed on its own thread
+    assertEquals(2, streamThreads.size());
+    assertEquals(2, streamThreads.values().stream().distinct().count());
+
+    // checkpoints are kept per partition, the unread partition keeps its starting cursor
+    assertEquals(Arrays.asList(new Cursor("0", "110"), new Cursor("1", "11"),
+        new Cursor("2", "112")), processor.cursors());
+  }
+
+  @Test
+  public void configuredCursorsChooseThePartitions() {
+    final PartitionFanOutProcessor processor = PartitionFanOutProcessor.newBuilder(client)
+        .streamConfiguration(new StreamConfiguration().eventTypeName("foo")
+            .cursors(new Cursor("3", "BEGIN"), new Cursor("5", "7")))
+        .streamObserverFactory(new LoggingStreamObserverProvider())
+        .build();
+
+    assertEquals(2, processor.streamCount());
+    assertEquals(Arrays.asList(new Cursor("3", "BEGIN"), new Cursor("5", "7")),
+        processor.cursors());
+    assertEquals(0, server.getRequestCount());
+  }
+
+  @Test
+  public void reconnectsResumeFromTheirOwnCheckpoints() {
+    final List<StreamCursorContext> seen = new CopyOnWriteArrayList<>();
+    final StreamConfiguration sc = new StreamConfiguration().eventTypeName("foo").batchLimit(5);
+    final PartitionStreamCursors cursors = new PartitionStreamCursors(sc,
+        Arrays.asList(new Cursor("0", "1"), new Cursor("1", "2")), seen::add);
+
+    cursors.onNext(context(new Cursor("1", "9")));
+    // another stream's partition is passed on but doesn't leak into this stream's header
+    cursors.onNext(context(new Cursor("4", "3")));
+
+    assertEquals(2, seen.size());
+    final StreamConfiguration resumed = cursors.configuration();
+    assertEquals(Arrays.asList(new Cursor("0", "1"), new Cursor("1", "9")),
+        resumed.cursors().get());
+    assertEquals(5, resumed.batchLimit());
+    assertEquals("foo", resumed.eventTypeName());
+    assertFalse(sc.cursors().isPresent());
+  }
+
+  @Test
+  public void subscriptionsCannotFanOut() {
+    try {
+      PartitionFanOutProcessor.newBuilder(client)
+          .streamConfiguration(new StreamConfiguration().subscriptionId("s1"))
+          .streamObserverFactory(new LoggingStreamObserverProvider())
+          .build();
+      fail("expected a subscription stream to be rejected");
+    } catch (NakadiException e) {
+      assertEquals(0, server.getRequestCount());
+    }
+  }
+
+  private StreamCursorContext context(Cursor cursor) {
+    return new StreamCursorContextReal(cursor, Collections.emptyMap());
+  }
+
+  private class CheckpointingObserverProvider implements StreamObserverProvider<String> {
+
+    @Override public StreamObserver<String> createStreamObserver() {
+      return new LoggingStreamObserver() {
+        @Override public void onNext(StreamBatchRecord<String> record) {
+          final Cursor cursor = record.streamBatch().cursor();
+          streamThreads.putIfAbsent(cursor.partition(), Thread.currentThread());
+          record.streamOffsetObserver().onNext(record.streamCursorContext());
+        }
+      };
+    }
+
+    @Override public TypeLiteral<String> typeLiteral() {
+      return TypeLiterals.OF_STRING;
+    }
+  }
+}
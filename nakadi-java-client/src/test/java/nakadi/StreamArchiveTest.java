@@ -0,0 +1,208 @@
+package nakadi;
+
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StreamArchiveTest {
+
+  private static final int MOCK_SERVER_PORT = 8322;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final NakadiClient client =
+      NakadiClient.newBuilder().baseURI("http://localhost:9081").build();
+  private final List<Cursor> replayed = new ArrayList<>();
+  private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+  @Test
+  public void replaysEverythingInOrder() throws Exception {
+    final Path directory = folder.getRoot().toPath();
+    final List<Cursor> appended = appendBatches(directory, 200);
+
+    assertTrue(StreamArchive.segments(directory).size() > 1);
+    assertEquals(200, replay(directory));
+    assertEquals(appended, replayed);
+    assertNull(error.get());
+  }
+
+  @Test
+  public void replaysPartitionsAfterTheirCursors() throws Exception {
+    final Path directory = folder.getRoot().toPath();
+    appendBatches(directory, 200);
+
+    assertEquals(25, replay(directory, new Cursor("0", offset(149))));
+    for (Cursor cursor : replayed) {
+      assertEquals("0", cursor.partition());
+      assertTrue(StreamArchive.compareOffsets(cursor.offset(), offset(149)) > 0);
+    }
+
+    replayed.clear();
+    assertEquals(0, replay(directory, new Cursor("0", offset(199))));
+    assertEquals(100, replay(directory, new Cursor("1", "BEGIN")));
+  }
+
+  @Test
+  public void seeksPastEarlierSegments() throws Exception {
+    final Path directory = folder.getRoot().toPath();
+    appendBatches(directory, 200);
+
+    final List<StreamArchive.Segment> segments = StreamArchive.segments(directory);
+    final StreamArchiveReplay.Position start = StreamArchiveReplay.startPosition(segments,
+        Collections.singletonMap(StreamArchive.key(new Cursor("0", offset(149))),
+            offset(149)));
+    assertTrue(start.segment > 0 || start.position > 0);
+    assertNull(StreamArchiveReplay.startPosition(segments,
+        Collections.singletonMap("/0", offset(199))));
+  }
+
+  @Test
+  public void readsUpToACutOffMember() throws Exception {
+    final Path directory = folder.getRoot().toPath();
+    try (StreamArchive archive = StreamArchive.newBuilder()
+        .directory(directory)
+        .indexIntervalBytes(1024)
+        .build()) {
+      for (int i = 0; i < 40; i++) {
+        append(archive, new Cursor("0", offset(i)));
+      }
+    }
+
+    final Path segment = StreamArchive.segments(directory).get(0).data;
+    try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+      file.setLength(file.length() - 20);
+    }
+
+    final long count = replay(directory, new Cursor("0", "BEGIN"));
+    assertTrue(count > 0 && count < 40);
+    assertEquals(offset(0), replayed.get(0).offset());
+    assertNull(error.get());
+  }
+
+  @Test
+  public void deletesExpiredSegments() throws Exception {
+    final Path directory = folder.getRoot().toPath();
+    try (StreamArchive archive = StreamArchive.newBuilder()
+        .directory(directory)
+        .segmentBytes(64)
+        .indexIntervalBytes(64)
+        .retention(1, TimeUnit.MILLISECONDS)
+        .build()) {
+      for (int i = 0; i < 5; i++) {
+        append(archive, new Cursor("0", offset(i)));
+        Thread.sleep(20);
+      }
+    }
+
+    // each segment removes the ones before it
+    assertEquals(1, StreamArchive.segments(directory).size());
+  }
+
+  @Test
+  public void comparesOffsets() {
+    assertTrue(StreamArchive.compareOffsets("BEGIN", "000000000000000000") < 0);
+    assertTrue(StreamArchive.compareOffsets("000000000000000010", "000000000000000009") > 0);
+    assertTrue(StreamArchive.compareOffsets("9", "10") < 0);
+    assertEquals(0, StreamArchive.compareOffsets("001-0001-000000000000000001",
+        "001-0001-000000000000000001"));
+  }
+
+  @Test
+  public void archivesWhatTheProcessorReceives() throws Exception {
+    final MockWebServer server = new MockWebServer();
+    server.start(InetAddress.getByName("localhost"), MOCK_SERVER_PORT);
+    final Path directory = folder.getRoot().toPath();
+
+    try (StreamArchive archive = StreamArchive.newBuilder().directory(directory).build()) {
+      server.enqueue(new MockResponse().setResponseCode(200)
+          .setBody(TestSupport.load("data-change-event-batch-oneline-1.json")
+              + "\n{\"cursor\":{\"partition\":\"0\",\"offset\":\"95\"}}\n")
+          .setHeader("Content-Type", "application/x-json-stream;charset=UTF-8"));
+
+      final NakadiClient client = NakadiClient.newBuilder()
+          .baseURI("http://localhost:" + MOCK_SERVER_PORT)
+          .build();
+
+      final StreamProcessor processor = client.resources().streamBuilder()
+          .streamConfiguration(new StreamConfiguration().eventTypeName("foo").streamLimit(1))
+          .streamObserverFactory(new LoggingStreamObserverProvider())
+          .archive(archive)
+          .build();
+
+      processor.start();
+      Thread.sleep(1000L);
+      processor.stop();
+    } finally {
+      server.shutdown();
+    }
+
+    // the keepalive isn't archived
+    assertEquals(1, replay(directory));
+    assertEquals(new Cursor("0", "95"), replayed.get(0));
+  }
+
+  private List<Cursor> appendBatches(Path directory, int count) {
+    final List<Cursor> appended = new ArrayList<>();
+    try (StreamArchive archive = StreamArchive.newBuilder()
+        .directory(directory)
+        .segmentBytes(4 * 1024)
+        .indexIntervalBytes(512)
+        .build()) {
+      for (int i = 0; i < count; i++) {
+        // interleave two partitions, each with its own increasing offsets
+        final Cursor cursor = new Cursor(String.valueOf(i % 2), offset(i));
+        append(archive, cursor);
+        appended.add(cursor);
+      }
+    }
+    return appended;
+  }
+
+  private void append(StreamArchive archive, Cursor cursor) {
+    final byte[] line = ("{\"cursor\":{\"partition\":\"" + cursor.partition()
+        + "\",\"offset\":\"" + cursor.offset() + "\"},\"events\":[{\"id\":\"" + cursor.offset()
+        + "\"}]}").getBytes(StandardCharsets.UTF_8);
+    archive.append(cursor, line, 0, line.length);
+  }
+
+  private static String offset(int i) {
+    return String.format("%018d", i);
+  }
+
+  private long replay(Path directory, Cursor... cursors) {
+    return StreamArchiveReplay.newBuilder(client)
+        .directory(directory)
+        .cursors(cursors)
+        .streamObserverFactory(new LoggingStreamObserverProvider() {
+          @Override public StreamObserver<String> createStreamObserver() {
+            return new LoggingStreamObserver() {
+              @Override public void onNext(StreamBatchRecord<String> record) {
+                replayed.add(record.streamBatch().cursor());
+              }
+
+              @Override public void onError(Throwable e) {
+                error.set(e);
+              }
+            };
+          }
+        })
+        .build()
+        .run();
+  }
+}
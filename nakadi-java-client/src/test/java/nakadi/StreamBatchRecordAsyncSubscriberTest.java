@@ -0,0 +1,182 @@
+package nakadi;
+
+import io.reactivex.Flowable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamBatchRecordAsyncSubscriberTest {
+
+  private final List<Cursor> committed = new CopyOnWriteArrayList<>();
+  private final StreamOffsetObserver offsetObserver = context -> committed.add(context.cursor());
+  private final List<CompletableFuture<Void>> stages = new ArrayList<>();
+  private final AtomicReference<Throwable> error = new AtomicReference<>();
+  private final AtomicReference<Throwable> stopped = new AtomicReference<>();
+  private boolean completed;
+
+  @Test
+  public void commitsTheContiguousWatermarkPerPartition() {
+    subscribe(8, record("0", 1), record("1", 1), record("0", 2), record("0", 3));
+    assertEquals(4, stages.size());
+
+    // partition 0's later batches can't be committed ahead of its first
+    stages.get(2).complete(null);
+    stages.get(3).complete(null);
+    assertTrue(committed.isEmpty());
+
+    stages.get(1).complete(null);
+    assertEquals(Arrays.asList(new Cursor("1", "1")), committed);
+
+    stages.get(0).complete(null);
+    assertEquals(Arrays.asList(new Cursor("1", "1"), new Cursor("0", "3")), committed);
+    assertTrue(completed);
+  }
+
+  @Test
+  public void keepsAtMostMaxBatchesInFlight() {
+    subscribe(2, record("0", 1), record("0", 2), record("0", 3), record("0", 4));
+    assertEquals(2, stages.size());
+
+    stages.get(1).complete(null);
+    assertEquals(3, stages.size());
+    stages.get(0).complete(null);
+    assertEquals(4, stages.size());
+    assertEquals(Arrays.asList(new Cursor("0", "2")), committed);
+
+    stages.get(3).complete(null);
+    stages.get(2).complete(null);
+    assertEquals(Arrays.asList(new Cursor("0", "2"), new Cursor("0", "4")), committed);
+  }
+
+  @Test
+  public void retryableFailuresAreSkippedSoThePartitionKeepsCommitting() {
+    subscribe(8, record("0", 1), record("0", 2), record("1", 1));
+
+    stages.get(0).completeExceptionally(new RuntimeException("sink unavailable"));
+    stages.get(1).complete(null);
+    stages.get(2).complete(null);
+
+    assertEquals(Arrays.asList(new Cursor("0", "2"), new Cursor("1", "1")), committed);
+    assertEquals(null, error.get());
+  }
+
+  @Test
+  public void eventTypeStreamKeepsCommittingAfterARetryableFailure() {
+    // an event type stream has no session id, so its watermarks are never replaced
+    subscribe(2, record("0", 1), record("0", 2), record("0", 3), record("0", 4));
+    assertEquals(2, stages.size());
+
+    stages.get(0).completeExceptionally(new IOException("sink timed out"));
+    assertTrue(committed.isEmpty());
+    assertEquals(3, stages.size());
+
+    // the failed batch's own cursor is never committed
+    stages.get(2).complete(null);
+    assertTrue(committed.isEmpty());
+    assertEquals(4, stages.size());
+    stages.get(1).complete(null);
+    assertEquals(Arrays.asList(new Cursor("0", "3")), committed);
+
+    stages.get(3).complete(null);
+    assertEquals(Arrays.asList(new Cursor("0", "3"), new Cursor("0", "4")), committed);
+    assertTrue(completed);
+  }
+
+  @Test
+  public void nonRetryableFailuresStopTheObserver() {
+    subscribe(8, record("0", 1), record("0", 2));
+
+    final NonRetryableNakadiException fatal =
+        new NonRetryableNakadiException(Problem.localProblem("fatal", ""));
+    stages.get(0).completeExceptionally(fatal);
+    stages.get(1).complete(null);
+
+    assertEquals(fatal, error.get());
+    assertEquals(fatal, stopped.get());
+    assertTrue(committed.isEmpty());
+  }
+
+  @Test
+  public void oldSessionsAreNotCommitted() {
+    subscribe(8, sessionRecord("s1", 1), sessionRecord("s2", 1));
+
+    stages.get(1).complete(null);
+    stages.get(0).complete(null);
+
+    assertEquals(1, committed.size());
+    assertEquals("1", committed.get(0).offset());
+  }
+
+  @SafeVarargs
+  private final void subscribe(int maxInFlight, StreamBatchRecord<String>... records) {
+    Flowable.fromArray(records).subscribe(new StreamBatchRecordAsyncSubscriber<>(
+        new RecordingObserver(maxInFlight), new MetricCollectorDevnull(), stopped::set));
+  }
+
+  private StreamBatchRecord<String> record(String partition, int offset) {
+    return new StreamBatchRecordReal<>(new EventStreamBatch<>(
+        new Cursor(partition, String.valueOf(offset)), null, Arrays.asList("e" + offset)),
+        offsetObserver);
+  }
+
+  private StreamBatchRecord<String> sessionRecord(String session, int offset) {
+    final Map<String, String> context = new HashMap<>();
+    context.put(StreamResourceSupport.X_NAKADI_STREAM_ID, session);
+    return new StreamBatchRecordReal<>(new EventStreamBatch<>(
+        new Cursor("0", String.valueOf(offset), "et", "t"), null, Arrays.asList("e")),
+        offsetObserver, context);
+  }
+
+  private class RecordingObserver implements StreamObserverAsync<String> {
+
+    private final int maxInFlight;
+
+    RecordingObserver(int maxInFlight) {
+      this.maxInFlight = maxInFlight;
+    }
+
+    @Override public CompletionStage<Void> onNextAsync(StreamBatchRecord<String> record) {
+      final CompletableFuture<Void> stage = new CompletableFuture<>();
+      stages.add(stage);
+      return stage;
+    }
+
+    @Override public int maxBatchesInFlight() {
+      return maxInFlight;
+    }
+
+    @Override public void onStart() {
+    }
+
+    @Override public void onStop() {
+    }
+
+    @Override public void onCompleted() {
+      completed = true;
+    }
+
+    @Override public void onError(Throwable t) {
+      error.set(t);
+    }
+
+    @Override public Optional<Long> requestBackPressure() {
+      return Optional.empty();
+    }
+
+    @Override public Optional<Integer> requestBuffer() {
+      return Optional.empty();
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package nakadi;
+
+import io.reactivex.processors.PublishProcessor;
+import io.reactivex.schedulers.TestScheduler;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StreamBatchRecordCoalescingSubscriberTest {
+
+  private final StreamOffsetObserver offsetObserver = context -> {
+  };
+  private final TestScheduler scheduler = new TestScheduler();
+  private final List<StreamBatchRecord<String>> delivered = new ArrayList<>();
+  private final PublishProcessor<StreamBatchRecord<String>> batches = PublishProcessor.create();
+
+  @Test
+  public void mergesUntilTheEventBound() {
+    subscribe(new StreamCoalescing().maxEvents(4));
+
+    batches.onNext(record("0", 1, "a", "b"));
+    batches.onNext(record("1", 1, "c"));
+    assertTrue(delivered.isEmpty());
+    batches.onNext(record("0", 2, "d"));
+    batches.onNext(record("1", 2, "e"));
+
+    assertEquals(1, delivered.size());
+    final StreamBatchRecord<String> merged = delivered.get(0);
+    assertEquals(Arrays.asList("a", "b", "c", "d"), merged.streamBatch().events());
+    assertEquals(new Cursor("0", "2"), merged.streamBatch().cursor());
+    assertEquals(new Cursor("0", "2"), merged.streamCursorContext().cursor());
+    assertEquals(Arrays.asList(new Cursor("0", "2"), new Cursor("1", "1")),
+        merged.streamBatch().cursors());
+    assertEquals(2, merged.streamCursorContexts().size());
+    assertEquals(new Cursor("1", "1"), merged.streamCursorContexts().get(1).cursor());
+    assertSame(offsetObserver, merged.streamOffsetObserver());
+
+    // the lingering fifth event goes out alone, as its own record
+    scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+    assertEquals(2, delivered.size());
+    assertEquals(Arrays.asList("e"), delivered.get(1).streamBatch().events());
+    assertEquals(Arrays.asList(new Cursor("1", "2")), delivered.get(1).streamBatch().cursors());
+  }
+
+  @Test
+  public void mergesUntilTheByteBound() {
+    subscribe(new StreamCoalescing().maxBytes(100));
+
+    batches.onNext(record("0", 1, "a").sizeInBytes(60));
+    assertTrue(delivered.isEmpty());
+    batches.onNext(record("0", 2, "b").sizeInBytes(40));
+
+    assertEquals(1, delivered.size());
+    assertEquals(Arrays.asList("a", "b"), delivered.get(0).streamBatch().events());
+  }
+
+  @Test
+  public void deliversWhatItHasAfterTheLinger() {
+    subscribe(new StreamCoalescing().maxLinger(200, TimeUnit.MILLISECONDS));
+
+    batches.onNext(record("0", 1, "a"));
+    scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+    batches.onNext(record("0", 2, "b"));
+    assertTrue(delivered.isEmpty());
+
+    // the linger runs from the first held batch
+    scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+    assertEquals(1, delivered.size());
+    assertEquals(Arrays.asList("a", "b"), delivered.get(0).streamBatch().events());
+
+    scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+    assertEquals(1, delivered.size());
+  }
+
+  @Test
+  public void staleLingerDoesNotCutTheNextMergeShort() {
+    subscribe(new StreamCoalescing().maxEvents(2).maxLinger(200, TimeUnit.MILLISECONDS));
+
+    batches.onNext(record("0", 1, "a"));
+    batches.onNext(record("0", 2, "b"));
+    assertEquals(1, delivered.size());
+
+    scheduler.advanceTimeBy(150, TimeUnit.MILLISECONDS);
+    batches.onNext(record("0", 3, "c"));
+    scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+    assertEquals(1, delivered.size());
+    scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+    assertEquals(2, delivered.size());
+  }
+
+  @Test
+  public void keepsSubscriptionSessionsApart() {
+    subscribe(new StreamCoalescing());
+
+    batches.onNext(subscriptionRecord("s1", "0", 1, "a"));
+    batches.onNext(subscriptionRecord("s1", "0", 2, "b"));
+    batches.onNext(subscriptionRecord("s2", "0", 2, "c"));
+
+    assertEquals(1, delivered.size());
+    final StreamBatchRecord<String> merged = delivered.get(0);
+    assertEquals(Arrays.asList("a", "b"), merged.streamBatch().events());
+    assertEquals("s1", merged.streamCursorContexts().get(0).context()
+        .get(StreamResourceSupport.X_NAKADI_STREAM_ID));
+
+    batches.onComplete();
+    assertEquals(2, delivered.size());
+    assertEquals(Arrays.asList("c"), delivered.get(1).streamBatch().events());
+  }
+
+  private void subscribe(StreamCoalescing coalescing) {
+    batches.subscribe(new StreamBatchRecordCoalescingSubscriber<>(new RecordingObserver(),
+        new MetricCollectorDevnull(), coalescing, scheduler));
+  }
+
+  private StreamBatchRecordReal<String> record(String partition, int offset, String... events) {
+    return new StreamBatchRecordReal<>(new EventStreamBatch<>(
+        new Cursor(partition, String.valueOf(offset)), null, Arrays.asList(events)),
+        offsetObserver);
+  }
+
+  private StreamBatchRecordReal<String> subscriptionRecord(String session, String partition,
+      int offset, String... events) {
+    final Map<String, String> context = new HashMap<>();
+    context.put(StreamResourceSupport.X_NAKADI_STREAM_ID, session);
+    context.put(StreamResourceSupport.SUBSCRIPTION_ID, "sub");
+    return new StreamBatchRecordReal<>(new EventStreamBatch<>(
+        new Cursor(partition, String.valueOf(offset), "et", "t"), null, Arrays.asList(events)),
+        offsetObserver, context);
+  }
+
+  private class RecordingObserver implements StreamObserver<String> {
+
+    @Override public void onStart() {
+    }
+
+    @Override public void onStop() {
+    }
+
+    @Override public void onCompleted() {
+    }
+
+    @Override public void onError(Throwable t) {
+    }
+
+    @Override public void onNext(StreamBatchRecord<String> record) {
+      delivered.add(record);
+    }
+
+    @Override public Optional<Long> requestBackPressure() {
+      return Optional.empty();
+    }
+
+    @Override public Optional<Integer> requestBuffer() {
+      return Optional.empty();
+    }
+  }
+}
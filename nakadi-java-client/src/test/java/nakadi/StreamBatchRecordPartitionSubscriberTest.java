@@ -0,0 +1,245 @@
+package nakadi;
+
+import io.reactivex.Flowable;
+import io.reactivex.plugins.RxJavaPlugins;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StreamBatchRecordPartitionSubscriberTest {
+
+  private final StreamOffsetObserver offsetObserver = context -> {
+  };
+
+  @After
+  public void tearDown() {
+    RxJavaPlugins.reset();
+  }
+
+  @Test
+  public void lanesForNumberedPartitions() {
+    assertEquals(0, StreamBatchRecordPartitionSubscriber.lane("0", 4));
+    assertEquals(3, StreamBatchRecordPartitionSubscriber.lane("3", 4));
+    assertEquals(1, StreamBatchRecordPartitionSubscriber.lane("5", 4));
+    final int lane = StreamBatchRecordPartitionSubscriber.lane("p-a", 4);
+    assertTrue(lane >= 0 && lane < 4);
+    assertEquals(lane, StreamBatchRecordPartitionSubscriber.lane("p-a", 4));
+  }
+
+  @Test
+  public void ordersWithinPartitionsAndRunsLanesInParallel() throws Exception {
+    final int partitions = 4;
+    final int batchesPerPartition = 50;
+    final Map<String, List<Integer>> seen = new ConcurrentHashMap<>();
+    final Map<String, Set<String>> threads = new ConcurrentHashMap<>();
+    final CountDownLatch completed = new CountDownLatch(1);
+
+    final RecordingObserver observer = new RecordingObserver() {
+      @Override public void onNext(StreamBatchRecord<String> record) {
+        final String partition = record.streamBatch().cursor().partition();
+        seen.computeIfAbsent(partition, p -> Collections.synchronizedList(new ArrayList<>()))
+            .add(Integer.parseInt(record.streamBatch().cursor().offset()));
+        threads.computeIfAbsent(partition, p -> ConcurrentHashMap.newKeySet())
+            .add(Thread.currentThread().getName());
+      }
+
+      @Override public void onCompleted() {
+        completed.countDown();
+      }
+    };
+
+    final List<StreamBatchRecord<String>> records = new ArrayList<>();
+    for (int offset = 0; offset < batchesPerPartition; offset++) {
+      for (int p = 0; p < partitions; p++) {
+        records.add(record(String.valueOf(p), offset));
+      }
+    }
+
+    final StreamBatchRecordPartitionSubscriber<String> subscriber =
+        new StreamBatchRecordPartitionSubscriber<>(observer, new MetricCollectorDevnull(),
+            partitions, 8, Executors.defaultThreadFactory(), t -> {
+            });
+    Flowable.fromIterable(records).subscribe(subscriber);
+
+    assertTrue(completed.await(10, TimeUnit.SECONDS));
+    assertEquals(partitions, seen.size());
+
+    final Set<String> allThreads = ConcurrentHashMap.newKeySet();
+    for (int p = 0; p < partitions; p++) {
+      final List<Integer> offsets = seen.get(String.valueOf(p));
+      assertEquals(batchesPerPartition, offsets.size());
+      for (int i = 0; i < batchesPerPartition; i++) {
+        assertEquals("partition " + p + " out of order", i, (int) offsets.get(i));
+      }
+      // a partition is always processed on the same lane
+      assertEquals(1, threads.get(String.valueOf(p)).size());
+      allThreads.addAll(threads.get(String.valueOf(p)));
+    }
+    assertEquals(partitions, allThreads.size());
+    subscriber.dispose();
+  }
+
+  @Test
+  public void boundsBatchesInFlight() throws Exception {
+    final int maxInFlight = 3;
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger requested = new AtomicInteger();
+    final AtomicInteger delivered = new AtomicInteger();
+
+    final RecordingObserver observer = new RecordingObserver() {
+      @Override public void onNext(StreamBatchRecord<String> record) {
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        delivered.incrementAndGet();
+      }
+    };
+
+    final List<StreamBatchRecord<String>> records = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      records.add(record("0", i));
+    }
+
+    final StreamBatchRecordPartitionSubscriber<String> subscriber =
+        new StreamBatchRecordPartitionSubscriber<>(observer, new MetricCollectorDevnull(),
+            2, maxInFlight, Executors.defaultThreadFactory(), t -> {
+            });
+    Flowable.fromIterable(records)
+        .doOnRequest(n -> requested.addAndGet((int) n))
+        .subscribe(subscriber);
+
+    Thread.sleep(200);
+    assertEquals(maxInFlight, requested.get());
+
+    release.countDown();
+    final long deadline = System.currentTimeMillis() + 10_000;
+    while (delivered.get() < 20 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(20, delivered.get());
+    subscriber.dispose();
+  }
+
+  @Test
+  public void nonRetryableLaneErrorStopsTheSubscriber() throws Exception {
+    final AtomicReference<Throwable> pluginError = new AtomicReference<>();
+    RxJavaPlugins.setErrorHandler(pluginError::set);
+    final AtomicReference<Throwable> stopped = new AtomicReference<>();
+    final CountDownLatch handled = new CountDownLatch(1);
+
+    final IllegalStateException failure = new IllegalStateException("lane failure");
+    final List<Throwable> observerErrors = new CopyOnWriteArrayList<>();
+    final AtomicInteger delivered = new AtomicInteger();
+
+    final RecordingObserver observer = new RecordingObserver() {
+      @Override public void onNext(StreamBatchRecord<String> record) {
+        delivered.incrementAndGet();
+        if (record.streamBatch().cursor().partition().equals("1")) {
+          throw failure;
+        }
+      }
+
+      @Override public void onError(Throwable t) {
+        observerErrors.add(t);
+      }
+    };
+
+    final StreamBatchRecordPartitionSubscriber<String> subscriber =
+        new StreamBatchRecordPartitionSubscriber<>(observer, new MetricCollectorDevnull(),
+            2, 1, Executors.defaultThreadFactory(), t -> {
+              stopped.set(t);
+              handled.countDown();
+            });
+    Flowable.just(record("0", 0), record("1", 0), record("0", 1), record("0", 2))
+        .subscribe(subscriber);
+
+    assertTrue(handled.await(10, TimeUnit.SECONDS));
+    assertSame(failure, stopped.get());
+    // the processor is stopped through its own callback, not the jvm wide rx handler
+    assertNull(pluginError.get());
+    assertEquals(1, observerErrors.size());
+    assertSame(failure, observerErrors.get(0));
+    assertTrue(subscriber.isDisposed());
+    // with one batch in flight nothing is requested after the failing batch
+    assertEquals(2, delivered.get());
+  }
+
+  @Test
+  public void retryableLaneErrorContinues() throws Exception {
+    final CountDownLatch completed = new CountDownLatch(1);
+    final AtomicInteger delivered = new AtomicInteger();
+
+    final RecordingObserver observer = new RecordingObserver() {
+      @Override public void onNext(StreamBatchRecord<String> record) {
+        delivered.incrementAndGet();
+        throw new RetryableException(Problem.localProblem("retry", "retry"));
+      }
+
+      @Override public void onCompleted() {
+        completed.countDown();
+      }
+    };
+
+    final StreamBatchRecordPartitionSubscriber<String> subscriber =
+        new StreamBatchRecordPartitionSubscriber<>(observer, new MetricCollectorDevnull(),
+            2, 1, Executors.defaultThreadFactory(), t -> {
+            });
+    Flowable.just(record("0", 0), record("1", 0), record("0", 1)).subscribe(subscriber);
+
+    assertTrue(completed.await(10, TimeUnit.SECONDS));
+    assertEquals(3, delivered.get());
+    subscriber.dispose();
+  }
+
+  private StreamBatchRecord<String> record(String partition, int offset) {
+    final EventStreamBatch<String> batch = new EventStreamBatch<>(
+        new Cursor(partition, String.valueOf(offset)), null,
+        Collections.singletonList("e" + offset));
+    return new StreamBatchRecordReal<>(batch, offsetObserver);
+  }
+
+  private static class RecordingObserver implements StreamObserver<String> {
+
+    @Override public void onStart() {
+    }
+
+    @Override public void onStop() {
+    }
+
+    @Override public void onCompleted() {
+    }
+
+    @Override public void onError(Throwable t) {
+    }
+
+    @Override public void onNext(StreamBatchRecord<String> record) {
+    }
+
+    @Override public Optional<Long> requestBackPressure() {
+      return Optional.empty();
+    }
+
+    @Override public Optional<Integer> requestBuffer() {
+      return Optional.empty();
+    }
+  }
+}
@@ -1,16 +1,24 @@
 package nakadi;
 
 import com.google.common.collect.Maps;
+import io.reactivex.plugins.RxJavaPlugins;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import junit.framework.TestCase;
 import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
@@ -389,6 +397,61 @@ public class StreamProcessorTest {
     assertTrue("Expecting NonRetryableNakadiException to not be retryable",  raised[0]);
   }
 
+  @Test
+  public void laneFailureStopsItsOwnProcessorWhenAnotherOwnsTheRxHandler() throws Exception {
+
+    server.enqueue(new MockResponse().setResponseCode(200)
+        .setBody(batch)
+        .setHeader("Content-Type", "application/x-json-stream;charset=UTF-8")
+    );
+
+    NakadiClient client =
+        NakadiClient.newBuilder().baseURI("http://localhost:" + MOCK_SERVER_PORT).build();
+
+    StreamConfiguration sc = new StreamConfiguration()
+        .eventTypeName("foo")
+        .connectTimeout(3, TimeUnit.SECONDS)
+        .readTimeout(3, TimeUnit.SECONDS);
+
+    CountDownLatch latch = new CountDownLatch(1);
+
+    final LoggingStreamObserverProvider provider =
+        new LoggingStreamObserverProvider() {
+          @Override public StreamObserver<String> createStreamObserver() {
+            return new LoggingStreamObserver() {
+              @Override public void onNext(StreamBatchRecord<String> record) {
+                throw new NonRetryableNakadiException(Problem.localProblem("nope", "nope"));
+              }
+
+              @Override public void onStop() {
+                latch.countDown();
+              }
+            };
+          }
+        };
+
+    final StreamProcessor processor = client.resources()
+        .streamBuilder()
+        .streamConfiguration(sc)
+        .streamObserverFactory(provider)
+        .partitionLanes(2)
+        .build();
+
+    try {
+      processor.start();
+      // as if another processor in the jvm had started after this one
+      RxJavaPlugins.setErrorHandler(t -> {
+      });
+
+      assertTrue(latch.await(8, TimeUnit.SECONDS));
+      assertFalse(processor.running());
+      assertTrue(processor.failedProcessorException().get() instanceof NonRetryableNakadiException);
+    } finally {
+      processor.stop();
+      RxJavaPlugins.reset();
+    }
+  }
+
   @Test
   public void consumerDoesNotRetryErrorsFromStreamConnection() throws Exception {
 
@@ -712,6 +775,46 @@ public class StreamProcessorTest {
     TestCase.assertEquals("gzip", request.getHeaders().get("Accept-Encoding"));
   }
 
+  @Test
+  public void offsetStoreSeedsAndRecordsCursors() throws Exception {
+
+    final Path path = Files.createTempFile("offsets", ".log");
+    try (LocalOffsetStore store = LocalOffsetStore.open(path)) {
+      store.put("foo", new Cursor("0", "50"));
+
+      server.enqueue(new MockResponse().setResponseCode(200)
+          .setBody(batch)
+          .setHeader("Content-Type", "application/x-json-stream;charset=UTF-8"));
+
+      NakadiClient client = NakadiClient.newBuilder()
+          .baseURI("http://localhost:" + MOCK_SERVER_PORT)
+          .build();
+
+      StreamConfiguration sc = new StreamConfiguration()
+          .eventTypeName("foo")
+          .cursors(new Cursor("0", "BEGIN"))
+          .streamLimit(1);
+
+      StreamProcessor processor = client.resources()
+          .streamBuilder()
+          .streamConfiguration(sc)
+          .streamObserverFactory(new LoggingStreamObserverProvider())
+          .offsetStore(store)
+          .build();
+
+      processor.start();
+      Thread.sleep(1000L);
+      processor.stop();
+
+      // the stored offset replaces the configured one, and the batch's cursor is stored
+      RecordedRequest request = server.takeRequest();
+      TestCase.assertTrue(request.getHeader("X-Nakadi-Cursors").contains("\"50\""));
+      assertEquals(Optional.of(new Cursor("0", "95")), store.cursor("foo", "0"));
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
   @Test
   public void defaultNoScope() {
 
@@ -994,6 +1097,268 @@ public class StreamProcessorTest {
     verify(observer, times(1)).onNext(streamCursorContext);
   }
 
+  @Test
+  public void keepalivesAreCountedAndDroppedByDefault() throws Exception {
+    final List<StreamBatchRecord<String>> records = new CopyOnWriteArrayList<>();
+    final AtomicInteger keepalives = new AtomicInteger();
+    runKeepaliveStream(false, false, records, keepalives);
+
+    assertEquals(1, records.size());
+    assertFalse(records.get(0).streamBatch().isEmpty());
+    assertEquals(2, keepalives.get());
+  }
+
+  @Test
+  public void keepalivesAreForwardedWhenRequested() throws Exception {
+    final List<StreamBatchRecord<String>> records = new CopyOnWriteArrayList<>();
+    final AtomicInteger keepalives = new AtomicInteger();
+    runKeepaliveStream(true, false, records, keepalives);
+
+    assertEquals(3, records.size());
+    assertTrue(records.get(0).streamBatch().isEmpty());
+    assertEquals(new Cursor("0", "93"), records.get(0).streamBatch().cursor());
+    assertEquals(new Cursor("0", "94"), records.get(1).streamCursorContext().cursor());
+    assertFalse(records.get(2).streamBatch().isEmpty());
+    assertEquals(2, keepalives.get());
+  }
+
+  @Test
+  public void lazyProvidersGetLazyBatches() throws Exception {
+    final List<StreamBatchRecord<String>> records = new CopyOnWriteArrayList<>();
+    runKeepaliveStream(true, true, records, new AtomicInteger());
+
+    assertEquals(3, records.size());
+    for (StreamBatchRecord<String> record : records) {
+      assertTrue(record.streamBatch() instanceof LazyStreamBatch);
+    }
+    final LazyStreamBatch<String> batch = (LazyStreamBatch<String>) records.get(2).streamBatch();
+    assertEquals(1, batch.size());
+    assertFalse(batch.isDecoded(0));
+    assertTrue(batch.events().get(0).contains("a2ab0b7c-ee58-48e5-b96a-d13bce73d857"));
+  }
+
+  @Test
+  public void byteBufferProvidersGetRawSubscriptionBatches() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(200)
+        .setBody("{\"cursor\":{\"partition\":\"2\",\"offset\":\"7\",\"event_type\":\"foo\","
+            + "\"cursor_token\":\"t1\"},\"events\":[{\"id\":1},{\"id\":2}]}\n")
+        .setHeader("X-Nakadi-StreamId", "nnn")
+        .setHeader("Content-Type", "application/x-json-stream;charset=UTF-8"));
+
+    final NakadiClient client = NakadiClient.newBuilder()
+        .baseURI("http://localhost:" + MOCK_SERVER_PORT)
+        .build();
+
+    final List<StreamBatchRecord<ByteBuffer>> records = new CopyOnWriteArrayList<>();
+    final CountDownLatch received = new CountDownLatch(1);
+    final StreamProcessor processor = spy(client.resources()
+        .streamBuilder(new StreamConfiguration().subscriptionId("s1")
+            .readTimeout(3, TimeUnit.SECONDS))
+        .streamOffsetObserver(new LoggingStreamOffsetObserver())
+        .streamObserverFactory(new StreamObserverProvider<ByteBuffer>() {
+          @Override public StreamObserver<ByteBuffer> createStreamObserver() {
+            return new StreamObserverBackPressure<ByteBuffer>() {
+              @Override public void onStart() {
+              }
+
+              @Override public void onStop() {
+              }
+
+              @Override public void onCompleted() {
+              }
+
+              @Override public void onError(Throwable t) {
+              }
+
+              @Override public void onNext(StreamBatchRecord<ByteBuffer> record) {
+                records.add(record);
+                received.countDown();
+              }
+            };
+          }
+
+          @Override public TypeLiteral<ByteBuffer> typeLiteral() {
+            return TypeLiterals.OF_BYTE_BUFFER;
+          }
+        })
+        .build());
+    doReturn("foo").when(processor).findEventTypeNameForSubscription(any());
+
+    processor.start();
+    assertTrue(received.await(5, TimeUnit.SECONDS));
+    processor.stop();
+
+    final StreamBatchRecord<ByteBuffer> record = records.get(0);
+    final ByteBuffer first = record.streamBatch().events().get(0);
+    final byte[] bytes = new byte[first.remaining()];
+    first.get(bytes);
+    assertEquals("{\"id\":1}", new String(bytes, StandardCharsets.UTF_8));
+    assertEquals(2, record.streamBatch().events().size());
+    assertEquals(new Cursor("2", "7", "foo", "t1"), record.streamCursorContext().cursor());
+    assertEquals("nnn",
+        record.streamCursorContext().context().get(StreamResourceSupport.X_NAKADI_STREAM_ID));
+    assertEquals("s1",
+        record.streamCursorContext().context().get(StreamResourceSupport.SUBSCRIPTION_ID));
+  }
+
+  @Test
+  public void watchdogReconnectsASilentConnection() throws Exception {
+    final String keepalive = "{\"cursor\":{\"partition\":\"0\",\"offset\":\"93\"}}\n";
+    // the first line arrives then the connection goes quiet, well inside the read timeout
+    server.enqueue(new MockResponse().setResponseCode(200)
+        .setBody(keepalive + keepalive)
+        .throttleBody(keepalive.length(), 3, TimeUnit.SECONDS)
+        .setHeader("Content-Type", "application/x-json-stream;charset=UTF-8"));
+    server.enqueue(new MockResponse().setResponseCode(200)
+        .setBody(keepalive)
+        .setHeader("Content-Type", "application/x-json-stream;charset=UTF-8"));
+
+    final CountDownLatch kicked = new CountDownLatch(1);
+    final NakadiClient client = NakadiClient.newBuilder()
+        .baseURI("http://localhost:" + MOCK_SERVER_PORT)
+        .metricCollector(new MetricCollectorDevnull() {
+          @Override public void mark(Meter meter) {
+            if (meter == Meter.streamWatchdogKick) {
+              kicked.countDown();
+            }
+          }
+        })
+        .build();
+
+    final StreamProcessor processor = client.resources()
+        .streamBuilder(new StreamConfiguration()
+            .eventTypeName("foo")
+            .batchFlushTimeout(1, TimeUnit.SECONDS)
+            .watchdogFactor(1)
+            .readTimeout(60, TimeUnit.SECONDS))
+        .streamObserverFactory(new LoggingStreamObserverProvider())
+        .build();
+
+    processor.start();
+    // well before the throttled line, let alone the read timeout
+    assertTrue(kicked.await(2900, TimeUnit.MILLISECONDS));
+    // and reconnects
+    final long deadline = System.currentTimeMillis() + 5_000;
+    while (server.getRequestCount() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+    assertEquals(2, server.getRequestCount());
+    processor.stop();
+  }
+
+  @Test
+  public void warmReconnectSwitchesStreamsWithoutAPause() throws Exception {
+    final AtomicInteger streams = new AtomicInteger();
+    final AtomicInteger warmed = new AtomicInteger();
+    server.setDispatcher(new Dispatcher() {
+      @Override public MockResponse dispatch(RecordedRequest request) {
+        if (request.getPath().startsWith("/event-types/foo/events")) {
+          final int n = streams.incrementAndGet();
+          return new MockResponse().setResponseCode(200)
+              .setBody("{\"cursor\":{\"partition\":\"0\",\"offset\":\"" + n + "\"},"
+                  + "\"events\":[{\"n\":" + n + "}]}\n")
+              .setHeader("Content-Type", "application/x-json-stream;charset=UTF-8");
+        }
+        if (request.getPath().equals("/event-types/foo")) {
+          warmed.incrementAndGet();
+          return new MockResponse().setResponseCode(200)
+              .setBody("{\"name\":\"foo\"}")
+              .setHeader("Content-Type", "application/json");
+        }
+        return new MockResponse().setResponseCode(404);
+      }
+    });
+
+    final List<Long> pauses = new CopyOnWriteArrayList<>();
+    final NakadiClient client = NakadiClient.newBuilder()
+        .baseURI("http://localhost:" + MOCK_SERVER_PORT)
+        .metricCollector(new MetricCollectorDevnull() {
+          @Override public void duration(Timer timer, long duration, TimeUnit unit) {
+            if (timer == Timer.streamRestartPause) {
+              pauses.add(unit.toMillis(duration));
+            }
+          }
+        })
+        .build();
+
+    final StreamProcessor processor = client.resources()
+        .streamBuilder(new StreamConfiguration().eventTypeName("foo"))
+        .streamObserverFactory(new LoggingStreamObserverProvider())
+        .warmReconnect(true)
+        .build();
+
+    processor.start();
+    // three streams inside the time a single default restart delay would take
+    final long deadline = System.currentTimeMillis() + 2_500;
+    while (streams.get() < 3 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    processor.stop();
+
+    assertTrue("streams=" + streams.get(), streams.get() >= 3);
+    assertTrue(warmed.get() >= 1);
+    assertTrue(pauses.size() >= 2);
+    for (Long pause : pauses) {
+      assertTrue("pause=" + pause, pause < 1_000);
+    }
+  }
+
+  private void runKeepaliveStream(boolean requestKeepalives, boolean decodeEventsLazily,
+      List<StreamBatchRecord<String>> records, AtomicInteger keepalives) throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(200)
+        .setBody("{\"cursor\":{\"partition\":\"0\",\"offset\":\"93\"}}\n"
+            + "{\"cursor\":{\"partition\":\"0\",\"offset\":\"94\"}}\n"
+            + batch)
+        .setHeader("Content-Type", "application/x-json-stream;charset=UTF-8"));
+
+    final MetricCollector collector = new MetricCollectorDevnull() {
+      @Override public void mark(Meter meter, long count) {
+        if (meter == Meter.receivedKeepalive) {
+          keepalives.addAndGet((int) count);
+        }
+      }
+    };
+
+    final NakadiClient client = NakadiClient.newBuilder()
+        .baseURI("http://localhost:" + MOCK_SERVER_PORT)
+        .metricCollector(collector)
+        .build();
+
+    final StreamConfiguration sc = new StreamConfiguration()
+        .eventTypeName("foo")
+        .connectTimeout(3, TimeUnit.SECONDS)
+        .readTimeout(3, TimeUnit.SECONDS);
+
+    final CountDownLatch received = new CountDownLatch(1);
+    final StreamProcessor processor = client.resources()
+        .streamBuilder(sc)
+        .streamObserverFactory(new LoggingStreamObserverProvider() {
+          @Override public StreamObserver<String> createStreamObserver() {
+            return new LoggingStreamObserver() {
+              @Override public void onNext(StreamBatchRecord<String> record) {
+                records.add(record);
+                if (!record.streamBatch().isEmpty()) {
+                  received.countDown();
+                }
+              }
+
+              @Override public boolean requestKeepalives() {
+                return requestKeepalives;
+              }
+            };
+          }
+
+          @Override public boolean decodeEventsLazily() {
+            return decodeEventsLazily;
+          }
+        })
+        .build();
+
+    processor.start();
+    assertTrue(received.await(5, TimeUnit.SECONDS));
+    processor.stop();
+  }
+
   private Buffer gzip(String data) throws IOException {
     Buffer result = new Buffer();
     BufferedSink sink = Okio.buffer(new GzipSink(result));
@@ -0,0 +1,147 @@
+package nakadi;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StreamSchedulerTest {
+
+  private static final int MOCK_SERVER_PORT = 8319;
+
+  @Test
+  public void spreadsProcessorsOverLeastLoadedComputeLoops() {
+    final StreamScheduler scheduler = StreamScheduler.newBuilder().computeLoops(2).build();
+
+    try {
+      final StreamScheduler.Lease a = scheduler.lease();
+      final StreamScheduler.Lease b = scheduler.lease();
+      final StreamScheduler.Lease c = scheduler.lease();
+
+      Map<String, Integer> loads = scheduler.processorsPerLoop();
+      assertEquals(2, (int) loads.get("nakadi-java-compute-shared-0"));
+      assertEquals(1, (int) loads.get("nakadi-java-compute-shared-1"));
+      // each processor gets its own io loop
+      assertEquals(3, loads.keySet().stream().filter(k -> k.startsWith("nakadi-java-io-")).count());
+
+      b.release();
+      b.release(); // releasing twice is harmless
+      loads = scheduler.processorsPerLoop();
+      assertEquals(2, (int) loads.get("nakadi-java-compute-shared-0"));
+      assertEquals(0, (int) loads.get("nakadi-java-compute-shared-1"));
+      assertEquals(2, loads.keySet().stream().filter(k -> k.startsWith("nakadi-java-io-")).count());
+
+      // the next lease fills the emptied loop
+      final StreamScheduler.Lease d = scheduler.lease();
+      assertEquals(1, (int) scheduler.processorsPerLoop().get("nakadi-java-compute-shared-1"));
+
+      a.release();
+      c.release();
+      d.release();
+    } finally {
+      scheduler.close();
+    }
+  }
+
+  @Test
+  public void leaseAfterCloseIsRejected() {
+    final StreamScheduler scheduler = StreamScheduler.newBuilder().computeLoops(1).build();
+    scheduler.close();
+
+    try {
+      scheduler.lease();
+      fail("expected a closed scheduler to refuse leases");
+    } catch (IllegalStateException ignored) {
+    }
+  }
+
+  @Test
+  public void requiresAComputeLoop() {
+    try {
+      StreamScheduler.newBuilder().computeLoops(0).build();
+      fail("expected zero compute loops to be rejected");
+    } catch (NakadiException ignored) {
+    }
+  }
+
+  @Test
+  public void processorsRunOnSharedLoops() throws Exception {
+    final MockWebServer server = new MockWebServer();
+    server.start(InetAddress.getByName("localhost"), MOCK_SERVER_PORT);
+    final StreamScheduler scheduler = StreamScheduler.newBuilder().computeLoops(1).build();
+
+    try {
+      final String batch = TestSupport.load("data-change-event-batch-oneline-1.json");
+      server.enqueue(new MockResponse().setResponseCode(200).setBody(batch)
+          .setHeader("Content-Type", "application/x-json-stream;charset=UTF-8"));
+
+      final NakadiClient client =
+          NakadiClient.newBuilder().baseURI("http://localhost:" + MOCK_SERVER_PORT).build();
+
+      final StreamConfiguration sc = new StreamConfiguration()
+          .eventTypeName("foo")
+          .connectTimeout(3, TimeUnit.SECONDS)
+          .readTimeout(3, TimeUnit.SECONDS);
+
+      final List<String> threads = new CopyOnWriteArrayList<>();
+      final CountDownLatch received = new CountDownLatch(1);
+
+      final StreamProcessor processor = client.resources()
+          .streamBuilder(sc)
+          .streamObserverFactory(new StreamObserverProvider<String>() {
+            @Override public StreamObserver<String> createStreamObserver() {
+              return new StreamObserverBackPressure<String>() {
+                @Override public void onStart() {
+                }
+
+                @Override public void onStop() {
+                }
+
+                @Override public void onCompleted() {
+                }
+
+                @Override public void onError(Throwable t) {
+                }
+
+                @Override public void onNext(StreamBatchRecord<String> record) {
+                  threads.add(Thread.currentThread().getName());
+                  received.countDown();
+                }
+              };
+            }
+
+            @Override public TypeLiteral<String> typeLiteral() {
+              return TypeLiterals.OF_STRING;
+            }
+          })
+          .streamScheduler(scheduler)
+          .build();
+
+      // nothing's leased until the processor starts
+      assertEquals(0, (int) scheduler.processorsPerLoop().get("nakadi-java-compute-shared-0"));
+
+      processor.start();
+      assertTrue(received.await(5, TimeUnit.SECONDS));
+      assertEquals("nakadi-java-compute-shared-0", threads.get(0));
+      assertEquals(1, (int) scheduler.processorsPerLoop().get("nakadi-java-compute-shared-0"));
+
+      processor.stop();
+      assertFalse(processor.running());
+      assertEquals(0, (int) scheduler.processorsPerLoop().get("nakadi-java-compute-shared-0"));
+      assertEquals(1, scheduler.processorsPerLoop().size());
+    } finally {
+      scheduler.close();
+      server.shutdown();
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package nakadi;
+
+import io.reactivex.schedulers.TestScheduler;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class StreamStandbyTest {
+
+  private final TestScheduler scheduler = new TestScheduler();
+  private final AtomicInteger warmed = new AtomicInteger();
+
+  @Test
+  public void warmsBeforeTheStreamTimeoutAndKeepsTheConnectionFresh() {
+    final StreamStandby standby = new StreamStandby(warmed::incrementAndGet, 50_000, scheduler);
+
+    standby.connected();
+    scheduler.advanceTimeBy(49, TimeUnit.SECONDS);
+    assertEquals(0, warmed.get());
+    scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+    assertEquals(1, warmed.get());
+
+    scheduler.advanceTimeBy(StreamStandby.REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+    assertEquals(2, warmed.get());
+
+    standby.disconnected();
+    scheduler.advanceTimeBy(1, TimeUnit.HOURS);
+    assertEquals(2, warmed.get());
+  }
+
+  @Test
+  public void reconnectingStartsOver() {
+    final StreamStandby standby = new StreamStandby(warmed::incrementAndGet, 1_000, scheduler);
+
+    standby.connected();
+    scheduler.advanceTimeBy(500, TimeUnit.MILLISECONDS);
+    standby.connected();
+    scheduler.advanceTimeBy(900, TimeUnit.MILLISECONDS);
+    assertEquals(0, warmed.get());
+    scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+    assertEquals(1, warmed.get());
+  }
+
+  @Test
+  public void warmFailuresAreNotFatal() {
+    final StreamStandby standby = new StreamStandby(() -> {
+      warmed.incrementAndGet();
+      throw new NotFoundException(Problem.localProblem("not found", ""));
+    }, 0, scheduler);
+
+    standby.connected();
+    scheduler.triggerActions();
+    scheduler.advanceTimeBy(StreamStandby.REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+    assertEquals(2, warmed.get());
+  }
+}
@@ -0,0 +1,37 @@
+package nakadi;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class StreamStringsTest {
+
+  @Test
+  public void sharesOneCopyOfEachValue() {
+    final StreamStrings strings = new StreamStrings();
+    final Cursor first = strings.share(new Cursor(new String("0"), "1", new String("et"), "t1"));
+    final Cursor second = strings.share(new Cursor(new String("0"), "2", new String("et"), "t2"));
+
+    assertSame(first.partition(), second.partition());
+    assertSame(first.eventType().get(), second.eventType().get());
+    assertEquals(new Cursor("0", "2", "et", "t2"), second);
+
+    assertNull(strings.share((String) null));
+    assertEquals(2, strings.size());
+  }
+
+  @Test
+  public void stopsAddingWhenFull() {
+    final StreamStrings strings = new StreamStrings(1);
+    final String a = strings.share(new String("a"));
+    assertSame(a, strings.share(new String("a")));
+
+    final String b = new String("b");
+    assertSame(b, strings.share(b));
+    assertNotSame(b, strings.share(new String("b")));
+    assertEquals(1, strings.size());
+  }
+}
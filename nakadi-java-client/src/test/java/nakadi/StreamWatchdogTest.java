@@ -0,0 +1,86 @@
+package nakadi;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StreamWatchdogTest {
+
+  private final AtomicInteger kicks = new AtomicInteger();
+  private final AtomicLong detectNanos = new AtomicLong();
+  private final MetricCollector metrics = new MetricCollectorDevnull() {
+    @Override public void mark(Meter meter) {
+      if (meter == Meter.streamWatchdogKick) {
+        kicks.incrementAndGet();
+      }
+    }
+
+    @Override public void duration(Timer timer, long duration, TimeUnit unit) {
+      if (timer == Timer.streamWatchdogDetect) {
+        detectNanos.set(unit.toNanos(duration));
+      }
+    }
+  };
+
+  @Test
+  public void deadlineFromConfiguration() {
+    assertEquals(60_000L, StreamWatchdog.deadlineMillis(new StreamConfiguration()));
+    assertEquals(7_500L, StreamWatchdog.deadlineMillis(new StreamConfiguration()
+        .batchFlushTimeout(5, TimeUnit.SECONDS).watchdogFactor(1.5)));
+    assertEquals(0L, StreamWatchdog.deadlineMillis(new StreamConfiguration().watchdogFactor(0)));
+
+    try {
+      new StreamConfiguration().watchdogFactor(0.5);
+      org.junit.Assert.fail("a factor under 1 would close healthy connections");
+    } catch (IllegalArgumentException ignored) {
+    }
+  }
+
+  @Test
+  public void abortsOnlyAConnectionThatIsWaitingPastTheDeadline() throws Exception {
+    final StreamWatchdog watchdog = new StreamWatchdog(1, TimeUnit.SECONDS, metrics);
+    final Response response = response();
+
+    watchdog.waiting(response);
+    final long start = System.nanoTime();
+    watchdog.check(start + TimeUnit.MILLISECONDS.toNanos(900));
+    assertEquals(0, kicks.get());
+
+    // a line arrived, so not waiting any more
+    watchdog.arrived();
+    watchdog.check(start + TimeUnit.SECONDS.toNanos(5));
+    assertEquals(0, kicks.get());
+
+    watchdog.waiting(response);
+    watchdog.check(System.nanoTime() + TimeUnit.SECONDS.toNanos(2));
+    assertEquals(1, kicks.get());
+    assertTrue(detectNanos.get() >= TimeUnit.SECONDS.toNanos(2));
+    verify(response.responseBody(), times(1)).close();
+
+    // once per wait
+    watchdog.check(System.nanoTime() + TimeUnit.SECONDS.toNanos(3));
+    assertEquals(1, kicks.get());
+  }
+
+  @Test
+  public void ignoresAConnectionThatIsNotBeingRead() {
+    final StreamWatchdog watchdog = new StreamWatchdog(1, TimeUnit.SECONDS, metrics);
+    watchdog.check(System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+    assertEquals(0, kicks.get());
+  }
+
+  private Response response() {
+    final Response response = mock(Response.class);
+    final ResponseBody body = mock(ResponseBody.class);
+    when(response.responseBody()).thenReturn(body);
+    return response;
+  }
+}
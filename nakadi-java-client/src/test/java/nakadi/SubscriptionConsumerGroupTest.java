@@ -0,0 +1,213 @@
+package nakadi;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SubscriptionConsumerGroupTest {
+
+  private static final int MOCK_SERVER_PORT = 8321;
+
+  private final MockWebServer server = new MockWebServer();
+  private final AtomicLong unconsumed = new AtomicLong();
+  private final AtomicBoolean statsUnavailable = new AtomicBoolean();
+  private NakadiClient client;
+
+  @Before
+  public void before() throws Exception {
+    server.start(InetAddress.getByName("localhost"), MOCK_SERVER_PORT);
+    client = NakadiClient.newBuilder().baseURI("http://localhost:" + MOCK_SERVER_PORT).build();
+    server.setDispatcher(new Dispatcher() {
+      @Override public MockResponse dispatch(RecordedRequest request) {
+        if (request.getPath().equals("/subscriptions/s1/stats") && statsUnavailable.get()) {
+          return new MockResponse().setResponseCode(404);
+        }
+        if (request.getPath().equals("/subscriptions/s1/stats")) {
+          // six partitions, with all the lag on the first
+          final StringBuilder partitions = new StringBuilder();
+          for (int i = 0; i < 6; i++) {
+            partitions.append(i == 0 ? "" : ",")
+                .append("{\"partition\":\"").append(i).append("\",\"state\":\"assigned\"")
+                .append(i == 0 ? ",\"unconsumed_events\":" + unconsumed.get() : "")
+                .append("}");
+          }
+          return new MockResponse().setResponseCode(200)
+              .setBody("{\"items\":[{\"event_type\":\"et\",\"partitions\":[" + partitions
+                  + "]}]}")
+              .setHeader("Content-Type", "application/json");
+        }
+        if (request.getPath().startsWith("/subscriptions/s1/events")) {
+          return new MockResponse().setResponseCode(200)
+              .setHeader("X-Nakadi-StreamId", "session")
+              .setHeader("Content-Type", "application/x-json-stream;charset=UTF-8")
+              .setBody("{\"cursor\":{\"partition\":\"0\",\"offset\":\"1\",\"event_type\":\"et\","
+                  + "\"cursor_token\":\"t\"}}\n");
+        }
+        return new MockResponse().setResponseCode(404);
+      }
+    });
+  }
+
+  @After
+  public void after() throws Exception {
+    server.shutdown();
+  }
+
+  @Test
+  public void sizesFromLagWithinBoundsAndPartitions() {
+    final SubscriptionEventTypeStatsCollection stats =
+        client.resources().subscriptions().stats("s1");
+
+    unconsumed.set(0);
+    assertEquals(2, SubscriptionConsumerGroup.targetSize(stats(), 2, 4, 100));
+    unconsumed.set(250);
+    assertEquals(3, SubscriptionConsumerGroup.targetSize(stats(), 1, 4, 100));
+    unconsumed.set(1_000);
+    assertEquals(4, SubscriptionConsumerGroup.targetSize(stats(), 1, 4, 100));
+    // no more sessions than partitions
+    assertEquals(6, SubscriptionConsumerGroup.targetSize(stats(), 1, 20, 100));
+    assertEquals(6, stats.items().get(0).partitions().size());
+  }
+
+  @Test
+  public void growsAtOnceAndShrinksOneAtATime() {
+    final StreamScheduler scheduler = StreamScheduler.newBuilder().computeLoops(2).build();
+    final SubscriptionConsumerGroup group = SubscriptionConsumerGroup.newBuilder(client)
+        .streamConfiguration(new StreamConfiguration().subscriptionId("s1"))
+        .streamObserverFactory(new LoggingStreamObserverProvider())
+        .streamOffsetObserver(context -> {
+        })
+        .streamScheduler(scheduler)
+        .minProcessors(1)
+        .maxProcessors(4)
+        .eventsPerProcessor(100)
+        .resizeInterval(1, TimeUnit.HOURS)
+        .build();
+
+    try {
+      unconsumed.set(150);
+      group.start();
+      assertEquals(2, group.size());
+      assertTrue(group.running());
+
+      unconsumed.set(1_000);
+      group.resize();
+      assertEquals(4, group.size());
+
+      unconsumed.set(0);
+      group.resize();
+      assertEquals(3, group.size());
+      group.resize();
+      assertEquals(2, group.size());
+
+      // the processors share the scheduler's compute loops
+      assertEquals(2, scheduler.processorsPerLoop().entrySet().stream()
+          .filter(e -> e.getKey().contains("compute"))
+          .mapToInt(e -> e.getValue()).sum());
+    } finally {
+      group.stop();
+      scheduler.close();
+    }
+
+    assertEquals(0, group.size());
+    assertFalse(group.running());
+  }
+
+  @Test
+  public void replacesProcessorsThatStoppedThemselves() {
+    final SubscriptionConsumerGroup group = SubscriptionConsumerGroup.newBuilder(client)
+        .streamConfiguration(new StreamConfiguration().subscriptionId("s1"))
+        .streamObserverFactory(new LoggingStreamObserverProvider())
+        .streamOffsetObserver(context -> {
+        })
+        .minProcessors(1)
+        .maxProcessors(4)
+        .eventsPerProcessor(100)
+        .resizeInterval(1, TimeUnit.HOURS)
+        .build();
+
+    try {
+      unconsumed.set(150);
+      group.start();
+      assertEquals(2, group.size());
+
+      final StreamProcessor failed = group.processors().get(0);
+      failed.stop();
+
+      group.resize();
+      assertEquals(2, group.size());
+      assertFalse(group.processors().contains(failed));
+      assertTrue(group.processors().stream().allMatch(StreamProcessor::running));
+    } finally {
+      group.stop();
+    }
+  }
+
+  @Test
+  public void canStartAgainAfterTheFirstSizingFails() {
+    final SubscriptionConsumerGroup group = SubscriptionConsumerGroup.newBuilder(client)
+        .streamConfiguration(new StreamConfiguration().subscriptionId("s1"))
+        .streamObserverFactory(new LoggingStreamObserverProvider())
+        .streamOffsetObserver(context -> {
+        })
+        .resizeInterval(1, TimeUnit.HOURS)
+        .build();
+
+    try {
+      statsUnavailable.set(true);
+      try {
+        group.start();
+        fail("expected the stats error");
+      } catch (NotFoundException ignored) {
+      }
+      assertEquals(0, group.size());
+
+      statsUnavailable.set(false);
+      group.start();
+      assertEquals(1, group.size());
+      assertTrue(group.running());
+    } finally {
+      group.stop();
+    }
+  }
+
+  @Test
+  public void needsASubscription() {
+    try {
+      SubscriptionConsumerGroup.newBuilder(client)
+          .streamConfiguration(new StreamConfiguration().eventTypeName("et"))
+          .streamObserverFactory(new LoggingStreamObserverProvider())
+          .build();
+      fail("expected an event type stream to be rejected");
+    } catch (NakadiException ignored) {
+    }
+
+    try {
+      SubscriptionConsumerGroup.newBuilder(client)
+          .streamConfiguration(new StreamConfiguration().subscriptionId("s1"))
+          .streamObserverFactory(new LoggingStreamObserverProvider())
+          .minProcessors(3)
+          .maxProcessors(2)
+          .build();
+      fail("expected inverted bounds to be rejected");
+    } catch (NakadiException ignored) {
+    }
+  }
+
+  private SubscriptionEventTypeStatsCollection stats() {
+    return client.resources().subscriptions().stats("s1");
+  }
+}
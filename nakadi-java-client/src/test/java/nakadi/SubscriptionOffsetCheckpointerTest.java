@@ -3,10 +3,14 @@ package nakadi;
 import com.google.common.collect.Maps;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.function.BiConsumer;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
 import org.junit.Test;
 
 import static junit.framework.TestCase.assertEquals;
@@ -91,6 +95,48 @@ public class SubscriptionOffsetCheckpointerTest {
     }
   }
 
+  @Test
+  public void checkpointsSeveralCursorsInOneRequest() throws Exception {
+
+    try {
+      before();
+
+      final HashMap<String, String> context = Maps.newHashMap();
+      context.put(StreamResourceSupport.X_NAKADI_STREAM_ID, "aa");
+      context.put(StreamResourceSupport.SUBSCRIPTION_ID, "bb");
+
+      final List<StreamCursorContext> contexts = Arrays.asList(
+          new StreamCursorContextReal(new Cursor("0", "o1", "e"), context),
+          new StreamCursorContextReal(new Cursor("1", "o2", "e"), context));
+
+      final List<StreamCursorContext> seen = new ArrayList<>();
+      SubscriptionOffsetCheckpointer checkpointer = new SubscriptionOffsetCheckpointer(client)
+          .withCursorCommitResultConsumer((ccr, cursorContext) -> seen.add(cursorContext));
+
+      server.enqueue(new MockResponse().setResponseCode(204));
+      checkpointer.checkpoint(contexts);
+
+      final RecordedRequest request = server.takeRequest();
+      assertEquals("/subscriptions/bb/cursors", request.getPath());
+      assertEquals("aa", request.getHeader(StreamResourceSupport.X_NAKADI_STREAM_ID));
+      final String body = request.getBody().readUtf8();
+      assertTrue(body.contains("o1"));
+      assertTrue(body.contains("o2"));
+      assertEquals(contexts, seen);
+
+      final HashMap<String, String> otherContext = Maps.newHashMap(context);
+      otherContext.put(StreamResourceSupport.X_NAKADI_STREAM_ID, "cc");
+      try {
+        checkpointer.checkpoint(Arrays.asList(contexts.get(0),
+            new StreamCursorContextReal(new Cursor("2", "o3", "e"), otherContext)));
+        fail("expected cursors from different sessions to be rejected");
+      } catch (NakadiException ignored) {
+      }
+    } finally {
+      after();
+    }
+  }
+
   @Test
   public void suppressesNetwork() throws InvalidException {
 
@@ -0,0 +1,231 @@
+package nakadi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SubscriptionOffsetCoalescingObserverTest {
+
+  private final NakadiClient client =
+      NakadiClient.newBuilder().baseURI("http://localhost:9080").build();
+
+  @Test
+  public void flushesLatestCursorPerPartitionOnCount() throws Exception {
+    final RecordingCheckpointer checkpointer = new RecordingCheckpointer(client);
+    final SubscriptionOffsetCoalescingObserver observer =
+        new SubscriptionOffsetCoalescingObserver(checkpointer, 1, TimeUnit.HOURS, 5, 1);
+
+    try {
+      observer.onNext(context("s1", "0", "1"));
+      observer.onNext(context("s1", "1", "1"));
+      observer.onNext(context("s1", "0", "2"));
+      observer.onNext(context("s1", "1", "2"));
+      observer.onNext(context("s1", "0", "3"));
+
+      final List<List<StreamCursorContext>> commits = checkpointer.awaitCommits(1);
+      assertEquals(1, commits.size());
+      assertEquals(2, commits.get(0).size());
+      for (StreamCursorContext context : commits.get(0)) {
+        final String expected = context.cursor().partition().equals("0") ? "3" : "2";
+        assertEquals(expected, context.cursor().offset());
+      }
+      assertEquals(0, observer.pendingCount());
+    } finally {
+      observer.close();
+    }
+  }
+
+  @Test
+  public void flushesOnInterval() throws Exception {
+    final RecordingCheckpointer checkpointer = new RecordingCheckpointer(client);
+    final SubscriptionOffsetCoalescingObserver observer =
+        new SubscriptionOffsetCoalescingObserver(checkpointer, 50, TimeUnit.MILLISECONDS, 1000, 1);
+
+    try {
+      observer.onNext(context("s1", "0", "1"));
+      final List<List<StreamCursorContext>> commits = checkpointer.awaitCommits(1);
+      assertEquals("1", commits.get(0).get(0).cursor().offset());
+    } finally {
+      observer.close();
+    }
+  }
+
+  @Test
+  public void dropsCursorsFromEarlierSession() throws Exception {
+    final RecordingCheckpointer checkpointer = new RecordingCheckpointer(client);
+    final SubscriptionOffsetCoalescingObserver observer =
+        new SubscriptionOffsetCoalescingObserver(checkpointer, 1, TimeUnit.HOURS, 3, 1);
+
+    try {
+      observer.onNext(context("s1", "0", "1"));
+      observer.onNext(context("s1", "1", "1"));
+      observer.onNext(context("s2", "0", "5"));
+
+      final List<List<StreamCursorContext>> commits = checkpointer.awaitCommits(1);
+      assertEquals(1, commits.get(0).size());
+      assertEquals("5", commits.get(0).get(0).cursor().offset());
+      assertEquals("s2", commits.get(0).get(0).context().get(
+          StreamResourceSupport.X_NAKADI_STREAM_ID));
+    } finally {
+      observer.close();
+    }
+  }
+
+  @Test
+  public void failedCommitIsThrownOnNextCursor() throws Exception {
+    final NetworkException failure = new NetworkException(Problem.networkProblem("fake", "it"));
+    final RecordingCheckpointer checkpointer = new RecordingCheckpointer(client);
+    checkpointer.failWith = failure;
+    final SubscriptionOffsetCoalescingObserver observer =
+        new SubscriptionOffsetCoalescingObserver(checkpointer, 1, TimeUnit.HOURS, 1, 1);
+
+    try {
+      observer.onNext(context("s1", "0", "1"));
+      checkpointer.awaitCommits(1);
+      // the failed cursor is kept for the next attempt
+      waitFor(() -> observer.pendingCount() == 1);
+
+      try {
+        observer.onNext(context("s1", "1", "1"));
+        fail("expected the failed commit to be thrown");
+      } catch (NetworkException e) {
+        assertSame(failure, e);
+      }
+    } finally {
+      checkpointer.failWith = null;
+      observer.close();
+    }
+  }
+
+  @Test
+  public void failedCommitFromEarlierSessionIsOnlyLogged() throws Exception {
+    final RecordingCheckpointer checkpointer = new RecordingCheckpointer(client);
+    checkpointer.failWith = new InvalidException(Problem.localProblem("stale session", ""));
+    final SubscriptionOffsetCoalescingObserver observer =
+        new SubscriptionOffsetCoalescingObserver(checkpointer, 1, TimeUnit.HOURS, 1, 1);
+
+    try {
+      observer.onNext(context("s1", "0", "1"));
+      checkpointer.awaitCommits(1);
+      checkpointer.failWith = null;
+      // the rejected cursor isn't kept, so there's nothing left to commit
+      waitFor(() -> observer.pendingCount() == 0);
+
+      observer.onNext(context("s2", "0", "5"));
+
+      final List<List<StreamCursorContext>> commits = checkpointer.awaitCommits(2);
+      assertEquals("5", commits.get(1).get(0).cursor().offset());
+      assertEquals("s2", commits.get(1).get(0).context().get(
+          StreamResourceSupport.X_NAKADI_STREAM_ID));
+    } finally {
+      observer.close();
+    }
+  }
+
+  @Test
+  public void closeCommitsPendingCursors() throws Exception {
+    final RecordingCheckpointer checkpointer = new RecordingCheckpointer(client);
+    final SubscriptionOffsetCoalescingObserver observer =
+        new SubscriptionOffsetCoalescingObserver(checkpointer, 1, TimeUnit.HOURS, 100, 1);
+
+    observer.onNext(context("s1", "0", "1"));
+    observer.onNext(context("s1", "2", "7"));
+    assertEquals(0, checkpointer.commits.size());
+
+    observer.close();
+
+    assertEquals(1, checkpointer.commits.size());
+    assertEquals(2, checkpointer.commits.get(0).size());
+  }
+
+  @Test
+  public void flushIntervalMustFitCommitTimeout() {
+    SubscriptionOffsetCoalescingObserver.checkFlushInterval(30, TimeUnit.SECONDS, 60);
+    SubscriptionOffsetCoalescingObserver.checkFlushInterval(500, TimeUnit.MILLISECONDS, 60);
+
+    try {
+      SubscriptionOffsetCoalescingObserver.checkFlushInterval(31, TimeUnit.SECONDS, 60);
+      fail("expected an interval over half the commit timeout to be rejected");
+    } catch (NakadiException ignored) {
+    }
+
+    try {
+      SubscriptionOffsetCoalescingObserver.checkFlushInterval(0, TimeUnit.SECONDS, 60);
+      fail("expected a zero interval to be rejected");
+    } catch (NakadiException ignored) {
+    }
+  }
+
+  @Test
+  public void builderValidatesCoalescingCheckpoints() {
+    final StreamConfiguration sc = new StreamConfiguration()
+        .subscriptionId("s1")
+        .commitTimeout(10, TimeUnit.SECONDS);
+
+    try {
+      StreamProcessor.newBuilder(client)
+          .streamConfiguration(sc)
+          .streamObserverFactory(new LoggingStreamObserverProvider())
+          .coalescingCheckpoints(6, TimeUnit.SECONDS, 100, 1)
+          .build();
+      fail("expected an interval over half the commit timeout to be rejected");
+    } catch (NakadiException ignored) {
+    }
+
+    try {
+      StreamProcessor.newBuilder(client)
+          .streamConfiguration(sc)
+          .streamObserverFactory(new LoggingStreamObserverProvider())
+          .coalescingCheckpoints(1, TimeUnit.SECONDS, 0, 1)
+          .build();
+      fail("expected a zero flush count to be rejected");
+    } catch (NakadiException ignored) {
+    }
+  }
+
+  private static StreamCursorContext context(String streamId, String partition, String offset) {
+    final HashMap<String, String> context = new HashMap<>();
+    context.put(StreamResourceSupport.X_NAKADI_STREAM_ID, streamId);
+    context.put(StreamResourceSupport.SUBSCRIPTION_ID, "sub1");
+    return new StreamCursorContextReal(new Cursor(partition, offset, "et1"), context);
+  }
+
+  private static void waitFor(java.util.function.BooleanSupplier condition) throws Exception {
+    final long deadline = System.currentTimeMillis() + 5_000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(condition.getAsBoolean());
+  }
+
+  private static class RecordingCheckpointer extends SubscriptionOffsetCheckpointer {
+
+    final List<List<StreamCursorContext>> commits = new CopyOnWriteArrayList<>();
+    volatile RuntimeException failWith;
+
+    RecordingCheckpointer(NakadiClient client) {
+      super(client);
+    }
+
+    @Override public void checkpoint(List<StreamCursorContext> contexts) {
+      final RuntimeException failure = failWith;
+      commits.add(new ArrayList<>(contexts));
+      if (failure != null) {
+        throw failure;
+      }
+    }
+
+    List<List<StreamCursorContext>> awaitCommits(int count) throws Exception {
+      waitFor(() -> commits.size() >= count);
+      return commits;
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package nakadi;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ThreadSupportTest {
+
+  @Test
+  public void resolvesToWhatTheRuntimeSupports() {
+    assertEquals(ExecutionMode.PLATFORM_THREADS, ThreadSupport.resolve(null));
+    assertEquals(ExecutionMode.PLATFORM_THREADS,
+        ThreadSupport.resolve(ExecutionMode.PLATFORM_THREADS));
+
+    final ExecutionMode expected = ThreadSupport.virtualThreadsAvailable()
+        ? ExecutionMode.VIRTUAL_THREADS : ExecutionMode.PLATFORM_THREADS;
+    assertEquals(expected, ThreadSupport.resolve(ExecutionMode.VIRTUAL_THREADS));
+  }
+
+  @Test
+  public void clientReportsTheModeInEffect() {
+    final NakadiClient platform =
+        NakadiClient.newBuilder().baseURI("http://localhost:9080").build();
+    assertEquals(ExecutionMode.PLATFORM_THREADS, platform.executionMode());
+
+    final NakadiClient virtual = NakadiClient.newBuilder()
+        .baseURI("http://localhost:9080")
+        .executionMode(ExecutionMode.VIRTUAL_THREADS)
+        .build();
+    assertEquals(ThreadSupport.resolve(ExecutionMode.VIRTUAL_THREADS), virtual.executionMode());
+  }
+
+  @Test
+  public void platformThreadFactoryNamesThreads() throws Exception {
+    final ThreadFactory factory =
+        ThreadSupport.threadFactory(ExecutionMode.PLATFORM_THREADS, "nakadi-java-test-", null);
+    final Thread thread = factory.newThread(() -> {});
+    assertEquals("nakadi-java-test-0", thread.getName());
+    assertNull(ThreadSupport.newVirtualThreadPerTaskExecutor(
+        ExecutionMode.PLATFORM_THREADS, "nakadi-java-test-", null));
+  }
+
+  @Test
+  public void virtualModeRunsTasks() throws Exception {
+    final ThreadFactory factory =
+        ThreadSupport.threadFactory(ExecutionMode.VIRTUAL_THREADS, "nakadi-java-test-", null);
+    final AtomicReference<String> name = new AtomicReference<>();
+    final CountDownLatch ran = new CountDownLatch(1);
+    final Thread thread = factory.newThread(() -> {
+      name.set(Thread.currentThread().getName());
+      ran.countDown();
+    });
+    thread.start();
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+
+    if (ThreadSupport.virtualThreadsAvailable()) {
+      assertEquals("nakadi-java-test-virtual-0", name.get());
+      final ExecutorService executor = ThreadSupport.newVirtualThreadPerTaskExecutor(
+          ExecutionMode.VIRTUAL_THREADS, "nakadi-java-test-", null);
+      assertNotNull(executor);
+      assertEquals("nakadi-java-test-virtual-0",
+          executor.submit(() -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS));
+      executor.shutdown();
+    } else {
+      // falls back to platform threads
+      assertEquals("nakadi-java-test-0", name.get());
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package nakadi;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class Utf8ByteArrayReaderTest {
+
+  private static final String TEXT =
+      "{\"name\":\"café 日本 😀\",\"ascii\":\"plain\"}";
+
+  @Test
+  public void decodesLikeAString() throws Exception {
+    final byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+    for (int size : new int[] {1, 2, 3, 1024}) {
+      assertEquals(TEXT, readAll(new Utf8ByteArrayReader(bytes, 0, bytes.length), size));
+    }
+  }
+
+  @Test
+  public void readsOnlyTheRange() throws Exception {
+    final byte[] line = TEXT.getBytes(StandardCharsets.UTF_8);
+    final byte[] padded = new byte[line.length + 6];
+    System.arraycopy(line, 0, padded, 3, line.length);
+    assertEquals(TEXT, readAll(new Utf8ByteArrayReader(padded, 3, line.length), 16));
+  }
+
+  @Test
+  public void replacesMalformedInput() throws Exception {
+    final byte[] cases = {
+        'a', (byte) 0xff,             // not a lead byte
+        'b', (byte) 0xc3,             // lead byte with nothing after it
+        'c', (byte) 0xc0, (byte) 0xaf, // overlong
+        'd', (byte) 0xe6, (byte) 0x97 // cut off
+    };
+    assertEquals(new String(cases, StandardCharsets.UTF_8),
+        readAll(new Utf8ByteArrayReader(cases, 0, cases.length), 8));
+  }
+
+  private String readAll(Reader reader, int size) throws IOException {
+    final StringBuilder sb = new StringBuilder();
+    final char[] buffer = new char[size];
+    int read;
+    while ((read = reader.read(buffer, 0, size)) != -1) {
+      sb.append(buffer, 0, read);
+    }
+    return sb.toString();
+  }
+}
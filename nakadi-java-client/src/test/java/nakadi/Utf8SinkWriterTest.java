@@ -0,0 +1,48 @@
+package nakadi;
+
+import java.io.Writer;
+import okio.Buffer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class Utf8SinkWriterTest {
+
+  private static final String TEXT =
+      "{\"name\":\"café 日本 😀\",\"ascii\":\"plain\"}";
+
+  @Test
+  public void encodesLikeAString() throws Exception {
+    final Buffer whole = new Buffer();
+    new Utf8SinkWriter(whole).write(TEXT);
+    assertEquals(TEXT, whole.readUtf8());
+
+    // a char at a time splits the emoji's surrogate pair across writes
+    final Buffer chars = new Buffer();
+    final Writer writer = new Utf8SinkWriter(chars);
+    for (int i = 0; i < TEXT.length(); i++) {
+      writer.write(TEXT.charAt(i));
+    }
+    assertEquals(TEXT, chars.readUtf8());
+  }
+
+  @Test
+  public void pairsSurrogatesSplitAcrossStringWrites() throws Exception {
+    final int emoji = TEXT.indexOf("😀");
+    final Buffer buffer = new Buffer();
+    final Writer writer = new Utf8SinkWriter(buffer);
+    writer.write(TEXT, 0, emoji + 1);
+    writer.append(TEXT, emoji + 1, TEXT.length());
+    assertEquals(TEXT, buffer.readUtf8());
+  }
+
+  @Test
+  public void replacesUnpairedSurrogates() throws Exception {
+    final String unpaired = "a\ud83db\ude00c\ud83d";
+    final Buffer buffer = new Buffer();
+    final Writer writer = new Utf8SinkWriter(buffer);
+    writer.write(unpaired.toCharArray());
+    writer.write("d");
+    assertEquals("a?b?c?d", buffer.readUtf8());
+  }
+}
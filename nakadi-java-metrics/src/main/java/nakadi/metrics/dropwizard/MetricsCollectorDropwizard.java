@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import nakadi.MetricCollector;
 import nakadi.NakadiClient;
 import nakadi.NakadiException;
@@ -27,6 +28,7 @@ public class MetricsCollectorDropwizard implements MetricCollector {
   private final MetricRegistry metricRegistry;
   private final Map<Integer, com.codahale.metrics.Meter> meters = new HashMap<>();
   private final Map<Integer, com.codahale.metrics.Timer> timers = new HashMap<>();
+  private final Map<Integer, AtomicLong> gauges = new HashMap<>();
 
   /**
    * Create a new MetricsCollector. Metrics will be prefixed with the non-optional supplied
@@ -57,6 +59,10 @@ public class MetricsCollectorDropwizard implements MetricCollector {
     findOrCreateTimer(metric.path()).update(duration, unit);
   }
 
+  @Override public void gauge(MetricCollector.Gauge gauge, long value) {
+    findOrCreateGauge(gauge.path()).set(value);
+  }
+
   private com.codahale.metrics.Meter findOrCreateMeter(String metricPath) {
     final int hash = Objects.hash(namespace, metricPath);
     if (!meters.containsKey(hash)) {
@@ -77,6 +83,21 @@ public class MetricsCollectorDropwizard implements MetricCollector {
     return timers.get(hash);
   }
 
+  private AtomicLong findOrCreateGauge(String metricPath) {
+    final int hash = Objects.hash(namespace, metricPath);
+    if (!gauges.containsKey(hash)) {
+      synchronized (gauges) {
+        if (!gauges.containsKey(hash)) {
+          final AtomicLong value = new AtomicLong();
+          metricRegistry.register(name(namespace, metricPath),
+              (com.codahale.metrics.Gauge<Long>) value::get);
+          gauges.put(hash, value);
+        }
+      }
+    }
+    return gauges.get(hash);
+  }
+
   static String  name(String namespace, String metricName) {
     return MetricRegistry.name(namespace, metricName);
   }
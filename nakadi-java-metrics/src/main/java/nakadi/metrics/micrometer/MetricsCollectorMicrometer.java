@@ -1,7 +1,10 @@
 package nakadi.metrics.micrometer;
 
 import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import nakadi.MetricCollector;
 import nakadi.NakadiClient;
 import nakadi.NakadiException;
@@ -20,6 +23,8 @@ public class MetricsCollectorMicrometer implements MetricCollector {
 
   private final MeterRegistry meterRegistry;
   private final String namespace;
+  // the registry only holds gauge values weakly
+  private final ConcurrentMap<String, AtomicLong> gauges = new ConcurrentHashMap<>();
 
   /**
    * Create a new MetricsCollector. Metrics will be prefixed with the non-optional supplied
@@ -53,6 +58,12 @@ public class MetricsCollectorMicrometer implements MetricCollector {
     meterRegistry.timer(name(timer.path())).record(duration, unit);
   }
 
+  @Override
+  public void gauge(Gauge gauge, long value) {
+    gauges.computeIfAbsent(gauge.path(),
+        path -> meterRegistry.gauge(name(path), new AtomicLong())).set(value);
+  }
+
   private String name(String path) {
     return String.join(".", this.namespace, path);
   }
@@ -72,5 +72,14 @@ public class MetricsCollectorDropwizardTest {
 
     assertTrue(meters.containsKey(name409));
     assertTrue(1 == meters.get(name409).getCount());
+
+    metrics.gauge(MetricCollector.Gauge.streamDemand, 8);
+    metrics.gauge(MetricCollector.Gauge.streamDemand, 4);
+
+    String nameDemand =
+        MetricsCollectorDropwizard.name("woo", MetricCollector.Gauge.streamDemand.path());
+
+    assertEquals(1, metricRegistry.getGauges().size());
+    assertEquals(4L, metricRegistry.getGauges().get(nameDemand).getValue());
   }
 }
\ No newline at end of file
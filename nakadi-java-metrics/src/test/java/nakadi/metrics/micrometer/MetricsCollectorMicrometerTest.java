@@ -43,6 +43,15 @@ public class MetricsCollectorMicrometerTest {
     String name409 = name(namespace, MetricCollector.Meter.http409.path());
 
     assertTrue(matchValue(meterRegistry, name409,50));
+
+    // gauge
+    metrics.gauge(MetricCollector.Gauge.streamDemand, 8);
+    metrics.gauge(MetricCollector.Gauge.streamDemand, 4);
+    assertEquals(4, meterRegistry.getMeters().size());
+
+    String demandName = name(namespace, MetricCollector.Gauge.streamDemand.path());
+
+    assertTrue(matchValue(meterRegistry, demandName, 4));
   }
 
   private String name(String namespace, String path) {